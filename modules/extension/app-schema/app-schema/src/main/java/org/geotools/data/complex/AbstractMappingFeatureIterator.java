@@ -219,6 +219,7 @@ public abstract class AbstractMappingFeatureIterator implements IMappingFeatureI
         }
         xpathAttributeBuilder = new XPath();
         xpathAttributeBuilder.setFeatureFactory(attf);
+        xpathAttributeBuilder.setDescriptorIndex(mapping.getDescriptorIndex());
         initialiseSourceFeatures(mapping, unrolledQuery, query.getCoordinateSystemReproject());
         xpathAttributeBuilder.setFilterFactory(namespaceAwareFilterFactory);
     }
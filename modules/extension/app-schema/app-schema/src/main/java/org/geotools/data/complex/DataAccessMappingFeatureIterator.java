@@ -21,9 +21,12 @@ import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -35,6 +38,7 @@ import org.geotools.data.DataAccess;
 import org.geotools.data.DataSourceException;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
+import org.geotools.data.complex.config.AppSchemaDataAccessConfigurator;
 import org.geotools.data.complex.config.NonFeatureTypeProxy;
 import org.geotools.data.complex.filter.XPath;
 import org.geotools.data.complex.filter.XPathUtil.Step;
@@ -131,6 +135,28 @@ public class DataAccessMappingFeatureIterator extends AbstractMappingFeatureIter
      */
     private Filter listFilter;
 
+    /**
+     * Number of parent features whose nested features are fetched with a single query, 0 if the
+     * nested features are fetched for each parent feature
+     */
+    private int nestedBatchSize;
+
+    /**
+     * The source features of the feature being built
+     */
+    private List<Feature> currentSources;
+
+    /**
+     * The nested features fetched for the current window of parent features
+     */
+    private Map<AttributeMapping, NestedBatch> nestedBatches;
+
+    /**
+     * Nested mappings whose features couldn't be grouped by link value, fetched one link value at
+     * a time
+     */
+    private Set<AttributeMapping> unbatchedMappings;
+
     public DataAccessMappingFeatureIterator(AppSchemaDataAccess store, FeatureTypeMapping mapping,
             Query query, boolean isFiltered, boolean removeQueryLimitIfDenormalised) throws IOException {
         super(store, mapping, query, null, removeQueryLimitIfDenormalised);
@@ -390,6 +416,7 @@ public class DataAccessMappingFeatureIterator extends AbstractMappingFeatureIter
         }
         if (!(this instanceof XmlMappingFeatureIterator)) {
             this.sourceFeatureIterator = sourceFeatures.features();
+            initNestedBatches();
         }
 
         // NC - joining nested atts
@@ -404,6 +431,185 @@ public class DataAccessMappingFeatureIterator extends AbstractMappingFeatureIter
 
     }
 
+    /**
+     * Sets up the batched resolution of the nested features, if there are nested mappings that
+     * would otherwise run a query for each parent feature. Joining nested mappings don't need it,
+     * as they already read the nested features with a single sorted query.
+     */
+    private void initNestedBatches() {
+        int batchSize = AppSchemaDataAccessConfigurator.getNestedBatchSize();
+        if (batchSize < 2) {
+            return;
+        }
+        for (AttributeMapping attMapping : selectedMapping) {
+            if (isBatchable(attMapping)) {
+                nestedBatchSize = batchSize;
+                nestedBatches = new HashMap<AttributeMapping, NestedBatch>();
+                unbatchedMappings = new HashSet<AttributeMapping>();
+                sourceFeatureIterator = new LookAheadFeatureIterator(sourceFeatureIterator);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Only plain nested mappings are batched, they look up the nested features by link value
+     * alone, without the id values of the parent feature
+     */
+    private boolean isBatchable(AttributeMapping attMapping) {
+        if (attMapping.getClass() != NestedAttributeMapping.class) {
+            return false;
+        }
+        NestedAttributeMapping nestedMapping = (NestedAttributeMapping) attMapping;
+        return !nestedMapping.isSameSource() && !nestedMapping.isConditional();
+    }
+
+    /**
+     * A single link value, as passed to the nested mapping for each parent feature
+     */
+    private static boolean isLinkValue(Object value) {
+        return value != null && !(value instanceof Collection) && !(value instanceof Attribute);
+    }
+
+    /**
+     * Gets the nested features matching a link value. When possible the nested features of a
+     * window of parent features are fetched with a single query, and kept until a link value
+     * outside the window is requested. Built nested features are handed to a single parent
+     * feature, a parent sharing its link value with a previous one gets them from a query of its
+     * own.
+     */
+    private List<Feature> getNestedFeatures(NestedAttributeMapping nestedMapping, Object source,
+            Object foreignKeyValue, boolean isHRefLink, List<PropertyName> selectedProperties,
+            int resolveDepth) throws IOException {
+        if (nestedBatchSize > 0 && isLinkValue(foreignKeyValue) && isBatchable(nestedMapping)
+                && !unbatchedMappings.contains(nestedMapping)
+                && getSourceFeatureIterator() instanceof LookAheadFeatureIterator) {
+            NestedBatch batch = nestedBatches.get(nestedMapping);
+            if (batch == null || !batch.features.containsKey(foreignKeyValue)) {
+                batch = fetchNestedBatch(nestedMapping, source, foreignKeyValue, isHRefLink,
+                        selectedProperties, resolveDepth);
+            }
+            if (batch != null) {
+                List<Feature> features = batch.features.get(foreignKeyValue);
+                // input features are only read to encode the xlink:href, so they can be shared
+                if (features != null && (isHRefLink || batch.claim(features))) {
+                    return new ArrayList<Feature>(features);
+                }
+            }
+        }
+        if (isHRefLink) {
+            return nestedMapping.getInputFeatures(this, foreignKeyValue, getIdValues(source),
+                    source, reprojection, selectedProperties, includeMandatory);
+        } else {
+            return nestedMapping.getFeatures(this, foreignKeyValue, getIdValues(source),
+                    reprojection, source, selectedProperties, includeMandatory, resolveDepth,
+                    resolveTimeOut);
+        }
+    }
+
+    /**
+     * Fetches the nested features of the link values of the current feature and of the next
+     * ones, up to the batch size.
+     */
+    private NestedBatch fetchNestedBatch(NestedAttributeMapping nestedMapping, Object source,
+            Object foreignKeyValue, boolean isHRefLink, List<PropertyName> selectedProperties,
+            int resolveDepth) throws IOException {
+        nestedBatches.remove(nestedMapping);
+
+        List<Object> window = new ArrayList<Object>();
+        if (currentSources != null && currentSources.contains(source)) {
+            window.addAll(currentSources);
+        } else {
+            window.add(source);
+        }
+        if (curSrcFeature != null && curSrcFeature != source) {
+            window.add(curSrcFeature);
+        }
+        int remaining = Math.min(nestedBatchSize, requestMaxFeatures - featureCounter);
+        window.addAll(((LookAheadFeatureIterator) getSourceFeatureIterator()).peek(Math.max(
+                remaining - window.size(), 0)));
+
+        Set<Object> linkValues = new LinkedHashSet<Object>();
+        linkValues.add(foreignKeyValue);
+        for (Object parent : window) {
+            addLinkValues(getValues(nestedMapping.isMultiValued(),
+                    nestedMapping.getSourceExpression(), parent), linkValues);
+        }
+
+        Map<Object, List<Feature>> features;
+        if (isHRefLink) {
+            features = nestedMapping.getInputFeatures(linkValues);
+        } else {
+            features = nestedMapping.getFeatures(linkValues, reprojection, source,
+                    selectedProperties, includeMandatory, resolveDepth, resolveTimeOut);
+        }
+        if (features == null) {
+            if (!isHRefLink) {
+                // the features could not be grouped by link value
+                LOGGER.fine("Fetching nested features one at a time for "
+                        + nestedMapping.getTargetXPath());
+                unbatchedMappings.add(nestedMapping);
+            }
+            return null;
+        }
+        NestedBatch batch = new NestedBatch(features);
+        nestedBatches.put(nestedMapping, batch);
+        return batch;
+    }
+
+    /**
+     * Adds the link values of a parent feature, unwrapped as they are when the nested features
+     * are looked up for that parent
+     */
+    private static void addLinkValues(Object values, Set<Object> linkValues) {
+        if (values instanceof Collection) {
+            for (Object val : (Collection) values) {
+                if (val instanceof Attribute) {
+                    val = ((Attribute) val).getValue();
+                    if (val instanceof Collection) {
+                        val = ((Collection) val).iterator().next();
+                    }
+                    while (val instanceof Attribute) {
+                        val = ((Attribute) val).getValue();
+                    }
+                }
+                if (isLinkValue(val)) {
+                    linkValues.add(val);
+                }
+            }
+        } else if (isLinkValue(values)) {
+            linkValues.add(values);
+        }
+    }
+
+    /**
+     * The nested features of a window of parent features, by link value
+     */
+    private static class NestedBatch {
+        final Map<Object, List<Feature>> features;
+
+        /** built features already handed to a parent feature */
+        final Set<Feature> claimed = Collections.newSetFromMap(new IdentityHashMap<Feature, Boolean>());
+
+        NestedBatch(Map<Object, List<Feature>> features) {
+            this.features = features;
+        }
+
+        /**
+         * Claims the features for a parent feature, unless one of them already went to another
+         * parent, as the parent features may modify the nested ones
+         */
+        boolean claim(List<Feature> group) {
+            for (Feature f : group) {
+                if (claimed.contains(f)) {
+                    return false;
+                }
+            }
+            claimed.addAll(group);
+            return true;
+        }
+    }
+
     protected boolean unprocessedFeatureExists() {
 
         boolean exists = getSourceFeatureIterator().hasNext();
@@ -560,28 +766,21 @@ public class DataAccessMappingFeatureIterator extends AbstractMappingFeatureIter
                             val = ((Attribute) val).getValue();
                         }
                     }
-                    if (isHRefLink) {
-                        // get the input features to avoid infinite loop in case the nested
-                        // feature type also have a reference back to this type
-                        // eg. gsml:GeologicUnit/gsml:occurence/gsml:MappedFeature
-                        // and gsml:MappedFeature/gsml:specification/gsml:GeologicUnit
-                        nestedFeatures.addAll(((NestedAttributeMapping) attMapping)
-                                .getInputFeatures(this, val, getIdValues(source), source, reprojection, selectedProperties, includeMandatory));
-                    } else {
-                        nestedFeatures.addAll(((NestedAttributeMapping) attMapping).getFeatures(
-                                this, val, getIdValues(source), reprojection, source, selectedProperties, includeMandatory, newResolveDepth, resolveTimeOut));
-                    }
+                    // get the input features if by reference, to avoid infinite loop in case
+                    // the nested feature type also have a reference back to this type
+                    // eg. gsml:GeologicUnit/gsml:occurence/gsml:MappedFeature
+                    // and gsml:MappedFeature/gsml:specification/gsml:GeologicUnit
+                    nestedFeatures.addAll(getNestedFeatures((NestedAttributeMapping) attMapping,
+                            source, val, isHRefLink, selectedProperties, newResolveDepth));
                 }
                 values = nestedFeatures;
-            } else if (isHRefLink) {
-                // get the input features to avoid infinite loop in case the nested
-                // feature type also have a reference back to this type
+            } else {
+                // get the input features if by reference, to avoid infinite loop in case the
+                // nested feature type also have a reference back to this type
                 // eg. gsml:GeologicUnit/gsml:occurence/gsml:MappedFeature
                 // and gsml:MappedFeature/gsml:specification/gsml:GeologicUnit
-                values = ((NestedAttributeMapping) attMapping).getInputFeatures(this, values, getIdValues(source), source, reprojection, selectedProperties, includeMandatory);
-            } else {
-                values = ((NestedAttributeMapping) attMapping).getFeatures(this, values, getIdValues(source), reprojection,
-                        source, selectedProperties, includeMandatory, newResolveDepth, resolveTimeOut);
+                values = getNestedFeatures((NestedAttributeMapping) attMapping, source, values,
+                        isHRefLink, selectedProperties, newResolveDepth);
             }
             if (isHRefLink) {
                 // only need to set the href link value, not the nested feature properties
@@ -965,6 +1164,7 @@ public class DataAccessMappingFeatureIterator extends AbstractMappingFeatureIter
 
         String id = getNextFeatureId();
         List<Feature> sources = getSources(id);
+        currentSources = sources;
 
         final Name targetNodeName = targetFeature.getName();
 
@@ -1034,6 +1234,7 @@ public class DataAccessMappingFeatureIterator extends AbstractMappingFeatureIter
                         + attMapping.getTargetXPath(), e);
             }
         }
+        currentSources = null;
         cleanEmptyElements(target);
         
         return target;
@@ -1131,6 +1332,8 @@ public class DataAccessMappingFeatureIterator extends AbstractMappingFeatureIter
             sourceFeatures = null;
             filteredFeatures = null;
             listFilter = null;
+            nestedBatches = null;
+            nestedBatchSize = 0;
 
             //NC - joining nested atts
             for (AttributeMapping attMapping : selectedMapping) {
@@ -27,6 +27,7 @@ import java.util.Map;
 import javax.xml.namespace.QName;
 
 import org.geotools.data.FeatureSource;
+import org.geotools.data.complex.filter.DescriptorIndex;
 import org.geotools.data.complex.filter.XPath;
 import org.geotools.data.complex.filter.XPathUtil.Step;
 import org.geotools.data.complex.filter.XPathUtil.StepList;
@@ -81,6 +82,11 @@ public class FeatureTypeMapping {
 
     private boolean isDenormalised;
 
+    /**
+     * The descriptors addressed by the attribute mappings, resolved once for all the features
+     */
+    private volatile DescriptorIndex descriptorIndex;
+
     /**
      * No parameters constructor for use by the digester configuration engine as a JavaBean
      */
@@ -206,6 +212,22 @@ public class FeatureTypeMapping {
      */
     public void setTargetFeature(AttributeDescriptor feature) {
         this.target = feature;
+        this.descriptorIndex = null;
+    }
+
+    /**
+     * Returns the descriptors addressed by the target xpaths of the attribute mappings, compiling
+     * them the first time.
+     * 
+     * @return the descriptor index of this mapping
+     */
+    public DescriptorIndex getDescriptorIndex() {
+        DescriptorIndex index = descriptorIndex;
+        if (index == null) {
+            index = DescriptorIndex.compile(this);
+            descriptorIndex = index;
+        }
+        return index;
     }
 
     public AttributeDescriptor getTargetFeature() {
@@ -0,0 +1,73 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+
+package org.geotools.data.complex;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.geotools.feature.FeatureIterator;
+import org.opengis.feature.Feature;
+
+/**
+ * Wraps the source feature iterator of a {@link DataAccessMappingFeatureIterator}, allowing to
+ * peek at the next source features without consuming them. Used to gather the link values of a
+ * window of parent features, so their nested features can be fetched with a single query.
+ *
+ * @source $URL$
+ */
+class LookAheadFeatureIterator implements FeatureIterator<Feature> {
+
+    private final FeatureIterator<? extends Feature> delegate;
+
+    private final LinkedList<Feature> buffer = new LinkedList<Feature>();
+
+    public LookAheadFeatureIterator(FeatureIterator<? extends Feature> delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Reads ahead up to the specified number of features.
+     *
+     * @param count
+     *            the maximum number of features to read ahead
+     * @return the next features, to be returned by {@link #next()}
+     */
+    public List<Feature> peek(int count) {
+        while (buffer.size() < count && delegate.hasNext()) {
+            buffer.add(delegate.next());
+        }
+        return buffer.size() > count ? buffer.subList(0, count) : buffer;
+    }
+
+    public boolean hasNext() {
+        return !buffer.isEmpty() || delegate.hasNext();
+    }
+
+    public Feature next() throws NoSuchElementException {
+        if (!buffer.isEmpty()) {
+            return buffer.removeFirst();
+        }
+        return delegate.next();
+    }
+
+    public void close() {
+        buffer.clear();
+        delegate.close();
+    }
+}
@@ -19,7 +19,9 @@ package org.geotools.data.complex;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -384,12 +386,123 @@ public class NestedAttributeMapping extends AttributeMapping {
             return null;
         }       
         
+        PropertyName propertyName = filterFac.property(this.nestedTargetXPath.toString());
+        Filter filter = filterFac.equals(propertyName, filterFac.literal(foreignKeyValue));              
+
+        return getMappedFeatures(fSource, filter, propertyName, reprojection, selectedProperties,
+                includeMandatory, resolveDepth, resolveTimeOut);
+    }
+
+    /**
+     * Get the matching built features of several link values with a single query, grouped by link
+     * value. Used to resolve the nested features of a window of parent features at once, instead
+     * of running a query for each of them.
+     * 
+     * @param foreignKeyValues
+     *            the link values
+     * @param reprojection
+     *            Reprojected CRS or null
+     * @param feature
+     *            the parent feature
+     * @param selectedProperties
+     *            list of properties to get
+     * @return the matching features of each link value, or null if they can't be fetched in a
+     *         batch and should be fetched one link value at a time
+     * @throws IOException
+     */
+    public Map<Object, List<Feature>> getFeatures(Collection<Object> foreignKeyValues,
+            CoordinateReferenceSystem reprojection, Object feature,
+            List<PropertyName> selectedProperties, boolean includeMandatory, int resolveDepth,
+            Integer resolveTimeOut) throws IOException {
+        if (isSameSource() || isConditional || foreignKeyValues.isEmpty()) {
+            return null;
+        }
+        FeatureSource<FeatureType, Feature> fSource = getMappingSource(feature);
+        if (fSource == null) {
+            return null;
+        }
+
+        PropertyName propertyName = filterFac.property(this.nestedTargetXPath.toString());
+        List<Feature> features = getMappedFeatures(fSource,
+                getLinkFilter(propertyName, foreignKeyValues), propertyName, reprojection,
+                selectedProperties, includeMandatory, resolveDepth, resolveTimeOut);
+
+        return groupByLinkValue(features, propertyName, foreignKeyValues);
+    }
+
+    /**
+     * Get the matching input features of several link values with a single query, grouped by link
+     * value. The input features are only fetched in batches once the nested source is known, as
+     * the first lookup might find out the nested rows are denormalised.
+     * 
+     * @param foreignKeyValues
+     *            the link values
+     * @return the matching features of each link value, or null if they can't be fetched in a
+     *         batch and should be fetched one link value at a time
+     * @throws IOException
+     */
+    public Map<Object, List<Feature>> getInputFeatures(Collection<Object> foreignKeyValues)
+            throws IOException {
+        if (isSameSource() || isConditional || source == null || nestedSourceExpression == null
+                || foreignKeyValues.isEmpty()) {
+            return null;
+        }
+        List<Feature> features = new ArrayList<Feature>();
+        FeatureIterator<Feature> it = source.getFeatures(
+                getLinkFilter(nestedSourceExpression, foreignKeyValues)).features();
+        try {
+            while (it.hasNext()) {
+                features.add(it.next());
+            }
+        } finally {
+            it.close();
+        }
+
+        return groupByLinkValue(features, nestedSourceExpression, foreignKeyValues);
+    }
+
+    private Filter getLinkFilter(Expression linkExpression, Collection<Object> foreignKeyValues) {
+        List<Filter> filters = new ArrayList<Filter>(foreignKeyValues.size());
+        for (Object value : foreignKeyValues) {
+            filters.add(filterFac.equals(linkExpression, filterFac.literal(value)));
+        }
+        return filters.size() == 1 ? filters.get(0) : filterFac.or(filters);
+    }
+
+    /**
+     * Groups the features by link value, evaluating on each of them the filter a query for a
+     * single link value would use. Returns null if a feature doesn't match any of the requested
+     * values, so the caller can fall back to a query for each value.
+     */
+    private Map<Object, List<Feature>> groupByLinkValue(List<Feature> features,
+            Expression linkExpression, Collection<Object> foreignKeyValues) {
+        Map<Object, List<Feature>> result = new HashMap<Object, List<Feature>>();
+        Map<Object, Filter> filters = new HashMap<Object, Filter>();
+        for (Object value : foreignKeyValues) {
+            result.put(value, new ArrayList<Feature>());
+            filters.put(value, filterFac.equals(linkExpression, filterFac.literal(value)));
+        }
+        for (Feature f : features) {
+            boolean matched = false;
+            for (Map.Entry<Object, Filter> entry : filters.entrySet()) {
+                if (entry.getValue().evaluate(f)) {
+                    result.get(entry.getKey()).add(f);
+                    matched = true;
+                }
+            }
+            if (!matched) {
+                return null;
+            }
+        }
+        return result;
+    }
+
+    private List<Feature> getMappedFeatures(FeatureSource<FeatureType, Feature> fSource,
+            Filter filter, PropertyName propertyName, CoordinateReferenceSystem reprojection,
+            List<PropertyName> selectedProperties, boolean includeMandatory, int resolveDepth,
+            Integer resolveTimeOut) throws IOException {
         Query query = new Query();
         query.setCoordinateSystemReproject(reprojection);
-        
-        Filter filter;
-        PropertyName propertyName = filterFac.property(this.nestedTargetXPath.toString());
-        filter = filterFac.equals(propertyName, filterFac.literal(foreignKeyValue));              
         query.setFilter(filter);
         
         if (selectedProperties!=null) {
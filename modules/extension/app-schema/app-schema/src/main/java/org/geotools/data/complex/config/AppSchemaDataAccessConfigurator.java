@@ -103,6 +103,10 @@ public class AppSchemaDataAccessConfigurator {
     
     public static String PROPERTY_JOINING = "app-schema.joining"; 
 
+    public static String PROPERTY_NESTED_BATCH_SIZE = "app-schema.nestedBatchSize";
+
+    public static final int DEFAULT_NESTED_BATCH_SIZE = 100;
+
     /** DOCUMENT ME! */
     private AppSchemaDataAccessDTO config;
 
@@ -132,6 +136,25 @@ public class AppSchemaDataAccessConfigurator {
         return s!=null;
     }
 
+    /**
+     * Convenience method for "nestedBatchSize" property, the number of parent features whose
+     * nested features are fetched with a single query when joining is not used. A value lower
+     * than 2 disables the batched resolution.
+     * @return
+     */
+    public static int getNestedBatchSize() {
+        String s=AppSchemaDataAccessRegistry.getAppSchemaProperties().getProperty(PROPERTY_NESTED_BATCH_SIZE);
+        if (s == null) {
+            return DEFAULT_NESTED_BATCH_SIZE;
+        }
+        try {
+            return Integer.parseInt(s.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.warning("Invalid value for " + PROPERTY_NESTED_BATCH_SIZE + ": " + s);
+            return DEFAULT_NESTED_BATCH_SIZE;
+        }
+    }
+
     /**
      * Creates a new ComplexDataStoreConfigurator object.
      * 
@@ -282,6 +305,8 @@ public class AppSchemaDataAccessConfigurator {
                 if (mappingName != null) {
                     mapping.setName(Types.degloseName(mappingName, namespaces));
                 }
+                // resolve the mapped xpaths now rather than while building the features
+                mapping.getDescriptorIndex();
                 featureTypeMappings.add(mapping);
             } catch (Exception e) {
                 LOGGER.warning("Error creating app-schema data store for '"
@@ -0,0 +1,170 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+
+package org.geotools.data.complex.filter;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.complex.AttributeMapping;
+import org.geotools.data.complex.FeatureTypeMapping;
+import org.geotools.data.complex.filter.XPathUtil.Step;
+import org.geotools.data.complex.filter.XPathUtil.StepList;
+import org.geotools.feature.Types;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.AttributeType;
+import org.opengis.feature.type.ComplexType;
+import org.opengis.feature.type.Name;
+import org.opengis.feature.type.PropertyDescriptor;
+
+/**
+ * The child descriptors addressed by the target xpaths of a {@link FeatureTypeMapping}, resolved
+ * once when the mapping is configured.
+ * <p>
+ * Looking up a child descriptor with {@link Types#findDescriptor} walks the whole type hierarchy
+ * and the substitution groups, which {@link XPath} used to do for each step of each mapped
+ * attribute of each feature. The index is read only once compiled, so it's shared by all the
+ * iterators over the mapping. Types the index doesn't know about, such as reprojected types, are
+ * looked up and remembered by each {@link XPath} instance.
+ *
+ * @source $URL$
+ */
+public final class DescriptorIndex {
+
+    private static final Logger LOGGER = org.geotools.util.logging.Logging
+            .getLogger(DescriptorIndex.class.getPackage().getName());
+
+    /**
+     * Child descriptors by type identity, then by name or local name
+     */
+    private final Map<ComplexType, Map<Object, AttributeDescriptor>> index;
+
+    private DescriptorIndex(Map<ComplexType, Map<Object, AttributeDescriptor>> index) {
+        this.index = index;
+    }
+
+    /**
+     * Resolves the descriptors addressed by the target xpaths of the attribute mappings.
+     *
+     * @param mapping
+     *            the feature type mapping
+     * @return the index of the resolved descriptors
+     */
+    public static DescriptorIndex compile(FeatureTypeMapping mapping) {
+        Map<ComplexType, Map<Object, AttributeDescriptor>> index = new IdentityHashMap<ComplexType, Map<Object, AttributeDescriptor>>();
+        AttributeDescriptor root = mapping.getTargetFeature();
+        if (root == null) {
+            return new DescriptorIndex(index);
+        }
+
+        // attributes built with a targetAttributeNode have the overriding type, and so have
+        // the parents of the attributes mapped below them
+        Map<StepList, AttributeType> overrides = new HashMap<StepList, AttributeType>();
+        for (AttributeMapping attMapping : mapping.getAttributeMappings()) {
+            if (attMapping.getTargetNodeInstance() != null) {
+                overrides.put(attMapping.getTargetXPath(), attMapping.getTargetNodeInstance());
+            }
+        }
+
+        for (AttributeMapping attMapping : mapping.getAttributeMappings()) {
+            StepList xpath = attMapping.getTargetXPath();
+            try {
+                compile(index, root, xpath, overrides);
+            } catch (RuntimeException e) {
+                // leave it to XPath to report the invalid path when building the features
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.log(Level.FINE, "Unable to resolve " + xpath, e);
+                }
+            }
+        }
+        return new DescriptorIndex(index);
+    }
+
+    private static void compile(Map<ComplexType, Map<Object, AttributeDescriptor>> index,
+            AttributeDescriptor root, StepList xpath, Map<StepList, AttributeType> overrides) {
+        if (xpath == null || xpath.isEmpty()) {
+            return;
+        }
+        int start = 0;
+        if (xpath.size() > 1 && Types.equals(root.getName(), ((Step) xpath.get(0)).getName())) {
+            // first step is the self reference to the root, as skipped by XPath
+            start = 1;
+        }
+        AttributeType parentType = root.getType();
+        for (int i = start; i < xpath.size() && parentType instanceof ComplexType; i++) {
+            Step step = (Step) xpath.get(i);
+            if (step.isXmlAttribute()) {
+                return;
+            }
+            Object key = getKey(Types.toName(step.getName()));
+            Map<Object, AttributeDescriptor> children = index.get(parentType);
+            if (children == null) {
+                children = new HashMap<Object, AttributeDescriptor>();
+                index.put((ComplexType) parentType, children);
+            }
+            AttributeDescriptor descriptor = children.get(key);
+            if (descriptor == null) {
+                descriptor = lookup((ComplexType) parentType, key);
+                if (descriptor == null) {
+                    return;
+                }
+                children.put(key, descriptor);
+            }
+            AttributeType override = overrides.get(xpath.subList(0, i + 1));
+            parentType = override != null ? override : descriptor.getType();
+        }
+    }
+
+    /**
+     * @return the key of a step name, the name itself or its local part if it has no namespace
+     */
+    static Object getKey(Name attributeName) {
+        return null == attributeName.getNamespaceURI() ? attributeName.getLocalPart()
+                : attributeName;
+    }
+
+    /**
+     * Looks up a child descriptor in the type hierarchy, as {@link XPath} does for the steps
+     *
+     * @param parentType
+     *            the parent type
+     * @param key
+     *            the key returned by {@link #getKey(Name)}
+     * @return the child descriptor, or null if not found
+     */
+    static AttributeDescriptor lookup(ComplexType parentType, Object key) {
+        PropertyDescriptor descriptor;
+        if (key instanceof String) {
+            descriptor = Types.findDescriptor(parentType, (String) key);
+        } else {
+            descriptor = Types.findDescriptor(parentType, (Name) key);
+        }
+        return descriptor instanceof AttributeDescriptor ? (AttributeDescriptor) descriptor
+                : null;
+    }
+
+    /**
+     * @return the indexed child descriptor, or null if not indexed
+     */
+    AttributeDescriptor get(ComplexType parentType, Object key) {
+        Map<Object, AttributeDescriptor> children = index.get(parentType);
+        return children == null ? null : children.get(key);
+    }
+}
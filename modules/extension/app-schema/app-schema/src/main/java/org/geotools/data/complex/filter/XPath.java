@@ -19,6 +19,8 @@ package org.geotools.data.complex.filter;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -103,6 +105,16 @@ public class XPath extends XPathUtil {
      */
     private FeatureTypeFactory descriptorFactory;
 
+    /**
+     * Child descriptors resolved when the mapping was configured, or null
+     */
+    private DescriptorIndex descriptorIndex;
+
+    /**
+     * Child descriptors of the types not in the index, resolved while building the features
+     */
+    private final Map<ComplexType, Map<Object, AttributeDescriptor>> resolvedDescriptors = new IdentityHashMap<ComplexType, Map<Object, AttributeDescriptor>>();
+
     public XPath() {
         this.FF = CommonFactoryFinder.getFilterFactory(null);
         this.featureFactory = new ValidatingFeatureFactoryImpl();
@@ -126,6 +138,46 @@ public class XPath extends XPathUtil {
     public void setFeatureFactory(FeatureFactory featureFactory) {
         this.featureFactory = featureFactory;
     }  
+
+    /**
+     * Sets the child descriptors resolved in advance for the mapped xpaths, so that building the
+     * attributes doesn't need to search the types.
+     * 
+     * @param descriptorIndex
+     *            the index compiled for the feature type mapping, or null
+     */
+    public void setDescriptorIndex(DescriptorIndex descriptorIndex) {
+        this.descriptorIndex = descriptorIndex;
+    }
+
+    /**
+     * Finds the descriptor of a child attribute, first in the compiled index, then in the ones
+     * already resolved by this instance, and only then in the type hierarchy.
+     */
+    private AttributeDescriptor findDescriptor(AttributeType parentType, Object key) {
+        if (!(parentType instanceof ComplexType)) {
+            return null;
+        }
+        AttributeDescriptor descriptor = null;
+        if (descriptorIndex != null) {
+            descriptor = descriptorIndex.get((ComplexType) parentType, key);
+        }
+        if (descriptor == null) {
+            Map<Object, AttributeDescriptor> children = resolvedDescriptors.get(parentType);
+            if (children == null) {
+                children = new HashMap<Object, AttributeDescriptor>();
+                resolvedDescriptors.put((ComplexType) parentType, children);
+            }
+            descriptor = children.get(key);
+            if (descriptor == null) {
+                descriptor = DescriptorIndex.lookup((ComplexType) parentType, key);
+                if (descriptor != null) {
+                    children.put(key, descriptor);
+                }
+            }
+        }
+        return descriptor;
+    }
    
     /**
      * Sets the value of the attribute of <code>att</code> addressed by <code>xpath</code> and of
@@ -161,7 +213,8 @@ public class XPath extends XPathUtil {
                     targetNodeType });
         }
 
-        final StepList steps = new StepList(xpath);
+        final StepList steps = xpath;
+        int firstStep = 0;
 
         Attribute parent = att;
         Name rootName = null;
@@ -173,7 +226,7 @@ public class XPath extends XPathUtil {
             if (Types.equals(rootName, stepName)) {
                 // first step is the self reference to att, so skip it
                 if (steps.size() > 1) {
-                    steps.remove(0);
+                    firstStep = 1;
                 } else {
                     // except when the xpath is the root itself 
                     // where it is done for feature chaining for simple content
@@ -203,12 +256,10 @@ public class XPath extends XPathUtil {
             }
         }
 
-        Iterator stepsIterator = steps.iterator();
-
-        for (; stepsIterator.hasNext();) {
-            final XPath.Step currStep = (Step) stepsIterator.next();
+        for (int stepIndex = firstStep; stepIndex < steps.size(); stepIndex++) {
+            final XPath.Step currStep = (Step) steps.get(stepIndex);
             AttributeDescriptor currStepDescriptor = null;
-            final boolean isLastStep = !stepsIterator.hasNext();
+            final boolean isLastStep = stepIndex == steps.size() - 1;
             final QName stepName = currStep.getName();
             final Name attributeName = Types.toName(stepName);
 
@@ -221,11 +272,8 @@ public class XPath extends XPathUtil {
                 ComplexType parentType = (ComplexType) _parentType;
 
                 if (!isLastStep || targetNodeType == null) {
-                    if (null == attributeName.getNamespaceURI()) {
-                        currStepDescriptor = (AttributeDescriptor) Types.findDescriptor(parentType, attributeName.getLocalPart());
-                    } else {
-                        currStepDescriptor = (AttributeDescriptor) Types.findDescriptor(parentType, attributeName);
-                    }
+                    currStepDescriptor = findDescriptor(parentType,
+                            DescriptorIndex.getKey(attributeName));
 
                     if (currStepDescriptor == null) {
                         // need to take the non easy way, may be the instance has a
@@ -239,12 +287,8 @@ public class XPath extends XPathUtil {
                         }
                     }
                 } else {
-                    AttributeDescriptor actualDescriptor;
-                    if (null == attributeName.getNamespaceURI()) {
-                        actualDescriptor = (AttributeDescriptor) Types.findDescriptor(parentType, attributeName.getLocalPart());
-                    } else {
-                        actualDescriptor = (AttributeDescriptor) Types.findDescriptor(parentType, attributeName);
-                    }
+                    AttributeDescriptor actualDescriptor = findDescriptor(parentType,
+                            DescriptorIndex.getKey(attributeName));
 
                     if (actualDescriptor != null) {
                         int minOccurs = actualDescriptor.getMinOccurs();
@@ -471,7 +515,13 @@ public class XPath extends XPathUtil {
                     leafAttribute = builder.addAnyTypeValue(convertedValue, targetNodeType,
                             descriptor, id);
                 } else {
-                    leafAttribute = builder.add(id, convertedValue, attributeName, targetNodeType);
+                    AttributeDescriptor declared = findDescriptor(parent.getType(), attributeName);
+                    if (declared != null) {
+                        leafAttribute = builder.add(id, convertedValue, declared, targetNodeType);
+                    } else {
+                        leafAttribute = builder.add(id, convertedValue, attributeName,
+                                targetNodeType);
+                    }
                 }
             } else if (descriptor.getType().getName().equals(XSSchema.ANYTYPE_TYPE.getName())
                     && (value == null || (value instanceof Collection && ((Collection) value)
@@ -479,7 +529,12 @@ public class XPath extends XPathUtil {
                 // casting anyType as a complex attribute so we can set xlink:href
                 leafAttribute = builder.addComplexAnyTypeAttribute(convertedValue, descriptor, id);
             } else {
-                leafAttribute = builder.add(id, convertedValue, attributeName);
+                AttributeDescriptor declared = findDescriptor(parent.getType(), attributeName);
+                if (declared != null) {
+                    leafAttribute = builder.add(id, convertedValue, declared);
+                } else {
+                    leafAttribute = builder.add(id, convertedValue, attributeName);
+                }
             }
             if (index > -1) {
                 // set attribute index if specified so it can be retrieved later for grouping
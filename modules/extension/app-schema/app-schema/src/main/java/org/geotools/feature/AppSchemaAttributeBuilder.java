@@ -71,7 +71,45 @@ public class AppSchemaAttributeBuilder extends AttributeBuilder {
     public Attribute add(final String id, final Object value, final Name name,
             final AttributeType type) {
         // existence check
-        AttributeDescriptor descriptor = attributeDescriptor(name);
+        return add(id, value, attributeDescriptor(name), type);
+    }
+
+    /**
+     * Adds an attribute to the complex attribute being built, with a descriptor already resolved
+     * from the type supplied in {@link #setType(AttributeType)}.
+     * 
+     * @param id
+     *                the attribute id
+     * @param value
+     *                The value of the attribute.
+     * @param descriptor
+     *                The declared descriptor of the attribute.
+     */
+    public Attribute add(final String id, final Object value, final AttributeDescriptor descriptor) {
+        Attribute attribute = create(value, null, descriptor, id);
+        properties().add(attribute);
+        return attribute;
+    }
+
+    /**
+     * Adds an attribute to the complex attribute being built overriding the type of the declared
+     * attribute descriptor, already resolved from the type supplied in
+     * {@link #setType(AttributeType)}, by a subtype of it.
+     * 
+     * @param id
+     *                the attribute id
+     * @param value
+     *                The value of the attribute.
+     * @param declaredDescriptor
+     *                The declared descriptor of the attribute.
+     * @param type
+     *                the actual type of the attribute, which might be the same as the declared type
+     *                for the given AttributeDescriptor or a derived type.
+     */
+    public Attribute add(final String id, final Object value,
+            final AttributeDescriptor declaredDescriptor, final AttributeType type) {
+        AttributeDescriptor descriptor = declaredDescriptor;
+        final Name name = descriptor.getName();
         AttributeType declaredType = (AttributeType) descriptor.getType();
         if (!declaredType.equals(type)) {
             boolean argIsSubType = Types.isSuperType(type, declaredType);
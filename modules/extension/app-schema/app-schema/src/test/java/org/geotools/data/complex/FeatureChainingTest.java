@@ -20,16 +20,26 @@ package org.geotools.data.complex;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.geotools.data.DataAccess;
 import org.geotools.data.DataAccessFinder;
 import org.geotools.data.FeatureSource;
+import org.geotools.data.complex.config.AppSchemaDataAccessConfigurator;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureImpl;
 import org.geotools.feature.FeatureIterator;
@@ -724,6 +734,119 @@ public class FeatureChainingTest extends AppSchemaTestSupport {
         guIterator.close();
     }
 
+    /**
+     * Test the nested features resolved in batches for a window of parent features are the same
+     * as the ones resolved one parent feature at a time.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBatchedNestedFeatures() throws Exception {
+        try {
+            AppSchemaDataAccessRegistry.getAppSchemaProperties().setProperty(
+                    AppSchemaDataAccessConfigurator.PROPERTY_NESTED_BATCH_SIZE, "0");
+            List<String> expectedMf = describeNestedFeatures(mfFeatures, "specification");
+            List<String> expectedGu = describeNestedFeatures(guFeatures, "composition");
+            List<String> expectedGuRef = describeNestedFeatures(guFeatures, "occurrence");
+
+            for (String batchSize : new String[] { "2", "3", "100" }) {
+                AppSchemaDataAccessRegistry.getAppSchemaProperties().setProperty(
+                        AppSchemaDataAccessConfigurator.PROPERTY_NESTED_BATCH_SIZE, batchSize);
+                assertEquals(expectedMf, describeNestedFeatures(mfFeatures, "specification"));
+                assertEquals(expectedGu, describeNestedFeatures(guFeatures, "composition"));
+                assertEquals(expectedGuRef, describeNestedFeatures(guFeatures, "occurrence"));
+            }
+        } finally {
+            AppSchemaDataAccessRegistry.clearAppSchemaProperties();
+        }
+    }
+
+    /**
+     * Test the nested features of a window of parent features are fetched with fewer queries than
+     * one per parent feature.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBatchedNestedFeaturesQueries() throws Exception {
+        FeatureTypeMapping guMapping = AppSchemaDataAccessRegistry
+                .getMappingByName(GEOLOGIC_UNIT_NAME);
+        Field sourceField = FeatureTypeMapping.class.getDeclaredField("source");
+        sourceField.setAccessible(true);
+        final Object guSource = sourceField.get(guMapping);
+        final AtomicInteger queries = new AtomicInteger();
+        Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+        for (Class<?> c = guSource.getClass(); c != null; c = c.getSuperclass()) {
+            interfaces.addAll(Arrays.asList(c.getInterfaces()));
+        }
+        Object countingSource = Proxy.newProxyInstance(guSource.getClass().getClassLoader(),
+                interfaces.toArray(new Class<?>[interfaces.size()]), new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                            throws Throwable {
+                        if ("getFeatures".equals(method.getName())) {
+                            queries.incrementAndGet();
+                        }
+                        try {
+                            return method.invoke(guSource, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+        sourceField.set(guMapping, countingSource);
+        try {
+            AppSchemaDataAccessRegistry.getAppSchemaProperties().setProperty(
+                    AppSchemaDataAccessConfigurator.PROPERTY_NESTED_BATCH_SIZE, "0");
+            List<String> expected = describeNestedFeatures(mfFeatures, "specification");
+            int unbatched = queries.getAndSet(0);
+            // at least one query for each of the 4 mapped features
+            assertTrue(unbatched >= 4);
+
+            AppSchemaDataAccessRegistry.getAppSchemaProperties().setProperty(
+                    AppSchemaDataAccessConfigurator.PROPERTY_NESTED_BATCH_SIZE, "100");
+            assertEquals(expected, describeNestedFeatures(mfFeatures, "specification"));
+            // one query for the window, one more for mf3 sharing its geologic unit with mf2
+            assertTrue(queries.get() < unbatched);
+        } finally {
+            sourceField.set(guMapping, guSource);
+            AppSchemaDataAccessRegistry.clearAppSchemaProperties();
+        }
+    }
+
+    /**
+     * Lists the ids of the nested features, or the xlink:href values, of each feature.
+     */
+    private List<String> describeNestedFeatures(FeatureCollection<FeatureType, Feature> features,
+            String nestedLink) {
+        List<String> result = new ArrayList<String>();
+        FeatureIterator<Feature> iterator = features.features();
+        try {
+            while (iterator.hasNext()) {
+                Feature feature = iterator.next();
+                StringBuilder sb = new StringBuilder(feature.getIdentifier().toString());
+                for (Property property : feature.getProperties(nestedLink)) {
+                    sb.append(';');
+                    Object clientProps = property.getUserData().get(Attributes.class);
+                    if (clientProps instanceof Map
+                            && ((Map) clientProps)
+                                    .containsKey(AbstractMappingFeatureIterator.XLINK_HREF_NAME)) {
+                        sb.append(((Map) clientProps)
+                                .get(AbstractMappingFeatureIterator.XLINK_HREF_NAME));
+                    }
+                    for (Object value : (Collection) property.getValue()) {
+                        if (value instanceof Feature) {
+                            sb.append(((Feature) value).getIdentifier());
+                        }
+                    }
+                }
+                result.add(sb.toString());
+            }
+        } finally {
+            iterator.close();
+        }
+        return result;
+    }
+
     /**
      * Load all the data accesses.
      *
@@ -3,6 +3,7 @@ package org.geotools.data.complex.config;
 import org.geotools.data.complex.AppSchemaDataAccessRegistry;
 import org.geotools.test.AppSchemaTestSupport;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 import org.junit.Test;
@@ -44,4 +45,19 @@ public class AppSchemaDataAccessConfiguratorTest extends AppSchemaTestSupport {
         AppSchemaDataAccessRegistry.clearAppSchemaProperties();
     }
 
+    @Test
+    public void testNestedBatchSize() {
+        AppSchemaDataAccessRegistry.clearAppSchemaProperties();
+        assertEquals(AppSchemaDataAccessConfigurator.DEFAULT_NESTED_BATCH_SIZE,
+                AppSchemaDataAccessConfigurator.getNestedBatchSize());
+        AppSchemaDataAccessRegistry.getAppSchemaProperties().setProperty(
+                AppSchemaDataAccessConfigurator.PROPERTY_NESTED_BATCH_SIZE, "10");
+        assertEquals(10, AppSchemaDataAccessConfigurator.getNestedBatchSize());
+        AppSchemaDataAccessRegistry.getAppSchemaProperties().setProperty(
+                AppSchemaDataAccessConfigurator.PROPERTY_NESTED_BATCH_SIZE, "none");
+        assertEquals(AppSchemaDataAccessConfigurator.DEFAULT_NESTED_BATCH_SIZE,
+                AppSchemaDataAccessConfigurator.getNestedBatchSize());
+        AppSchemaDataAccessRegistry.clearAppSchemaProperties();
+    }
+
 }
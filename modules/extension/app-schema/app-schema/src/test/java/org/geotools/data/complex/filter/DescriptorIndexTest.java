@@ -0,0 +1,80 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+
+package org.geotools.data.complex.filter;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.geotools.data.complex.AttributeMapping;
+import org.geotools.data.complex.FeatureTypeMapping;
+import org.geotools.data.complex.TestData;
+import org.geotools.data.complex.filter.XPathUtil.Step;
+import org.geotools.data.complex.filter.XPathUtil.StepList;
+import org.geotools.feature.Types;
+import org.geotools.test.AppSchemaTestSupport;
+import org.junit.Test;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.AttributeType;
+import org.opengis.feature.type.ComplexType;
+import org.opengis.feature.type.Name;
+
+/**
+ * Tests the descriptors compiled for the target xpaths of a mapping are the ones found searching
+ * the types.
+ * 
+ * @source $URL$
+ */
+public class DescriptorIndexTest extends AppSchemaTestSupport {
+
+    @Test
+    public void testCompile() throws Exception {
+        FeatureTypeMapping mapping = TestData.createMappingsGroupByStation(TestData
+                .createDenormalizedWaterQualityResults());
+        DescriptorIndex index = mapping.getDescriptorIndex();
+        assertSame(index, mapping.getDescriptorIndex());
+
+        int resolved = 0;
+        for (AttributeMapping attMapping : mapping.getAttributeMappings()) {
+            StepList xpath = attMapping.getTargetXPath();
+            AttributeType parentType = mapping.getTargetFeature().getType();
+            // the first step is the feature itself
+            for (int i = 1; i < xpath.size(); i++) {
+                Name name = Types.toName(((Step) xpath.get(i)).getName());
+                Object key = DescriptorIndex.getKey(name);
+                AttributeDescriptor expected = DescriptorIndex.lookup((ComplexType) parentType,
+                        key);
+                assertNotNull(expected);
+                assertSame(expected, index.get((ComplexType) parentType, key));
+                parentType = expected.getType();
+                resolved++;
+            }
+        }
+        assertTrue(resolved > 0);
+
+        // not a child of the feature type
+        assertNull(index.get((ComplexType) mapping.getTargetFeature().getType(), "missing"));
+
+        // compiled again for a new target
+        mapping.setTargetFeature(mapping.getTargetFeature());
+        assertNotSame(index, mapping.getDescriptorIndex());
+    }
+
+}
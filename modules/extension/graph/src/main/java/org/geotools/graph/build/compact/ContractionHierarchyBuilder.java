@@ -0,0 +1,403 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.graph.build.compact;
+
+import java.util.Arrays;
+
+import org.geotools.graph.structure.Graph;
+import org.geotools.graph.structure.compact.CompactGraph;
+import org.geotools.graph.structure.compact.ContractionHierarchy;
+import org.geotools.graph.traverse.standard.DijkstraIterator.EdgeWeighter;
+import org.geotools.graph.util.IntPriorityQueue;
+
+/**
+ * Builds a {@link ContractionHierarchy} from a {@link CompactGraph}.<BR>
+ * <BR>
+ * Nodes are contracted in order of increasing priority, the priority of a
+ * node being its <B>edge difference</B> (number of shortcuts its contraction
+ * would add minus the number of arcs it would remove) plus the number of its
+ * neighbours already contracted, which spreads contraction evenly over the
+ * graph. Priorities are updated lazily: when a node is taken off the queue
+ * its priority is recomputed and, if it is no longer the least, the node is
+ * put back.<BR>
+ * <BR>
+ * Before adding a shortcut between two neighbours of a contracted node a
+ * local <B>witness search</B> looks for another path between them that is
+ * no longer than the one through the node. The search is bounded by the
+ * number of nodes it settles; when the bound is hit the shortcut is added,
+ * which may produce redundant shortcuts but never wrong distances.<BR>
+ * <BR>
+ * Preprocessing is the expensive part and is meant to be done once per
+ * network, with the result persisted through
+ * {@link org.geotools.graph.io.standard.ContractionHierarchyReaderWriter}.
+ *
+ * @source $URL$
+ */
+public class ContractionHierarchyBuilder {
+
+  /** default number of nodes a witness search may settle **/
+  public static final int DEFAULT_WITNESS_LIMIT = 500;
+
+  /** maximum number of nodes settled by a witness search **/
+  private int m_witnessLimit = DEFAULT_WITNESS_LIMIT;
+
+  /** all arcs **/
+  private int m_narcs;
+  private int[] m_from;
+  private int[] m_to;
+  private double[] m_weight;
+  private int[] m_edge;
+  private int[] m_child1;
+  private int[] m_child2;
+
+  /** dynamic adjacency of the remaining graph, by arc index **/
+  private int[][] m_out;
+  private int[] m_nout;
+  private int[][] m_in;
+  private int[] m_nin;
+
+  private boolean[] m_contracted;
+  private int[] m_deleted;
+
+  /** scratch space for neighbour collection **/
+  private int[] m_mark;
+  private int[] m_bestIn;
+  private int[] m_bestOut;
+  private int m_generation;
+  private int[] m_inNodes;
+  private int[] m_outNodes;
+  private int m_degree;
+
+  /** witness search state **/
+  private double[] m_dist;
+  private int[] m_stamp;
+  private int m_wgeneration;
+  private IntPriorityQueue m_queue;
+
+  public ContractionHierarchyBuilder() {
+  }
+
+  /**
+   * Sets the maximum number of nodes a witness search may settle. Lower
+   * values speed up preprocessing at the cost of more shortcuts.
+   */
+  public void setWitnessLimit(int witnessLimit) {
+    if (witnessLimit < 1) {
+      throw new IllegalArgumentException("Witness limit must be positive: " + witnessLimit);
+    }
+    m_witnessLimit = witnessLimit;
+  }
+
+  public int getWitnessLimit() {
+    return(m_witnessLimit);
+  }
+
+  /**
+   * Builds a contraction hierarchy for a graph.
+   *
+   * @param graph The graph.
+   * @param weighter Associates weights with the edges of the graph.
+   */
+  public ContractionHierarchy build(Graph graph, EdgeWeighter weighter) {
+    return(build(CompactGraph.build(graph, weighter)));
+  }
+
+  /**
+   * Builds a contraction hierarchy for a compact graph. Edge indexes of the
+   * compact graph are preserved in the hierarchy.
+   */
+  public ContractionHierarchy build(CompactGraph graph) {
+    int nnodes = graph.getNodeCount();
+    init(graph);
+
+    //initial priorities
+    IntPriorityQueue order = new IntPriorityQueue(nnodes);
+    for (int v = 0; v < nnodes; v++) {
+      order.offer(v, priority(v));
+    }
+
+    int[] rank = new int[nnodes];
+    int r = 0;
+    while (!order.isEmpty()) {
+      int v = order.poll();
+
+      //lazy update
+      double p = priority(v);
+      if (!order.isEmpty() && p > order.peekPriority()) {
+        order.offer(v, p);
+        continue;
+      }
+
+      contract(v, true);
+      m_contracted[v] = true;
+      rank[v] = r++;
+
+      for (int i = 0; i < m_nout[v]; i++) {
+        m_deleted[m_to[m_out[v][i]]]++;
+      }
+      for (int i = 0; i < m_nin[v]; i++) {
+        m_deleted[m_from[m_in[v][i]]]++;
+      }
+
+      //adjacency of a contracted node is no longer needed
+      m_out[v] = null;
+      m_in[v] = null;
+      m_nout[v] = 0;
+      m_nin[v] = 0;
+    }
+
+    ContractionHierarchy ch = new ContractionHierarchy(
+      nnodes, rank, trim(m_from), trim(m_to), trim(m_weight), trim(m_edge),
+      trim(m_child1), trim(m_child2), x(graph), y(graph)
+    );
+
+    //release scratch space
+    m_out = m_in = null;
+    m_from = m_to = m_edge = m_child1 = m_child2 = null;
+    m_weight = m_dist = null;
+    return(ch);
+  }
+
+  private void init(CompactGraph graph) {
+    int nnodes = graph.getNodeCount();
+    int narcs = graph.getArcCount();
+
+    m_narcs = 0;
+    m_from = new int[narcs + narcs/2 + 16];
+    m_to = new int[m_from.length];
+    m_weight = new double[m_from.length];
+    m_edge = new int[m_from.length];
+    m_child1 = new int[m_from.length];
+    m_child2 = new int[m_from.length];
+
+    m_out = new int[nnodes][];
+    m_nout = new int[nnodes];
+    m_in = new int[nnodes][];
+    m_nin = new int[nnodes];
+    for (int v = 0; v < nnodes; v++) {
+      int deg = graph.getArcOffset(v+1) - graph.getArcOffset(v);
+      m_out[v] = new int[Math.max(deg, 2)];
+      m_in[v] = new int[Math.max(deg, 2)];
+    }
+
+    m_contracted = new boolean[nnodes];
+    m_deleted = new int[nnodes];
+    m_mark = new int[nnodes];
+    m_bestIn = new int[nnodes];
+    m_bestOut = new int[nnodes];
+    m_generation = 0;
+    m_inNodes = new int[16];
+    m_outNodes = new int[16];
+
+    m_dist = new double[nnodes];
+    m_stamp = new int[nnodes];
+    m_wgeneration = 0;
+    m_queue = new IntPriorityQueue(nnodes);
+
+    for (int u = 0; u < nnodes; u++) {
+      for (int a = graph.getArcOffset(u); a < graph.getArcOffset(u+1); a++) {
+        int w = graph.getArcTarget(a);
+        if (u == w) continue;
+        addArc(u, w, graph.getArcWeight(a), graph.getArcEdge(a), -1, -1);
+      }
+    }
+  }
+
+  private int addArc(int from, int to, double weight, int edge, int child1, int child2) {
+    if (m_narcs == m_from.length) {
+      int size = m_from.length + (m_from.length >> 1);
+      m_from = Arrays.copyOf(m_from, size);
+      m_to = Arrays.copyOf(m_to, size);
+      m_weight = Arrays.copyOf(m_weight, size);
+      m_edge = Arrays.copyOf(m_edge, size);
+      m_child1 = Arrays.copyOf(m_child1, size);
+      m_child2 = Arrays.copyOf(m_child2, size);
+    }
+
+    int a = m_narcs++;
+    m_from[a] = from;
+    m_to[a] = to;
+    m_weight[a] = weight;
+    m_edge[a] = edge;
+    m_child1[a] = child1;
+    m_child2[a] = child2;
+
+    if (m_nout[from] == m_out[from].length) {
+      m_out[from] = Arrays.copyOf(m_out[from], m_nout[from] * 2);
+    }
+    m_out[from][m_nout[from]++] = a;
+
+    if (m_nin[to] == m_in[to].length) {
+      m_in[to] = Arrays.copyOf(m_in[to], m_nin[to] * 2);
+    }
+    m_in[to][m_nin[to]++] = a;
+    return(a);
+  }
+
+  private double priority(int v) {
+    int shortcuts = contract(v, false);
+    return(shortcuts - m_degree + m_deleted[v]);
+  }
+
+  /**
+   * Computes the shortcuts needed to contract a node, adding them to the
+   * graph if commit is set.
+   *
+   * @return The number of shortcuts, the number of remaining neighbours is
+   *         left in m_degree.
+   */
+  private int contract(int v, boolean commit) {
+    //collect the cheapest arc from each remaining in neighbour and to each
+    // remaining out neighbour
+    int gen = nextGeneration();
+    int nin = 0;
+    for (int i = 0; i < m_nin[v]; i++) {
+      int a = m_in[v][i];
+      int u = m_from[a];
+      if (m_contracted[u]) continue;
+      if (m_mark[u] != gen) {
+        m_mark[u] = gen;
+        m_bestIn[u] = a;
+        m_inNodes = push(m_inNodes, nin++, u);
+      }
+      else if (m_weight[a] < m_weight[m_bestIn[u]]) {
+        m_bestIn[u] = a;
+      }
+    }
+
+    gen = nextGeneration();
+    int nout = 0;
+    double maxOut = 0;
+    for (int i = 0; i < m_nout[v]; i++) {
+      int a = m_out[v][i];
+      int w = m_to[a];
+      if (m_contracted[w]) continue;
+      if (m_mark[w] != gen) {
+        m_mark[w] = gen;
+        m_bestOut[w] = a;
+        m_outNodes = push(m_outNodes, nout++, w);
+      }
+      else if (m_weight[a] < m_weight[m_bestOut[w]]) {
+        m_bestOut[w] = a;
+      }
+    }
+    for (int i = 0; i < nout; i++) {
+      maxOut = Math.max(maxOut, m_weight[m_bestOut[m_outNodes[i]]]);
+    }
+    m_degree = nin + nout;
+
+    int count = 0;
+    for (int i = 0; i < nin; i++) {
+      int u = m_inNodes[i];
+      int ain = m_bestIn[u];
+      double win = m_weight[ain];
+
+      witness(u, v, win + maxOut);
+
+      for (int j = 0; j < nout; j++) {
+        int w = m_outNodes[j];
+        if (w == u) continue;
+
+        int aout = m_bestOut[w];
+        double via = win + m_weight[aout];
+        if (witnessDistance(w) > via) {
+          count++;
+          if (commit) {
+            addArc(u, w, via, -1, ain, aout);
+          }
+        }
+      }
+    }
+    return(count);
+  }
+
+  /**
+   * Runs a bounded dijkstra search from a node over the remaining graph,
+   * avoiding the node being contracted.
+   */
+  private void witness(int source, int avoid, double limit) {
+    if (++m_wgeneration == 0) {
+      Arrays.fill(m_stamp, 0);
+      m_wgeneration = 1;
+    }
+    m_queue.clear();
+
+    m_stamp[source] = m_wgeneration;
+    m_dist[source] = 0;
+    m_queue.offer(source, 0);
+
+    int settled = 0;
+    while (!m_queue.isEmpty() && settled++ < m_witnessLimit) {
+      if (m_queue.peekPriority() > limit) break;
+
+      int n = m_queue.poll();
+      double dn = m_dist[n];
+      for (int i = 0; i < m_nout[n]; i++) {
+        int a = m_out[n][i];
+        int w = m_to[a];
+        if (w == avoid || m_contracted[w]) continue;
+
+        double d = dn + m_weight[a];
+        if (d < witnessDistance(w)) {
+          m_stamp[w] = m_wgeneration;
+          m_dist[w] = d;
+          m_queue.offer(w, d);
+        }
+      }
+    }
+  }
+
+  private double witnessDistance(int n) {
+    return(m_stamp[n] == m_wgeneration ? m_dist[n] : Double.POSITIVE_INFINITY);
+  }
+
+  private int nextGeneration() {
+    if (++m_generation == 0) {
+      Arrays.fill(m_mark, 0);
+      m_generation = 1;
+    }
+    return(m_generation);
+  }
+
+  private static int[] push(int[] array, int i, int value) {
+    if (i == array.length) array = Arrays.copyOf(array, i * 2);
+    array[i] = value;
+    return(array);
+  }
+
+  private int[] trim(int[] array) {
+    return(Arrays.copyOf(array, m_narcs));
+  }
+
+  private double[] trim(double[] array) {
+    return(Arrays.copyOf(array, m_narcs));
+  }
+
+  private static double[] x(CompactGraph graph) {
+    if (!graph.hasCoordinates()) return(null);
+    double[] x = new double[graph.getNodeCount()];
+    for (int i = 0; i < x.length; i++) x[i] = graph.getX(i);
+    return(x);
+  }
+
+  private static double[] y(CompactGraph graph) {
+    if (!graph.hasCoordinates()) return(null);
+    double[] y = new double[graph.getNodeCount()];
+    for (int i = 0; i < y.length; i++) y[i] = graph.getY(i);
+    return(y);
+  }
+}
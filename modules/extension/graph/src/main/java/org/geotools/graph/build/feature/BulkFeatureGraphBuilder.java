@@ -0,0 +1,552 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.graph.build.feature;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.graph.build.GraphBuilder;
+import org.geotools.graph.build.basic.BasicGraphBuilder;
+import org.geotools.graph.structure.Edge;
+import org.geotools.graph.structure.Graph;
+import org.geotools.graph.structure.Node;
+import org.geotools.graph.structure.compact.CompactGraph;
+import org.geotools.graph.structure.line.XYNode;
+import org.opengis.feature.simple.SimpleFeature;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+
+/**
+ * Builds a line network graph from a large number of features in one batch,
+ * as an alternative to adding features one at a time to a
+ * {@link FeatureGraphGenerator} decorating a
+ * {@link org.geotools.graph.build.line.LineStringGraphGenerator}.<BR>
+ * <BR>
+ * Features are first collected, then the graph is built in three passes:
+ * <ol>
+ *   <li>End point coordinates and lengths of all lines are extracted into
+ *       primitive arrays, in parallel.</li>
+ *   <li>End points are deduplicated. Coordinates are hashed on their bits and
+ *       partitioned by hash, each partition being deduplicated in parallel in
+ *       an open addressing table; nodes are then numbered in order of first
+ *       occurrence. When a tolerance is set the distinct coordinates are
+ *       snapped, in order of first occurrence, to the closest node within the
+ *       tolerance through a grid of cells the size of the tolerance, which
+ *       gives the same nodes as the line graph generators.</li>
+ *   <li>Nodes and edges are created through the graph builder in one pass.</li>
+ * </ol>
+ * Edges and nodes hold the same objects as with the generators: each edge
+ * holds its feature and each node a Point (or its coordinate, when the
+ * builder creates {@link XYNode}s). Unlike the generators, feature geometries
+ * are not modified when end points are snapped.<BR>
+ * <BR>
+ * The result is available both through the {@link Graph} interface and as
+ * a {@link CompactGraph} weighted by line length, with node and edge indexes
+ * matching the ids of the graph components.
+ *
+ * @see FeatureGraphGenerator
+ *
+ * @source $URL$
+ */
+public class BulkFeatureGraphBuilder {
+
+  private static GeometryFactory gf = new GeometryFactory();
+
+  /** snapping tolerance **/
+  private double m_tolerance;
+
+  /** builder used to create graph components **/
+  private GraphBuilder m_builder;
+
+  /** executor, null to create one per build **/
+  private ExecutorService m_executor;
+
+  /** number of parallel tasks **/
+  private int m_threads = Runtime.getRuntime().availableProcessors();
+
+  /** features to add **/
+  private List<SimpleFeature> m_features = new ArrayList<SimpleFeature>();
+
+  /** build results **/
+  private Node[] m_nodes;
+  private Edge[] m_edges;
+  private double[] m_x;
+  private double[] m_y;
+  private int[] m_from;
+  private int[] m_to;
+  private double[] m_length;
+
+  /**
+   * Constructs a builder in which end points must be equal to share a node.
+   */
+  public BulkFeatureGraphBuilder() {
+    this(0d);
+  }
+
+  /**
+   * Constructs a builder snapping end points closer than a tolerance.
+   *
+   * @param tolerance threshold distance value for coordinates to be considered equal
+   */
+  public BulkFeatureGraphBuilder(double tolerance) {
+    m_tolerance = tolerance;
+    m_builder = new BasicGraphBuilder();
+  }
+
+  public void setGraphBuilder(GraphBuilder builder) {
+    m_builder = builder;
+  }
+
+  public GraphBuilder getGraphBuilder() {
+    return(m_builder);
+  }
+
+  /**
+   * Sets the executor used to run the parallel passes. When not set a
+   * fixed pool is created for each build and shut down afterwards.
+   */
+  public void setExecutor(ExecutorService executor) {
+    m_executor = executor;
+  }
+
+  /**
+   * Sets the number of tasks the parallel passes are split into.
+   */
+  public void setThreadCount(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Thread count must be positive: " + threads);
+    }
+    m_threads = threads;
+  }
+
+  /**
+   * Adds a feature with a LineString or MultiLineString default geometry.
+   * Only the first line of a MultiLineString is used.
+   */
+  public void add(SimpleFeature feature) {
+    m_features.add(feature);
+  }
+
+  public void addAll(Collection<SimpleFeature> features) {
+    m_features.addAll(features);
+  }
+
+  public void addAll(SimpleFeatureCollection features) {
+    SimpleFeatureIterator it = features.features();
+    try {
+      while (it.hasNext()) {
+        m_features.add(it.next());
+      }
+    }
+    finally {
+      it.close();
+    }
+  }
+
+  /**
+   * Builds the graph from the features added so far.
+   *
+   * @return The graph of the graph builder.
+   */
+  public Graph build() {
+    ExecutorService executor = m_executor;
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(m_threads);
+    }
+    try {
+      int nedges = m_features.size();
+      double[] ex = new double[2 * nedges];
+      double[] ey = new double[2 * nedges];
+      m_length = new double[nedges];
+
+      extract(executor, ex, ey);
+      int[] node = snap(executor, ex, ey);
+
+      m_from = new int[nedges];
+      m_to = new int[nedges];
+      for (int i = 0; i < nedges; i++) {
+        m_from[i] = node[2*i];
+        m_to[i] = node[2*i+1];
+      }
+
+      createComponents();
+      return(m_builder.getGraph());
+    }
+    finally {
+      if (m_executor == null) executor.shutdown();
+    }
+  }
+
+  /**
+   * Returns the graph as a compact graph in which edges are weighted by the
+   * length of their line.
+   *
+   * @throws IllegalStateException If the graph has not been built yet.
+   */
+  public CompactGraph getCompactGraph() {
+    if (m_nodes == null) {
+      throw new IllegalStateException("Graph has not been built");
+    }
+
+    int nedges = m_from.length;
+    int narcs = 0;
+    for (int i = 0; i < nedges; i++) {
+      narcs += m_from[i] == m_to[i] ? 1 : 2;
+    }
+
+    int[] from = new int[narcs];
+    int[] to = new int[narcs];
+    int[] edge = new int[narcs];
+    double[] weight = new double[narcs];
+    int a = 0;
+    for (int i = 0; i < nedges; i++) {
+      from[a] = m_from[i]; to[a] = m_to[i]; weight[a] = m_length[i]; edge[a++] = i;
+      if (m_from[i] != m_to[i]) {
+        from[a] = m_to[i]; to[a] = m_from[i]; weight[a] = m_length[i]; edge[a++] = i;
+      }
+    }
+
+    return(new CompactGraph(
+      m_nodes.length, from, to, weight, edge, m_x, m_y, m_nodes, m_edges
+    ));
+  }
+
+  /**
+   * Extracts end points and lengths of the lines in parallel.
+   */
+  private void extract(ExecutorService executor, final double[] ex, final double[] ey) {
+    parallel(executor, m_features.size(), new Chunk() {
+      public void run(int start, int end) {
+        for (int i = start; i < end; i++) {
+          LineString ls = line(m_features.get(i));
+          Coordinate first = ls.getCoordinateN(0);
+          Coordinate last = ls.getCoordinateN(ls.getNumPoints()-1);
+          ex[2*i] = first.x;
+          ey[2*i] = first.y;
+          ex[2*i+1] = last.x;
+          ey[2*i+1] = last.y;
+          m_length[i] = ls.getLength();
+        }
+      }
+    });
+  }
+
+  private static LineString line(SimpleFeature feature) {
+    Geometry g = (Geometry) feature.getDefaultGeometry();
+    if (g instanceof MultiLineString) {
+      g = g.getGeometryN(0);
+    }
+    if (!(g instanceof LineString) || g.isEmpty()) {
+      throw new IllegalArgumentException(
+        "Feature " + feature.getID() + " has no line geometry: " + g);
+    }
+    return((LineString) g);
+  }
+
+  /**
+   * Maps every end point to a node, filling in the node coordinates.
+   *
+   * @return The node of each end point.
+   */
+  private int[] snap(ExecutorService executor, final double[] ex, final double[] ey) {
+    final int n = ex.length;
+
+    //hash every coordinate and partition by hash
+    final int[] hash = new int[n];
+    parallel(executor, n, new Chunk() {
+      public void run(int start, int end) {
+        for (int i = start; i < end; i++) {
+          hash[i] = CoordinateTable.hash(bits(ex[i]), bits(ey[i]));
+        }
+      }
+    });
+
+    final int nparts = m_threads;
+    final int[] poffset = new int[nparts+1];
+    for (int i = 0; i < n; i++) poffset[part(hash[i], nparts)+1]++;
+    for (int p = 0; p < nparts; p++) poffset[p+1] += poffset[p];
+    final int[] members = new int[n];
+    int[] pos = Arrays.copyOf(poffset, nparts);
+    for (int i = 0; i < n; i++) members[pos[part(hash[i], nparts)]++] = i;
+
+    //deduplicate each partition, mapping each end point to the first end
+    // point with the same coordinate
+    final int[] first = new int[n];
+    parallel(executor, nparts, new Chunk() {
+      public void run(int start, int end) {
+        for (int p = start; p < end; p++) {
+          CoordinateTable table = new CoordinateTable(poffset[p+1] - poffset[p]);
+          for (int m = poffset[p]; m < poffset[p+1]; m++) {
+            int i = members[m];
+            first[i] = table.putIfAbsent(bits(ex[i]), bits(ey[i]), hash[i], i);
+          }
+        }
+      }
+    });
+
+    //number distinct coordinates in order of first occurrence, members of a
+    // partition are in increasing order so first[i] <= i
+    int[] node = new int[n];
+    int ndistinct = 0;
+    for (int i = 0; i < n; i++) {
+      node[i] = first[i] == i ? ndistinct++ : node[first[i]];
+    }
+    double[] dx = new double[ndistinct];
+    double[] dy = new double[ndistinct];
+    for (int i = 0; i < n; i++) {
+      if (first[i] == i) {
+        dx[node[i]] = ex[i];
+        dy[node[i]] = ey[i];
+      }
+    }
+
+    if (m_tolerance <= 0) {
+      m_x = dx;
+      m_y = dy;
+      return(node);
+    }
+
+    //snap distinct coordinates to the closest node within tolerance
+    int[] snapped = new int[ndistinct];
+    double[] sx = new double[ndistinct];
+    double[] sy = new double[ndistinct];
+    int[] next = new int[ndistinct];
+    CoordinateTable cells = new CoordinateTable(ndistinct);
+    int[] head = new int[16];
+    int nnodes = 0;
+
+    for (int d = 0; d < ndistinct; d++) {
+      long cx = (long) Math.floor(dx[d] / m_tolerance);
+      long cy = (long) Math.floor(dy[d] / m_tolerance);
+
+      int closest = -1;
+      double closestDistance = Double.MAX_VALUE;
+      for (long i = cx-1; i <= cx+1; i++) {
+        for (long j = cy-1; j <= cy+1; j++) {
+          int c = cells.get(i, j, CoordinateTable.hash(i, j));
+          if (c < 0) continue;
+          for (int k = head[c]; k >= 0; k = next[k]) {
+            double distance = Math.hypot(dx[d] - sx[k], dy[d] - sy[k]);
+            if (distance < closestDistance) {
+              closestDistance = distance;
+              closest = k;
+            }
+          }
+        }
+      }
+
+      if (closest >= 0 && closestDistance < m_tolerance) {
+        snapped[d] = closest;
+        continue;
+      }
+
+      //new node
+      int k = nnodes++;
+      sx[k] = dx[d];
+      sy[k] = dy[d];
+      snapped[d] = k;
+
+      int ncells = cells.size();
+      int c = cells.putIfAbsent(cx, cy, CoordinateTable.hash(cx, cy), ncells);
+      if (c == ncells) {
+        if (c == head.length) head = Arrays.copyOf(head, c * 2);
+        head[c] = -1;
+      }
+      next[k] = head[c];
+      head[c] = k;
+    }
+
+    m_x = Arrays.copyOf(sx, nnodes);
+    m_y = Arrays.copyOf(sy, nnodes);
+    for (int i = 0; i < n; i++) {
+      node[i] = snapped[node[i]];
+    }
+    return(node);
+  }
+
+  /**
+   * Creates the nodes and edges of the graph.
+   */
+  private void createComponents() {
+    m_nodes = new Node[m_x.length];
+    for (int i = 0; i < m_nodes.length; i++) {
+      Node n = m_builder.buildNode();
+      Coordinate c = new Coordinate(m_x[i], m_y[i]);
+      if (n instanceof XYNode) {
+        ((XYNode) n).setCoordinate(c);
+      }
+      else {
+        n.setObject(gf.createPoint(c));
+      }
+      n.setID(i);
+      m_builder.addNode(n);
+      m_nodes[i] = n;
+    }
+
+    m_edges = new Edge[m_from.length];
+    for (int i = 0; i < m_edges.length; i++) {
+      Edge e = m_builder.buildEdge(m_nodes[m_from[i]], m_nodes[m_to[i]]);
+      e.setObject(m_features.get(i));
+      e.setID(i);
+      m_builder.addEdge(e);
+      m_edges[i] = e;
+    }
+  }
+
+  private static long bits(double d) {
+    //fold -0.0 onto 0.0 so that equal coordinates hash equally
+    return(Double.doubleToLongBits(d == 0d ? 0d : d));
+  }
+
+  private static int part(int hash, int nparts) {
+    return((hash & 0x7fffffff) % nparts);
+  }
+
+  /**
+   * Runs a task over a range of indexes split in chunks, one per thread.
+   */
+  private void parallel(ExecutorService executor, int n, final Chunk chunk) {
+    if (n == 0) return;
+
+    int nchunks = Math.min(m_threads, n);
+    int size = (n + nchunks - 1) / nchunks;
+    List<Future<Object>> futures = new ArrayList<Future<Object>>(nchunks);
+    for (int start = 0; start < n; start += size) {
+      final int s = start;
+      final int e = Math.min(n, start + size);
+      futures.add(executor.submit(new Callable<Object>() {
+        public Object call() throws Exception {
+          chunk.run(s, e);
+          return(null);
+        }
+      }));
+    }
+
+    for (Future<Object> f : futures) {
+      try {
+        f.get();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while building graph", e);
+      }
+      catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        throw new RuntimeException(cause);
+      }
+    }
+  }
+
+  private static interface Chunk {
+    void run(int start, int end);
+  }
+
+  /**
+   * Open addressing hash table from a pair of longs to an int.
+   */
+  static class CoordinateTable {
+    private long[] m_k1;
+    private long[] m_k2;
+    private int[] m_values;
+    private boolean[] m_used;
+    private int m_size;
+
+    CoordinateTable(int expected) {
+      int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+      m_k1 = new long[capacity];
+      m_k2 = new long[capacity];
+      m_values = new int[capacity];
+      m_used = new boolean[capacity];
+    }
+
+    static int hash(long k1, long k2) {
+      long h = k1 * 0x9E3779B97F4A7C15L + k2;
+      h ^= (h >>> 32);
+      h *= 0xC2B2AE3D27D4EB4FL;
+      return((int) (h ^ (h >>> 29)));
+    }
+
+    int size() {
+      return(m_size);
+    }
+
+    int get(long k1, long k2, int hash) {
+      int mask = m_k1.length - 1;
+      for (int i = hash & mask; m_used[i]; i = (i + 1) & mask) {
+        if (m_k1[i] == k1 && m_k2[i] == k2) return(m_values[i]);
+      }
+      return(-1);
+    }
+
+    /**
+     * Returns the value of a key, associating it with value if absent.
+     */
+    int putIfAbsent(long k1, long k2, int hash, int value) {
+      if (2 * (m_size + 1) > m_k1.length) rehash();
+
+      int mask = m_k1.length - 1;
+      int i = hash & mask;
+      for (; m_used[i]; i = (i + 1) & mask) {
+        if (m_k1[i] == k1 && m_k2[i] == k2) return(m_values[i]);
+      }
+      m_used[i] = true;
+      m_k1[i] = k1;
+      m_k2[i] = k2;
+      m_values[i] = value;
+      m_size++;
+      return(value);
+    }
+
+    private void rehash() {
+      long[] k1 = m_k1;
+      long[] k2 = m_k2;
+      int[] values = m_values;
+      boolean[] used = m_used;
+
+      int capacity = k1.length * 2;
+      m_k1 = new long[capacity];
+      m_k2 = new long[capacity];
+      m_values = new int[capacity];
+      m_used = new boolean[capacity];
+
+      int mask = capacity - 1;
+      for (int j = 0; j < k1.length; j++) {
+        if (!used[j]) continue;
+        int i = hash(k1[j], k2[j]) & mask;
+        while (m_used[i]) i = (i + 1) & mask;
+        m_used[i] = true;
+        m_k1[i] = k1[j];
+        m_k2[i] = k2[j];
+        m_values[i] = values[j];
+      }
+    }
+  }
+}
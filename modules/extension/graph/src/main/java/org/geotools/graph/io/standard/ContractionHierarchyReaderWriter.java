@@ -0,0 +1,219 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.graph.io.standard;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+
+import org.geotools.graph.build.GraphBuilder;
+import org.geotools.graph.build.compact.ContractionHierarchyBuilder;
+import org.geotools.graph.io.GraphReaderWriter;
+import org.geotools.graph.structure.Edge;
+import org.geotools.graph.structure.Graph;
+import org.geotools.graph.structure.Node;
+import org.geotools.graph.structure.compact.CompactGraph;
+import org.geotools.graph.structure.compact.ContractionHierarchy;
+import org.geotools.graph.structure.line.XYNode;
+import org.geotools.graph.traverse.standard.DijkstraIterator.EdgeWeighter;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * An implementation of GraphReaderWriter that preprocesses a graph into a
+ * {@link ContractionHierarchy} and stores the hierarchy in a binary file.
+ * <BR>
+ * <BR>
+ * Writing a graph requires the WEIGHTER property to be set to the
+ * {@link EdgeWeighter} used to weight the edges. The hierarchy written can
+ * be read back with {@link #readHierarchy()}. The graph itself can also be
+ * rebuilt with {@link #read()}, using the BUILDER property; in the rebuilt
+ * graph nodes and edges are identified by their index in the hierarchy.
+ * Edges joining a node to itself are not part of a hierarchy and are not
+ * rebuilt.
+ *
+ * @see ContractionHierarchyBuilder
+ *
+ * @source $URL$
+ */
+public class ContractionHierarchyReaderWriter extends AbstractReaderWriter
+  implements FileReaderWriter {
+
+  /** EdgeWeighter property key **/
+  public static final String WEIGHTER = "WEIGHTER";
+
+  /** witness search limit property key, an Integer **/
+  public static final String WITNESS_LIMIT = "WITNESS_LIMIT";
+
+  /** file header **/
+  private static final int MAGIC = 0x47544348; //"GTCH"
+  private static final int VERSION = 1;
+
+  /**
+   * Rebuilds the graph the stored hierarchy was created from.
+   *
+   * @see GraphReaderWriter#read()
+   */
+  public Graph read() throws Exception {
+    GraphBuilder builder = (GraphBuilder)getProperty(BUILDER);
+    ContractionHierarchy ch = readHierarchy();
+
+    Node[] nodes = new Node[ch.getNodeCount()];
+    for (int i = 0; i < nodes.length; i++) {
+      Node n = builder.buildNode();
+      n.setID(i);
+      if (ch.hasCoordinates() && n instanceof XYNode) {
+        ((XYNode)n).setCoordinate(new Coordinate(ch.getX(i), ch.getY(i)));
+      }
+      builder.addNode(n);
+      nodes[i] = n;
+    }
+
+    //undirected edges are stored as two arcs, only build them once
+    BitSet built = new BitSet();
+    for (int a = 0; a < ch.getArcCount(); a++) {
+      int e = ch.getArcEdge(a);
+      if (e < 0 || built.get(e)) continue;
+      built.set(e);
+
+      Edge edge = builder.buildEdge(nodes[ch.getArcFrom(a)], nodes[ch.getArcTo(a)]);
+      edge.setID(e);
+      builder.addEdge(edge);
+    }
+
+    return(builder.getGraph());
+  }
+
+  /**
+   * Builds a contraction hierarchy for the graph and writes it out.
+   *
+   * @see GraphReaderWriter#write(Graph)
+   */
+  public void write(Graph graph) throws Exception {
+    EdgeWeighter weighter = (EdgeWeighter)getProperty(WEIGHTER);
+    if (weighter == null) {
+      throw new IllegalStateException(WEIGHTER + " property must be set");
+    }
+
+    ContractionHierarchyBuilder builder = new ContractionHierarchyBuilder();
+    Integer limit = (Integer)getProperty(WITNESS_LIMIT);
+    if (limit != null) builder.setWitnessLimit(limit.intValue());
+
+    writeHierarchy(builder.build(CompactGraph.build(graph, weighter)));
+  }
+
+  /**
+   * Reads a contraction hierarchy from the file.
+   */
+  public ContractionHierarchy readHierarchy() throws IOException {
+    DataInputStream in = new DataInputStream(
+      new BufferedInputStream(
+        new FileInputStream((String)getProperty(FILENAME)), 1 << 16
+      )
+    );
+    try {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a contraction hierarchy file");
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported contraction hierarchy version: " + version);
+      }
+
+      int nnodes = in.readInt();
+      int narcs = in.readInt();
+      boolean xy = in.readBoolean();
+
+      int[] rank = readInts(in, nnodes);
+      double[] x = xy ? readDoubles(in, nnodes) : null;
+      double[] y = xy ? readDoubles(in, nnodes) : null;
+
+      int[] from = readInts(in, narcs);
+      int[] to = readInts(in, narcs);
+      double[] weight = readDoubles(in, narcs);
+      int[] edge = readInts(in, narcs);
+      int[] child1 = readInts(in, narcs);
+      int[] child2 = readInts(in, narcs);
+
+      return(new ContractionHierarchy(
+        nnodes, rank, from, to, weight, edge, child1, child2, x, y
+      ));
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Writes a contraction hierarchy to the file.
+   */
+  public void writeHierarchy(ContractionHierarchy ch) throws IOException {
+    DataOutputStream out = new DataOutputStream(
+      new BufferedOutputStream(
+        new FileOutputStream((String)getProperty(FILENAME)), 1 << 16
+      )
+    );
+    try {
+      int nnodes = ch.getNodeCount();
+      int narcs = ch.getArcCount();
+
+      //header
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(nnodes);
+      out.writeInt(narcs);
+      out.writeBoolean(ch.hasCoordinates());
+
+      //nodes
+      for (int i = 0; i < nnodes; i++) out.writeInt(ch.getRank(i));
+      if (ch.hasCoordinates()) {
+        for (int i = 0; i < nnodes; i++) out.writeDouble(ch.getX(i));
+        for (int i = 0; i < nnodes; i++) out.writeDouble(ch.getY(i));
+      }
+
+      //arcs
+      for (int a = 0; a < narcs; a++) out.writeInt(ch.getArcFrom(a));
+      for (int a = 0; a < narcs; a++) out.writeInt(ch.getArcTo(a));
+      for (int a = 0; a < narcs; a++) out.writeDouble(ch.getArcWeight(a));
+      for (int a = 0; a < narcs; a++) out.writeInt(ch.getArcEdge(a));
+      for (int a = 0; a < narcs; a++) out.writeInt(ch.getFirstChild(a));
+      for (int a = 0; a < narcs; a++) out.writeInt(ch.getSecondChild(a));
+
+      out.flush();
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  private static int[] readInts(DataInputStream in, int n) throws IOException {
+    int[] values = new int[n];
+    for (int i = 0; i < n; i++) values[i] = in.readInt();
+    return(values);
+  }
+
+  private static double[] readDoubles(DataInputStream in, int n) throws IOException {
+    double[] values = new double[n];
+    for (int i = 0; i < n; i++) values[i] = in.readDouble();
+    return(values);
+  }
+}
@@ -0,0 +1,453 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.graph.path;
+
+import java.util.Arrays;
+
+import org.geotools.graph.structure.Node;
+import org.geotools.graph.structure.compact.CompactGraph;
+import org.geotools.graph.util.IntPriorityQueue;
+
+/**
+ * Calculates point to point shortest paths over a {@link CompactGraph}. Three
+ * searches are offered:
+ * <ul>
+ *   <li>{@link #dijkstra(int, int)}, plain Dijkstra stopping once the target
+ *       is settled.</li>
+ *   <li>{@link #bidirectional(int, int)}, Dijkstra run from both ends at once
+ *       over the forward and reverse adjacency, stopping once the two
+ *       frontiers can no longer improve the best meeting point.</li>
+ *   <li>{@link #aStar(int, int, Heuristic)}, A* guided by a lower bound of the
+ *       remaining cost.</li>
+ * </ul>
+ * Unlike {@link DijkstraShortestPathFinder} and {@link AStarShortestPathFinder}
+ * the finder holds no per query state of its own: the cost, parent and heap
+ * arrays used by a search are kept per thread, shared by all the finders
+ * used on that thread, and reset lazily with a generation stamp, so a single
+ * finder can serve many concurrent queries without allocating per query
+ * structures proportional to the graph. The arrays of a thread are as large
+ * as the largest graph it searched, those of the backward direction are only
+ * allocated by a bidirectional search.<BR>
+ * <BR>
+ * Paths are always returned from source to target, the reverse of the order
+ * of {@link DijkstraShortestPathFinder#getPath(org.geotools.graph.structure.Graphable)}.
+ *
+ * @see CompactGraph
+ *
+ * @source $URL$
+ */
+public class CompactShortestPathFinder {
+
+  /**
+   * Lower bound of the cost between two nodes used to guide A*.
+   */
+  public static interface Heuristic {
+    /**
+     * Returns an estimate of the cost from node to target that never
+     * exceeds the actual cost.
+     */
+    public double estimate(int node, int target);
+  }
+
+  /** graph to calculate paths for **/
+  private CompactGraph m_graph;
+
+  /** per thread search state, shared by all finders **/
+  private static final ThreadLocal<SearchState> STATE = new ThreadLocal<SearchState>() {
+    protected SearchState initialValue() {
+      return(new SearchState());
+    }
+  };
+
+  /**
+   * Constructs a new path finder.
+   *
+   * @param graph The graph to calculate paths for.
+   */
+  public CompactShortestPathFinder(CompactGraph graph) {
+    m_graph = graph;
+  }
+
+  public CompactGraph getGraph() {
+    return(m_graph);
+  }
+
+  /**
+   * Returns a heuristic based on the straight line distance between nodes,
+   * multiplied by a factor. The heuristic is admissible as long as no arc
+   * weight is less than the factor times the distance between its nodes,
+   * for instance a factor of 1 when weighting edges by length.
+   *
+   * @param graph A graph with coordinates.
+   * @param factor Minimum cost per unit of distance.
+   */
+  public static Heuristic euclidean(final CompactGraph graph, final double factor) {
+    if (!graph.hasCoordinates()) {
+      throw new IllegalArgumentException("Graph has no node coordinates");
+    }
+    return(
+      new Heuristic() {
+        public double estimate(int node, int target) {
+          double dx = graph.getX(node) - graph.getX(target);
+          double dy = graph.getY(node) - graph.getY(target);
+          return(factor * Math.sqrt(dx*dx + dy*dy));
+        }
+      }
+    );
+  }
+
+  /**
+   * Calculates the shortest path between two nodes of the original graph
+   * with Dijkstra's algorithm.
+   * <p>
+   * Note that the path goes from source to target, while
+   * {@link DijkstraShortestPathFinder#getPath(org.geotools.graph.structure.Graphable)}
+   * returns the path from the node to the source of the search; use
+   * {@link Path#reverse()} or {@link Path#riterator()} where the latter order
+   * is expected.
+   * </p>
+   *
+   * @return The path from source to target, or null if there is none.
+   */
+  public Path getPath(Node source, Node target) {
+    CompactPath p = dijkstra(index(source), index(target));
+    return(p == null ? null : p.toPath());
+  }
+
+  /**
+   * Calculates the shortest path between two nodes with Dijkstra's
+   * algorithm.
+   *
+   * @return The path, or null if target can not be reached from source.
+   */
+  public CompactPath dijkstra(int source, int target) {
+    return(search(source, target, null));
+  }
+
+  /**
+   * Calculates the shortest path between two nodes with A*.
+   *
+   * @return The path, or null if target can not be reached from source.
+   */
+  public CompactPath aStar(int source, int target, Heuristic heuristic) {
+    if (heuristic == null) throw new NullPointerException("heuristic");
+    return(search(source, target, heuristic));
+  }
+
+  /**
+   * Calculates the cost of reaching every node from a source node.
+   *
+   * @return Array of costs indexed by node, unreachable nodes have a cost of
+   *         {@link Double#POSITIVE_INFINITY}.
+   */
+  public double[] costs(int source) {
+    check(source);
+    Direction d = STATE.get().forward(m_graph.getNodeCount());
+    d.reset();
+    d.reach(source, 0, -1, -1);
+    d.queue.offer(source, 0);
+
+    while (!d.queue.isEmpty()) {
+      d.relax(d.queue.poll(), m_graph, true, null, -1);
+    }
+
+    double[] costs = new double[m_graph.getNodeCount()];
+    for (int i = 0; i < costs.length; i++) {
+      costs[i] = d.cost(i);
+    }
+    return(costs);
+  }
+
+  private CompactPath search(int source, int target, Heuristic h) {
+    check(source);
+    check(target);
+
+    Direction d = STATE.get().forward(m_graph.getNodeCount());
+    d.reset();
+    d.reach(source, 0, -1, -1);
+    d.queue.offer(source, h == null ? 0 : h.estimate(source, target));
+
+    while (!d.queue.isEmpty()) {
+      int n = d.queue.poll();
+      if (n == target) {
+        return(d.path(m_graph, source, target, null, -1));
+      }
+      d.relax(n, m_graph, true, h, target);
+    }
+    return(null);
+  }
+
+  /**
+   * Calculates the shortest path between two nodes with a bidirectional
+   * Dijkstra search.
+   *
+   * @return The path, or null if target can not be reached from source.
+   */
+  public CompactPath bidirectional(int source, int target) {
+    check(source);
+    check(target);
+    if (source == target) {
+      return(new CompactPath(m_graph, new int[]{source}, new int[0], 0));
+    }
+
+    SearchState state = STATE.get();
+    Direction f = state.forward(m_graph.getNodeCount());
+    Direction b = state.backward(m_graph.getNodeCount());
+    f.reset();
+    b.reset();
+    f.reach(source, 0, -1, -1);
+    f.queue.offer(source, 0);
+    b.reach(target, 0, -1, -1);
+    b.queue.offer(target, 0);
+
+    double best = Double.POSITIVE_INFINITY;
+    int meet = -1;
+
+    while (!f.queue.isEmpty() && !b.queue.isEmpty()) {
+      if (f.queue.peekPriority() + b.queue.peekPriority() >= best) break;
+
+      //expand the smaller frontier
+      boolean forward = f.queue.size() <= b.queue.size();
+      Direction d = forward ? f : b;
+      Direction o = forward ? b : f;
+
+      int n = d.queue.poll();
+      d.relax(n, m_graph, forward, null, -1);
+
+      //check the nodes just reached against the other direction
+      for (int a = offset(m_graph, n, forward); a < offset(m_graph, n+1, forward); a++) {
+        int v = target(m_graph, a, forward);
+        double c = d.cost(v) + o.cost(v);
+        if (c < best) {
+          best = c;
+          meet = v;
+        }
+      }
+      double c = d.cost(n) + o.cost(n);
+      if (c < best) {
+        best = c;
+        meet = n;
+      }
+    }
+
+    if (meet < 0) return(null);
+    return(f.path(m_graph, source, meet, b, target));
+  }
+
+  /*
+   * adjacency of a direction, the arcs leaving a node going forward and the
+   * ones entering it going backward.
+   */
+
+  static int offset(CompactGraph g, int node, boolean forward) {
+    return(forward ? g.getArcOffset(node) : g.getReverseArcOffset(node));
+  }
+
+  static int target(CompactGraph g, int arc, boolean forward) {
+    return(forward ? g.getArcTarget(arc) : g.getReverseArcSource(arc));
+  }
+
+  private int index(Node node) {
+    int i = m_graph.indexOf(node);
+    if (i < 0) throw new IllegalArgumentException("Node not in graph: " + node);
+    return(i);
+  }
+
+  private void check(int node) {
+    if (node < 0 || node >= m_graph.getNodeCount()) {
+      throw new IllegalArgumentException("No such node: " + node);
+    }
+  }
+
+  /**
+   * Search state of one thread, the directions are allocated on first use
+   * and replaced when a larger graph is searched.
+   */
+  static class SearchState {
+    Direction forward;
+    Direction backward;
+
+    Direction forward(int nnodes) {
+      if (forward == null || forward.capacity() < nnodes) {
+        forward = new Direction(nnodes);
+      }
+      return(forward);
+    }
+
+    Direction backward(int nnodes) {
+      if (backward == null || backward.capacity() < nnodes) {
+        backward = new Direction(nnodes);
+      }
+      return(backward);
+    }
+  }
+
+  /**
+   * Costs, parents and queue of a search in one direction. Entries are only
+   * valid when their stamp matches the current generation, which avoids
+   * clearing the arrays between searches.
+   */
+  static class Direction {
+    double[] cost;
+    int[] parent;
+    int[] parentEdge;
+    int[] stamp;
+    int generation;
+    IntPriorityQueue queue;
+
+    Direction(int nnodes) {
+      cost = new double[nnodes];
+      parent = new int[nnodes];
+      parentEdge = new int[nnodes];
+      stamp = new int[nnodes];
+      queue = new IntPriorityQueue(nnodes);
+    }
+
+    int capacity() {
+      return(cost.length);
+    }
+
+    void reset() {
+      queue.clear();
+      if (++generation == 0) {
+        //wrapped around, clear the stamps for real
+        Arrays.fill(stamp, 0);
+        generation = 1;
+      }
+    }
+
+    double cost(int n) {
+      return(stamp[n] == generation ? cost[n] : Double.POSITIVE_INFINITY);
+    }
+
+    void reach(int n, double c, int p, int e) {
+      stamp[n] = generation;
+      cost[n] = c;
+      parent[n] = p;
+      parentEdge[n] = e;
+    }
+
+    void relax(int n, CompactGraph g, boolean forward, Heuristic h, int target) {
+      double cn = cost[n];
+      int end = offset(g, n+1, forward);
+      for (int a = offset(g, n, forward); a < end; a++) {
+        int v = target(g, a, forward);
+        double c = cn + (forward ? g.getArcWeight(a) : g.getReverseArcWeight(a));
+        if (c < cost(v)) {
+          stamp[v] = generation;
+          cost[v] = c;
+          parent[v] = n;
+          parentEdge[v] = forward ? g.getArcEdge(a) : g.getReverseArcEdge(a);
+          queue.offer(v, h == null ? c : c + h.estimate(v, target));
+        }
+      }
+    }
+
+    /**
+     * Builds the path from source to meet, continued from meet to target
+     * along the parents of the other direction if not null.
+     */
+    CompactPath path(CompactGraph g, int source, int meet, Direction other, int target) {
+      int n = 1;
+      for (int v = meet; v != source; v = parent[v]) n++;
+      if (other != null) {
+        for (int v = meet; v != target; v = other.parent[v]) n++;
+      }
+
+      int[] nodes = new int[n];
+      int[] edges = new int[n-1];
+
+      int i = 0;
+      for (int v = meet; v != source; v = parent[v]) i++;
+      nodes[i] = meet;
+      for (int v = meet, j = i; v != source; v = parent[v]) {
+        edges[--j] = parentEdge[v];
+        nodes[j] = parent[v];
+      }
+      if (other != null) {
+        for (int v = meet; v != target; v = other.parent[v]) {
+          edges[i] = other.parentEdge[v];
+          nodes[++i] = other.parent[v];
+        }
+      }
+
+      double c = cost[meet] + (other != null ? other.cost(meet) : 0);
+      return(new CompactPath(g, nodes, edges, c));
+    }
+  }
+
+  /**
+   * Result of a search over a compact graph.
+   */
+  public static class CompactPath {
+
+    private CompactGraph m_graph;
+    private int[] m_nodes;
+    private int[] m_edges;
+    private double m_cost;
+
+    CompactPath(CompactGraph graph, int[] nodes, int[] edges, double cost) {
+      m_graph = graph;
+      m_nodes = nodes;
+      m_edges = edges;
+      m_cost = cost;
+    }
+
+    /**
+     * Returns a copy of the node indexes of the path, from source to target.
+     */
+    public int[] getNodes() {
+      return(m_nodes.clone());
+    }
+
+    /**
+     * Returns a copy of the edge indexes of the path, from source to target.
+     */
+    public int[] getEdges() {
+      return(m_edges.clone());
+    }
+
+    /**
+     * Returns the total cost of the path.
+     */
+    public double getCost() {
+      return(m_cost);
+    }
+
+    /**
+     * Maps the path back onto the nodes of the original graph, from source
+     * to target (see {@link CompactShortestPathFinder#getPath(Node, Node)}).
+     *
+     * @throws IllegalStateException If the compact graph was not built from
+     *         a graph.
+     */
+    public Path toPath() {
+      if (m_graph == null) {
+        throw new IllegalStateException("No graph to map nodes to");
+      }
+      Path p = new Path();
+      for (int i = 0; i < m_nodes.length; i++) {
+        Node n = m_graph.getNode(m_nodes[i]);
+        if (n == null) {
+          throw new IllegalStateException("Compact graph has no original nodes");
+        }
+        p.add(n);
+      }
+      return(p);
+    }
+  }
+}
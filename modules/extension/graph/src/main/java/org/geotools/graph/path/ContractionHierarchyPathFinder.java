@@ -0,0 +1,397 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.graph.path;
+
+import java.util.Arrays;
+
+import org.geotools.graph.path.CompactShortestPathFinder.CompactPath;
+import org.geotools.graph.structure.Node;
+import org.geotools.graph.structure.compact.CompactGraph;
+import org.geotools.graph.structure.compact.ContractionHierarchy;
+import org.geotools.graph.util.IntPriorityQueue;
+
+/**
+ * Answers shortest path queries over a {@link ContractionHierarchy}.<BR>
+ * <BR>
+ * A query runs a dijkstra search from the source over upward arcs and one
+ * from the target over downward arcs, both only ever moving towards nodes
+ * of higher rank. The shortest path is found at the node minimizing the sum
+ * of the two costs, and shortcuts on it are then recursively unpacked into
+ * the original edges.<BR>
+ * <BR>
+ * Distance matrices are computed with the bucket method: the backward search
+ * space of each target is stored in buckets attached to the nodes it
+ * settles, then the forward search of each source scans the buckets of the
+ * nodes it settles. The cost is one search per source and per target rather
+ * than one per pair.<BR>
+ * <BR>
+ * Search state is kept per thread, a single finder can be used by many
+ * threads at once.
+ *
+ * @see org.geotools.graph.build.compact.ContractionHierarchyBuilder
+ *
+ * @source $URL$
+ */
+public class ContractionHierarchyPathFinder {
+
+  /** hierarchy to search **/
+  private ContractionHierarchy m_ch;
+
+  /** graph the hierarchy was built from, may be null **/
+  private CompactGraph m_graph;
+
+  /** per thread search state **/
+  private ThreadLocal<Search[]> m_state = new ThreadLocal<Search[]>() {
+    protected Search[] initialValue() {
+      int nnodes = m_ch.getNodeCount();
+      return(new Search[]{new Search(nnodes), new Search(nnodes)});
+    }
+  };
+
+  /**
+   * Constructs a new path finder.
+   *
+   * @param ch The contraction hierarchy.
+   */
+  public ContractionHierarchyPathFinder(ContractionHierarchy ch) {
+    this(ch, null);
+  }
+
+  /**
+   * Constructs a new path finder able to map results back to a graph.
+   *
+   * @param ch The contraction hierarchy.
+   * @param graph The compact graph the hierarchy was built from.
+   */
+  public ContractionHierarchyPathFinder(ContractionHierarchy ch, CompactGraph graph) {
+    if (graph != null && graph.getNodeCount() != ch.getNodeCount()) {
+      throw new IllegalArgumentException("Graph does not match hierarchy");
+    }
+    m_ch = ch;
+    m_graph = graph;
+  }
+
+  public ContractionHierarchy getHierarchy() {
+    return(m_ch);
+  }
+
+  /**
+   * Calculates the shortest path between two nodes of the original graph.
+   *
+   * @return The path from source to target, or null if there is none.
+   */
+  public Path getPath(Node source, Node target) {
+    if (m_graph == null) {
+      throw new IllegalStateException("No graph to map nodes from");
+    }
+    CompactPath p = path(index(source), index(target));
+    return(p == null ? null : p.toPath());
+  }
+
+  /**
+   * Calculates the cost of the shortest path between two nodes.
+   *
+   * @return The cost, or {@link Double#POSITIVE_INFINITY} if there is no path.
+   */
+  public double cost(int source, int target) {
+    Search[] state = m_state.get();
+    int meet = query(source, target, state[0], state[1]);
+    return(meet < 0 ? Double.POSITIVE_INFINITY
+      : state[0].cost(meet) + state[1].cost(meet));
+  }
+
+  /**
+   * Calculates the shortest path between two nodes.
+   *
+   * @return The path, or null if target can not be reached from source.
+   */
+  public CompactPath path(int source, int target) {
+    Search[] state = m_state.get();
+    Search f = state[0];
+    Search b = state[1];
+
+    int meet = query(source, target, f, b);
+    if (meet < 0) return(null);
+
+    //collect the hierarchy arcs from source to meet and meet to target
+    int n = 0;
+    for (int v = meet; v != source; v = m_ch.getArcFrom(f.parent[v])) n++;
+    int[] arcs = new int[n];
+    for (int v = meet; v != source; v = m_ch.getArcFrom(f.parent[v])) {
+      arcs[--n] = f.parent[v];
+    }
+    int[] tail = new int[16];
+    int ntail = 0;
+    for (int v = meet; v != target; v = m_ch.getArcTo(b.parent[v])) {
+      if (ntail == tail.length) tail = Arrays.copyOf(tail, ntail * 2);
+      tail[ntail++] = b.parent[v];
+    }
+
+    //unpack the shortcuts
+    IntList edges = new IntList();
+    IntList nodes = new IntList();
+    nodes.add(source);
+    for (int i = 0; i < arcs.length; i++) unpack(arcs[i], edges, nodes);
+    for (int i = 0; i < ntail; i++) unpack(tail[i], edges, nodes);
+
+    return(new CompactPath(m_graph, nodes.toArray(), edges.toArray(),
+      f.cost(meet) + b.cost(meet)));
+  }
+
+  /**
+   * Calculates the costs of the shortest paths from each of a set of
+   * sources to each of a set of targets.
+   *
+   * @param sources The source nodes.
+   * @param targets The target nodes.
+   *
+   * @return Matrix of costs indexed by source and then target, unreachable
+   *         pairs have a cost of {@link Double#POSITIVE_INFINITY}.
+   */
+  public double[][] distances(int[] sources, int[] targets) {
+    Search[] state = m_state.get();
+    Search s = state[0];
+
+    //backward search from each target, filling buckets
+    IntList bnode = new IntList();
+    IntList btarget = new IntList();
+    DoubleList bcost = new DoubleList();
+    for (int j = 0; j < targets.length; j++) {
+      check(targets[j]);
+      s.reset();
+      s.reach(targets[j], 0, -1);
+      while (!s.queue.isEmpty()) {
+        int v = s.queue.poll();
+        bnode.add(v);
+        btarget.add(j);
+        bcost.add(s.cost[v]);
+        relaxDown(s, v);
+      }
+    }
+
+    //sort bucket entries by node
+    int nentries = bnode.size;
+    long[] keys = new long[nentries];
+    for (int i = 0; i < nentries; i++) {
+      keys[i] = ((long) bnode.data[i] << 32) | i;
+    }
+    Arrays.sort(keys);
+    int[] enode = new int[nentries];
+    int[] etarget = new int[nentries];
+    double[] ecost = new double[nentries];
+    for (int i = 0; i < nentries; i++) {
+      int e = (int) keys[i];
+      enode[i] = bnode.data[e];
+      etarget[i] = btarget.data[e];
+      ecost[i] = bcost.data[e];
+    }
+
+    double[][] result = new double[sources.length][targets.length];
+    for (int i = 0; i < sources.length; i++) {
+      check(sources[i]);
+      double[] row = result[i];
+      Arrays.fill(row, Double.POSITIVE_INFINITY);
+
+      s.reset();
+      s.reach(sources[i], 0, -1);
+      while (!s.queue.isEmpty()) {
+        int v = s.queue.poll();
+        double c = s.cost[v];
+
+        int e = Arrays.binarySearch(enode, v);
+        if (e >= 0) {
+          while (e > 0 && enode[e-1] == v) e--;
+          for (; e < nentries && enode[e] == v; e++) {
+            double d = c + ecost[e];
+            if (d < row[etarget[e]]) row[etarget[e]] = d;
+          }
+        }
+        relaxUp(s, v);
+      }
+    }
+    return(result);
+  }
+
+  /**
+   * Runs the two searches, returning the meeting node or -1.
+   */
+  private int query(int source, int target, Search f, Search b) {
+    check(source);
+    check(target);
+
+    f.reset();
+    b.reset();
+    f.reach(source, 0, -1);
+    b.reach(target, 0, -1);
+
+    double best = Double.POSITIVE_INFINITY;
+    int meet = -1;
+
+    while (!f.queue.isEmpty() || !b.queue.isEmpty()) {
+      if (!f.queue.isEmpty()) {
+        if (f.queue.peekPriority() >= best) {
+          f.queue.clear();
+        }
+        else {
+          int v = f.queue.poll();
+          double c = f.cost[v] + b.cost(v);
+          if (c < best) {
+            best = c;
+            meet = v;
+          }
+          relaxUp(f, v);
+        }
+      }
+      if (!b.queue.isEmpty()) {
+        if (b.queue.peekPriority() >= best) {
+          b.queue.clear();
+        }
+        else {
+          int v = b.queue.poll();
+          double c = b.cost[v] + f.cost(v);
+          if (c < best) {
+            best = c;
+            meet = v;
+          }
+          relaxDown(b, v);
+        }
+      }
+    }
+    return(meet);
+  }
+
+  private void relaxUp(Search s, int v) {
+    int[] offsets = m_ch.upOffsets();
+    int[] targets = m_ch.upTargets();
+    double[] weights = m_ch.upWeights();
+    int[] arcs = m_ch.upArcs();
+
+    double cv = s.cost[v];
+    for (int a = offsets[v]; a < offsets[v+1]; a++) {
+      int w = targets[a];
+      double c = cv + weights[a];
+      if (c < s.cost(w)) s.reach(w, c, arcs[a]);
+    }
+  }
+
+  private void relaxDown(Search s, int v) {
+    int[] offsets = m_ch.downOffsets();
+    int[] sources = m_ch.downSources();
+    double[] weights = m_ch.downWeights();
+    int[] arcs = m_ch.downArcs();
+
+    double cv = s.cost[v];
+    for (int a = offsets[v]; a < offsets[v+1]; a++) {
+      int u = sources[a];
+      double c = cv + weights[a];
+      if (c < s.cost(u)) s.reach(u, c, arcs[a]);
+    }
+  }
+
+  /**
+   * Appends the original edges of an arc, and the nodes they lead to.
+   */
+  private void unpack(int arc, IntList edges, IntList nodes) {
+    IntList stack = new IntList();
+    stack.add(arc);
+    while (stack.size > 0) {
+      int a = stack.data[--stack.size];
+      if (m_ch.isShortcut(a)) {
+        stack.add(m_ch.getSecondChild(a));
+        stack.add(m_ch.getFirstChild(a));
+      }
+      else {
+        edges.add(m_ch.getArcEdge(a));
+        nodes.add(m_ch.getArcTo(a));
+      }
+    }
+  }
+
+  private int index(Node node) {
+    int i = m_graph.indexOf(node);
+    if (i < 0) throw new IllegalArgumentException("Node not in graph: " + node);
+    return(i);
+  }
+
+  private void check(int node) {
+    if (node < 0 || node >= m_ch.getNodeCount()) {
+      throw new IllegalArgumentException("No such node: " + node);
+    }
+  }
+
+  /**
+   * State of a search in one direction, entries are valid only when their
+   * stamp matches the current generation.
+   */
+  static class Search {
+    double[] cost;
+    int[] parent;
+    int[] stamp;
+    int generation;
+    IntPriorityQueue queue;
+
+    Search(int nnodes) {
+      cost = new double[nnodes];
+      parent = new int[nnodes];
+      stamp = new int[nnodes];
+      queue = new IntPriorityQueue(nnodes);
+    }
+
+    void reset() {
+      queue.clear();
+      if (++generation == 0) {
+        Arrays.fill(stamp, 0);
+        generation = 1;
+      }
+    }
+
+    double cost(int n) {
+      return(stamp[n] == generation ? cost[n] : Double.POSITIVE_INFINITY);
+    }
+
+    void reach(int n, double c, int arc) {
+      stamp[n] = generation;
+      cost[n] = c;
+      parent[n] = arc;
+      queue.offer(n, c);
+    }
+  }
+
+  static class IntList {
+    int[] data = new int[16];
+    int size;
+
+    void add(int value) {
+      if (size == data.length) data = Arrays.copyOf(data, size * 2);
+      data[size++] = value;
+    }
+
+    int[] toArray() {
+      return(Arrays.copyOf(data, size));
+    }
+  }
+
+  static class DoubleList {
+    double[] data = new double[16];
+    int size;
+
+    void add(double value) {
+      if (size == data.length) data = Arrays.copyOf(data, size * 2);
+      data[size++] = value;
+    }
+  }
+}
@@ -0,0 +1,375 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.graph.structure.compact;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.geotools.graph.structure.DirectedEdge;
+import org.geotools.graph.structure.Edge;
+import org.geotools.graph.structure.Graph;
+import org.geotools.graph.structure.Node;
+import org.geotools.graph.structure.line.XYNode;
+import org.geotools.graph.traverse.standard.DijkstraIterator.EdgeWeighter;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Read only, array based representation of a weighted graph intended for
+ * fast repeated searches. Nodes are identified by a dense integer index in
+ * the range <code>[0,getNodeCount())</code> and the adjacency of the graph
+ * is stored in compressed sparse row (CSR) form: the arcs leaving node
+ * <code>i</code> are the entries <code>[getArcOffset(i),getArcOffset(i+1))</code>
+ * of the arc arrays. A reverse adjacency (arcs entering each node) is kept as
+ * well to support backward searches.<BR>
+ * <BR>
+ * An undirected edge is represented by two arcs, one in each direction, a
+ * {@link DirectedEdge} by a single arc from its in node to its out node. Each
+ * arc remembers the index of the edge it was created from so that results
+ * can be mapped back onto the original graph.<BR>
+ * <BR>
+ * Instances are immutable once built and may be shared among threads: the
+ * arrays passed to the constructors are copied and the internal ones are
+ * only reachable through the accessors.
+ *
+ * @see org.geotools.graph.path.CompactShortestPathFinder
+ *
+ * @source $URL$
+ */
+public class CompactGraph {
+
+  /** number of nodes **/
+  private int m_nnodes;
+
+  /** forward adjacency **/
+  private int[] m_offset;
+  private int[] m_target;
+  private int[] m_edge;
+  private double[] m_weight;
+
+  /** reverse adjacency **/
+  private int[] m_roffset;
+  private int[] m_rtarget;
+  private int[] m_redge;
+  private double[] m_rweight;
+
+  /** node coordinates, null if unknown **/
+  private double[] m_x;
+  private double[] m_y;
+
+  /** original graph components, null if built from raw arrays **/
+  private Node[] m_nodes;
+  private Edge[] m_edges;
+  private Map<Node,Integer> m_node2index;
+
+  /**
+   * Builds a compact graph from the arcs of a graph given as parallel arrays.
+   * Arc <code>i</code> goes from node <code>from[i]</code> to node
+   * <code>to[i]</code> with weight <code>weight[i]</code>, and is reported as
+   * edge <code>edge[i]</code> (or <code>i</code> when <code>edge</code> is
+   * null).
+   *
+   * @param nnodes The number of nodes of the graph.
+   * @param from Source node of each arc.
+   * @param to Target node of each arc.
+   * @param weight Non negative weight of each arc.
+   * @param edge Edge index of each arc, may be null.
+   * @param x Node x ordinates, may be null.
+   * @param y Node y ordinates, may be null.
+   */
+  public CompactGraph(
+    int nnodes, int[] from, int[] to, double[] weight, int[] edge,
+    double[] x, double[] y
+  ) {
+    this(nnodes, from, to, weight, edge, x, y, null, null);
+  }
+
+  /**
+   * Builds a compact graph from the arcs of a graph given as parallel arrays,
+   * along with the components of the graph the indexes refer to.
+   *
+   * @param nodes Graph node at each node index, may be null.
+   * @param edges Graph edge at each edge index, may be null.
+   *
+   * @see #CompactGraph(int, int[], int[], double[], int[], double[], double[])
+   */
+  public CompactGraph(
+    int nnodes, int[] from, int[] to, double[] weight, int[] edge,
+    double[] x, double[] y, Node[] nodes, Edge[] edges
+  ) {
+    int narcs = from.length;
+    if (to.length != narcs || weight.length != narcs
+      || (edge != null && edge.length != narcs)) {
+      throw new IllegalArgumentException("Arc arrays must be of equal length");
+    }
+    if ((x == null) != (y == null) || (x != null && (x.length != nnodes || y.length != nnodes))) {
+      throw new IllegalArgumentException("Coordinate arrays must be of length " + nnodes);
+    }
+
+    m_nnodes = nnodes;
+    m_x = x == null ? null : x.clone();
+    m_y = y == null ? null : y.clone();
+
+    m_offset = new int[nnodes+1];
+    m_target = new int[narcs];
+    m_edge = new int[narcs];
+    m_weight = new double[narcs];
+
+    m_roffset = new int[nnodes+1];
+    m_rtarget = new int[narcs];
+    m_redge = new int[narcs];
+    m_rweight = new double[narcs];
+
+    //count degrees
+    for (int i = 0; i < narcs; i++) {
+      if (from[i] < 0 || from[i] >= nnodes || to[i] < 0 || to[i] >= nnodes) {
+        throw new IllegalArgumentException("Arc " + i + " references an unknown node");
+      }
+      if (!(weight[i] >= 0)) {
+        throw new IllegalArgumentException("Arc " + i + " has negative weight: " + weight[i]);
+      }
+      m_offset[from[i]+1]++;
+      m_roffset[to[i]+1]++;
+    }
+    for (int i = 0; i < nnodes; i++) {
+      m_offset[i+1] += m_offset[i];
+      m_roffset[i+1] += m_roffset[i];
+    }
+
+    //scatter the arcs, a stable counting sort on source (target) node
+    int[] fpos = new int[nnodes];
+    int[] rpos = new int[nnodes];
+    System.arraycopy(m_offset, 0, fpos, 0, nnodes);
+    System.arraycopy(m_roffset, 0, rpos, 0, nnodes);
+
+    for (int i = 0; i < narcs; i++) {
+      int e = edge == null ? i : edge[i];
+
+      int p = fpos[from[i]]++;
+      m_target[p] = to[i];
+      m_weight[p] = weight[i];
+      m_edge[p] = e;
+
+      p = rpos[to[i]]++;
+      m_rtarget[p] = from[i];
+      m_rweight[p] = weight[i];
+      m_redge[p] = e;
+    }
+
+    if (nodes != null) {
+      if (nodes.length != nnodes) {
+        throw new IllegalArgumentException("Node array must be of length " + nnodes);
+      }
+      m_nodes = nodes.clone();
+      m_node2index = new IdentityHashMap<Node,Integer>(nnodes);
+      for (int i = 0; i < nnodes; i++) {
+        m_node2index.put(nodes[i], i);
+      }
+    }
+    m_edges = edges == null ? null : edges.clone();
+  }
+
+  /**
+   * Builds a compact representation of a graph.
+   *
+   * @param graph The graph.
+   * @param weighter Associates weights with the edges of the graph, weights
+   *        must not be negative.
+   */
+  public static CompactGraph build(Graph graph, EdgeWeighter weighter) {
+    int nnodes = graph.getNodes().size();
+    int nedges = graph.getEdges().size();
+
+    Node[] nodes = new Node[nnodes];
+    Map<Node,Integer> node2index = new IdentityHashMap<Node,Integer>(nnodes);
+
+    double[] x = new double[nnodes];
+    double[] y = new double[nnodes];
+    boolean xy = true;
+
+    int i = 0;
+    for (Iterator<?> itr = graph.getNodes().iterator(); itr.hasNext(); i++) {
+      Node node = (Node) itr.next();
+      nodes[i] = node;
+      node2index.put(node, i);
+
+      if (xy && node instanceof XYNode && ((XYNode) node).getCoordinate() != null) {
+        Coordinate c = ((XYNode) node).getCoordinate();
+        x[i] = c.x;
+        y[i] = c.y;
+      }
+      else {
+        xy = false;
+      }
+    }
+
+    //count arcs, undirected edges take two
+    Edge[] edges = new Edge[nedges];
+    int narcs = 0;
+    i = 0;
+    for (Iterator<?> itr = graph.getEdges().iterator(); itr.hasNext(); i++) {
+      Edge e = (Edge) itr.next();
+      edges[i] = e;
+      narcs += (e instanceof DirectedEdge || e.getNodeA() == e.getNodeB()) ? 1 : 2;
+    }
+
+    int[] from = new int[narcs];
+    int[] to = new int[narcs];
+    int[] edge = new int[narcs];
+    double[] weight = new double[narcs];
+
+    int a = 0;
+    for (i = 0; i < nedges; i++) {
+      Edge e = edges[i];
+      double w = weighter.getWeight(e);
+
+      Node na, nb;
+      if (e instanceof DirectedEdge) {
+        na = ((DirectedEdge) e).getInNode();
+        nb = ((DirectedEdge) e).getOutNode();
+      }
+      else {
+        na = e.getNodeA();
+        nb = e.getNodeB();
+      }
+
+      int ia = index(node2index, na);
+      int ib = index(node2index, nb);
+
+      from[a] = ia; to[a] = ib; weight[a] = w; edge[a++] = i;
+      if (!(e instanceof DirectedEdge) && na != nb) {
+        from[a] = ib; to[a] = ia; weight[a] = w; edge[a++] = i;
+      }
+    }
+
+    CompactGraph cg = new CompactGraph(
+      nnodes, from, to, weight, edge, xy ? x : null, xy ? y : null
+    );
+    cg.m_nodes = nodes;
+    cg.m_edges = edges;
+    cg.m_node2index = node2index;
+    return(cg);
+  }
+
+  private static int index(Map<Node,Integer> node2index, Node node) {
+    Integer i = node2index.get(node);
+    if (i == null) {
+      throw new IllegalArgumentException("Edge references a node not in the graph");
+    }
+    return(i.intValue());
+  }
+
+  /**
+   * Returns the number of nodes in the graph.
+   */
+  public int getNodeCount() {
+    return(m_nnodes);
+  }
+
+  /**
+   * Returns the number of arcs in the graph.
+   */
+  public int getArcCount() {
+    return(m_target.length);
+  }
+
+  /**
+   * Returns the index of the first arc leaving a node, the arcs of node
+   * <code>n</code> end at <code>getArcOffset(n+1)</code>.
+   */
+  public int getArcOffset(int node) {
+    return(m_offset[node]);
+  }
+
+  public int getArcTarget(int arc) {
+    return(m_target[arc]);
+  }
+
+  public double getArcWeight(int arc) {
+    return(m_weight[arc]);
+  }
+
+  public int getArcEdge(int arc) {
+    return(m_edge[arc]);
+  }
+
+  /**
+   * Returns the index of the first arc entering a node, the reverse arcs of
+   * node <code>n</code> end at <code>getReverseArcOffset(n+1)</code>.
+   */
+  public int getReverseArcOffset(int node) {
+    return(m_roffset[node]);
+  }
+
+  /**
+   * Returns the node a reverse arc comes from.
+   */
+  public int getReverseArcSource(int arc) {
+    return(m_rtarget[arc]);
+  }
+
+  public double getReverseArcWeight(int arc) {
+    return(m_rweight[arc]);
+  }
+
+  public int getReverseArcEdge(int arc) {
+    return(m_redge[arc]);
+  }
+
+  /**
+   * Returns true if coordinates are known for the nodes of the graph.
+   */
+  public boolean hasCoordinates() {
+    return(m_x != null);
+  }
+
+  public double getX(int node) {
+    return(m_x[node]);
+  }
+
+  public double getY(int node) {
+    return(m_y[node]);
+  }
+
+  /**
+   * Returns the index of a node of the original graph, or -1 if the node is
+   * unknown.
+   */
+  public int indexOf(Node node) {
+    if (m_node2index == null) return(-1);
+    Integer i = m_node2index.get(node);
+    return(i == null ? -1 : i.intValue());
+  }
+
+  /**
+   * Returns the node of the original graph at an index, or null if the graph
+   * was not built from a {@link Graph}.
+   */
+  public Node getNode(int node) {
+    return(m_nodes == null ? null : m_nodes[node]);
+  }
+
+  /**
+   * Returns the edge of the original graph at an index, or null if the graph
+   * was not built from a {@link Graph}.
+   */
+  public Edge getEdge(int edge) {
+    return(m_edges == null ? null : m_edges[edge]);
+  }
+
+}
@@ -0,0 +1,261 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.graph.structure.compact;
+
+/**
+ * Result of contracting the nodes of a {@link CompactGraph} one at a time in
+ * order of increasing <B>rank</B>. Contracting a node removes it from the
+ * remaining graph and adds a <B>shortcut</B> arc between each pair of its
+ * neighbours whose shortest path went through it. A shortest path query
+ * then only has to follow arcs towards nodes of higher rank, from both the
+ * source and the target, which visits a tiny part of the graph.<BR>
+ * <BR>
+ * The hierarchy keeps every arc of the original graph together with all the
+ * shortcuts. Each arc is either an original arc, with the index of the edge
+ * it was created from, or a shortcut, with the indexes of the two arcs it
+ * replaces so that paths can be unpacked onto original edges. For searching,
+ * the arcs are split in two CSR adjacency structures:
+ * <ul>
+ *   <li><B>upward</B> arcs, arcs from a node to a node of higher rank,
+ *       indexed by their source node.</li>
+ *   <li><B>downward</B> arcs, arcs from a node to a node of lower rank,
+ *       indexed by their target node.</li>
+ * </ul>
+ * Instances are immutable and may be shared among threads.
+ *
+ * @see org.geotools.graph.build.compact.ContractionHierarchyBuilder
+ * @see org.geotools.graph.path.ContractionHierarchyPathFinder
+ *
+ * @source $URL$
+ */
+public class ContractionHierarchy {
+
+  private int m_nnodes;
+  private int[] m_rank;
+
+  /** all arcs, original ones and shortcuts **/
+  private int[] m_from;
+  private int[] m_to;
+  private double[] m_weight;
+  private int[] m_edge;
+  private int[] m_child1;
+  private int[] m_child2;
+
+  /** upward adjacency, by source node **/
+  private int[] m_upOffset;
+  private int[] m_upArc;
+  private int[] m_upTarget;
+  private double[] m_upWeight;
+
+  /** downward adjacency, by target node **/
+  private int[] m_downOffset;
+  private int[] m_downArc;
+  private int[] m_downSource;
+  private double[] m_downWeight;
+
+  /** node coordinates, may be null **/
+  private double[] m_x;
+  private double[] m_y;
+
+  /**
+   * Creates a hierarchy from its arcs.
+   *
+   * @param nnodes Number of nodes.
+   * @param rank Contraction order of each node.
+   * @param from Source node of each arc.
+   * @param to Target node of each arc.
+   * @param weight Weight of each arc.
+   * @param edge Original edge of each arc, -1 for shortcuts.
+   * @param child1 First replaced arc of each shortcut, -1 for original arcs.
+   * @param child2 Second replaced arc of each shortcut, -1 for original arcs.
+   * @param x Node x ordinates, may be null.
+   * @param y Node y ordinates, may be null.
+   */
+  public ContractionHierarchy(
+    int nnodes, int[] rank, int[] from, int[] to, double[] weight, int[] edge,
+    int[] child1, int[] child2, double[] x, double[] y
+  ) {
+    int narcs = from.length;
+    if (rank.length != nnodes) {
+      throw new IllegalArgumentException("Rank array must be of length " + nnodes);
+    }
+    if (to.length != narcs || weight.length != narcs || edge.length != narcs
+      || child1.length != narcs || child2.length != narcs) {
+      throw new IllegalArgumentException("Arc arrays must be of equal length");
+    }
+
+    m_nnodes = nnodes;
+    m_rank = rank;
+    m_from = from;
+    m_to = to;
+    m_weight = weight;
+    m_edge = edge;
+    m_child1 = child1;
+    m_child2 = child2;
+    m_x = x;
+    m_y = y;
+
+    m_upOffset = new int[nnodes+1];
+    m_downOffset = new int[nnodes+1];
+
+    int nup = 0;
+    for (int a = 0; a < narcs; a++) {
+      if (from[a] == to[a]) continue;
+      if (rank[from[a]] < rank[to[a]]) {
+        m_upOffset[from[a]+1]++;
+        nup++;
+      }
+      else {
+        m_downOffset[to[a]+1]++;
+      }
+    }
+    for (int i = 0; i < nnodes; i++) {
+      m_upOffset[i+1] += m_upOffset[i];
+      m_downOffset[i+1] += m_downOffset[i];
+    }
+
+    int ndown = m_downOffset[nnodes];
+    m_upArc = new int[nup];
+    m_upTarget = new int[nup];
+    m_upWeight = new double[nup];
+    m_downArc = new int[ndown];
+    m_downSource = new int[ndown];
+    m_downWeight = new double[ndown];
+
+    int[] upos = new int[nnodes];
+    int[] dpos = new int[nnodes];
+    System.arraycopy(m_upOffset, 0, upos, 0, nnodes);
+    System.arraycopy(m_downOffset, 0, dpos, 0, nnodes);
+
+    for (int a = 0; a < narcs; a++) {
+      if (from[a] == to[a]) continue;
+      if (rank[from[a]] < rank[to[a]]) {
+        int p = upos[from[a]]++;
+        m_upArc[p] = a;
+        m_upTarget[p] = to[a];
+        m_upWeight[p] = weight[a];
+      }
+      else {
+        int p = dpos[to[a]]++;
+        m_downArc[p] = a;
+        m_downSource[p] = from[a];
+        m_downWeight[p] = weight[a];
+      }
+    }
+  }
+
+  public int getNodeCount() {
+    return(m_nnodes);
+  }
+
+  /**
+   * Returns the number of arcs, original ones and shortcuts.
+   */
+  public int getArcCount() {
+    return(m_from.length);
+  }
+
+  public int getRank(int node) {
+    return(m_rank[node]);
+  }
+
+  public int getArcFrom(int arc) {
+    return(m_from[arc]);
+  }
+
+  public int getArcTo(int arc) {
+    return(m_to[arc]);
+  }
+
+  public double getArcWeight(int arc) {
+    return(m_weight[arc]);
+  }
+
+  /**
+   * Returns the original edge of an arc, or -1 if the arc is a shortcut.
+   */
+  public int getArcEdge(int arc) {
+    return(m_edge[arc]);
+  }
+
+  public boolean isShortcut(int arc) {
+    return(m_child1[arc] >= 0);
+  }
+
+  /**
+   * Returns the first of the two arcs a shortcut replaces.
+   */
+  public int getFirstChild(int arc) {
+    return(m_child1[arc]);
+  }
+
+  /**
+   * Returns the second of the two arcs a shortcut replaces.
+   */
+  public int getSecondChild(int arc) {
+    return(m_child2[arc]);
+  }
+
+  public boolean hasCoordinates() {
+    return(m_x != null);
+  }
+
+  public double getX(int node) {
+    return(m_x[node]);
+  }
+
+  public double getY(int node) {
+    return(m_y[node]);
+  }
+
+  /*
+   * direct array access for the searches in this module, the arrays must
+   * not be modified.
+   */
+
+  public int[] upOffsets() {
+    return(m_upOffset);
+  }
+
+  public int[] upArcs() {
+    return(m_upArc);
+  }
+
+  public int[] upTargets() {
+    return(m_upTarget);
+  }
+
+  public double[] upWeights() {
+    return(m_upWeight);
+  }
+
+  public int[] downOffsets() {
+    return(m_downOffset);
+  }
+
+  public int[] downArcs() {
+    return(m_downArc);
+  }
+
+  public int[] downSources() {
+    return(m_downSource);
+  }
+
+  public double[] downWeights() {
+    return(m_downWeight);
+  }
+}
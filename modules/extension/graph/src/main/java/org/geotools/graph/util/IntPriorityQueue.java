@@ -0,0 +1,191 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.graph.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Indexed binary min heap of integer keys in the range <code>[0,capacity)</code>
+ * prioritized by a double value. Unlike {@link PriorityQueue} it does not box
+ * its elements nor keep a hash map of element positions; the position of each
+ * key is kept in a plain <code>int[]</code> which makes decrease key a constant
+ * time lookup followed by a sift up.<BR>
+ * <BR>
+ * Instances are not thread safe, but are cheap to {@link #clear()} and are
+ * intended to be reused across many searches.
+ *
+ * @source $URL$
+ */
+public class IntPriorityQueue {
+
+  /** heap ordered keys, the root is at index 0 **/
+  private int[] m_heap;
+
+  /** priorities, indexed by key **/
+  private double[] m_priority;
+
+  /** position of each key in the heap, -1 if not queued **/
+  private int[] m_index;
+
+  /** number of keys in the heap **/
+  private int m_count;
+
+  /**
+   * Creates a queue able to hold keys in the range <code>[0,capacity)</code>.
+   */
+  public IntPriorityQueue(int capacity) {
+    m_heap = new int[Math.max(capacity, 1)];
+    m_priority = new double[capacity];
+    m_index = new int[capacity];
+    Arrays.fill(m_index, -1);
+  }
+
+  /**
+   * Returns the number of keys the queue can index.
+   */
+  public int capacity() {
+    return(m_index.length);
+  }
+
+  public int size() {
+    return(m_count);
+  }
+
+  public boolean isEmpty() {
+    return(m_count == 0);
+  }
+
+  public boolean contains(int key) {
+    return(m_index[key] >= 0);
+  }
+
+  /**
+   * Returns the priority last assigned to a queued key.
+   */
+  public double getPriority(int key) {
+    return(m_priority[key]);
+  }
+
+  /**
+   * Inserts a key, or lowers its priority if it is already queued with a
+   * higher one.
+   *
+   * @return True if the queue was modified.
+   */
+  public boolean offer(int key, double priority) {
+    int i = m_index[key];
+    if (i < 0) {
+      m_priority[key] = priority;
+      m_heap[m_count] = key;
+      m_index[key] = m_count;
+      moveUp(m_count++);
+      return(true);
+    }
+    if (priority < m_priority[key]) {
+      m_priority[key] = priority;
+      moveUp(i);
+      return(true);
+    }
+    return(false);
+  }
+
+  /**
+   * Returns the key with least priority without removing it.
+   */
+  public int peek() {
+    if (m_count == 0) throw new NoSuchElementException("Heap empty.");
+    return(m_heap[0]);
+  }
+
+  /**
+   * Returns the least priority in the queue.
+   */
+  public double peekPriority() {
+    if (m_count == 0) throw new NoSuchElementException("Heap empty.");
+    return(m_priority[m_heap[0]]);
+  }
+
+  /**
+   * Removes and returns the key with least priority.
+   */
+  public int poll() {
+    if (m_count == 0) throw new NoSuchElementException("Heap empty.");
+
+    int key = m_heap[0];
+    m_index[key] = -1;
+
+    if (--m_count > 0) {
+      int last = m_heap[m_count];
+      m_heap[0] = last;
+      m_index[last] = 0;
+      moveDown(0);
+    }
+    return(key);
+  }
+
+  /**
+   * Empties the queue. Only the queued keys are touched so the cost is
+   * proportional to the size of the queue, not its capacity.
+   */
+  public void clear() {
+    for (int i = 0; i < m_count; i++) {
+      m_index[m_heap[i]] = -1;
+    }
+    m_count = 0;
+  }
+
+  private void moveUp(int i) {
+    int key = m_heap[i];
+    double p = m_priority[key];
+
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      int pkey = m_heap[parent];
+      if (m_priority[pkey] <= p) break;
+
+      m_heap[i] = pkey;
+      m_index[pkey] = i;
+      i = parent;
+    }
+    m_heap[i] = key;
+    m_index[key] = i;
+  }
+
+  private void moveDown(int i) {
+    int key = m_heap[i];
+    double p = m_priority[key];
+    int half = m_count >>> 1;
+
+    while (i < half) {
+      int child = (i << 1) + 1;
+      int ckey = m_heap[child];
+      int right = child + 1;
+      if (right < m_count && m_priority[m_heap[right]] < m_priority[ckey]) {
+        child = right;
+        ckey = m_heap[right];
+      }
+      if (p <= m_priority[ckey]) break;
+
+      m_heap[i] = ckey;
+      m_index[ckey] = i;
+      i = child;
+    }
+    m_heap[i] = key;
+    m_index[key] = i;
+  }
+}
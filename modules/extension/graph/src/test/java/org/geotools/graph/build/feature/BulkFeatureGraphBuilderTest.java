@@ -0,0 +1,146 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.graph.build.feature;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.graph.build.line.LineStringGraphGenerator;
+import org.geotools.graph.path.CompactShortestPathFinder;
+import org.geotools.graph.structure.Edge;
+import org.geotools.graph.structure.Graph;
+import org.geotools.graph.structure.Node;
+import org.geotools.graph.structure.compact.CompactGraph;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ *
+ *
+ * @source $URL$
+ */
+public class BulkFeatureGraphBuilderTest extends TestCase {
+
+  public void testSameGraphAsGenerator() throws Exception {
+    checkSameGraph(0d);
+  }
+
+  public void testSameGraphAsGeneratorWithTolerance() throws Exception {
+    checkSameGraph(0.3);
+  }
+
+  public void testCompactGraph() throws Exception {
+    GeometryFactory gf = new GeometryFactory();
+    SimpleFeature[] features = features(new LineString[]{
+      gf.createLineString(new Coordinate[]{new Coordinate(0, 0), new Coordinate(3, 4)}),
+      gf.createLineString(new Coordinate[]{new Coordinate(3, 4), new Coordinate(3, 10)}),
+      gf.createLineString(new Coordinate[]{new Coordinate(0, 0), new Coordinate(0, 20)}),
+    });
+
+    BulkFeatureGraphBuilder builder = new BulkFeatureGraphBuilder();
+    for (int i = 0; i < features.length; i++) builder.add(features[i]);
+    Graph graph = builder.build();
+    assertEquals(4, graph.getNodes().size());
+    assertEquals(3, graph.getEdges().size());
+
+    CompactGraph cg = builder.getCompactGraph();
+    assertEquals(4, cg.getNodeCount());
+    assertEquals(6, cg.getArcCount());
+    assertTrue(cg.hasCoordinates());
+
+    for (Iterator itr = graph.getEdges().iterator(); itr.hasNext();) {
+      Edge e = (Edge) itr.next();
+      assertSame(features[e.getID()], e.getObject());
+      assertSame(e, cg.getEdge(e.getID()));
+    }
+    for (Iterator itr = graph.getNodes().iterator(); itr.hasNext();) {
+      Node n = (Node) itr.next();
+      assertEquals(n.getID(), cg.indexOf(n));
+      Coordinate c = ((Point) n.getObject()).getCoordinate();
+      assertEquals(c.x, cg.getX(n.getID()), 0d);
+      assertEquals(c.y, cg.getY(n.getID()), 0d);
+    }
+
+    //first node is the start of the first line, third the end of the second
+    CompactShortestPathFinder finder = new CompactShortestPathFinder(cg);
+    assertEquals(11d, finder.dijkstra(0, 2).getCost(), 1e-9);
+  }
+
+  void checkSameGraph(double tolerance) throws Exception {
+    Random r = new Random(1);
+    GeometryFactory gf = new GeometryFactory();
+    LineString[] lines = new LineString[2000];
+    for (int i = 0; i < lines.length; i++) {
+      Coordinate c1 = new Coordinate(r.nextInt(30) + r.nextDouble() * tolerance / 2, r.nextInt(30));
+      Coordinate c2 = new Coordinate(r.nextInt(30), r.nextInt(30) + r.nextDouble() * tolerance / 2);
+      lines[i] = gf.createLineString(new Coordinate[]{c1, c2});
+    }
+    SimpleFeature[] features = features(lines);
+
+    LineStringGraphGenerator lsgg = tolerance > 0
+      ? new LineStringGraphGenerator(tolerance) : new LineStringGraphGenerator();
+    for (int i = 0; i < lines.length; i++) {
+      lsgg.add(gf.createLineString(lines[i].getCoordinates()));
+    }
+
+    BulkFeatureGraphBuilder builder = new BulkFeatureGraphBuilder(tolerance);
+    builder.setThreadCount(4);
+    for (int i = 0; i < features.length; i++) builder.add(features[i]);
+    Graph graph = builder.build();
+
+    assertEquals(lsgg.getGraph().getNodes().size(), graph.getNodes().size());
+    assertEquals(lsgg.getGraph().getEdges().size(), graph.getEdges().size());
+    assertEquals(nodes(lsgg.getGraph()), nodes(graph));
+  }
+
+  /**
+   * Returns the coordinate and degree of every node of a graph.
+   */
+  Set<String> nodes(Graph graph) {
+    Set<String> nodes = new HashSet<String>();
+    for (Iterator itr = graph.getNodes().iterator(); itr.hasNext();) {
+      Node n = (Node) itr.next();
+      nodes.add(((Point) n.getObject()).getCoordinate() + "/" + n.getDegree());
+    }
+    return(nodes);
+  }
+
+  SimpleFeature[] features(LineString[] lines) throws Exception {
+    SimpleFeatureTypeBuilder b = new SimpleFeatureTypeBuilder();
+    b.setName("test");
+    b.add("the_geom", LineString.class);
+    b.add("id", Integer.class);
+    SimpleFeatureType schema = b.buildFeatureType();
+
+    SimpleFeature[] features = new SimpleFeature[lines.length];
+    for (int i = 0; i < lines.length; i++) {
+      features[i] = SimpleFeatureBuilder.build(schema, new Object[] {lines[i], i}, "fid" + i);
+    }
+    return(features);
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.graph.io.standard;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.geotools.graph.GraphTestUtil;
+import org.geotools.graph.build.GraphBuilder;
+import org.geotools.graph.build.basic.BasicGraphBuilder;
+import org.geotools.graph.path.ContractionHierarchyPathFinder;
+import org.geotools.graph.structure.Edge;
+import org.geotools.graph.structure.Graph;
+import org.geotools.graph.structure.GraphVisitor;
+import org.geotools.graph.structure.Graphable;
+import org.geotools.graph.structure.Node;
+import org.geotools.graph.structure.compact.ContractionHierarchy;
+import org.geotools.graph.traverse.standard.DijkstraIterator;
+
+/**
+ *
+ *
+ * @source $URL$
+ */
+public class ContractionHierarchyReaderWriterTest extends TestCase {
+
+  /**
+   * Create a simple graph with no bifurcations, write its hierarchy and read
+   * it back. <BR>
+   * <BR>
+   * Expected: 1. hierarchy answers queries over the whole graph.
+   *           2. rebuilt graph is still a chain.
+   */
+  public void test_0() throws Exception {
+    final int nnodes = 100;
+    GraphBuilder builder = new BasicGraphBuilder();
+    GraphTestUtil.buildNoBifurcations(builder, nnodes);
+
+    File victim = File.createTempFile("graph", ".ch");
+    victim.deleteOnExit();
+
+    ContractionHierarchyReaderWriter rw = new ContractionHierarchyReaderWriter();
+    rw.setProperty(ContractionHierarchyReaderWriter.FILENAME, victim.getAbsolutePath());
+    rw.setProperty(ContractionHierarchyReaderWriter.BUILDER, new BasicGraphBuilder());
+    rw.setProperty(ContractionHierarchyReaderWriter.WEIGHTER,
+      new DijkstraIterator.EdgeWeighter() {
+        public double getWeight(Edge e) {
+          return 2;
+        }
+      }
+    );
+    rw.write(builder.getGraph());
+
+    ContractionHierarchy ch = rw.readHierarchy();
+    assertEquals(nnodes, ch.getNodeCount());
+
+    //the ends of the graph are the farthest apart
+    int[] all = new int[nnodes];
+    for (int i = 0; i < nnodes; i++) all[i] = i;
+    double[][] matrix = new ContractionHierarchyPathFinder(ch).distances(all, all);
+    double max = 0;
+    for (int i = 0; i < nnodes; i++) {
+      for (int j = 0; j < nnodes; j++) {
+        assertEquals(matrix[i][j], matrix[j][i], 0d);
+        max = Math.max(max, matrix[i][j]);
+      }
+    }
+    assertEquals(2d * (nnodes-1), max, 0d);
+
+    Graph before = builder.getGraph();
+    Graph after = rw.read();
+    assertEquals(before.getNodes().size(), after.getNodes().size());
+    assertEquals(before.getEdges().size(), after.getEdges().size());
+
+    //still a chain
+    final int[] degrees = new int[3];
+    after.visitNodes(
+      new GraphVisitor() {
+        public int visit(Graphable component) {
+          degrees[((Node)component).getDegree()]++;
+          return(0);
+        }
+      }
+    );
+    assertEquals(0, degrees[0]);
+    assertEquals(2, degrees[1]);
+    assertEquals(nnodes-2, degrees[2]);
+  }
+}
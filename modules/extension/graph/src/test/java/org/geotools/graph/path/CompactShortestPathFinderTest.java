@@ -0,0 +1,234 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.graph.path;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.geotools.graph.GraphTestUtil;
+import org.geotools.graph.build.GraphBuilder;
+import org.geotools.graph.build.basic.BasicDirectedGraphBuilder;
+import org.geotools.graph.build.basic.BasicGraphBuilder;
+import org.geotools.graph.build.line.BasicLineGraphBuilder;
+import org.geotools.graph.path.CompactShortestPathFinder.CompactPath;
+import org.geotools.graph.structure.Edge;
+import org.geotools.graph.structure.Node;
+import org.geotools.graph.structure.compact.CompactGraph;
+import org.geotools.graph.structure.line.XYNode;
+import org.geotools.graph.traverse.standard.DijkstraIterator;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ *
+ *
+ * @source $URL$
+ */
+public class CompactShortestPathFinderTest extends TestCase {
+
+  /**
+   * Create a graph with no bifurcations and calculate path from beginning
+   * to end. <BR>
+   * <BR>
+   * Expected: 1. Path should contain every node in graph in order.
+   */
+  public void testNoBifurcations() {
+    GraphBuilder builder = new BasicGraphBuilder();
+    Node[] ends = GraphTestUtil.buildNoBifurcations(builder, 100);
+
+    CompactGraph graph = CompactGraph.build(builder.getGraph(), unit());
+    CompactShortestPathFinder finder = new CompactShortestPathFinder(graph);
+
+    Path p = finder.getPath(ends[0], ends[1]);
+    assertEquals(100, p.size());
+    for (int i = 0; i < p.size(); i++) {
+      assertEquals(i, ((Node)p.get(i)).getID());
+    }
+
+    CompactPath cp = finder.bidirectional(graph.indexOf(ends[0]), graph.indexOf(ends[1]));
+    assertEquals(99d, cp.getCost(), 0d);
+    assertEquals(100, cp.getNodes().length);
+    assertEquals(99, cp.getEdges().length);
+    assertTrue(cp.toPath().isValid());
+
+    //the path arrays are copies
+    cp.getNodes()[0] = -1;
+    assertEquals(graph.indexOf(ends[0]), cp.getNodes()[0]);
+  }
+
+  /**
+   * Create a circular graph and calculate a path from beginning to end. <BR>
+   * <BR>
+   * Expected: 1. Path should just contain end nodes.
+   */
+  public void testCircular() {
+    GraphBuilder builder = new BasicGraphBuilder();
+    Node[] ends = GraphTestUtil.buildCircular(builder, 100);
+
+    CompactGraph graph = CompactGraph.build(builder.getGraph(), unit());
+    CompactShortestPathFinder finder = new CompactShortestPathFinder(graph);
+
+    int s = graph.indexOf(ends[0]);
+    int t = graph.indexOf(ends[1]);
+
+    CompactPath[] paths = new CompactPath[]{
+      finder.dijkstra(s, t), finder.bidirectional(s, t)
+    };
+    for (int i = 0; i < paths.length; i++) {
+      assertEquals(1d, paths[i].getCost(), 0d);
+      assertEquals(2, paths[i].getNodes().length);
+      assertSame(ends[1], graph.getNode(paths[i].getNodes()[1]));
+    }
+  }
+
+  /**
+   * Create a directed chain and search against the direction of the edges.
+   * <BR>
+   * <BR>
+   * Expected: 1. No path is found.
+   */
+  public void testDirected() {
+    GraphBuilder builder = new BasicDirectedGraphBuilder();
+    Node[] ends = GraphTestUtil.buildNoBifurcations(builder, 10);
+
+    CompactGraph graph = CompactGraph.build(builder.getGraph(), unit());
+    CompactShortestPathFinder finder = new CompactShortestPathFinder(graph);
+
+    int s = graph.indexOf(ends[0]);
+    int t = graph.indexOf(ends[1]);
+
+    assertNotNull(finder.dijkstra(s, t));
+    assertNotNull(finder.bidirectional(s, t));
+    assertNull(finder.dijkstra(t, s));
+    assertNull(finder.bidirectional(t, s));
+  }
+
+  /**
+   * Create a grid with random weights and compare every search with the
+   * costs of the standard dijkstra iteration.
+   */
+  public void testGrid() {
+    final Map<Edge,Double> weights = new HashMap<Edge,Double>();
+    Random r = new Random(42);
+
+    int n = 20;
+    BasicLineGraphBuilder builder = new BasicLineGraphBuilder();
+    Node[][] nodes = new Node[n][n];
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        XYNode node = (XYNode) builder.buildNode();
+        node.setCoordinate(new Coordinate(i, j));
+        builder.addNode(node);
+        nodes[i][j] = node;
+
+        if (i > 0) weights.put(addEdge(builder, nodes[i-1][j], node), 1 + r.nextDouble());
+        if (j > 0) weights.put(addEdge(builder, nodes[i][j-1], node), 1 + r.nextDouble());
+      }
+    }
+
+    DijkstraIterator.EdgeWeighter weighter = new DijkstraIterator.EdgeWeighter() {
+      public double getWeight(Edge e) {
+        return(weights.get(e));
+      }
+    };
+
+    CompactGraph graph = CompactGraph.build(builder.getGraph(), weighter);
+    assertTrue(graph.hasCoordinates());
+    assertEquals(2 * weights.size(), graph.getArcCount());
+
+    CompactShortestPathFinder finder = new CompactShortestPathFinder(graph);
+    CompactShortestPathFinder.Heuristic h = CompactShortestPathFinder.euclidean(graph, 1);
+
+    Node source = nodes[3][5];
+    DijkstraShortestPathFinder reference =
+      new DijkstraShortestPathFinder(builder.getGraph(), source, weighter);
+    reference.calculate();
+
+    int s = graph.indexOf(source);
+    double[] costs = finder.costs(s);
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        int t = graph.indexOf(nodes[i][j]);
+        double expected = reference.getCost(nodes[i][j]);
+
+        assertEquals(expected, costs[t], 1e-9);
+        assertEquals(expected, finder.dijkstra(s, t).getCost(), 1e-9);
+        assertEquals(expected, finder.bidirectional(s, t).getCost(), 1e-9);
+        assertEquals(expected, finder.aStar(s, t, h).getCost(), 1e-9);
+
+        assertEquals(expected, pathCost(graph, finder.bidirectional(s, t), weighter), 1e-9);
+        assertTrue(finder.aStar(s, t, h).toPath().isValid());
+      }
+    }
+  }
+
+  /**
+   * Alternate searches over a small and a large graph in the same thread,
+   * which share the search state. <BR>
+   * <BR>
+   * Expected: 1. Every search finds the path of its own graph.
+   */
+  public void testSharedState() {
+    GraphBuilder small = new BasicGraphBuilder();
+    Node[] se = GraphTestUtil.buildNoBifurcations(small, 10);
+    GraphBuilder large = new BasicGraphBuilder();
+    Node[] le = GraphTestUtil.buildNoBifurcations(large, 100);
+
+    CompactGraph sg = CompactGraph.build(small.getGraph(), unit());
+    CompactGraph lg = CompactGraph.build(large.getGraph(), unit());
+    CompactShortestPathFinder sf = new CompactShortestPathFinder(sg);
+    CompactShortestPathFinder lf = new CompactShortestPathFinder(lg);
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals(9d, sf.dijkstra(sg.indexOf(se[0]), sg.indexOf(se[1])).getCost(), 0d);
+      assertEquals(99d, lf.bidirectional(lg.indexOf(le[0]), lg.indexOf(le[1])).getCost(), 0d);
+      assertEquals(9d, sf.bidirectional(sg.indexOf(se[0]), sg.indexOf(se[1])).getCost(), 0d);
+      assertEquals(99d, lf.dijkstra(lg.indexOf(le[0]), lg.indexOf(le[1])).getCost(), 0d);
+      assertEquals(10, sf.costs(sg.indexOf(se[0])).length);
+    }
+  }
+
+  private Edge addEdge(GraphBuilder builder, Node a, Node b) {
+    Edge e = builder.buildEdge(a, b);
+    builder.addEdge(e);
+    return(e);
+  }
+
+  private double pathCost(
+    CompactGraph graph, CompactPath path, DijkstraIterator.EdgeWeighter weighter
+  ) {
+    double cost = 0;
+    int[] edges = path.getEdges();
+    for (int i = 0; i < edges.length; i++) {
+      cost += weighter.getWeight(graph.getEdge(edges[i]));
+    }
+    return(cost);
+  }
+
+  private DijkstraIterator.EdgeWeighter unit() {
+    return(
+      new DijkstraIterator.EdgeWeighter() {
+        public double getWeight(Edge e) {
+          return 1;
+        }
+      }
+    );
+  }
+}
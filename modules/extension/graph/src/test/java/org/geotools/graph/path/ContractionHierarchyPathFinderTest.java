@@ -0,0 +1,149 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.graph.path;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.geotools.graph.GraphTestUtil;
+import org.geotools.graph.build.GraphBuilder;
+import org.geotools.graph.build.basic.BasicGraphBuilder;
+import org.geotools.graph.build.compact.ContractionHierarchyBuilder;
+import org.geotools.graph.path.CompactShortestPathFinder.CompactPath;
+import org.geotools.graph.structure.Edge;
+import org.geotools.graph.structure.Node;
+import org.geotools.graph.structure.compact.CompactGraph;
+import org.geotools.graph.structure.compact.ContractionHierarchy;
+import org.geotools.graph.traverse.standard.DijkstraIterator;
+
+/**
+ *
+ *
+ * @source $URL$
+ */
+public class ContractionHierarchyPathFinderTest extends TestCase {
+
+  /**
+   * Create a graph with no bifurcations and calculate path from beginning
+   * to end. <BR>
+   * <BR>
+   * Expected: 1. Path should contain every node in graph in order.
+   */
+  public void testNoBifurcations() {
+    GraphBuilder builder = new BasicGraphBuilder();
+    Node[] ends = GraphTestUtil.buildNoBifurcations(builder, 100);
+
+    DijkstraIterator.EdgeWeighter weighter = new DijkstraIterator.EdgeWeighter() {
+      public double getWeight(Edge e) {
+        return 1;
+      }
+    };
+    CompactGraph graph = CompactGraph.build(builder.getGraph(), weighter);
+    ContractionHierarchy ch = new ContractionHierarchyBuilder().build(graph);
+    ContractionHierarchyPathFinder finder = new ContractionHierarchyPathFinder(ch, graph);
+
+    Path p = finder.getPath(ends[0], ends[1]);
+    assertEquals(100, p.size());
+    for (int i = 0; i < p.size(); i++) {
+      assertEquals(i, ((Node)p.get(i)).getID());
+    }
+    assertTrue(p.isValid());
+  }
+
+  /**
+   * Build a hierarchy over random directed and undirected graphs and compare
+   * every query with a plain dijkstra search.
+   */
+  public void testRandomGraphs() {
+    Random r = new Random(7);
+    for (int k = 0; k < 4; k++) {
+      CompactGraph graph = randomGraph(r, 150, 400, k % 2 == 0);
+      ContractionHierarchyBuilder builder = new ContractionHierarchyBuilder();
+      builder.setWitnessLimit(k < 2 ? 500 : 3);
+      ContractionHierarchy ch = builder.build(graph);
+
+      CompactShortestPathFinder reference = new CompactShortestPathFinder(graph);
+      ContractionHierarchyPathFinder finder = new ContractionHierarchyPathFinder(ch);
+
+      int[] nodes = new int[20];
+      for (int i = 0; i < nodes.length; i++) nodes[i] = r.nextInt(graph.getNodeCount());
+      double[][] matrix = finder.distances(nodes, nodes);
+
+      for (int i = 0; i < nodes.length; i++) {
+        double[] costs = reference.costs(nodes[i]);
+        for (int j = 0; j < nodes.length; j++) {
+          double expected = costs[nodes[j]];
+          assertEquals(expected, finder.cost(nodes[i], nodes[j]), 1e-9);
+          assertEquals(expected, matrix[i][j], 1e-9);
+
+          CompactPath p = finder.path(nodes[i], nodes[j]);
+          if (Double.isInfinite(expected)) {
+            assertNull(p);
+            continue;
+          }
+          assertEquals(expected, p.getCost(), 1e-9);
+
+          //path must follow original arcs and add up to its cost
+          int[] pn = p.getNodes();
+          int[] pe = p.getEdges();
+          assertEquals(nodes[i], pn[0]);
+          assertEquals(nodes[j], pn[pn.length-1]);
+          assertEquals(pn.length - 1, pe.length);
+
+          double sum = 0;
+          for (int e = 0; e < pe.length; e++) {
+            sum += arcWeight(graph, pn[e], pn[e+1], pe[e]);
+          }
+          assertEquals(expected, sum, 1e-9);
+        }
+      }
+    }
+  }
+
+  static CompactGraph randomGraph(Random r, int nnodes, int nedges, boolean directed) {
+    int narcs = directed ? nedges : 2 * nedges;
+    int[] from = new int[narcs];
+    int[] to = new int[narcs];
+    int[] edge = new int[narcs];
+    double[] weight = new double[narcs];
+
+    int a = 0;
+    for (int e = 0; e < nedges; e++) {
+      int u = r.nextInt(nnodes);
+      int v = r.nextInt(nnodes);
+      double w = r.nextInt(10) + r.nextDouble();
+
+      from[a] = u; to[a] = v; weight[a] = w; edge[a++] = e;
+      if (!directed) {
+        from[a] = v; to[a] = u; weight[a] = w; edge[a++] = e;
+      }
+    }
+    return(new CompactGraph(nnodes, from, to, weight, edge, null, null));
+  }
+
+  private double arcWeight(CompactGraph graph, int from, int to, int edge) {
+    double w = Double.NaN;
+    for (int a = graph.getArcOffset(from); a < graph.getArcOffset(from+1); a++) {
+      if (graph.getArcTarget(a) == to && graph.getArcEdge(a) == edge) {
+        w = graph.getArcWeight(a);
+      }
+    }
+    assertFalse("no arc " + from + " -> " + to, Double.isNaN(w));
+    return(w);
+  }
+}
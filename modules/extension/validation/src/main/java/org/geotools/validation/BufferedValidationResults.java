@@ -0,0 +1,63 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.validation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * Records the results of a validation running on another thread, so that they can be reported
+ * to the caller's ValidationResults in the order the validations are run sequentially.
+ *
+ * @source $URL$
+ */
+class BufferedValidationResults implements ValidationResults {
+
+    private final List<Object[]> calls = new ArrayList<Object[]>();
+
+    public void setValidation(Validation validation) {
+        calls.add(new Object[] { validation });
+    }
+
+    public void error(SimpleFeature feature, String message) {
+        calls.add(new Object[] { Boolean.TRUE, feature, message });
+    }
+
+    public void warning(SimpleFeature feature, String message) {
+        calls.add(new Object[] { Boolean.FALSE, feature, message });
+    }
+
+    /**
+     * Reports the recorded results, in the order they were recorded.
+     *
+     * @param results the results to report to
+     */
+    public void replay(ValidationResults results) {
+        for (Object[] call : calls) {
+            if (call.length == 1) {
+                results.setValidation((Validation) call[0]);
+            } else if (Boolean.TRUE.equals(call[0])) {
+                results.error((SimpleFeature) call[1], (String) call[2]);
+            } else {
+                results.warning((SimpleFeature) call[1], (String) call[2]);
+            }
+        }
+        calls.clear();
+    }
+}
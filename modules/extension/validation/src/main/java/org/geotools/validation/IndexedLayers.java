@@ -0,0 +1,203 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.validation;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.opengis.feature.simple.SimpleFeature;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * The layers handed to the integrity validations of a run, with a spatial index of the features
+ * of each layer shared by all the validations of the run.
+ * <p>
+ * The map is a read only view of the layers map (key=typeRef, value=featureSource) keeping its
+ * iteration order. The index of a layer is built on first use by reading the layer once, and
+ * packed with a {@link STRtree} so that it can be queried concurrently by the validations.
+ * </p>
+ *
+ * @source $URL$
+ */
+public class IndexedLayers extends AbstractMap {
+
+    private final Map layers;
+
+    private final ConcurrentHashMap<Object, FutureTask<LayerIndex>> indexes = new ConcurrentHashMap<Object, FutureTask<LayerIndex>>();
+
+    /**
+     * @param layers the layers map, key=typeRef, value=featureSource
+     */
+    public IndexedLayers(Map layers) {
+        this.layers = layers;
+    }
+
+    public Set entrySet() {
+        return Collections.unmodifiableMap(layers).entrySet();
+    }
+
+    public Object get(Object key) {
+        return layers.get(key);
+    }
+
+    public boolean containsKey(Object key) {
+        return layers.containsKey(key);
+    }
+
+    public int size() {
+        return layers.size();
+    }
+
+    /**
+     * Returns the index of a layer, building it the first time it's asked for.
+     *
+     * @param typeRef the layer key
+     * @return the index of the layer features
+     * @throws IOException if the layer could not be read
+     */
+    public LayerIndex getIndex(Object typeRef) throws IOException {
+        FutureTask<LayerIndex> task = indexes.get(typeRef);
+        if (task == null) {
+            final SimpleFeatureSource source = (SimpleFeatureSource) layers.get(typeRef);
+            FutureTask<LayerIndex> created = new FutureTask<LayerIndex>(new Callable<LayerIndex>() {
+                public LayerIndex call() throws Exception {
+                    return new LayerIndex(source);
+                }
+            });
+            task = indexes.putIfAbsent(typeRef, created);
+            if (task == null) {
+                task = created;
+                task.run();
+            }
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            throw (IOException) new IOException("Interrupted while indexing " + typeRef)
+                    .initCause(e);
+        } catch (ExecutionException e) {
+            // let a later validation try again
+            indexes.remove(typeRef, task);
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw (IOException) new IOException("Could not index " + typeRef).initCause(e
+                    .getCause());
+        }
+    }
+
+    /**
+     * Returns the index of a layer, shared with the other validations if the layers are
+     * {@link IndexedLayers}, built for the caller alone otherwise.
+     *
+     * @param layers the layers map, key=typeRef, value=featureSource
+     * @param typeRef the layer key
+     * @return the index of the layer features
+     * @throws IOException if the layer could not be read
+     */
+    public static LayerIndex getIndex(Map layers, Object typeRef) throws IOException {
+        if (layers instanceof IndexedLayers) {
+            return ((IndexedLayers) layers).getIndex(typeRef);
+        }
+        return new LayerIndex((SimpleFeatureSource) layers.get(typeRef));
+    }
+
+    /**
+     * The features of a layer, in the order they are read, and a packed spatial index of their
+     * default geometries. Features are referred to by their position in the layer.
+     */
+    public static final class LayerIndex {
+
+        private final List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+
+        private final List<Geometry> geometries = new ArrayList<Geometry>();
+
+        private final STRtree tree = new STRtree();
+
+        LayerIndex(SimpleFeatureSource source) throws IOException {
+            SimpleFeatureIterator it = source.getFeatures().features();
+            try {
+                while (it.hasNext()) {
+                    SimpleFeature feature = it.next();
+                    Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                    if (geometry != null) {
+                        tree.insert(geometry.getEnvelopeInternal(),
+                                Integer.valueOf(features.size()));
+                    }
+                    features.add(feature);
+                    geometries.add(geometry);
+                }
+            } finally {
+                it.close();
+            }
+            // packing now makes the queries read only
+            tree.build();
+        }
+
+        /**
+         * @return the number of features in the layer
+         */
+        public int size() {
+            return features.size();
+        }
+
+        /**
+         * @return the feature at the specified position
+         */
+        public SimpleFeature getFeature(int position) {
+            return features.get(position);
+        }
+
+        /**
+         * @return the default geometry of the feature at the specified position, may be null
+         */
+        public Geometry getGeometry(int position) {
+            return geometries.get(position);
+        }
+
+        /**
+         * Looks up the features whose geometry envelope intersects the specified one.
+         *
+         * @param envelope the search envelope
+         * @return the positions of the candidate features, in ascending order
+         */
+        public int[] query(Envelope envelope) {
+            List hits = tree.query(envelope);
+            int[] positions = new int[hits.size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = ((Integer) hits.get(i)).intValue();
+            }
+            Arrays.sort(positions);
+            return positions;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.validation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * Runs the independent parts of an integrity validation run, the tests and the spatial
+ * partitions of a test, on a pool shared by all the runs.
+ * <p>
+ * The calling thread takes part in the work, and waits only for the parts picked up by the
+ * pool threads, so a test running on the pool can split its own work without starving it.
+ * </p>
+ * <p>
+ * The pool can be configured with the following system properties:
+ * <ul>
+ * <li>{@value #PARALLEL_KEY}: set to true to run the validations on the pool, they run in the
+ * calling thread only by default</li>
+ * <li>{@value #THREADS_KEY}: the number of pool threads, defaults to the number of processors</li>
+ * </ul>
+ * </p>
+ *
+ * @source $URL$
+ */
+public final class ValidationExecutor {
+    private static final Logger LOGGER = org.geotools.util.logging.Logging.getLogger(
+            "org.geotools.validation");
+
+    public static final String PARALLEL_KEY = "org.geotools.validation.parallel";
+
+    public static final String THREADS_KEY = "org.geotools.validation.threads";
+
+    static boolean PARALLEL = Boolean.getBoolean(PARALLEL_KEY);
+
+    static final int THREADS = Integer.getInteger(THREADS_KEY, Runtime.getRuntime()
+            .availableProcessors());
+
+    /**
+     * The number of features checked by each part of a validation split in spatial partitions
+     */
+    public static final int PARTITION_SIZE = 256;
+
+    private static ExecutorService executor;
+
+    /**
+     * A piece of work split in independent parts
+     */
+    public interface Task {
+        /**
+         * Runs one of the parts. Parts may run concurrently and in any order.
+         *
+         * @param part the part index
+         * @throws Exception
+         */
+        void run(int part) throws Exception;
+    }
+
+    private ValidationExecutor() {
+    }
+
+    static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            LOGGER.fine("Using " + THREADS + " validation thread(s)");
+            final AtomicInteger count = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ValidationWorker-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * @return true if the validations are run in parallel
+     */
+    public static boolean isParallel() {
+        return PARALLEL && THREADS > 1;
+    }
+
+    /**
+     * Runs all the parts of a task, returning when all of them are done.
+     *
+     * @param parts the number of parts
+     * @param task the task
+     * @throws Exception the first exception thrown by a part, the remaining parts are skipped
+     */
+    public static void run(final int parts, final Task task) throws Exception {
+        if (parts <= 1 || !isParallel()) {
+            for (int i = 0; i < parts; i++) {
+                task.run(i);
+            }
+            return;
+        }
+
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(parts);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        Runnable worker = new Runnable() {
+            public void run() {
+                int part;
+                while ((part = next.getAndIncrement()) < parts) {
+                    try {
+                        if (failure.get() == null) {
+                            task.run(part);
+                        }
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+
+        // parts are counted down by the threads that claimed them, waiting never depends on
+        // the helpers still queued, which can be dropped once all the parts are done
+        List<Future<?>> helpers = new ArrayList<Future<?>>();
+        for (int i = 1; i < Math.min(THREADS, parts); i++) {
+            helpers.add(getExecutor().submit(worker));
+        }
+        worker.run();
+        done.await();
+        for (Future<?> helper : helpers) {
+            helper.cancel(false);
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+}
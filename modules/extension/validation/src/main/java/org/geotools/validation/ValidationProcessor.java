@@ -454,34 +454,69 @@ public class ValidationProcessor {
         LOGGER.finer("Validation test about to run - " + tests.size()
             + " tests found");
 
-        for (Iterator j = tests.iterator(); j.hasNext();) {
-            IntegrityValidation validator = (IntegrityValidation) j.next();
+        // the layers are indexed once for all the tests
+        final Map layers = stores instanceof IndexedLayers ? stores : new IndexedLayers(stores);
 
-            LOGGER.finer("Running test:" + validator.getName());
-            results.setValidation(validator);
+        if (!ValidationExecutor.isParallel() || tests.size() == 1) {
+            for (Iterator j = tests.iterator(); j.hasNext();) {
+                IntegrityValidation validator = (IntegrityValidation) j.next();
+                runIntegrityTest(validator, layers, envelope, results);
+            }
+            return;
+        }
 
-            try {
-                boolean success = validator.validate(stores, envelope, results);
+        // run the tests in parallel, reporting their results in the sequential order
+        final List validators = tests;
+        final ReferencedEnvelope bounds = envelope;
+        final BufferedValidationResults[] buffers = new BufferedValidationResults[tests.size()];
+        ValidationExecutor.run(tests.size(), new ValidationExecutor.Task() {
+            public void run(int part) {
+                buffers[part] = new BufferedValidationResults();
+                runIntegrityTest((IntegrityValidation) validators.get(part), layers, bounds,
+                    buffers[part]);
+            }
+        });
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i].replay(results);
+        }
+    }
 
-                if (!success) {
-                    results.error(null, "Was not successful");
-                }
-            } catch (Throwable e) {
-                LOGGER.finer("Validation test died:" + validator.getName());
+    /**
+     * Runs an integrity test, reporting its failure to the results.
+     *
+     * @param validator the integrity test
+     * @param layers the Map of effected features (Map of key=typeRef,
+     *        value="featureSource"
+     * @param envelope The bounding box that contains all modified Features
+     * @param results Storage for the results of the validation test.
+     */
+    private void runIntegrityTest(IntegrityValidation validator, Map layers,
+        ReferencedEnvelope envelope, ValidationResults results) {
+        LOGGER.finer("Running test:" + validator.getName());
+        results.setValidation(validator);
 
-                String error = e.getClass().getName();
+        try {
+            boolean success = validator.validate(layers, envelope, results);
 
-                if (e.getMessage() != null) {
-                    error += (" - " + e.getMessage());
-                }
+            if (!success) {
+                results.error(null, "Was not successful");
+            }
+        } catch (Throwable e) {
+            LOGGER.finer("Validation test died:" + validator.getName());
+
+            String error = e.getClass().getName();
 
-                LOGGER.log(Level.WARNING,
-                    validator.getName() + " failed with " + error, e);
-                e.printStackTrace();
-                results.error(null, error);
+            if (e.getMessage() != null) {
+                error += (" - " + e.getMessage());
             }
+
+            LOGGER.log(Level.WARNING,
+                validator.getName() + " failed with " + error, e);
+            e.printStackTrace();
+            results.error(null, error);
         }
     }
+
     /** Convert a Name to a type reference (namespace ":" name) */
     protected String typeRef( Name name ){
         return name.getNamespaceURI()+":"+name.getLocalPart();
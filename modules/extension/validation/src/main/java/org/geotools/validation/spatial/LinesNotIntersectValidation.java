@@ -18,14 +18,15 @@ package org.geotools.validation.spatial;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
-import org.geotools.data.simple.SimpleFeatureIterator;
-import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.validation.IndexedLayers;
+import org.geotools.validation.IndexedLayers.LayerIndex;
+import org.geotools.validation.ValidationExecutor;
 import org.geotools.validation.ValidationResults;
-import org.opengis.feature.simple.SimpleFeature;
 
-import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 
 
@@ -58,6 +59,11 @@ public class LinesNotIntersectValidation extends LineLineAbstractValidation {
      * database using the envelope with the typeNames. But it doesn't yet.  It
      * just uses the ones passed in through parameter layers.
      * </p>
+     * 
+     * <p>
+     * The features crossed by each feature are looked up in the spatial index
+     * of the layers, the features are checked in parallel partitions.
+     * </p>
      *
      * @param layers a HashMap of key="TypeName" value="FeatureSource"
      * @param envelope The bounding box of modified features
@@ -69,41 +75,82 @@ public class LinesNotIntersectValidation extends LineLineAbstractValidation {
      * @throws Exception DOCUMENT ME!
      *
      * @see org.geotools.validation.IntegrityValidation#validate(java.util.Map,
-     *      com.vividsolutions.jts.geom.Envelope,
+     *      org.geotools.geometry.jts.ReferencedEnvelope,
      *      org.geotools.validation.ValidationResults)
      */
-    public boolean validate(Map layers, Envelope envelope,
+    @Override
+    public boolean validate(Map layers, ReferencedEnvelope envelope,
         ValidationResults results) throws Exception {
-        ArrayList geoms = new ArrayList(); // FIDs used for lookup to see if any match
-        boolean result = true;
-        Iterator it = layers.values().iterator();
+        // each feature is checked against the features read before it, the
+        // candidates are looked up in the layer indexes
+        final List<LayerIndex> indexes = new ArrayList<LayerIndex>();
+        final List<int[]> partitions = new ArrayList<int[]>();
+        Iterator it = layers.keySet().iterator();
 
         while (it.hasNext()) // for each layer
          {
-            SimpleFeatureSource featureSource = (SimpleFeatureSource) it.next();
-            SimpleFeatureIterator features = featureSource.getFeatures().features();
+            LayerIndex index = IndexedLayers.getIndex(layers, it.next());
+
+            for (int start = 0; start < index.size();
+                    start += ValidationExecutor.PARTITION_SIZE) {
+                partitions.add(new int[] { indexes.size(), start });
+            }
+
+            indexes.add(index);
+        }
 
-            try {
-                while (features.hasNext()) // for each feature
-                 {
-                    // check if it intersects any of the previous features
-                    SimpleFeature feature = features.next();
-                    Geometry geom = (Geometry) feature.getDefaultGeometry();
+        final int[][] crossings = new int[indexes.size()][];
+
+        for (int l = 0; l < crossings.length; l++) {
+            crossings[l] = new int[indexes.get(l).size()];
+        }
 
-                    for (int i = 0; i < geoms.size(); i++) // for each existing geometry
+        ValidationExecutor.run(partitions.size(),
+            new ValidationExecutor.Task() {
+                public void run(int part) {
+                    int layer = partitions.get(part)[0];
+                    int start = partitions.get(part)[1];
+                    LayerIndex index = indexes.get(layer);
+                    int end = Math.min(start + ValidationExecutor.PARTITION_SIZE,
+                            index.size());
+
+                    for (int i = start; i < end; i++) // for each feature
                      {
-                        // I don't trust this thing to work correctly
-                        if (geom.crosses((Geometry) geoms.get(i))) {
-                            results.error(feature,
-                                "Lines cross when they shouldn't.");
-                            result = false;
+                        Geometry geom = index.getGeometry(i);
+
+                        if (geom == null) {
+                            continue;
+                        }
+
+                        for (int l = 0; l <= layer; l++) // for each layer read so far
+                         {
+                            LayerIndex previous = indexes.get(l);
+                            int[] candidates = previous.query(geom.getEnvelopeInternal());
+
+                            for (int c = 0; c < candidates.length; c++) {
+                                if ((l == layer) && (candidates[c] >= i)) {
+                                    break;
+                                }
+
+                                if (geom.crosses(previous.getGeometry(candidates[c]))) {
+                                    crossings[layer][i]++;
+                                }
+                            }
                         }
                     }
+                }
+            });
+
+        // report in the order the features were read
+        boolean result = true;
 
-                    geoms.add(geom);
+        for (int l = 0; l < crossings.length; l++) {
+            for (int i = 0; i < crossings[l].length; i++) {
+                for (int c = 0; c < crossings[l][i]; c++) {
+                    results.error(indexes.get(l).getFeature(i),
+                        "Lines cross when they shouldn't.");
+                    result = false;
                 }
-            } finally {
-                features.close(); // this is an important line    
             }
         }
 
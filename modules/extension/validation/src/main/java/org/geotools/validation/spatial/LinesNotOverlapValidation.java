@@ -19,6 +19,10 @@ package org.geotools.validation.spatial;
 import java.util.Map;
 
 import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.validation.IndexedLayers;
+import org.geotools.validation.IndexedLayers.LayerIndex;
+import org.geotools.validation.ValidationExecutor;
 import org.geotools.validation.ValidationResults;
 import org.opengis.feature.simple.SimpleFeature;
 
@@ -56,6 +60,11 @@ public class LinesNotOverlapValidation extends LineLineAbstractValidation {
 
     /**
      * Ensure Lines do not overlap.
+     * 
+     * <p>
+     * The lines overlapped by each restricted line are looked up in the
+     * spatial index of the lines layer.
+     * </p>
      *
      * @param layers a HashMap of key="TypeName" value="FeatureSource"
      * @param envelope The bounding box of modified features
@@ -67,47 +76,78 @@ public class LinesNotOverlapValidation extends LineLineAbstractValidation {
      * @throws Exception DOCUMENT ME!
      *
      * @see org.geotools.validation.IntegrityValidation#validate(java.util.Map,
-     *      com.vividsolutions.jts.geom.Envelope,
+     *      org.geotools.geometry.jts.ReferencedEnvelope,
      *      org.geotools.validation.ValidationResults)
      */
-    public boolean validate(Map layers, Envelope envelope,
+    @Override
+    public boolean validate(Map layers, ReferencedEnvelope envelope,
         ValidationResults results) throws Exception {
         SimpleFeatureSource lineSource1 = (SimpleFeatureSource) layers.get(getLineTypeRef());
         SimpleFeatureSource lineSource2 = (SimpleFeatureSource) layers.get(getRestrictedLineTypeRef());
 
-        Object[] lines1 = lineSource1.getFeatures().toArray();
-        Object[] lines2 = lineSource2.getFeatures().toArray();
+        final LayerIndex lines1 = IndexedLayers.getIndex(layers, getLineTypeRef());
+        final LayerIndex lines2 = IndexedLayers.getIndex(layers,
+                getRestrictedLineTypeRef());
 
-        if (!envelope.contains(lineSource1.getBounds())) {
-            results.error((SimpleFeature) lines1[0],
+        if (!envelope.contains((Envelope) lineSource1.getBounds())) {
+            results.error(lines1.getFeature(0),
                 "Point Feature Source is not contained within the Envelope provided.");
 
             return false;
         }
 
-        if (!envelope.contains(lineSource2.getBounds())) {
-            results.error((SimpleFeature) lines2[0],
+        if (!envelope.contains((Envelope) lineSource2.getBounds())) {
+            results.error(lines2.getFeature(0),
                 "Line Feature Source is not contained within the Envelope provided.");
 
             return false;
         }
 
+        // the lines overlapped by each restricted line, looked up in the
+        // index of the lines and checked in parallel partitions
+        final int[][] overlaps = new int[lines2.size()][];
+        int parts = ((lines2.size() + ValidationExecutor.PARTITION_SIZE) - 1) /
+            ValidationExecutor.PARTITION_SIZE;
+
+        ValidationExecutor.run(parts,
+            new ValidationExecutor.Task() {
+                public void run(int part) {
+                    int start = part * ValidationExecutor.PARTITION_SIZE;
+                    int end = Math.min(start + ValidationExecutor.PARTITION_SIZE,
+                            lines2.size());
+
+                    for (int i = start; i < end; i++) {
+                        Geometry gt = lines2.getGeometry(i);
+                        int[] candidates = (gt == null) ? new int[0]
+                                                        : lines1.query(gt.getEnvelopeInternal());
+                        int count = 0;
+
+                        for (int j = 0; j < candidates.length; j++) {
+                            Geometry gt2 = lines1.getGeometry(candidates[j]);
+
+                            if (gt.overlaps(gt2)) {
+                                candidates[count++] = candidates[j];
+                            }
+                        }
+
+                        overlaps[i] = new int[count];
+                        System.arraycopy(candidates, 0, overlaps[i], 0, count);
+                    }
+                }
+            });
+
         boolean r = true;
 
-        for (int i = 0; i < lines2.length; i++) {
-            SimpleFeature tmp = (SimpleFeature) lines2[i];
-            Geometry gt = (Geometry) tmp.getDefaultGeometry();
+        for (int i = 0; i < overlaps.length; i++) {
+            SimpleFeature tmp = lines2.getFeature(i);
 
-            for (int j = 0; j < lines1.length; j++) {
-                SimpleFeature tmp2 = (SimpleFeature) lines1[j];
-                Geometry gt2 = (Geometry) tmp2.getDefaultGeometry();
+            for (int j = 0; j < overlaps[i].length; j++) {
+                SimpleFeature tmp2 = lines1.getFeature(overlaps[i][j]);
 
-                if (gt.overlaps(gt2)) {
-                    results.error(tmp,
-                        "Overlaps with another line specified. Id="
-                        + tmp2.getID());
-                    r = false;
-                }
+                results.error(tmp,
+                    "Overlaps with another line specified. Id="
+                    + tmp2.getID());
+                r = false;
             }
         }
 
@@ -0,0 +1,245 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.validation;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.memory.MemoryDataStore;
+import org.geotools.feature.NameImpl;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.validation.spatial.LinesNotIntersectValidation;
+import org.geotools.validation.spatial.LinesNotOverlapValidation;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.Name;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Checks the integrity validations using the layer indexes and running in parallel report the
+ * same results as the sequential pairwise checks.
+ *
+ * @source $URL$
+ */
+public class IndexedLayersTest extends TestCase {
+
+    static final String NS = "http://www.geotools.org/test";
+
+    MemoryDataStore store;
+
+    Map layers;
+
+    List<SimpleFeature> features;
+
+    boolean parallel;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        parallel = ValidationExecutor.PARALLEL;
+        store = new MemoryDataStore();
+        layers = new LinkedHashMap();
+        features = new ArrayList<SimpleFeature>();
+        Random random = new Random(42);
+        GeometryFactory gf = new GeometryFactory();
+        // enough lines to split the layers in several partitions, some of them on shared
+        // horizontal lines so that they overlap
+        String[] typeNames = new String[] { "roads", "rivers" };
+        for (int t = 0; t < typeNames.length; t++) {
+            SimpleFeatureType type = DataUtilities.createType(NS, typeNames[t],
+                    "geom:LineString,name:String");
+            store.createSchema(type);
+            SimpleFeatureBuilder builder = new SimpleFeatureBuilder(type);
+            for (int i = 0; i < 700; i++) {
+                Coordinate[] coords;
+                if (i % 3 == 0) {
+                    double y = random.nextInt(50);
+                    double x = random.nextDouble() * 1000;
+                    coords = new Coordinate[] { new Coordinate(x, y),
+                            new Coordinate(x + random.nextDouble() * 40, y) };
+                } else {
+                    double x = random.nextDouble() * 1000;
+                    double y = random.nextDouble() * 100;
+                    coords = new Coordinate[] { new Coordinate(x, y),
+                            new Coordinate(x + random.nextDouble() * 40 - 20,
+                                    y + random.nextDouble() * 40 - 20) };
+                }
+                builder.add(gf.createLineString(coords));
+                builder.add(typeNames[t] + i);
+                SimpleFeature feature = builder.buildFeature(typeNames[t] + "." + i);
+                store.addFeature(feature);
+                features.add(feature);
+            }
+            layers.put(NS + ":" + typeNames[t], store.getFeatureSource(typeNames[t]));
+        }
+    }
+
+    protected void tearDown() throws Exception {
+        ValidationExecutor.PARALLEL = parallel;
+        store = null;
+        super.tearDown();
+    }
+
+    public void testIndex() throws Exception {
+        IndexedLayers indexed = new IndexedLayers(layers);
+        assertEquals(new ArrayList(layers.keySet()), new ArrayList(indexed.keySet()));
+
+        IndexedLayers.LayerIndex index = indexed.getIndex(NS + ":roads");
+        assertSame(index, indexed.getIndex(NS + ":roads"));
+        assertEquals(700, index.size());
+
+        ReferencedEnvelope search = new ReferencedEnvelope(100, 200, 20, 40, null);
+        Set<String> expected = new HashSet<String>();
+        for (SimpleFeature feature : features) {
+            Geometry g = (Geometry) feature.getDefaultGeometry();
+            if (feature.getID().startsWith("roads.")
+                    && g.getEnvelopeInternal().intersects(search)) {
+                expected.add(feature.getID());
+            }
+        }
+        int[] positions = index.query(search);
+        Set<String> actual = new HashSet<String>();
+        for (int i = 0; i < positions.length; i++) {
+            if (i > 0) {
+                assertTrue(positions[i - 1] < positions[i]);
+            }
+            actual.add(index.getFeature(positions[i]).getID());
+        }
+        assertEquals(expected, actual);
+    }
+
+    public void testLinesNotIntersect() throws Exception {
+        List<String> expected = new ArrayList<String>();
+        for (int j = 0; j < features.size(); j++) {
+            Geometry geom = (Geometry) features.get(j).getDefaultGeometry();
+            for (int i = 0; i < j; i++) {
+                if (geom.crosses((Geometry) features.get(i).getDefaultGeometry())) {
+                    expected.add(features.get(j).getID() + ":Lines cross when they shouldn't.");
+                }
+            }
+        }
+        assertFalse(expected.isEmpty());
+
+        LinesNotIntersectValidation validation = new LinesNotIntersectValidation();
+        DefaultFeatureResults results = new DefaultFeatureResults();
+        assertFalse(validation.validate(new IndexedLayers(layers), null, results));
+        assertEquals(expected, results.error);
+
+        // plain layers maps are indexed by the validation itself
+        results = new DefaultFeatureResults();
+        assertFalse(validation.validate(layers, null, results));
+        assertEquals(expected, results.error);
+    }
+
+    /**
+     * The overlap errors expected for each restricted line, checked pairwise
+     */
+    List<String> overlaps(List<SimpleFeature> restricted, List<SimpleFeature> lines) {
+        List<String> expected = new ArrayList<String>();
+        for (SimpleFeature restrictedLine : restricted) {
+            Geometry gt = (Geometry) restrictedLine.getDefaultGeometry();
+            for (SimpleFeature line : lines) {
+                if (gt.overlaps((Geometry) line.getDefaultGeometry())) {
+                    expected.add(restrictedLine.getID()
+                            + ":Overlaps with another line specified. Id=" + line.getID());
+                }
+            }
+        }
+        return expected;
+    }
+
+    public void testLinesNotOverlap() throws Exception {
+        List<String> expected = overlaps(features.subList(700, 1400), features.subList(0, 700));
+        assertFalse(expected.isEmpty());
+
+        LinesNotOverlapValidation validation = new LinesNotOverlapValidation();
+        validation.setLineTypeRef(NS + ":roads");
+        validation.setRestrictedLineTypeRef(NS + ":rivers");
+        DefaultFeatureResults results = new DefaultFeatureResults();
+        ReferencedEnvelope bounds = new ReferencedEnvelope(-100, 1100, -100, 200, null);
+        assertFalse(validation.validate(new IndexedLayers(layers), bounds, results));
+        assertEquals(expected, results.error);
+    }
+
+    public void testParallelRunOrder() throws Exception {
+        ValidationProcessor processor = new ValidationProcessor();
+        LinesNotOverlapValidation overlap = new LinesNotOverlapValidation();
+        overlap.setName("overlap");
+        overlap.setLineTypeRef(NS + ":roads");
+        overlap.setRestrictedLineTypeRef(NS + ":rivers");
+        processor.addValidation(overlap);
+        LinesNotOverlapValidation reverse = new LinesNotOverlapValidation();
+        reverse.setName("reverse");
+        reverse.setLineTypeRef(NS + ":rivers");
+        reverse.setRestrictedLineTypeRef(NS + ":roads");
+        processor.addValidation(reverse);
+
+        Set<Name> typeRefs = new HashSet<Name>();
+        typeRefs.add(new NameImpl(NS, "roads"));
+        ReferencedEnvelope bounds = new ReferencedEnvelope(-100, 1100, -100, 200, null);
+
+        ValidationExecutor.PARALLEL = false;
+        RecordingResults sequential = new RecordingResults();
+        processor.runIntegrityTests(typeRefs, layers, bounds, sequential);
+
+        ValidationExecutor.PARALLEL = true;
+        RecordingResults parallel = new RecordingResults();
+        processor.runIntegrityTests(typeRefs, layers, bounds, parallel);
+
+        // both validations ran for real, in the order they were added
+        List<String> expected = new ArrayList<String>();
+        expected.add("validation:overlap");
+        for (String error : overlaps(features.subList(700, 1400), features.subList(0, 700))) {
+            expected.add("error:" + error);
+        }
+        expected.add("error:all:Was not successful");
+        expected.add("validation:reverse");
+        for (String error : overlaps(features.subList(0, 700), features.subList(700, 1400))) {
+            expected.add("error:" + error);
+        }
+        expected.add("error:all:Was not successful");
+        assertEquals(expected, sequential.calls);
+        assertEquals(sequential.calls, parallel.calls);
+    }
+
+    static class RecordingResults implements ValidationResults {
+        List<String> calls = new ArrayList<String>();
+
+        public void setValidation(Validation validation) {
+            calls.add("validation:" + validation.getName());
+        }
+
+        public void error(SimpleFeature feature, String message) {
+            calls.add("error:" + (feature != null ? feature.getID() : "all") + ":" + message);
+        }
+
+        public void warning(SimpleFeature feature, String message) {
+            calls.add("warning:" + (feature != null ? feature.getID() : "all") + ":" + message);
+        }
+    }
+}
@@ -46,6 +46,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 
 import javax.imageio.IIOException;
 import javax.imageio.IIOImage;
@@ -101,6 +102,10 @@ import javax.media.jai.registry.RenderedRegistryMode;
 import org.geotools.factory.Hints;
 import org.geotools.image.crop.GTCropDescriptor;
 import org.geotools.image.io.ImageIOExt;
+import org.geotools.image.io.ParallelPNGEncoder;
+import org.geotools.image.palette.ColorIndexer;
+import org.geotools.image.palette.ColorIndexerDescriptor;
+import org.geotools.image.palette.Quantizer;
 import org.geotools.referencing.ReferencingFactoryFinder;
 import org.geotools.referencing.operation.transform.WarpBuilder;
 import org.geotools.resources.Arguments;
@@ -264,6 +269,13 @@ public class ImageWorker {
     public static final String WARP_REDUCTION_ENABLED_KEY = "org.geotools.image.reduceWarpAffine";
     static boolean WARP_REDUCTION_ENABLED = Boolean.parseBoolean(System.getProperty(WARP_REDUCTION_ENABLED_KEY, "TRUE"));
 
+    /**
+     * Enables the fast PNG encoding path: median cut palette reduction for PNG8 and parallel
+     * compression, when native acceleration is not requested or not available. Off by default.
+     */
+    public static final String FAST_PNG_KEY = "org.geotools.image.fastPNG";
+    static boolean FAST_PNG_ENABLED = Boolean.getBoolean(FAST_PNG_KEY);
+
     
     /**
      * Workaround class for compressing PNG using the default
@@ -1313,6 +1325,48 @@ public class ImageWorker {
         return this;
     }
 
+    /**
+     * Reduces the colors of the {@linkplain #image image} to a palette of at most
+     * {@code maxColors} entries, computed with a median cut over the image
+     * histogram. Unlike {@link #forceIndexColorModelForGIF(boolean)} the palette
+     * is adapted to the image contents and keeps the translucent colors, making
+     * it suitable for PNG8 output.
+     *
+     * @param maxColors the maximum number of colors in the palette, up to 256
+     * @return this {@link ImageWorker}.
+     */
+    public final ImageWorker quantize(final int maxColors) {
+        if (maxColors < 2 || maxColors > 256) {
+            throw new IllegalArgumentException(Errors.format(ErrorKeys.ILLEGAL_ARGUMENT_$2,
+                    "maxColors", maxColors));
+        }
+        ColorModel cm = image.getColorModel();
+        if (cm instanceof IndexColorModel && ((IndexColorModel) cm).getMapSize() <= maxColors) {
+            return this;
+        }
+        if (cm instanceof PackedColorModel || cm instanceof IndexColorModel) {
+            forceComponentColorModel();
+        }
+        rescaleToBytes();
+        final int bands = getNumBands();
+        if (bands < 1 || bands > 4) {
+            // not gray or RGB, the quantizer cannot handle it
+            return forceIndexColorModelForGIF(true);
+        }
+
+        final ColorIndexer indexer = new Quantizer(maxColors).buildColorIndexer(image);
+        final ParameterBlockJAI pb = new ParameterBlockJAI(ColorIndexerDescriptor.OPERATION_NAME,
+                RenderedRegistryMode.MODE_NAME);
+        pb.setSource("source0", image);
+        pb.setParameter("Indexer", indexer);
+        image = JAI.create(ColorIndexerDescriptor.OPERATION_NAME, pb, getRenderingHints());
+        invalidateStatistics();
+
+        // All post conditions for this method contract.
+        assert isIndexed();
+        return this;
+    }
+
     /**
      * Reformats the {@linkplain ColorModel color model} to a
      * {@linkplain ComponentColorModel component color model} preserving
@@ -2608,6 +2662,28 @@ public class ImageWorker {
         return this;
     }
 
+    /**
+     * Maps the PNG compression rate, where 0 is the best compression and 1 the
+     * fastest, to a deflate level.
+     */
+    static int getDeflateLevel(float compressionRate) {
+        final int level = Math.round(9 * (1 - compressionRate));
+        return Math.max(1, Math.min(9, level));
+    }
+
+    /**
+     * Maps the PNG compression types of the native encoder, "DEFAULT", "FILTERED" and
+     * "HUFFMAN_ONLY", to a deflate strategy.
+     */
+    static int getDeflateStrategy(String compression) {
+        if ("FILTERED".equalsIgnoreCase(compression)) {
+            return Deflater.FILTERED;
+        } else if ("HUFFMAN_ONLY".equalsIgnoreCase(compression)) {
+            return Deflater.HUFFMAN_ONLY;
+        }
+        return Deflater.DEFAULT_STRATEGY;
+    }
+
     /**
      * Writes outs the image contained into this {@link ImageWorker} as a PNG
      * using the provided destination, compression and compression rate.
@@ -2643,7 +2719,11 @@ public class ImageWorker {
         final boolean hasColorModel = hasPalette?false:image.getColorModel() instanceof ComponentColorModel;
         if (paletted && !hasPalette) {
             // we have to reduce colors
-            forceIndexColorModelForGIF(true);
+            if (FAST_PNG_ENABLED) {
+                quantize(256);
+            } else {
+                forceIndexColorModelForGIF(true);
+            }
         } else {
             if(!hasColorModel && !hasPalette) {
                 if(LOGGER.isLoggable(Level.FINER)){
@@ -2673,6 +2753,30 @@ public class ImageWorker {
             LOGGER.fine("Encoded input image for png writer");
         }
 
+        // 8 bit images can be compressed in parallel, without going through ImageIO,
+        // unless the native encoder was asked for and can do the job
+        final boolean useNative = nativeAcc && CLIB_PNG_IMAGE_WRITER_SPI != null
+                && CLIB_PNG_IMAGE_WRITER_SPI.canEncodeImage(new ImageTypeSpecifier(image));
+        if (FAST_PNG_ENABLED && !useNative && ParallelPNGEncoder.canEncode(image)) {
+            LOGGER.fine("Using the parallel PNG encoder");
+            final ImageOutputStream stream = ImageIOExt.createImageOutputStream(image, destination);
+            if (stream == null) {
+                throw new IIOException(Errors.format(ErrorKeys.NULL_ARGUMENT_$1, "stream"));
+            }
+            try {
+                new ParallelPNGEncoder(getDeflateLevel(compressionRate),
+                        getDeflateStrategy(compression), null).encode(image, stream);
+            } finally {
+                try {
+                    stream.close();
+                } catch (Throwable e) {
+                    if (LOGGER.isLoggable(Level.FINEST))
+                        LOGGER.log(Level.FINEST, e.getLocalizedMessage(), e);
+                }
+            }
+            return;
+        }
+
         // Getting a writer.
         if(LOGGER.isLoggable(Level.FINE)){
             LOGGER.fine("Getting a writer");
@@ -0,0 +1,639 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.image.io;
+
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import javax.imageio.stream.ImageOutputStream;
+
+import org.geotools.resources.image.DaemonExecutors;
+import org.geotools.util.logging.Logging;
+
+/**
+ * A PNG encoder for 8 bit gray, RGB, RGBA and paletted images that compresses
+ * blocks of rows in parallel.
+ * <p>
+ * The image is split in blocks of rows, each block is filtered and deflated
+ * independently on a thread pool, ending with a sync flush so that the
+ * compressed blocks can be concatenated, in order, in a single zlib stream.
+ * The checksum of the whole stream is combined from the ones of the blocks.
+ * Scanline filters are chosen for each row with the minimum sum of absolute
+ * differences heuristic, paletted images are not filtered.
+ * <p>
+ * Sync flushing a deflater requires Java 7, on older runtimes the image is
+ * compressed as a single block in the calling thread. Images not supported
+ * (see {@link #canEncode(RenderedImage)}) should be written with ImageIO.
+ *
+ * @source $URL$
+ */
+public class ParallelPNGEncoder {
+
+    static final Logger LOGGER = Logging.getLogger(ParallelPNGEncoder.class);
+
+    static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+
+    static final int COLOR_GRAY = 0;
+
+    static final int COLOR_RGB = 2;
+
+    static final int COLOR_PALETTE = 3;
+
+    static final int COLOR_GRAY_ALPHA = 4;
+
+    static final int COLOR_RGBA = 6;
+
+    static final int FILTER_NONE = 0;
+
+    static final int FILTER_SUB = 1;
+
+    static final int FILTER_UP = 2;
+
+    static final int FILTER_AVERAGE = 3;
+
+    static final int FILTER_PAETH = 4;
+
+    /** Default amount of uncompressed data in each block */
+    static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+
+    /** Deflater.deflate(byte[], int, int, int), available since Java 7 */
+    static final Method DEFLATE_WITH_FLUSH;
+
+    /** Deflater.SYNC_FLUSH */
+    static final int SYNC_FLUSH = 2;
+
+    static {
+        Method method = null;
+        try {
+            method = Deflater.class.getMethod("deflate", byte[].class, int.class, int.class,
+                    int.class);
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Deflater cannot sync flush, PNG blocks won't be "
+                    + "compressed in parallel", e);
+        }
+        DEFLATE_WITH_FLUSH = method;
+    }
+
+    final int compressionLevel;
+
+    final int strategy;
+
+    final ExecutorService executor;
+
+    int blockSize = DEFAULT_BLOCK_SIZE;
+
+    /**
+     * Returns the pool shared by the encoders not given one, with as many
+     * daemon threads as processors
+     */
+    static ExecutorService getDefaultExecutor() {
+        return DaemonExecutors.getExecutor("PNGEncoder");
+    }
+
+    /**
+     * Builds an encoder using the default compression level and the shared
+     * thread pool
+     */
+    public ParallelPNGEncoder() {
+        this(Deflater.DEFAULT_COMPRESSION, null);
+    }
+
+    /**
+     * Builds an encoder
+     *
+     * @param compressionLevel the deflate compression level, between 0 and 9,
+     *        or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param executor the pool compressing the blocks, if null a shared pool
+     *        is used
+     */
+    public ParallelPNGEncoder(int compressionLevel, ExecutorService executor) {
+        this(compressionLevel, Deflater.DEFAULT_STRATEGY, executor);
+    }
+
+    /**
+     * Builds an encoder
+     *
+     * @param compressionLevel the deflate compression level, between 0 and 9,
+     *        or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param strategy the deflate strategy, {@link Deflater#DEFAULT_STRATEGY},
+     *        {@link Deflater#FILTERED} or {@link Deflater#HUFFMAN_ONLY}
+     * @param executor the pool compressing the blocks, if null a shared pool
+     *        is used
+     */
+    public ParallelPNGEncoder(int compressionLevel, int strategy, ExecutorService executor) {
+        if (compressionLevel != Deflater.DEFAULT_COMPRESSION
+                && (compressionLevel < 0 || compressionLevel > 9)) {
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        }
+        if (strategy != Deflater.DEFAULT_STRATEGY && strategy != Deflater.FILTERED
+                && strategy != Deflater.HUFFMAN_ONLY) {
+            throw new IllegalArgumentException("Invalid compression strategy: " + strategy);
+        }
+        this.compressionLevel = compressionLevel;
+        this.strategy = strategy;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns true if the image can be encoded: 8 bit samples with a paletted
+     * color model of up to 256 entries, or a gray or RGB component color
+     * model, with or without a non premultiplied alpha channel.
+     */
+    public static boolean canEncode(RenderedImage image) {
+        final SampleModel sm = image.getSampleModel();
+        final ColorModel cm = image.getColorModel();
+        if (sm == null || cm == null || sm.getDataType() != DataBuffer.TYPE_BYTE) {
+            return false;
+        }
+        for (int size : sm.getSampleSize()) {
+            if (size != 8) {
+                return false;
+            }
+        }
+        if (cm instanceof IndexColorModel) {
+            return sm.getNumBands() == 1 && ((IndexColorModel) cm).getMapSize() <= 256;
+        }
+        if (!(cm instanceof ComponentColorModel) || cm.isAlphaPremultiplied()) {
+            return false;
+        }
+        final int bands = sm.getNumBands();
+        if (bands != cm.getNumComponents()) {
+            return false;
+        }
+        final int csType = cm.getColorSpace().getType();
+        if (bands == 1 || bands == 2) {
+            return csType == ColorSpace.TYPE_GRAY && cm.hasAlpha() == (bands == 2);
+        } else if (bands == 3 || bands == 4) {
+            return csType == ColorSpace.TYPE_RGB && cm.hasAlpha() == (bands == 4);
+        }
+        return false;
+    }
+
+    /**
+     * Encodes the image as PNG into the stream
+     *
+     * @throws IllegalArgumentException if the image cannot be encoded
+     */
+    public void encode(final RenderedImage image, final ImageOutputStream stream)
+            throws IOException {
+        encode(image, new OutputStream() {
+
+            @Override
+            public void write(int b) throws IOException {
+                stream.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                stream.write(b, off, len);
+            }
+        });
+    }
+
+    /**
+     * Encodes the image as PNG into the stream
+     *
+     * @throws IllegalArgumentException if the image cannot be encoded
+     */
+    public void encode(final RenderedImage image, final OutputStream out) throws IOException {
+        if (!canEncode(image)) {
+            throw new IllegalArgumentException("Unsupported image, color model "
+                    + image.getColorModel() + " and sample model " + image.getSampleModel());
+        }
+        final ColorModel cm = image.getColorModel();
+        final int bands = image.getSampleModel().getNumBands();
+        final int colorType;
+        if (cm instanceof IndexColorModel) {
+            colorType = COLOR_PALETTE;
+        } else if (bands == 1) {
+            colorType = COLOR_GRAY;
+        } else if (bands == 2) {
+            colorType = COLOR_GRAY_ALPHA;
+        } else if (bands == 3) {
+            colorType = COLOR_RGB;
+        } else {
+            colorType = COLOR_RGBA;
+        }
+
+        out.write(SIGNATURE);
+        final byte[] header = new byte[13];
+        putInt(header, 0, image.getWidth());
+        putInt(header, 4, image.getHeight());
+        header[8] = 8;
+        header[9] = (byte) colorType;
+        writeChunk(out, "IHDR", header, 0, header.length);
+        if (cm instanceof IndexColorModel) {
+            writePalette(out, (IndexColorModel) cm);
+        }
+        writeData(out, image, bands, colorType != COLOR_PALETTE);
+        writeChunk(out, "IEND", new byte[0], 0, 0);
+        out.flush();
+    }
+
+    private void writePalette(OutputStream out, IndexColorModel icm) throws IOException {
+        final int size = icm.getMapSize();
+        final byte[] plte = new byte[size * 3];
+        int lastTranslucent = -1;
+        for (int i = 0; i < size; i++) {
+            plte[i * 3] = (byte) icm.getRed(i);
+            plte[i * 3 + 1] = (byte) icm.getGreen(i);
+            plte[i * 3 + 2] = (byte) icm.getBlue(i);
+            if (icm.getAlpha(i) != 255) {
+                lastTranslucent = i;
+            }
+        }
+        writeChunk(out, "PLTE", plte, 0, plte.length);
+        if (lastTranslucent >= 0) {
+            final byte[] trns = new byte[lastTranslucent + 1];
+            for (int i = 0; i < trns.length; i++) {
+                trns[i] = (byte) icm.getAlpha(i);
+            }
+            writeChunk(out, "tRNS", trns, 0, trns.length);
+        }
+    }
+
+    /**
+     * Writes the IDAT chunks, compressing the blocks of rows in parallel and
+     * writing them in order as they become available
+     */
+    private void writeData(OutputStream out, final RenderedImage image, final int bands,
+            final boolean filter) throws IOException {
+        final int rowBytes = image.getWidth() * bands;
+        final int height = image.getHeight();
+        final int rowsPerBlock = Math.max(1, blockSize / (rowBytes + 1));
+        final int blocks = DEFLATE_WITH_FLUSH == null ? 1 : (height + rowsPerBlock - 1)
+                / rowsPerBlock;
+
+        // zlib header
+        final int level = compressionLevel == Deflater.DEFAULT_COMPRESSION ? 6
+                : compressionLevel;
+        final int cmf = 0x78;
+        int flg = (level < 2 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3) << 6;
+        flg += 31 - ((cmf * 256 + flg) % 31);
+        writeChunk(out, "IDAT", new byte[] { (byte) cmf, (byte) flg }, 0, 2);
+
+        long adler = 1;
+        if (blocks == 1) {
+            Block block = new Block(image, bands, filter, 0, height, true);
+            block.call();
+            writeChunk(out, "IDAT", block.data, 0, block.size);
+            adler = block.adler;
+        } else {
+            final ExecutorService pool = executor != null ? executor : getDefaultExecutor();
+            final int window = Runtime.getRuntime().availableProcessors() * 2;
+            final List<Future<Block>> futures = new ArrayList<Future<Block>>();
+            try {
+                for (int b = 0; b < blocks; b++) {
+                    // keep a bounded number of blocks in flight
+                    while (futures.size() <= b + window && futures.size() < blocks) {
+                        final int index = futures.size();
+                        final int first = index * rowsPerBlock;
+                        final int last = Math.min(first + rowsPerBlock, height);
+                        futures.add(pool.submit(new Block(image, bands, filter, first, last,
+                                index == blocks - 1)));
+                    }
+                    final Block block = futures.get(b).get();
+                    futures.set(b, null);
+                    writeChunk(out, "IDAT", block.data, 0, block.size);
+                    adler = combineAdler32(adler, block.adler, block.length);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while encoding the PNG image");
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                final IOException ioe = new IOException("Failed to encode the PNG image");
+                ioe.initCause(cause);
+                throw ioe;
+            } finally {
+                for (Future<Block> future : futures) {
+                    if (future != null) {
+                        future.cancel(false);
+                    }
+                }
+            }
+        }
+
+        // zlib trailer
+        final byte[] trailer = new byte[4];
+        putInt(trailer, 0, (int) adler);
+        writeChunk(out, "IDAT", trailer, 0, 4);
+    }
+
+    /**
+     * A block of rows, filtered and compressed as a raw deflate sequence
+     */
+    final class Block implements Callable<Block> {
+
+        final RenderedImage image;
+
+        final int bands;
+
+        final boolean filter;
+
+        final int firstRow;
+
+        final int lastRow;
+
+        final boolean finish;
+
+        byte[] data;
+
+        int size;
+
+        long adler;
+
+        long length;
+
+        Block(RenderedImage image, int bands, boolean filter, int firstRow, int lastRow,
+                boolean finish) {
+            this.image = image;
+            this.bands = bands;
+            this.filter = filter;
+            this.firstRow = firstRow;
+            this.lastRow = lastRow;
+            this.finish = finish;
+        }
+
+        public Block call() throws IOException {
+            final int width = image.getWidth();
+            final int rowBytes = width * bands;
+            final int rows = lastRow - firstRow;
+
+            // the filters need the row above the block
+            final int readFrom = filter && firstRow > 0 ? firstRow - 1 : firstRow;
+            final Raster raster = image.getData(new Rectangle(image.getMinX(), image.getMinY()
+                    + readFrom, width, lastRow - readFrom));
+
+            final byte[] filtered = new byte[rows * (rowBytes + 1)];
+            byte[] previous = new byte[rowBytes];
+            byte[] current = new byte[rowBytes];
+            final int[] pixels = new int[rowBytes];
+            final byte[][] candidates = filter ? new byte[5][rowBytes] : null;
+            if (readFrom < firstRow) {
+                readRow(raster, image.getMinY() + readFrom, previous, pixels);
+            }
+            for (int r = 0; r < rows; r++) {
+                readRow(raster, image.getMinY() + firstRow + r, current, pixels);
+                final int offset = r * (rowBytes + 1);
+                if (filter) {
+                    final int type = filterRow(current, previous, firstRow + r == 0, candidates);
+                    filtered[offset] = (byte) type;
+                    System.arraycopy(candidates[type], 0, filtered, offset + 1, rowBytes);
+                } else {
+                    filtered[offset] = FILTER_NONE;
+                    System.arraycopy(current, 0, filtered, offset + 1, rowBytes);
+                }
+                final byte[] tmp = previous;
+                previous = current;
+                current = tmp;
+            }
+
+            final Adler32 checksum = new Adler32();
+            checksum.update(filtered);
+            adler = checksum.getValue();
+            length = filtered.length;
+            deflate(filtered);
+            return this;
+        }
+
+        private void readRow(Raster raster, int y, byte[] row, int[] pixels) {
+            final SampleModel sm = raster.getSampleModel();
+            final int width = raster.getWidth();
+            if (sm instanceof PixelInterleavedSampleModel
+                    && raster.getDataBuffer() instanceof DataBufferByte
+                    && raster.getDataBuffer().getNumBanks() == 1) {
+                // fast path, read the bytes straight from the buffer
+                final PixelInterleavedSampleModel pism = (PixelInterleavedSampleModel) sm;
+                final byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+                final int pixelStride = pism.getPixelStride();
+                final int[] offsets = pism.getBandOffsets();
+                int base = raster.getDataBuffer().getOffset()
+                        + (y - raster.getSampleModelTranslateY()) * pism.getScanlineStride()
+                        + (raster.getMinX() - raster.getSampleModelTranslateX())
+                        * pixelStride;
+                for (int x = 0, i = 0; x < width; x++, base += pixelStride) {
+                    for (int b = 0; b < bands; b++) {
+                        row[i++] = data[base + offsets[b]];
+                    }
+                }
+            } else {
+                raster.getPixels(raster.getMinX(), y, width, 1, pixels);
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = (byte) pixels[i];
+                }
+            }
+        }
+
+        /**
+         * Applies all the filters to the row, returns the one whose output has
+         * the minimum sum of absolute values
+         */
+        private int filterRow(byte[] row, byte[] prior, boolean first, byte[][] out) {
+            final int n = row.length;
+            final int bpp = bands;
+            final byte[] none = out[FILTER_NONE];
+            final byte[] sub = out[FILTER_SUB];
+            final byte[] up = out[FILTER_UP];
+            final byte[] average = out[FILTER_AVERAGE];
+            final byte[] paeth = out[FILTER_PAETH];
+            long sumNone = 0, sumSub = 0, sumUp = 0, sumAverage = 0, sumPaeth = 0;
+            for (int i = 0; i < n; i++) {
+                final int x = row[i] & 0xFF;
+                final int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                final int b = first ? 0 : prior[i] & 0xFF;
+                final int c = first || i < bpp ? 0 : prior[i - bpp] & 0xFF;
+
+                byte v = (byte) x;
+                none[i] = v;
+                sumNone += v < 0 ? -v : v;
+                v = (byte) (x - a);
+                sub[i] = v;
+                sumSub += v < 0 ? -v : v;
+                v = (byte) (x - b);
+                up[i] = v;
+                sumUp += v < 0 ? -v : v;
+                v = (byte) (x - ((a + b) >> 1));
+                average[i] = v;
+                sumAverage += v < 0 ? -v : v;
+                v = (byte) (x - paeth(a, b, c));
+                paeth[i] = v;
+                sumPaeth += v < 0 ? -v : v;
+            }
+
+            int type = FILTER_NONE;
+            long best = sumNone;
+            if (sumSub < best) {
+                best = sumSub;
+                type = FILTER_SUB;
+            }
+            if (sumUp < best) {
+                best = sumUp;
+                type = FILTER_UP;
+            }
+            if (sumAverage < best) {
+                best = sumAverage;
+                type = FILTER_AVERAGE;
+            }
+            if (sumPaeth < best) {
+                type = FILTER_PAETH;
+            }
+            return type;
+        }
+
+        private void deflate(byte[] input) throws IOException {
+            final Deflater deflater = new Deflater(compressionLevel, true);
+            try {
+                deflater.setStrategy(strategy);
+                deflater.setInput(input);
+                byte[] buffer = new byte[Math.max(1024, input.length / 2 + 64)];
+                int count = 0;
+                if (finish) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        if (count == buffer.length) {
+                            buffer = grow(buffer);
+                        }
+                        count += deflater.deflate(buffer, count, buffer.length - count);
+                    }
+                } else {
+                    // sync flush, so that the next block can be appended
+                    while (true) {
+                        if (count == buffer.length) {
+                            buffer = grow(buffer);
+                        }
+                        final int space = buffer.length - count;
+                        final int written;
+                        try {
+                            written = (Integer) DEFLATE_WITH_FLUSH.invoke(deflater, buffer,
+                                    count, space, SYNC_FLUSH);
+                        } catch (Exception e) {
+                            final IOException ioe = new IOException("Failed to compress the PNG block");
+                            ioe.initCause(e);
+                            throw ioe;
+                        }
+                        count += written;
+                        if (written < space) {
+                            break;
+                        }
+                    }
+                }
+                data = buffer;
+                size = count;
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    private static byte[] grow(byte[] buffer) {
+        final byte[] grown = new byte[buffer.length * 2];
+        System.arraycopy(buffer, 0, grown, 0, buffer.length);
+        return grown;
+    }
+
+    static int paeth(int a, int b, int c) {
+        final int p = a + b - c;
+        final int pa = Math.abs(p - a);
+        final int pb = Math.abs(p - b);
+        final int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        } else if (pb <= pc) {
+            return b;
+        }
+        return c;
+    }
+
+    /**
+     * Combines the Adler-32 checksums of two sequences, as zlib's
+     * adler32_combine
+     */
+    static long combineAdler32(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        final long rem = length2 % base;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = (rem * sum1) % base;
+        sum1 += (adler2 & 0xffff) + base - 1;
+        sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) + base - rem;
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum2 >= (base << 1)) {
+            sum2 -= (base << 1);
+        }
+        if (sum2 >= base) {
+            sum2 -= base;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data, int off, int len)
+            throws IOException {
+        final byte[] header = new byte[8];
+        putInt(header, 0, len);
+        for (int i = 0; i < 4; i++) {
+            header[4 + i] = (byte) type.charAt(i);
+        }
+        out.write(header);
+        out.write(data, off, len);
+        final CRC32 crc = new CRC32();
+        crc.update(header, 4, 4);
+        crc.update(data, off, len);
+        final byte[] trailer = new byte[4];
+        putInt(trailer, 0, (int) crc.getValue());
+        out.write(trailer);
+    }
+
+    private static void putInt(byte[] b, int off, int value) {
+        b[off] = (byte) (value >>> 24);
+        b[off + 1] = (byte) (value >>> 16);
+        b[off + 2] = (byte) (value >>> 8);
+        b[off + 3] = (byte) value;
+    }
+}
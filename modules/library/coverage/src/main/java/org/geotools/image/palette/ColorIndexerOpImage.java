@@ -18,7 +18,9 @@ package org.geotools.image.palette;
 
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.awt.image.IndexColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
@@ -114,12 +116,36 @@ public class ColorIndexerOpImage extends PointOpImage {
         final int dstMinY = Math.max(src.getMinY(), sourceImage.getMinY());
         int srcBands = src.getNumBands();
         final int[] pixel = new int[srcBands];
-        final byte[] bytes = new byte[srcBands];
+
+        // fast path for pixel interleaved bytes, reads straight from the buffer
+        byte[] data = null;
+        int pixelStride = 0, scanlineStride = 0, base = 0;
+        int[] offsets = null;
+        final SampleModel sm = src.getSampleModel();
+        if (sm instanceof PixelInterleavedSampleModel
+                && src.getDataBuffer() instanceof DataBufferByte
+                && src.getDataBuffer().getNumBanks() == 1) {
+            PixelInterleavedSampleModel pism = (PixelInterleavedSampleModel) sm;
+            data = ((DataBufferByte) src.getDataBuffer()).getData();
+            pixelStride = pism.getPixelStride();
+            scanlineStride = pism.getScanlineStride();
+            offsets = pism.getBandOffsets();
+            base = src.getDataBuffer().getOffset() - src.getSampleModelTranslateY()
+                    * scanlineStride - src.getSampleModelTranslateX() * pixelStride;
+        }
+
+        // adjacent pixels often share the same color, remember the last lookup
+        int lastColor = 0;
+        int lastIndex = -1;
         for (int y = srcMinY, y_ = dstMinY; y < srcMaxY; y++, y_++) {
             for (int x = srcMinX, x_ = dstMinX; x < srcMaxX; x++, x_++) {
-                src.getPixel(x, y, pixel);
-                for (int i = 0; i < srcBands; i++) {
-                    bytes[i] = (byte) (pixel[i] & 0xFF);
+                if (data != null) {
+                    final int offset = base + y * scanlineStride + x * pixelStride;
+                    for (int i = 0; i < srcBands; i++) {
+                        pixel[i] = data[offset + offsets[i]];
+                    }
+                } else {
+                    src.getPixel(x, y, pixel);
                 }
 
                 int r, g, b, a;
@@ -134,7 +160,15 @@ public class ColorIndexerOpImage extends PointOpImage {
                     a = srcBands == 4 ? pixel[3] & 0xFF : 255;
                 }
 
-                int idx = palette.getClosestIndex(r, g, b, a);
+                final int color = (a << 24) | (r << 16) | (g << 8) | b;
+                int idx;
+                if (color == lastColor && lastIndex >= 0) {
+                    idx = lastIndex;
+                } else {
+                    idx = palette.getClosestIndex(r, g, b, a);
+                    lastColor = color;
+                    lastIndex = idx;
+                }
                 dest.setSample(x_, y_, 0, (byte) (idx & 0xff));
             }
         }
@@ -18,8 +18,11 @@ package org.geotools.image.palette;
 
 import static org.geotools.image.palette.ColorUtils.*;
 
+import java.awt.image.DataBufferByte;
+import java.awt.image.PixelInterleavedSampleModel;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
 import java.util.Arrays;
 import java.util.Comparator;
 
@@ -157,10 +160,36 @@ class PackedHistogram {
                 image.getMinY() + image.getHeight());
         int bands = tile.getNumBands();
         int[] pixel = new int[bands];
-        for (int x = minX; x < maxX; x += stepX) {
-            for (int y = minY; y < maxY; y += stepY) {
+
+        // fast path for pixel interleaved bytes, reads straight from the buffer
+        byte[] data = null;
+        int pixelStride = 0, scanlineStride = 0, base = 0;
+        int[] offsets = null;
+        final SampleModel sm = tile.getSampleModel();
+        if (sm instanceof PixelInterleavedSampleModel
+                && tile.getDataBuffer() instanceof DataBufferByte
+                && tile.getDataBuffer().getNumBanks() == 1) {
+            PixelInterleavedSampleModel pism = (PixelInterleavedSampleModel) sm;
+            data = ((DataBufferByte) tile.getDataBuffer()).getData();
+            pixelStride = pism.getPixelStride();
+            scanlineStride = pism.getScanlineStride();
+            offsets = pism.getBandOffsets();
+            base = tile.getDataBuffer().getOffset() - tile.getSampleModelTranslateY()
+                    * scanlineStride - tile.getSampleModelTranslateX() * pixelStride;
+        }
+
+        // row major, following the memory layout of the tile
+        for (int y = minY; y < maxY; y += stepY) {
+            for (int x = minX; x < maxX; x += stepX) {
                 // grab the pixel and the color
-                tile.getPixel(x, y, pixel);
+                if (data != null) {
+                    final int idx = base + y * scanlineStride + x * pixelStride;
+                    for (int b = 0; b < bands; b++) {
+                        pixel[b] = data[idx + offsets[b]] & 0xFF;
+                    }
+                } else {
+                    tile.getPixel(x, y, pixel);
+                }
                 int red, green, blue, alpha;
 
                 if(bands == 1 || bands == 2) {
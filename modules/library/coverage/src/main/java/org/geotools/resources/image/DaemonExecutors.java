@@ -0,0 +1,80 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.resources.image;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The thread pools shared by the raster code computing tiles or blocks in parallel. Each pool
+ * is identified by a name, created on first use with as many daemon threads as processors, and
+ * lives as long as the application, so it never prevents the JVM from exiting.
+ * <p>
+ * The components get their own pool instead of a single common one, so that a task waiting on
+ * the results of another component cannot starve it.
+ *
+ *                      <strong>Do not rely on this API!</strong>
+ *
+ * It may change in incompatible way in any future version.
+ *
+ * @source $URL$
+ */
+public final class DaemonExecutors {
+
+    private static final Map<String, ExecutorService> EXECUTORS = new HashMap<String, ExecutorService>();
+
+    /**
+     * Do not allow creation of instances of this class.
+     */
+    private DaemonExecutors() {
+    }
+
+    /**
+     * Returns the pool with the given name, creating it with as many daemon threads as
+     * processors if not there yet. The threads are named after the pool, followed by a counter.
+     *
+     * @param name the name of the pool, e.g. the component using it
+     */
+    public static synchronized ExecutorService getExecutor(final String name) {
+        ExecutorService executor = EXECUTORS.get(name);
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    newThreadFactory(name));
+            EXECUTORS.put(name, executor);
+        }
+        return executor;
+    }
+
+    /**
+     * Returns a factory of daemon threads named after the given prefix, followed by a counter
+     */
+    public static ThreadFactory newThreadFactory(final String prefix) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
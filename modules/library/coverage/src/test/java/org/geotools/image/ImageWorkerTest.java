@@ -26,6 +26,7 @@ import it.geosolutions.imageio.utilities.ImageIOUtilities;
 import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageReaderSpi;
 
 import java.awt.Color;
+import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.Transparency;
 import java.awt.color.ColorSpace;
@@ -1124,4 +1125,40 @@ public final class ImageWorkerTest extends GridProcessingTestBase {
        assertEquals(fullChain.getBounds(), reduced.getBounds());
     }
     
+    @Test
+    public void testQuantizePNG() throws Exception {
+        // a translucent RGBA image with few colors
+        BufferedImage bi = new BufferedImage(100, 100, BufferedImage.TYPE_4BYTE_ABGR);
+        Graphics2D graphics = bi.createGraphics();
+        graphics.setColor(new Color(255, 0, 0, 128));
+        graphics.fillRect(0, 0, 50, 100);
+        graphics.setColor(Color.BLUE);
+        graphics.fillRect(50, 0, 50, 50);
+        graphics.dispose();
+
+        ImageWorker worker = new ImageWorker(bi).quantize(256);
+        IndexColorModel icm = (IndexColorModel) worker.getRenderedImage().getColorModel();
+        assertTrue(icm.getMapSize() <= 256);
+        assertEquals(Transparency.TRANSLUCENT, icm.getTransparency());
+        assertEquals(bi.getRGB(10, 10), icm.getRGB(worker.getRenderedImage().getData()
+                .getSample(10, 10, 0)));
+
+        // paletted PNG through the fast path, the translucency is preserved
+        final File outFile = TestData.temp(this, "quantized.png");
+        boolean fastPNG = ImageWorker.FAST_PNG_ENABLED;
+        ImageWorker.FAST_PNG_ENABLED = true;
+        try {
+            new ImageWorker(bi).writePNG(outFile, "FILTERED", 0.75f, false, true);
+        } finally {
+            ImageWorker.FAST_PNG_ENABLED = fastPNG;
+        }
+        BufferedImage back = ImageIO.read(outFile);
+        assertTrue(back.getColorModel() instanceof IndexColorModel);
+        assertEquals(bi.getRGB(10, 10), back.getRGB(10, 10));
+        assertEquals(bi.getRGB(75, 25), back.getRGB(75, 25));
+        // fully transparent pixels
+        assertEquals(0, back.getRGB(75, 75) >>> 24);
+        outFile.delete();
+    }
+
 }
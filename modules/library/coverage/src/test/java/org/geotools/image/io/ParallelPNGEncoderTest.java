@@ -0,0 +1,171 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.image.io;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+import javax.imageio.ImageIO;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Testing {@link ParallelPNGEncoder}
+ *
+ * @source $URL$
+ */
+public class ParallelPNGEncoderTest {
+
+    static ExecutorService executor;
+
+    @BeforeClass
+    public static void setupExecutor() {
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @AfterClass
+    public static void shutdownExecutor() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testCombineAdler32() {
+        byte[] data = new byte[100000];
+        new Random(1).nextBytes(data);
+        Adler32 whole = new Adler32();
+        whole.update(data);
+
+        Adler32 first = new Adler32();
+        first.update(data, 0, 30000);
+        Adler32 second = new Adler32();
+        second.update(data, 30000, 70000);
+        assertEquals(whole.getValue(),
+                ParallelPNGEncoder.combineAdler32(first.getValue(), second.getValue(), 70000));
+    }
+
+    @Test
+    public void testCanEncode() {
+        assertTrue(ParallelPNGEncoder.canEncode(new BufferedImage(10, 10,
+                BufferedImage.TYPE_4BYTE_ABGR)));
+        assertTrue(ParallelPNGEncoder.canEncode(new BufferedImage(10, 10,
+                BufferedImage.TYPE_3BYTE_BGR)));
+        assertTrue(ParallelPNGEncoder.canEncode(new BufferedImage(10, 10,
+                BufferedImage.TYPE_BYTE_GRAY)));
+        assertTrue(ParallelPNGEncoder.canEncode(new BufferedImage(10, 10,
+                BufferedImage.TYPE_BYTE_INDEXED)));
+        // packed and 16 bits are left to ImageIO
+        assertFalse(ParallelPNGEncoder.canEncode(new BufferedImage(10, 10,
+                BufferedImage.TYPE_INT_ARGB)));
+        assertFalse(ParallelPNGEncoder.canEncode(new BufferedImage(10, 10,
+                BufferedImage.TYPE_USHORT_GRAY)));
+        assertFalse(ParallelPNGEncoder.canEncode(new BufferedImage(10, 10,
+                BufferedImage.TYPE_BYTE_BINARY)));
+    }
+
+    @Test
+    public void testRGBA() throws Exception {
+        assertRoundTrip(buildImage(BufferedImage.TYPE_4BYTE_ABGR));
+    }
+
+    @Test
+    public void testRGB() throws Exception {
+        assertRoundTrip(buildImage(BufferedImage.TYPE_3BYTE_BGR));
+    }
+
+    @Test
+    public void testGray() throws Exception {
+        assertRoundTrip(buildImage(BufferedImage.TYPE_BYTE_GRAY));
+    }
+
+    @Test
+    public void testPaletted() throws Exception {
+        assertRoundTrip(buildImage(BufferedImage.TYPE_BYTE_INDEXED));
+    }
+
+    @Test
+    public void testSubImage() throws Exception {
+        BufferedImage image = buildImage(BufferedImage.TYPE_4BYTE_ABGR);
+        assertRoundTrip(image.getSubimage(13, 7, 101, 93));
+    }
+
+    private BufferedImage buildImage(int type) {
+        BufferedImage image = new BufferedImage(200, 150, type);
+        Graphics2D graphics = image.createGraphics();
+        Random random = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            graphics.setColor(new Color(random.nextInt(256), random.nextInt(256), random
+                    .nextInt(256), random.nextInt(256)));
+            graphics.fillOval(random.nextInt(200) - 20, random.nextInt(150) - 20,
+                    random.nextInt(60), random.nextInt(60));
+        }
+        graphics.dispose();
+        return image;
+    }
+
+    private void assertRoundTrip(BufferedImage image) throws Exception {
+        // single block and many small blocks, sequential and parallel
+        ParallelPNGEncoder encoder = new ParallelPNGEncoder();
+        assertSamePixels(image, encode(encoder, image));
+
+        encoder = new ParallelPNGEncoder(1, executor);
+        encoder.blockSize = 1000;
+        assertSamePixels(image, encode(encoder, image));
+
+        encoder = new ParallelPNGEncoder(9, null);
+        encoder.blockSize = 3000;
+        assertSamePixels(image, encode(encoder, image));
+
+        encoder = new ParallelPNGEncoder(6, Deflater.FILTERED, executor);
+        encoder.blockSize = 3000;
+        assertSamePixels(image, encode(encoder, image));
+
+        encoder = new ParallelPNGEncoder(6, Deflater.HUFFMAN_ONLY, null);
+        assertSamePixels(image, encode(encoder, image));
+    }
+
+    private BufferedImage encode(ParallelPNGEncoder encoder, BufferedImage image)
+            throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        encoder.encode(image, bos);
+        BufferedImage read = ImageIO.read(new ByteArrayInputStream(bos.toByteArray()));
+        assertNotNull(read);
+        return read;
+    }
+
+    private void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        assertEquals(expected.getColorModel().hasAlpha(), actual.getColorModel().hasAlpha());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals("Pixel " + x + "," + y, expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+}
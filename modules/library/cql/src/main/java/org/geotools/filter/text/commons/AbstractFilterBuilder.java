@@ -16,6 +16,7 @@
  */
 package org.geotools.filter.text.commons;
 
+import java.io.StringReader;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -104,6 +105,16 @@ public abstract class AbstractFilterBuilder {
      */
     static Pattern TZOFFSET_PATTERN = Pattern.compile("[+-]\\d{2}(?:\\d{2})");
 
+    /**
+     * WKT reader of the current thread, reused for all the geometry literals
+     */
+    private static final ThreadLocal<WKTReader> WKT_READER = new ThreadLocal<WKTReader>() {
+        @Override
+        protected WKTReader initialValue() {
+            return new WKTReader();
+        }
+    };
+
     private final FilterFactory filterFactory;
 
     private final BuildResultStack resultStack;
@@ -1135,9 +1146,8 @@ public abstract class AbstractFilterBuilder {
             // transforms wkt to vividsolution geometry
             String vividGeom = transformWKTGeometry(wktGeom);
 
-            WKTReader reader = new WKTReader();
-
-            Geometry g = reader.read(vividGeom);
+            // the reader of the thread tokenizes the text as a stream
+            Geometry g = WKT_READER.get().read(new StringReader(vividGeom));
 
             Literal literal = filterFactory.literal(g);
 
@@ -1191,6 +1201,16 @@ public abstract class AbstractFilterBuilder {
     protected String transformWKTGeometry(final String wktGeom) {
         final String MULTIPOINT_TYPE = "MULTIPOINT";
 
+        // most geometries need no transformation, look for the type without copying the text
+        boolean multipoint = false;
+        for (int i = 0; i <= wktGeom.length() - MULTIPOINT_TYPE.length() && !multipoint; i++) {
+            multipoint = wktGeom.regionMatches(true, i, MULTIPOINT_TYPE, 0,
+                    MULTIPOINT_TYPE.length());
+        }
+        if (!multipoint) {
+            return wktGeom;
+        }
+
         StringBuffer transformed = new StringBuffer(30);
         StringBuffer source = new StringBuffer(wktGeom.toUpperCase());
 
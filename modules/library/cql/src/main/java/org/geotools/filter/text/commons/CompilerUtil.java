@@ -17,9 +17,16 @@
 
 package org.geotools.filter.text.commons;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.factory.Hints;
+import org.geotools.filter.text.cql2.CQLCompiler;
 import org.geotools.filter.text.cql2.CQLException;
+import org.geotools.filter.text.ecql.ECQLCompiler;
 import org.opengis.filter.Filter;
 import org.opengis.filter.FilterFactory;
 import org.opengis.filter.expression.Expression;
@@ -31,6 +38,11 @@ import org.opengis.filter.expression.Expression;
  * This is an internal utility class with convenient methods for compiler actions.
  * </p>
  * <p>
+ * The results parsed with the default filter factory are kept in a bounded cache, see
+ * {@link ParseCache}, and each caller parsing the same text gets its own copy. Each thread
+ * reuses its compilers instead of making a new one for each parse.
+ * </p>
+ * <p>
  * Warning: This component is not published. It is part of module implementation. 
  * Client module should not use this feature.
  * </p>
@@ -45,9 +57,28 @@ import org.opengis.filter.expression.Expression;
  */
 final public class CompilerUtil {
 
+    /**
+     * Compilers of the current thread ready to be reused, by language or compiler factory. A
+     * compiler is removed while in use, so that nested parses make their own.
+     */
+    private static final ThreadLocal<Map<Object, ICompiler>> IDLE_COMPILERS =
+            new ThreadLocal<Map<Object, ICompiler>>() {
+        @Override
+        protected Map<Object, ICompiler> initialValue() {
+            return new WeakHashMap<Object, ICompiler>();
+        }
+    };
+
     private CompilerUtil(){
         // utility class
     }
+
+    /**
+     * Discards the cached results of the previous parses
+     */
+    public static void clearCache() {
+        ParseCache.clear();
+    }
     
     
     /**
@@ -64,9 +95,7 @@ final public class CompilerUtil {
         assert language != null: "language cannot be null";
         assert predicate != null:"predicate cannot be null";
         
-        ICompiler compiler = CompilerFactory.makeCompiler(language, predicate, filterFactory);
-        compiler.compileFilter();
-        Filter result = compiler.getFilter();
+        Filter result = (Filter) parse(language, null, ParseCache.FILTER, predicate, filterFactory);
 
         return result;
     }
@@ -101,9 +130,8 @@ final public class CompilerUtil {
         assert language != null: "language cannot be null";
         assert predicate != null:"predicate cannot be null";
         
-        ICompiler compiler = CompilerFactory.makeCompiler(language, predicate, filterFactory);
-        compiler.compileExpression();
-        Expression result = compiler.getExpression();
+        Expression result = (Expression) parse(language, null, ParseCache.EXPRESSION, predicate,
+                filterFactory);
 
         return result;
     }
@@ -139,9 +167,7 @@ final public class CompilerUtil {
         assert language != null: "language cannot be null";
         assert predicate != null:"predicate cannot be null";
 
-        ICompiler compiler = CompilerFactory.makeCompiler(language, predicate, filterFactory);
-        compiler.compileFilterList();
-        List<Filter> results = compiler.getFilterList();
+        List<Filter> results = parseList(language, null, predicate, filterFactory);
         
         return results;
     }
@@ -171,9 +197,8 @@ final public class CompilerUtil {
      */
     public static Expression parseExpression(final String source, final AbstractCompilerFactory compilerFactory, FilterFactory filterFactory ) throws CQLException{
  
-        ICompiler compiler = compilerFactory.makeCompiler(source, filterFactory);
-        compiler.compileExpression();
-        Expression expression = compiler.getExpression();
+        Expression expression = (Expression) parse(compilerFactory, compilerFactory,
+                ParseCache.EXPRESSION, source, filterFactory);
         
         return expression;
     }
@@ -192,9 +217,8 @@ final public class CompilerUtil {
             final AbstractCompilerFactory compilerFactory, 
             final FilterFactory filterFactory) throws CQLException {
 
-        ICompiler compiler = compilerFactory.makeCompiler(source, filterFactory);
-        compiler.compileFilter();
-        Filter result = compiler.getFilter();
+        Filter result = (Filter) parse(compilerFactory, compilerFactory,
+                ParseCache.FILTER, source, filterFactory);
         
         return result;
     }
@@ -213,10 +237,96 @@ final public class CompilerUtil {
             final AbstractCompilerFactory compilerFactory, 
             final FilterFactory filterFactory) throws CQLException {
 
-        ICompiler compiler = compilerFactory.makeCompiler(predicateSequence, filterFactory);
-        compiler.compileFilterList();
-        List<Filter> filters = compiler.getFilterList();
+        List<Filter> filters = parseList(compilerFactory, compilerFactory,
+                predicateSequence, filterFactory);
         
         return filters;
     }
+
+    @SuppressWarnings("unchecked")
+    private static List<Filter> parseList(final Object language,
+            final AbstractCompilerFactory compilerFactory, final String source,
+            final FilterFactory filterFactory) throws CQLException {
+
+        List<Filter> filters = (List<Filter>) parse(language, compilerFactory,
+                ParseCache.FILTER_LIST, source, filterFactory);
+
+        return filters;
+    }
+
+    /**
+     * Parses the source, or copies the result from the cache if the default filter factory is
+     * used. The caller gets its own instance in both cases.
+     * 
+     * @param language the language, or the compiler factory
+     * @param compilerFactory the compiler factory, null to make the compiler for the language
+     * @param kind the kind of result, as defined in {@link ParseCache}
+     * @param source the text to parse
+     * @param filterFactory the filter factory, null for the default one
+     * @return the parse result
+     * @throws CQLException
+     */
+    private static Object parse(final Object language,
+            final AbstractCompilerFactory compilerFactory, final int kind, final String source,
+            final FilterFactory filterFactory) throws CQLException {
+
+        final boolean cacheable = filterFactory == null && ParseCache.isEnabled();
+        if (cacheable) {
+            Object cached = ParseCache.get(language, kind, source);
+            if (cached != null) {
+                return ParseCache.copy(kind, cached);
+            }
+        }
+
+        Map<Object, ICompiler> idle = IDLE_COMPILERS.get();
+        ICompiler compiler = idle.remove(language);
+        if (compiler != null) {
+            FilterFactory ff = filterFactory;
+            if (ff == null) {
+                ff = CommonFactoryFinder.getFilterFactory((Hints) null);
+            }
+            reset(compiler, source, ff);
+        } else if (compilerFactory != null) {
+            compiler = compilerFactory.makeCompiler(source, filterFactory);
+        } else {
+            compiler = CompilerFactory.makeCompiler((Language) language, source, filterFactory);
+        }
+
+        Object result;
+        switch (kind) {
+        case ParseCache.FILTER:
+            compiler.compileFilter();
+            result = compiler.getFilter();
+            break;
+        case ParseCache.EXPRESSION:
+            compiler.compileExpression();
+            result = compiler.getExpression();
+            break;
+        default:
+            compiler.compileFilterList();
+            result = new ArrayList<Filter>(compiler.getFilterList());
+        }
+        // a compiler which failed is not reused
+        if (compiler instanceof CQLCompiler || compiler instanceof ECQLCompiler) {
+            idle.put(language, compiler);
+        }
+
+        if (cacheable) {
+            // the cache keeps its own copy, out of reach of the caller
+            ParseCache.put(language, kind, source, ParseCache.copy(kind, result));
+        }
+        return result;
+    }
+
+    /**
+     * Prepares an idle compiler to compile a new source
+     */
+    private static void reset(final ICompiler compiler, final String source,
+            final FilterFactory filterFactory) {
+        if (compiler instanceof ECQLCompiler) {
+            ((ECQLCompiler) compiler).reset(source, filterFactory);
+        } else {
+            ((CQLCompiler) compiler).reset(source, filterFactory);
+        }
+    }
 }
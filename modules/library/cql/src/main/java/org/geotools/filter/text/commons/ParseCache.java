@@ -0,0 +1,166 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.filter.text.commons;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.geotools.filter.visitor.DuplicatingFilterVisitor;
+import org.geotools.util.LRULinkedHashMap;
+import org.opengis.filter.Filter;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Bounded cache of the filters and expressions parsed with the default filter factory, keyed by
+ * language, kind of result and source text.
+ * <p>
+ * The size of the cache is set with the {@link #CACHE_SIZE_KEY} system property, 0 disables
+ * it. Filters and expressions are mutable, the cache keeps its own copy of each result and hands
+ * out copies of it, see {@link #copy(int, Object)}.
+ * </p>
+ * <p>
+ * Warning: This component is not published. It is part of module implementation. Client module
+ * should not use this feature.
+ * </p>
+ *
+ * @source $URL$
+ */
+final class ParseCache {
+
+    /**
+     * System property setting the maximum number of cached results
+     */
+    public static final String CACHE_SIZE_KEY = "org.geotools.filter.text.cacheSize";
+
+    static final int CACHE_SIZE = Integer.getInteger(CACHE_SIZE_KEY, 1000);
+
+    static final int FILTER = 0;
+
+    static final int EXPRESSION = 1;
+
+    static final int FILTER_LIST = 2;
+
+    private static final Map<Key, Object> CACHE = LRULinkedHashMap.createForRecentAccess(Math
+            .max(CACHE_SIZE, 1));
+
+    private ParseCache() {
+        // utility class
+    }
+
+    static boolean isEnabled() {
+        return CACHE_SIZE > 0;
+    }
+
+    static Object get(Object language, int kind, String source) {
+        if (!isEnabled()) {
+            return null;
+        }
+        synchronized (CACHE) {
+            return CACHE.get(new Key(language, kind, source));
+        }
+    }
+
+    static void put(Object language, int kind, String source, Object result) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (CACHE) {
+            CACHE.put(new Key(language, kind, source), result);
+        }
+    }
+
+    /**
+     * Deep copies a parse result, including the mutable literal values: geometries and dates
+     */
+    @SuppressWarnings("unchecked")
+    static Object copy(int kind, Object result) {
+        final ResultCopier copier = new ResultCopier();
+        switch (kind) {
+        case FILTER:
+            return ((Filter) result).accept(copier, null);
+        case EXPRESSION:
+            return ((Expression) result).accept(copier, null);
+        default:
+            final List<Filter> filters = (List<Filter>) result;
+            final List<Filter> copy = new ArrayList<Filter>(filters.size());
+            for (Filter filter : filters) {
+                copy.add((Filter) filter.accept(copier, null));
+            }
+            return copy;
+        }
+    }
+
+    static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+
+    /**
+     * Duplicates a filter or expression, along with the literal values that can be modified
+     */
+    private static final class ResultCopier extends DuplicatingFilterVisitor {
+
+        @Override
+        public Object visit(Literal expression, Object extraData) {
+            Object value = expression.getValue();
+            if (value instanceof Geometry) {
+                value = ((Geometry) value).clone();
+            } else if (value instanceof Date) {
+                value = ((Date) value).clone();
+            }
+            return getFactory(extraData).literal(value);
+        }
+    }
+
+    private static final class Key {
+        final Object language;
+
+        final int kind;
+
+        final String source;
+
+        final int hash;
+
+        Key(Object language, int kind, String source) {
+            this.language = language;
+            this.kind = kind;
+            this.source = source;
+            this.hash = (language.hashCode() * 31 + kind) * 31 + source.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return kind == other.kind && language.equals(other.language)
+                    && source.equals(other.source);
+        }
+    }
+}
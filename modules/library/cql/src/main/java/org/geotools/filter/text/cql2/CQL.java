@@ -94,6 +94,10 @@ import org.opengis.filter.expression.Expression;
  * @source $URL$
  */
 public class CQL {
+
+    /** the compilers are made by a single factory, the parse cache is kept by factory */
+    private static final CQLCompilerFactory COMPILER_FACTORY = new CQLCompilerFactory();
+
     private CQL() {
         // do nothing, private constructor
         // to indicate it is a pure utility class
@@ -130,8 +134,7 @@ public class CQL {
     public static Filter toFilter(final String cqlPredicate, final FilterFactory filterFactory)
         throws CQLException {
 
-        CQLCompilerFactory compilerFactory = new CQLCompilerFactory();
-        Filter result = CompilerUtil.parseFilter(cqlPredicate, compilerFactory, filterFactory);
+        Filter result = CompilerUtil.parseFilter(cqlPredicate, COMPILER_FACTORY, filterFactory);
 
         return result;
     }
@@ -166,9 +169,7 @@ public class CQL {
      */
     public static Expression toExpression(final String cqlExpression,
                                           final FilterFactory filterFactory) throws CQLException {
-        CQLCompilerFactory compilerFactory = new CQLCompilerFactory();
-
-        Expression expression = CompilerUtil.parseExpression(cqlExpression, compilerFactory, filterFactory);
+        Expression expression = CompilerUtil.parseExpression(cqlExpression, COMPILER_FACTORY, filterFactory);
 
         return expression;
     }
@@ -254,9 +255,7 @@ public class CQL {
     public static List<Filter> toFilterList(final String cqlSequencePredicate, final FilterFactory filterFactory)
         throws CQLException {
         
-        CQLCompilerFactory compilerFactory = new CQLCompilerFactory();
-
-        List<Filter> filters = CompilerUtil.parseFilterList(cqlSequencePredicate, compilerFactory, filterFactory);
+        List<Filter> filters = CompilerUtil.parseFilterList(cqlSequencePredicate, COMPILER_FACTORY, filterFactory);
 
         return filters;
     }
@@ -71,7 +71,7 @@ public class CQLCompiler extends CQLParser implements ICompiler{
     private static final String ATTRIBUTE_PATH_SEPARATOR = "/";
 
     /** cql expression to compile */
-    private final String source;
+    private String source;
 
     private CQLFilterBuilder builder;
 
@@ -90,6 +90,22 @@ public class CQLCompiler extends CQLParser implements ICompiler{
         this.source = cqlSource;
         this.builder =  new CQLFilterBuilder(cqlSource, filterFactory);
     }
+
+    /**
+     * Prepares this compiler to compile a new source, reusing the parser buffers
+     * 
+     * @param cqlSource
+     * @param filterFactory
+     */
+    public void reset(final String cqlSource, final FilterFactory filterFactory) {
+
+        assert cqlSource != null: "cqlSource cannot be null";
+        assert filterFactory != null: "filterFactory cannot be null";
+
+        super.ReInit(new StringReader(cqlSource));
+        this.source = cqlSource;
+        this.builder = new CQLFilterBuilder(cqlSource, filterFactory);
+    }
     
     /** 
      * compile source to produce a Filter. The filter
@@ -80,6 +80,9 @@ import org.opengis.filter.expression.Expression;
  */
 public class ECQL {
 
+    /** the compilers are made by a single factory, the parse cache is kept by factory */
+    private static final ECQLCompilerFactory COMPILER_FACTORY = new ECQLCompilerFactory();
+
     private ECQL(){
         // do nothing, private constructor
         // to indicate it is a pure utility class
@@ -116,8 +119,7 @@ public class ECQL {
     public static Filter toFilter(final String ecqlPredicate, final FilterFactory filterFactory)
         throws CQLException {
 
-        ECQLCompilerFactory compilerFactory = new ECQLCompilerFactory();
-        Filter result = CompilerUtil.parseFilter(ecqlPredicate, compilerFactory, filterFactory);
+        Filter result = CompilerUtil.parseFilter(ecqlPredicate, COMPILER_FACTORY, filterFactory);
 
         return result;
     }
@@ -152,9 +154,7 @@ public class ECQL {
     public static Expression toExpression(final String ecqlExpression,
             final FilterFactory filterFactory) throws CQLException {
 
-        ECQLCompilerFactory compilerFactory = new ECQLCompilerFactory();
-
-        Expression expression = CompilerUtil.parseExpression(ecqlExpression, compilerFactory, filterFactory);
+        Expression expression = CompilerUtil.parseExpression(ecqlExpression, COMPILER_FACTORY, filterFactory);
 
         return expression;
     }
@@ -188,9 +188,7 @@ public class ECQL {
     public static List<Filter> toFilterList(final String ecqlSequencePredicate, FilterFactory filterFactory)
         throws CQLException {
 
-        ECQLCompilerFactory compilerFactory = new ECQLCompilerFactory();
-
-        List<Filter> filters = CompilerUtil.parseFilterList(ecqlSequencePredicate, compilerFactory, filterFactory);
+        List<Filter> filters = CompilerUtil.parseFilterList(ecqlSequencePredicate, COMPILER_FACTORY, filterFactory);
         
         return filters;
     
@@ -64,9 +64,9 @@ public class ECQLCompiler extends ECQLParser implements org.geotools.filter.text
     private static final String ATTRIBUTE_PATH_SEPARATOR = "/";
 
     /** cql expression to compile */
-    private final String           source;
+    private String           source;
 
-    private final ECQLFilterBuilder builder;
+    private ECQLFilterBuilder builder;
 
     /**
      * new instance of TXTCompiler
@@ -84,6 +84,22 @@ public class ECQLCompiler extends ECQLParser implements org.geotools.filter.text
         this.builder =  new ECQLFilterBuilder(txtSource, filterFactory);
     }
 
+    /**
+     * Prepares this compiler to compile a new source, reusing the parser buffers
+     * 
+     * @param txtSource
+     * @param filterFactory
+     */
+    public void reset(final String txtSource, final FilterFactory filterFactory) {
+
+        assert txtSource != null: "txtSource cannot be null";
+        assert filterFactory != null: "filterFactory cannot be null";
+
+        super.ReInit(new StringReader(txtSource));
+        this.source = txtSource;
+        this.builder = new ECQLFilterBuilder(txtSource, filterFactory);
+    }
+
     /** 
      * compile source to produce a Filter. The filter
      * result must be retrieved with {@link #getFilter()}.
@@ -43,6 +43,8 @@ import com.vividsolutions.jts.geom.GeometryFactory;
  */
 abstract class GeometryBuilder {
 
+    /** geometry factories are immutable, all the builders share one */
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
 
     private BuildResultStack resultStack;
     private String statement;
@@ -66,7 +68,7 @@ abstract class GeometryBuilder {
     }
 
     protected GeometryFactory getGeometryFactory() {
-        return  new GeometryFactory();
+        return GEOMETRY_FACTORY;
     }
 
     protected BuildResultStack getResultStack() {
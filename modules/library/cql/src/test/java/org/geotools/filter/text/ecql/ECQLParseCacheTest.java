@@ -0,0 +1,158 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.filter.text.ecql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.filter.text.commons.CompilerUtil;
+import org.geotools.filter.text.cql2.CQL;
+import org.geotools.filter.text.cql2.CQLException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.spatial.Intersects;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.MultiPoint;
+
+/**
+ * Test for the cache of parsed filters and the reuse of the compilers
+ *
+ * @source $URL$
+ */
+public final class ECQLParseCacheTest {
+
+    @Before
+    public void clearCache() {
+        CompilerUtil.clearCache();
+    }
+
+    @Test
+    public void cachedFilter() throws Exception {
+        Filter first = ECQL.toFilter("ATTR1 > 10 AND INTERSECTS(GEOM, POINT(1 2))");
+        Filter second = ECQL.toFilter("ATTR1 > 10 AND INTERSECTS(GEOM, POINT(1 2))");
+        // each caller gets its own copy
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(first, second);
+
+        // languages are cached apart
+        Filter cql = CQL.toFilter("ATTR1 > 10 AND INTERSECTS(GEOM, POINT(1 2))");
+        Assert.assertNotSame(first, cql);
+        Assert.assertEquals(first, cql);
+
+        // a custom filter factory is not served from the cache
+        Filter custom = ECQL.toFilter("ATTR1 > 10 AND INTERSECTS(GEOM, POINT(1 2))",
+                CommonFactoryFinder.getFilterFactory2(null));
+        Assert.assertNotSame(first, custom);
+        Assert.assertEquals(first, custom);
+    }
+
+    @Test
+    public void cachedExpression() throws Exception {
+        Expression first = ECQL.toExpression("strConcat(A, 'x') ");
+        Expression second = ECQL.toExpression("strConcat(A, 'x') ");
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(first, second);
+    }
+
+    @Test
+    public void cachedFilterNotShared() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            Filter filter = ECQL.toFilter("INTERSECTS(GEOM, POINT(1 2))");
+            Geometry geometry = (Geometry) ((Intersects) filter).getExpression2().evaluate(null);
+            Assert.assertEquals(1, geometry.getCoordinate().x, 0d);
+            // changing the result does not change the one of the next caller
+            geometry.getCoordinate().x = 5;
+            geometry.geometryChanged();
+        }
+    }
+
+    @Test
+    public void filterListCopied() throws Exception {
+        List<Filter> first = ECQL.toFilterList("A = 1; B = 2");
+        first.clear();
+        List<Filter> second = ECQL.toFilterList("A = 1; B = 2");
+        Assert.assertEquals(2, second.size());
+    }
+
+    @Test
+    public void errorsNotCached() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            try {
+                ECQL.toFilter("A = ");
+                Assert.fail("Expected a parse error");
+            } catch (CQLException e) {
+                // expected
+            }
+        }
+        // the compiler is usable after a failure
+        FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+        Assert.assertEquals(ff.equals(ff.property("A"), ff.literal(1)), ECQL.toFilter("A = 1"));
+    }
+
+    @Test
+    public void reusedCompiler() throws Exception {
+        // each text is parsed with the same compiler of this thread
+        FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+        for (int i = 0; i < 20; i++) {
+            Filter filter = ECQL.toFilter("A" + i + " BETWEEN " + i + " AND " + (i + 10));
+            Assert.assertEquals(ff.between(ff.property("A" + i), ff.literal(i),
+                    ff.literal(i + 10)), filter);
+        }
+    }
+
+    @Test
+    public void multipointLiteral() throws Exception {
+        Filter filter = CQL.toFilter("INTERSECTS(GEOM, MULTIPOINT((1 2), (3 4)))");
+        Geometry geometry = (Geometry) ((Intersects) filter)
+                .getExpression2().evaluate(null);
+        Assert.assertTrue(geometry instanceof MultiPoint);
+        Assert.assertEquals(2, geometry.getNumPoints());
+    }
+
+    @Test
+    public void concurrentParse() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Filter>> results = new ArrayList<Future<Filter>>();
+            for (int i = 0; i < 200; i++) {
+                final String text = "A" + (i % 30) + " > " + (i % 7);
+                results.add(executor.submit(new Callable<Filter>() {
+                    public Filter call() throws Exception {
+                        return ECQL.toFilter(text);
+                    }
+                }));
+            }
+            FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+            for (int i = 0; i < results.size(); i++) {
+                Assert.assertEquals(ff.greater(ff.property("A" + (i % 30)), ff.literal(i % 7)),
+                        results.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
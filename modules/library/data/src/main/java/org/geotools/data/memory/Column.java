@@ -0,0 +1,786 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.memory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geotools.data.collection.PackedSTRtree;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKBWriter;
+import com.vividsolutions.jts.io.WKTReader;
+import com.vividsolutions.jts.io.WKTWriter;
+
+/**
+ * Values of an attribute for all the rows of a {@link ColumnarTable}, stored outside of the heap.
+ * <p>
+ * A column is filled once, row by row, then only read. Numbers, booleans and dates are stored as
+ * primitives, strings are dictionary encoded with a sorted dictionary, geometries as WKB along
+ * with their envelope. Other values are dictionary encoded with the distinct values kept on the
+ * heap. Columns of comparable values build a sorted index the first time it is needed.
+ * </p>
+ *
+ * @source $URL$
+ */
+abstract class Column {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+
+    /** Null values */
+    private final BitSet nulls = new BitSet();
+
+    /** Number of rows */
+    int size;
+
+    /** Rows with a value, sorted by value */
+    private volatile OffHeapBuffer index;
+
+    private int indexSize;
+
+    /**
+     * Creates the column suited to the values of the specified type
+     */
+    static Column create(Class<?> binding) {
+        if (Geometry.class.isAssignableFrom(binding)) {
+            return new GeometryColumn();
+        } else if (binding == String.class) {
+            return new StringColumn();
+        } else if (binding == Integer.class || binding == Short.class || binding == Byte.class) {
+            return new IntColumn(binding);
+        } else if (binding == Long.class) {
+            return new LongColumn();
+        } else if (binding == Double.class || binding == Float.class) {
+            return new DoubleColumn(binding);
+        } else if (binding == Boolean.class) {
+            return new BooleanColumn();
+        } else if (binding == Date.class || binding == java.sql.Date.class
+                || binding == java.sql.Time.class) {
+            return new DateColumn(binding);
+        }
+        return new ObjectColumn();
+    }
+
+    final void add(Object value) {
+        if (value == null) {
+            nulls.set(size);
+            addNull();
+        } else {
+            addValue(value);
+        }
+        size++;
+    }
+
+    final Object get(int row) {
+        return nulls.get(row) ? null : getValue(row);
+    }
+
+    final boolean isNull(int row) {
+        return nulls.get(row);
+    }
+
+    abstract void addNull();
+
+    abstract void addValue(Object value);
+
+    abstract Object getValue(int row);
+
+    /**
+     * Ends the load of the column
+     */
+    abstract void finish();
+
+    /**
+     * @return the bytes used outside of the heap
+     */
+    long getOffHeapSize() {
+        OffHeapBuffer sorted = index;
+        return sorted == null ? 0 : sorted.capacity();
+    }
+
+    /**
+     * Releases the memory used outside of the heap, the column cannot be read afterwards
+     */
+    void dispose() {
+        OffHeapBuffer sorted = index;
+        if (sorted != null) {
+            sorted.dispose();
+        }
+    }
+
+    /**
+     * @return true if the column can be searched with a sorted index
+     */
+    boolean isIndexable() {
+        return true;
+    }
+
+    /**
+     * Compares the values of two rows, neither of them null
+     */
+    abstract int compare(int row1, int row2);
+
+    /**
+     * Converts a value to a bound comparable to the rows
+     *
+     * @return the bound, or null if the value cannot be compared with the rows
+     */
+    abstract Object bound(Object value);
+
+    /**
+     * Compares the value of a row with a bound returned by {@link #bound(Object)}
+     */
+    abstract int compareTo(int row, Object bound);
+
+    /**
+     * Looks up the rows with a value in a range, using the sorted index of the column
+     *
+     * @param lower the lower bound, or null
+     * @param upper the upper bound, or null
+     * @return the positions of the first and past the last matching rows in the sorted index
+     */
+    final int[] range(Object lower, boolean lowerInclusive, Object upper,
+            boolean upperInclusive) {
+        OffHeapBuffer sorted = getIndex();
+        int from = 0;
+        if (lower != null) {
+            from = search(sorted, lower, lowerInclusive ? 0 : 1);
+        }
+        int to = indexSize;
+        if (upper != null) {
+            to = search(sorted, upper, upperInclusive ? 1 : 0);
+        }
+        return new int[] { from, Math.max(from, to) };
+    }
+
+    /**
+     * @return the rows between two positions of the sorted index, in row order
+     */
+    final int[] rows(int from, int to) {
+        OffHeapBuffer sorted = getIndex();
+        int[] rows = new int[to - from];
+        for (int i = from; i < to; i++) {
+            rows[i - from] = sorted.getInt(i * 4);
+        }
+        Arrays.sort(rows);
+        return rows;
+    }
+
+    /**
+     * @return the first position of the index whose row compares to the bound at least as much as
+     *         the threshold
+     */
+    private int search(OffHeapBuffer sorted, Object bound, int threshold) {
+        int low = 0;
+        int high = indexSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Integer.signum(compareTo(sorted.getInt(mid * 4), bound)) < threshold) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private OffHeapBuffer getIndex() {
+        OffHeapBuffer sorted = index;
+        if (sorted == null) {
+            synchronized (this) {
+                sorted = index;
+                if (sorted == null) {
+                    int[] rows = new int[size - nulls.cardinality()];
+                    for (int row = 0, i = 0; row < size; row++) {
+                        if (!nulls.get(row)) {
+                            rows[i++] = row;
+                        }
+                    }
+                    Rows.sort(rows, new Rows.Comparator() {
+                        public int compare(int row1, int row2) {
+                            return Column.this.compare(row1, row2);
+                        }
+                    });
+                    sorted = new OffHeapBuffer(rows.length * 4);
+                    for (int row : rows) {
+                        sorted.putInt(row);
+                    }
+                    indexSize = rows.length;
+                    index = sorted;
+                }
+            }
+        }
+        return sorted;
+    }
+
+    static int order(long value1, long value2) {
+        return value1 < value2 ? -1 : (value1 == value2 ? 0 : 1);
+    }
+
+    /**
+     * Variable length byte records
+     */
+    static final class Records {
+        final OffHeapBuffer data = new OffHeapBuffer(1024);
+
+        final OffHeapBuffer offsets = new OffHeapBuffer(1024);
+
+        Records() {
+            offsets.putInt(0);
+        }
+
+        void add(byte[] record) {
+            data.put(record);
+            offsets.putInt(data.position());
+        }
+
+        byte[] get(int i) {
+            int start = offsets.getInt(i * 4);
+            byte[] record = new byte[offsets.getInt(i * 4 + 4) - start];
+            ByteBuffer view = data.duplicate();
+            view.position(start);
+            view.get(record);
+            return record;
+        }
+
+        void trim() {
+            data.trim();
+            offsets.trim();
+        }
+
+        long getOffHeapSize() {
+            return data.capacity() + offsets.capacity();
+        }
+
+        void dispose() {
+            data.dispose();
+            offsets.dispose();
+        }
+    }
+
+    static final class IntColumn extends Column {
+        final Class<?> binding;
+
+        final OffHeapBuffer values = new OffHeapBuffer(1024);
+
+        IntColumn(Class<?> binding) {
+            this.binding = binding;
+        }
+
+        void addNull() {
+            values.putInt(0);
+        }
+
+        void addValue(Object value) {
+            values.putInt(((Number) value).intValue());
+        }
+
+        Object getValue(int row) {
+            int value = values.getInt(row * 4);
+            if (binding == Short.class) {
+                return (short) value;
+            } else if (binding == Byte.class) {
+                return (byte) value;
+            }
+            return value;
+        }
+
+        void finish() {
+            values.trim();
+        }
+
+        long getOffHeapSize() {
+            return super.getOffHeapSize() + values.capacity();
+        }
+
+        void dispose() {
+            super.dispose();
+            values.dispose();
+        }
+
+        int compare(int row1, int row2) {
+            return order(values.getInt(row1 * 4), values.getInt(row2 * 4));
+        }
+
+        Object bound(Object value) {
+            return value instanceof Number ? ((Number) value).doubleValue() : null;
+        }
+
+        int compareTo(int row, Object bound) {
+            return Double.compare(values.getInt(row * 4), (Double) bound);
+        }
+    }
+
+    static class LongColumn extends Column {
+        final OffHeapBuffer values = new OffHeapBuffer(1024);
+
+        void addNull() {
+            values.putLong(0);
+        }
+
+        void addValue(Object value) {
+            values.putLong(((Number) value).longValue());
+        }
+
+        Object getValue(int row) {
+            return values.getLong(row * 8);
+        }
+
+        void finish() {
+            values.trim();
+        }
+
+        long getOffHeapSize() {
+            return super.getOffHeapSize() + values.capacity();
+        }
+
+        void dispose() {
+            super.dispose();
+            values.dispose();
+        }
+
+        int compare(int row1, int row2) {
+            return order(values.getLong(row1 * 8), values.getLong(row2 * 8));
+        }
+
+        Object bound(Object value) {
+            if (value instanceof Long || value instanceof Integer || value instanceof Short
+                    || value instanceof Byte) {
+                return ((Number) value).longValue();
+            }
+            return value instanceof Number ? ((Number) value).doubleValue() : null;
+        }
+
+        int compareTo(int row, Object bound) {
+            long value = values.getLong(row * 8);
+            if (bound instanceof Long) {
+                return order(value, (Long) bound);
+            }
+            return Double.compare(value, (Double) bound);
+        }
+    }
+
+    static final class DateColumn extends LongColumn {
+        final Class<?> binding;
+
+        DateColumn(Class<?> binding) {
+            this.binding = binding;
+        }
+
+        void addValue(Object value) {
+            values.putLong(((Date) value).getTime());
+        }
+
+        Object getValue(int row) {
+            long time = values.getLong(row * 8);
+            if (binding == java.sql.Date.class) {
+                return new java.sql.Date(time);
+            } else if (binding == java.sql.Time.class) {
+                return new java.sql.Time(time);
+            }
+            return new Date(time);
+        }
+
+        Object bound(Object value) {
+            return value instanceof Date ? ((Date) value).getTime() : null;
+        }
+    }
+
+    static final class DoubleColumn extends Column {
+        final Class<?> binding;
+
+        final OffHeapBuffer values = new OffHeapBuffer(1024);
+
+        DoubleColumn(Class<?> binding) {
+            this.binding = binding;
+        }
+
+        void addNull() {
+            values.putDouble(0);
+        }
+
+        void addValue(Object value) {
+            values.putDouble(((Number) value).doubleValue());
+        }
+
+        Object getValue(int row) {
+            double value = values.getDouble(row * 8);
+            return binding == Float.class ? (Object) (float) value : (Object) value;
+        }
+
+        void finish() {
+            values.trim();
+        }
+
+        long getOffHeapSize() {
+            return super.getOffHeapSize() + values.capacity();
+        }
+
+        void dispose() {
+            super.dispose();
+            values.dispose();
+        }
+
+        int compare(int row1, int row2) {
+            return Double.compare(values.getDouble(row1 * 8), values.getDouble(row2 * 8));
+        }
+
+        Object bound(Object value) {
+            return value instanceof Number ? ((Number) value).doubleValue() : null;
+        }
+
+        int compareTo(int row, Object bound) {
+            return Double.compare(values.getDouble(row * 8), (Double) bound);
+        }
+    }
+
+    static final class BooleanColumn extends Column {
+        final OffHeapBuffer values = new OffHeapBuffer(1024);
+
+        void addNull() {
+            values.putByte((byte) 0);
+        }
+
+        void addValue(Object value) {
+            values.putByte(((Boolean) value) ? (byte) 1 : (byte) 0);
+        }
+
+        Object getValue(int row) {
+            return values.getByte(row) == 1;
+        }
+
+        void finish() {
+            values.trim();
+        }
+
+        long getOffHeapSize() {
+            return super.getOffHeapSize() + values.capacity();
+        }
+
+        void dispose() {
+            super.dispose();
+            values.dispose();
+        }
+
+        int compare(int row1, int row2) {
+            return values.getByte(row1) - values.getByte(row2);
+        }
+
+        Object bound(Object value) {
+            return value instanceof Boolean ? (((Boolean) value) ? 1 : 0) : null;
+        }
+
+        int compareTo(int row, Object bound) {
+            return values.getByte(row) - (Integer) bound;
+        }
+    }
+
+    /**
+     * Strings encoded as their position in a sorted dictionary, so that the codes compare as the
+     * strings
+     */
+    static final class StringColumn extends Column {
+        final OffHeapBuffer codes = new OffHeapBuffer(1024);
+
+        Records dictionary = new Records();
+
+        int dictionarySize;
+
+        /** Codes by string while loading */
+        Map<String, Integer> loading = new HashMap<String, Integer>();
+
+        List<String> loaded = new ArrayList<String>();
+
+        void addNull() {
+            codes.putInt(-1);
+        }
+
+        void addValue(Object value) {
+            String string = value.toString();
+            Integer code = loading.get(string);
+            if (code == null) {
+                code = loaded.size();
+                loading.put(string, code);
+                loaded.add(string);
+            }
+            codes.putInt(code);
+        }
+
+        void finish() {
+            String[] sorted = loaded.toArray(new String[loaded.size()]);
+            Arrays.sort(sorted);
+            int[] remap = new int[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                remap[loading.get(sorted[i])] = i;
+                dictionary.add(sorted[i].getBytes(UTF8));
+            }
+            for (int row = 0; row < size; row++) {
+                int code = codes.getInt(row * 4);
+                if (code != -1) {
+                    codes.putInt(row * 4, remap[code]);
+                }
+            }
+            dictionarySize = sorted.length;
+            loading = null;
+            loaded = null;
+            codes.trim();
+            dictionary.trim();
+        }
+
+        Object getValue(int row) {
+            return new String(dictionary.get(codes.getInt(row * 4)), UTF8);
+        }
+
+        long getOffHeapSize() {
+            return super.getOffHeapSize() + codes.capacity() + dictionary.getOffHeapSize();
+        }
+
+        void dispose() {
+            super.dispose();
+            codes.dispose();
+            dictionary.dispose();
+        }
+
+        int compare(int row1, int row2) {
+            return order(codes.getInt(row1 * 4), codes.getInt(row2 * 4));
+        }
+
+        /**
+         * @return twice the dictionary position of the string, or the position it would have
+         *         minus a half
+         */
+        Object bound(Object value) {
+            if (!(value instanceof String)) {
+                return null;
+            }
+            int low = 0;
+            int high = dictionarySize - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int c = new String(dictionary.get(mid), UTF8).compareTo((String) value);
+                if (c < 0) {
+                    low = mid + 1;
+                } else if (c > 0) {
+                    high = mid - 1;
+                } else {
+                    return 2 * mid;
+                }
+            }
+            return 2 * low - 1;
+        }
+
+        int compareTo(int row, Object bound) {
+            return order(2 * codes.getInt(row * 4), (Integer) bound);
+        }
+    }
+
+    /**
+     * Any other value, encoded as its position in a dictionary of the distinct values kept on the
+     * heap
+     */
+    static final class ObjectColumn extends Column {
+        final OffHeapBuffer codes = new OffHeapBuffer(1024);
+
+        Map<Object, Integer> loading = new HashMap<Object, Integer>();
+
+        List<Object> dictionary = new ArrayList<Object>();
+
+        void addNull() {
+            codes.putInt(-1);
+        }
+
+        void addValue(Object value) {
+            Integer code = loading.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                loading.put(value, code);
+                dictionary.add(value);
+            }
+            codes.putInt(code);
+        }
+
+        void finish() {
+            loading = null;
+            codes.trim();
+        }
+
+        Object getValue(int row) {
+            return dictionary.get(codes.getInt(row * 4));
+        }
+
+        long getOffHeapSize() {
+            return codes.capacity();
+        }
+
+        void dispose() {
+            codes.dispose();
+        }
+
+        boolean isIndexable() {
+            return false;
+        }
+
+        int compare(int row1, int row2) {
+            throw new UnsupportedOperationException();
+        }
+
+        Object bound(Object value) {
+            return null;
+        }
+
+        int compareTo(int row, Object bound) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Geometries as WKB, or WKT for the ones WKB cannot represent, along with their envelope
+     */
+    static final class GeometryColumn extends Column implements PackedSTRtree.Bounds {
+        static final byte WKB = 0;
+
+        static final byte WKT = 1;
+
+        final Records records = new Records();
+
+        /** minx, miny, maxx, maxy, NaN for empty geometries */
+        final OffHeapBuffer envelopes = new OffHeapBuffer(1024);
+
+        final Envelope bounds = new Envelope();
+
+        WKBWriter writer2D = new WKBWriter(2, true);
+
+        WKBWriter writer3D = new WKBWriter(3, true);
+
+        void addNull() {
+            records.add(new byte[0]);
+            putEnvelope(null);
+        }
+
+        void addValue(Object value) {
+            Geometry geometry = (Geometry) value;
+            byte[] encoded;
+            byte format;
+            if (geometry.isEmpty() || geometry instanceof LinearRing) {
+                // not supported by WKB, rings would come back as lines
+                format = WKT;
+                encoded = new WKTWriter(3).write(geometry).getBytes(UTF8);
+            } else {
+                format = WKB;
+                Coordinate coordinate = geometry.getCoordinate();
+                encoded = (Double.isNaN(coordinate.z) ? writer2D : writer3D).write(geometry);
+            }
+            byte[] record = new byte[encoded.length + 1];
+            record[0] = format;
+            System.arraycopy(encoded, 0, record, 1, encoded.length);
+            records.add(record);
+            putEnvelope(geometry.isEmpty() ? null : geometry.getEnvelopeInternal());
+        }
+
+        private void putEnvelope(Envelope envelope) {
+            if (envelope == null) {
+                for (int i = 0; i < 4; i++) {
+                    envelopes.putDouble(Double.NaN);
+                }
+            } else {
+                envelopes.putDouble(envelope.getMinX());
+                envelopes.putDouble(envelope.getMinY());
+                envelopes.putDouble(envelope.getMaxX());
+                envelopes.putDouble(envelope.getMaxY());
+                bounds.expandToInclude(envelope);
+            }
+        }
+
+        Object getValue(int row) {
+            byte[] record = records.get(row);
+            try {
+                if (record[0] == WKB) {
+                    byte[] wkb = new byte[record.length - 1];
+                    System.arraycopy(record, 1, wkb, 0, wkb.length);
+                    return new WKBReader(GEOMETRY_FACTORY).read(wkb);
+                }
+                return new WKTReader(GEOMETRY_FACTORY).read(new String(record, 1,
+                        record.length - 1, UTF8));
+            } catch (ParseException e) {
+                throw new IllegalStateException("Could not read geometry of row " + row, e);
+            }
+        }
+
+        void finish() {
+            writer2D = null;
+            writer3D = null;
+            records.trim();
+            envelopes.trim();
+        }
+
+        long getOffHeapSize() {
+            return records.getOffHeapSize() + envelopes.capacity();
+        }
+
+        void dispose() {
+            records.dispose();
+            envelopes.dispose();
+        }
+
+        public double getMinX(int row) {
+            return envelopes.getDouble(row * 32);
+        }
+
+        public double getMinY(int row) {
+            return envelopes.getDouble(row * 32 + 8);
+        }
+
+        public double getMaxX(int row) {
+            return envelopes.getDouble(row * 32 + 16);
+        }
+
+        public double getMaxY(int row) {
+            return envelopes.getDouble(row * 32 + 24);
+        }
+
+        boolean isIndexable() {
+            return false;
+        }
+
+        int compare(int row1, int row2) {
+            throw new UnsupportedOperationException();
+        }
+
+        Object bound(Object value) {
+            return null;
+        }
+
+        int compareTo(int row, Object bound) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.memory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.geotools.data.collection.PackedSTRtree;
+import org.geotools.filter.visitor.ExtractBoundsFilterVisitor;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.util.Converters;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.filter.And;
+import org.opengis.filter.BinaryComparisonOperator;
+import org.opengis.filter.Filter;
+import org.opengis.filter.Id;
+import org.opengis.filter.PropertyIsBetween;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.PropertyIsGreaterThan;
+import org.opengis.filter.PropertyIsGreaterThanOrEqualTo;
+import org.opengis.filter.PropertyIsLessThan;
+import org.opengis.filter.PropertyIsLessThanOrEqualTo;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.identity.Identifier;
+import org.opengis.filter.spatial.BBOX;
+import org.opengis.filter.spatial.BinarySpatialOperator;
+import org.opengis.filter.spatial.Contains;
+import org.opengis.filter.spatial.Crosses;
+import org.opengis.filter.spatial.Equals;
+import org.opengis.filter.spatial.Intersects;
+import org.opengis.filter.spatial.Overlaps;
+import org.opengis.filter.spatial.Touches;
+import org.opengis.filter.spatial.Within;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Immutable snapshot of the features of a type, stored column by column outside of the heap.
+ * <p>
+ * The default geometries are indexed with a {@link PackedSTRtree}, the feature ids and the
+ * attributes with sorted indexes built on first use. Queries look up the candidate rows with the
+ * most selective index usable for the filter, the filter is then evaluated on each candidate.
+ * </p>
+ *
+ * @source $URL$
+ */
+final class ColumnarTable {
+
+    final SimpleFeatureType schema;
+
+    final int size;
+
+    final Column.StringColumn fids;
+
+    final Column[] columns;
+
+    /** Index of the default geometry column, -1 if none */
+    final int geometryIndex;
+
+    /** Index of the default geometries, null if none */
+    final PackedSTRtree tree;
+
+    final ReferencedEnvelope bounds;
+
+    private ColumnarTable(Builder builder) {
+        this.schema = builder.schema;
+        this.size = builder.size;
+        this.fids = builder.fids;
+        this.columns = builder.columns;
+        AttributeDescriptor geometry = schema.getGeometryDescriptor();
+        this.geometryIndex = geometry == null ? -1 : schema.indexOf(geometry.getLocalName());
+        if (geometryIndex >= 0) {
+            Column.GeometryColumn geometries = (Column.GeometryColumn) columns[geometryIndex];
+            this.tree = new PackedSTRtree(geometries, size, null);
+            this.bounds = new ReferencedEnvelope(geometries.bounds,
+                    schema.getCoordinateReferenceSystem());
+        } else {
+            this.tree = null;
+            this.bounds = new ReferencedEnvelope(schema.getCoordinateReferenceSystem());
+        }
+    }
+
+    /**
+     * @return the bytes used outside of the heap
+     */
+    long getOffHeapSize() {
+        long total = fids.getOffHeapSize();
+        for (Column column : columns) {
+            total += column.getOffHeapSize();
+        }
+        return total;
+    }
+
+    /**
+     * Releases the memory used outside of the heap, the table cannot be read afterwards
+     */
+    void dispose() {
+        fids.dispose();
+        for (Column column : columns) {
+            column.dispose();
+        }
+    }
+
+    String getID(int row) {
+        return (String) fids.get(row);
+    }
+
+    /**
+     * Looks up the rows that may match a filter
+     *
+     * @return the candidate rows in row order, or null if all the rows have to be considered
+     */
+    int[] candidates(Filter filter) {
+        if (filter == Filter.INCLUDE) {
+            return null;
+        } else if (filter == Filter.EXCLUDE) {
+            return new int[0];
+        }
+        List<Filter> terms = filter instanceof And ? ((And) filter).getChildren() : Collections
+                .singletonList(filter);
+
+        // the smallest attribute range
+        Column bestColumn = null;
+        int[] bestRange = null;
+        int[] bestRows = null;
+        int bestSize = size;
+        Envelope envelope = null;
+        for (Filter term : terms) {
+            if (term instanceof Id) {
+                int[] rows = lookup((Id) term);
+                if (rows.length < bestSize) {
+                    bestRows = rows;
+                    bestColumn = null;
+                    bestSize = rows.length;
+                }
+            } else if (isIndexedSpatial(term)) {
+                Envelope termEnvelope = (Envelope) term.accept(
+                        ExtractBoundsFilterVisitor.BOUNDS_VISITOR, null);
+                if (termEnvelope != null && !termEnvelope.isNull()) {
+                    envelope = envelope == null ? new Envelope(termEnvelope) : envelope
+                            .intersection(termEnvelope);
+                }
+            } else {
+                Column column = column(term);
+                int[] range = column == null ? null : range(column, term);
+                if (range != null && range[1] - range[0] < bestSize) {
+                    bestColumn = column;
+                    bestRange = range;
+                    bestRows = null;
+                    bestSize = range[1] - range[0];
+                }
+            }
+        }
+        if (envelope != null && tree != null && bestSize > 0) {
+            int[] rows = envelope.isNull() ? new int[0] : tree.query(envelope);
+            if (rows.length < bestSize) {
+                Arrays.sort(rows);
+                return rows;
+            }
+        }
+        if (bestColumn != null) {
+            return bestColumn.rows(bestRange[0], bestRange[1]);
+        }
+        return bestRows;
+    }
+
+    /**
+     * @return the rows of the feature ids
+     */
+    private int[] lookup(Id id) {
+        Rows.IntList rows = new Rows.IntList();
+        for (Identifier identifier : id.getIdentifiers()) {
+            Object bound = fids.bound(identifier.toString());
+            int[] range = fids.range(bound, true, bound, true);
+            for (int row : fids.rows(range[0], range[1])) {
+                rows.add(row);
+            }
+        }
+        int[] result = rows.toArray();
+        Arrays.sort(result);
+        // remove the duplicates
+        int unique = 0;
+        for (int i = 0; i < result.length; i++) {
+            if (i == 0 || result[i] != result[i - 1]) {
+                result[unique++] = result[i];
+            }
+        }
+        return Arrays.copyOf(result, unique);
+    }
+
+    /**
+     * @return true for the spatial filters on the default geometry that only match geometries
+     *         whose envelope intersects the literal one
+     */
+    private boolean isIndexedSpatial(Filter term) {
+        if (geometryIndex < 0
+                || !(term instanceof BBOX || term instanceof Intersects
+                        || term instanceof Contains || term instanceof Within
+                        || term instanceof Overlaps || term instanceof Crosses
+                        || term instanceof Touches || term instanceof Equals)) {
+            return false;
+        }
+        BinarySpatialOperator spatial = (BinarySpatialOperator) term;
+        PropertyName property = property(spatial.getExpression1(), spatial.getExpression2());
+        if (property == null) {
+            return false;
+        }
+        String name = property.getPropertyName();
+        return name == null || "".equals(name) || schema.indexOf(name) == geometryIndex;
+    }
+
+    /**
+     * @return the indexable column compared by a filter, or null
+     */
+    private Column column(Filter term) {
+        Expression expression1;
+        Expression expression2;
+        if (term instanceof BinaryComparisonOperator) {
+            expression1 = ((BinaryComparisonOperator) term).getExpression1();
+            expression2 = ((BinaryComparisonOperator) term).getExpression2();
+            if (!((BinaryComparisonOperator) term).isMatchingCase()) {
+                // case insensitive strings are not sorted as they compare
+                expression1 = hideStrings(expression1);
+                expression2 = hideStrings(expression2);
+            }
+        } else if (term instanceof PropertyIsBetween) {
+            expression1 = ((PropertyIsBetween) term).getExpression();
+            expression2 = null;
+        } else {
+            return null;
+        }
+        PropertyName property = property(expression1, expression2);
+        if (property == null) {
+            return null;
+        }
+        int index = schema.indexOf(property.getPropertyName());
+        if (index < 0 || !columns[index].isIndexable()) {
+            return null;
+        }
+        return columns[index];
+    }
+
+    private Expression hideStrings(Expression expression) {
+        if (expression instanceof PropertyName) {
+            int index = schema.indexOf(((PropertyName) expression).getPropertyName());
+            if (index >= 0 && columns[index] instanceof Column.StringColumn) {
+                return null;
+            }
+        }
+        return expression;
+    }
+
+    /**
+     * @return the positions in the column index of the rows that may match a filter, or null
+     */
+    private int[] range(Column column, Filter term) {
+        if (term instanceof PropertyIsBetween) {
+            PropertyIsBetween between = (PropertyIsBetween) term;
+            Object lower = bound(column, between.getLowerBoundary());
+            Object upper = bound(column, between.getUpperBoundary());
+            if (lower == null || upper == null) {
+                return null;
+            }
+            return column.range(lower, true, upper, true);
+        }
+        BinaryComparisonOperator comparison = (BinaryComparisonOperator) term;
+        boolean flipped = comparison.getExpression1() instanceof Literal;
+        Object value = bound(column, flipped ? comparison.getExpression1() : comparison
+                .getExpression2());
+        if (value == null) {
+            return null;
+        }
+        if (term instanceof PropertyIsEqualTo) {
+            return column.range(value, true, value, true);
+        } else if (term instanceof PropertyIsLessThan) {
+            return flipped ? column.range(value, false, null, false) : column.range(null, false,
+                    value, false);
+        } else if (term instanceof PropertyIsLessThanOrEqualTo) {
+            return flipped ? column.range(value, true, null, false) : column.range(null, false,
+                    value, true);
+        } else if (term instanceof PropertyIsGreaterThan) {
+            return flipped ? column.range(null, false, value, false) : column.range(value,
+                    false, null, false);
+        } else if (term instanceof PropertyIsGreaterThanOrEqualTo) {
+            return flipped ? column.range(null, false, value, true) : column.range(value, true,
+                    null, false);
+        }
+        return null;
+    }
+
+    private Object bound(Column column, Expression expression) {
+        if (!(expression instanceof Literal)) {
+            return null;
+        }
+        Object value = ((Literal) expression).getValue();
+        return value == null ? null : column.bound(value);
+    }
+
+    /**
+     * @return the property name compared with a literal, or null
+     */
+    private static PropertyName property(Expression expression1, Expression expression2) {
+        if (expression1 instanceof PropertyName
+                && (expression2 == null || expression2 instanceof Literal)) {
+            return (PropertyName) expression1;
+        } else if (expression2 instanceof PropertyName && expression1 instanceof Literal) {
+            return (PropertyName) expression2;
+        }
+        return null;
+    }
+
+    /**
+     * Loads the features of a type into a table
+     */
+    static final class Builder {
+        final SimpleFeatureType schema;
+
+        final Class<?>[] bindings;
+
+        final Column.StringColumn fids = new Column.StringColumn();
+
+        final Column[] columns;
+
+        int size;
+
+        Builder(SimpleFeatureType schema) {
+            this.schema = schema;
+            int count = schema.getAttributeCount();
+            this.bindings = new Class<?>[count];
+            this.columns = new Column[count];
+            for (int i = 0; i < count; i++) {
+                bindings[i] = schema.getDescriptor(i).getType().getBinding();
+                columns[i] = Column.create(bindings[i]);
+            }
+        }
+
+        void add(SimpleFeature feature) throws IOException {
+            for (int i = 0; i < columns.length; i++) {
+                Object value = feature.getAttribute(i);
+                if (value != null && !(columns[i] instanceof Column.ObjectColumn)
+                        && !bindings[i].isInstance(value)) {
+                    Object converted = columns[i] instanceof Column.GeometryColumn ? (value instanceof Geometry ? value
+                            : null)
+                            : Converters.convert(value, bindings[i]);
+                    if (converted == null) {
+                        throw new IOException("Cannot store " + value + " as "
+                                + bindings[i].getSimpleName() + " in "
+                                + schema.getDescriptor(i).getLocalName());
+                    }
+                    value = converted;
+                }
+                columns[i].add(value);
+            }
+            fids.add(feature.getID());
+            size++;
+        }
+
+        ColumnarTable build() {
+            fids.finish();
+            for (Column column : columns) {
+                column.finish();
+            }
+            return new ColumnarTable(this);
+        }
+    }
+}
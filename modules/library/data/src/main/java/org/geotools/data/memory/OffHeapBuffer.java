@@ -0,0 +1,148 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.memory;
+
+import java.nio.ByteBuffer;
+
+import org.geotools.resources.NIOUtilities;
+
+/**
+ * Growable buffer allocated outside of the heap.
+ * <p>
+ * Written sequentially while a table is loaded, then only read with absolute reads, or through
+ * {@link #duplicate()}, which are safe for concurrent readers. The direct buffers replaced when
+ * growing or trimming are released right away, and {@link #dispose()} releases the last one,
+ * rather than waiting for the garbage collector to notice them.
+ * </p>
+ *
+ * @source $URL$
+ */
+final class OffHeapBuffer {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private ByteBuffer buffer;
+
+    OffHeapBuffer(int capacity) {
+        buffer = ByteBuffer.allocateDirect(Math.max(capacity, 16));
+    }
+
+    int position() {
+        return buffer.position();
+    }
+
+    void putByte(byte value) {
+        ensure(1);
+        buffer.put(value);
+    }
+
+    void putInt(int value) {
+        ensure(4);
+        buffer.putInt(value);
+    }
+
+    void putLong(long value) {
+        ensure(8);
+        buffer.putLong(value);
+    }
+
+    void putDouble(double value) {
+        ensure(8);
+        buffer.putDouble(value);
+    }
+
+    void put(byte[] bytes) {
+        ensure(bytes.length);
+        buffer.put(bytes);
+    }
+
+    void putInt(int index, int value) {
+        buffer.putInt(index, value);
+    }
+
+    byte getByte(int index) {
+        return buffer.get(index);
+    }
+
+    int getInt(int index) {
+        return buffer.getInt(index);
+    }
+
+    long getLong(int index) {
+        return buffer.getLong(index);
+    }
+
+    double getDouble(int index) {
+        return buffer.getDouble(index);
+    }
+
+    /**
+     * @return a view of the content with its own position
+     */
+    ByteBuffer duplicate() {
+        return buffer.duplicate();
+    }
+
+    /**
+     * @return the allocated size, in bytes
+     */
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Releases the direct buffer. Reading afterwards fails instead of accessing freed memory.
+     */
+    void dispose() {
+        ByteBuffer released = buffer;
+        buffer = EMPTY;
+        NIOUtilities.clean(released);
+    }
+
+    /**
+     * Ends the writes, releasing the unused capacity if significant
+     */
+    void trim() {
+        int size = buffer.position();
+        if (buffer.capacity() - size > buffer.capacity() / 4) {
+            ByteBuffer trimmed = ByteBuffer.allocateDirect(Math.max(size, 16));
+            buffer.flip();
+            trimmed.put(buffer);
+            NIOUtilities.clean(buffer);
+            buffer = trimmed;
+        }
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        long capacity = Math.max((long) buffer.capacity() * 2, (long) buffer.position() + bytes);
+        if (capacity > Integer.MAX_VALUE) {
+            capacity = (long) buffer.position() + bytes;
+            if (capacity > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Column larger than " + Integer.MAX_VALUE
+                        + " bytes");
+            }
+        }
+        ByteBuffer grown = ByteBuffer.allocateDirect((int) capacity);
+        buffer.flip();
+        grown.put(buffer);
+        NIOUtilities.clean(buffer);
+        buffer = grown;
+    }
+}
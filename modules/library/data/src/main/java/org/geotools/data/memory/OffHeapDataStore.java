@@ -0,0 +1,156 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.memory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.geotools.data.FeatureEvent;
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Transaction;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.store.ContentDataStore;
+import org.geotools.data.store.ContentEntry;
+import org.geotools.data.store.ContentFeatureSource;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.Name;
+import org.opengis.filter.Filter;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Read only in memory data store keeping its features outside of the Java heap, stored column by
+ * column.
+ * <p>
+ * Geometries are kept as WKB along with their envelope and indexed with a packed R-tree, strings
+ * are dictionary encoded and numbers, dates and booleans are stored as primitives. Each attribute
+ * gets a sorted index on the first comparison or equality filter using it. Large data sets can
+ * thus be held in memory without weighing on the garbage collector, and decoded only for the
+ * attributes a query needs.
+ * </p>
+ * <p>
+ * The features of a type are immutable once loaded, so any number of threads can read them
+ * without locking. Calling {@link #load(SimpleFeatureCollection)} again builds a new copy of
+ * the type and swaps it in once complete, the readers already opened keep reading the previous
+ * copy, whose memory is released once it is garbage collected. {@link #dispose()} releases the
+ * memory of the loaded types right away.
+ * </p>
+ *
+ * @source $URL$
+ */
+public class OffHeapDataStore extends ContentDataStore {
+
+    final ConcurrentMap<String, ColumnarTable> tables = new ConcurrentHashMap<String, ColumnarTable>();
+
+    /**
+     * Loads, or reloads, the features of a collection under the name of their type
+     */
+    public void load(SimpleFeatureCollection features) throws IOException {
+        ColumnarTable.Builder builder = new ColumnarTable.Builder(features.getSchema());
+        SimpleFeatureIterator it = features.features();
+        try {
+            while (it.hasNext()) {
+                builder.add(it.next());
+            }
+        } finally {
+            it.close();
+        }
+        swap(builder.build());
+    }
+
+    /**
+     * Loads, or reloads, the features of a reader under the name of their type. The reader is
+     * closed.
+     */
+    public void load(FeatureReader<SimpleFeatureType, SimpleFeature> reader) throws IOException {
+        ColumnarTable.Builder builder = new ColumnarTable.Builder(reader.getFeatureType());
+        try {
+            while (reader.hasNext()) {
+                builder.add(reader.next());
+            }
+        } finally {
+            reader.close();
+        }
+        swap(builder.build());
+    }
+
+    private void swap(ColumnarTable table) throws IOException {
+        String typeName = table.schema.getTypeName();
+        ColumnarTable previous = tables.put(typeName, table);
+
+        ContentEntry entry = getEntry(name(typeName));
+        if (previous != null && entry != null) {
+            entry.getState(Transaction.AUTO_COMMIT).flush();
+            ContentFeatureSource source = getFeatureSource(typeName);
+            ReferencedEnvelope bounds = new ReferencedEnvelope(previous.bounds);
+            // plain envelope, the reload may have changed the CRS
+            bounds.expandToInclude(new Envelope(table.bounds));
+            entry.getState(Transaction.AUTO_COMMIT).fireFeatureEvent(
+                    new FeatureEvent(source, FeatureEvent.Type.CHANGED, bounds, Filter.INCLUDE));
+        }
+    }
+
+    ColumnarTable getTable(String typeName) {
+        return tables.get(typeName);
+    }
+
+    /**
+     * @return the bytes used outside of the heap by all the loaded types
+     */
+    public long getOffHeapSize() {
+        long total = 0;
+        for (ColumnarTable table : tables.values()) {
+            total += table.getOffHeapSize();
+        }
+        return total;
+    }
+
+    /**
+     * Releases the memory of all the loaded types. The readers opened on this store must be
+     * closed before, the store cannot be used afterwards.
+     */
+    @Override
+    public void dispose() {
+        super.dispose();
+        for (String typeName : new ArrayList<String>(tables.keySet())) {
+            ColumnarTable table = tables.remove(typeName);
+            if (table != null) {
+                table.dispose();
+            }
+        }
+    }
+
+    @Override
+    protected List<Name> createTypeNames() throws IOException {
+        List<Name> names = new ArrayList<Name>();
+        for (String typeName : tables.keySet()) {
+            names.add(name(typeName));
+        }
+        return names;
+    }
+
+    @Override
+    protected ContentFeatureSource createFeatureSource(ContentEntry entry) throws IOException {
+        return new OffHeapFeatureSource(entry);
+    }
+}
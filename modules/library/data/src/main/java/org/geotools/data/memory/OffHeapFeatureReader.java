@@ -0,0 +1,136 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.memory;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.FeatureReader;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+/**
+ * Reads the rows of a {@link ColumnarTable} matching a filter.
+ * <p>
+ * Only the attributes returned or evaluated by the filter are decoded. Each reader works on its
+ * own table snapshot, any number of them can read the same table concurrently.
+ * </p>
+ *
+ * @source $URL$
+ */
+class OffHeapFeatureReader implements FeatureReader<SimpleFeatureType, SimpleFeature> {
+
+    private final ColumnarTable table;
+
+    private final SimpleFeatureType schema;
+
+    private final SimpleFeatureType resultType;
+
+    private final Filter filter;
+
+    /** Rows to read, or null for all of them */
+    private final int[] rows;
+
+    /** Table attributes to decode */
+    private final boolean[] decoded;
+
+    /** Table attribute of each result attribute */
+    private final int[] mapping;
+
+    private int position;
+
+    private SimpleFeature next;
+
+    OffHeapFeatureReader(ColumnarTable table, SimpleFeatureType schema,
+            SimpleFeatureType resultType, Filter filter) {
+        this.table = table;
+        this.schema = schema;
+        this.resultType = resultType;
+        this.filter = filter == null ? Filter.INCLUDE : filter;
+        this.rows = table.candidates(this.filter);
+
+        decoded = new boolean[schema.getAttributeCount()];
+        mapping = new int[resultType.getAttributeCount()];
+        for (int i = 0; i < mapping.length; i++) {
+            mapping[i] = schema.indexOf(resultType.getDescriptor(i).getLocalName());
+            decoded[mapping[i]] = true;
+        }
+        if (this.filter != Filter.INCLUDE) {
+            for (String name : DataUtilities.attributeNames(this.filter, schema)) {
+                int index = schema.indexOf(name);
+                if (index < 0) {
+                    // not resolved against the schema, play safe
+                    for (int i = 0; i < decoded.length; i++) {
+                        decoded[i] = true;
+                    }
+                    break;
+                }
+                decoded[index] = true;
+            }
+        }
+    }
+
+    public SimpleFeatureType getFeatureType() {
+        return resultType;
+    }
+
+    public boolean hasNext() throws IOException {
+        int count = rows == null ? table.size : rows.length;
+        while (next == null && position < count) {
+            int row = rows == null ? position : rows[position];
+            position++;
+            Object[] values = new Object[decoded.length];
+            for (int i = 0; i < values.length; i++) {
+                if (decoded[i]) {
+                    values[i] = table.columns[i].get(row);
+                }
+            }
+            String fid = table.getID(row);
+            SimpleFeature feature = SimpleFeatureBuilder.build(schema, values, fid);
+            if (!filter.evaluate(feature)) {
+                continue;
+            }
+            if (resultType != schema) {
+                Object[] result = new Object[mapping.length];
+                for (int i = 0; i < mapping.length; i++) {
+                    result[i] = values[mapping[i]];
+                }
+                feature = SimpleFeatureBuilder.build(resultType, result, fid);
+            }
+            next = feature;
+        }
+        return next != null;
+    }
+
+    public SimpleFeature next() throws IOException, IllegalArgumentException,
+            NoSuchElementException {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more features");
+        }
+        SimpleFeature feature = next;
+        next = null;
+        return feature;
+    }
+
+    public void close() throws IOException {
+        position = rows == null ? table.size : rows.length;
+        next = null;
+    }
+}
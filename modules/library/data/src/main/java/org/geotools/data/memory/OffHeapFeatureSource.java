@@ -0,0 +1,108 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.memory;
+
+import java.io.IOException;
+
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.geotools.data.store.ContentEntry;
+import org.geotools.data.store.ContentFeatureSource;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+/**
+ * Read only feature source of an {@link OffHeapDataStore}
+ *
+ * @source $URL$
+ */
+// the raw getSupportedHints() inherited from ContentFeatureSource is final
+@SuppressWarnings("unchecked")
+public class OffHeapFeatureSource extends ContentFeatureSource {
+
+    public OffHeapFeatureSource(ContentEntry entry) {
+        super(entry, null);
+    }
+
+    @Override
+    public OffHeapDataStore getDataStore() {
+        return (OffHeapDataStore) super.getDataStore();
+    }
+
+    @Override
+    protected SimpleFeatureType buildFeatureType() throws IOException {
+        return buildFeatureType(getTable());
+    }
+
+    private SimpleFeatureType buildFeatureType(ColumnarTable table) {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.init(table.schema);
+        tb.setName(entry.getName());
+        return tb.buildFeatureType();
+    }
+
+    @Override
+    protected ReferencedEnvelope getBoundsInternal(Query query) throws IOException {
+        if (query.getFilter() == Filter.INCLUDE) {
+            ColumnarTable table = getTable();
+            return new ReferencedEnvelope(table.bounds);
+        }
+        return null;
+    }
+
+    @Override
+    protected int getCountInternal(Query query) throws IOException {
+        if (query.getFilter() == Filter.INCLUDE) {
+            return getTable().size;
+        }
+        return -1;
+    }
+
+    @Override
+    protected FeatureReader<SimpleFeatureType, SimpleFeature> getReaderInternal(Query query)
+            throws IOException {
+        // the table may be swapped by a reload, stick to the current one
+        ColumnarTable table = getTable();
+        SimpleFeatureType schema = buildFeatureType(table);
+        SimpleFeatureType resultType = schema;
+        if (query.getPropertyNames() != Query.ALL_NAMES) {
+            resultType = SimpleFeatureTypeBuilder.retype(schema, query.getPropertyNames());
+        }
+        return new OffHeapFeatureReader(table, schema, resultType, query.getFilter());
+    }
+
+    private ColumnarTable getTable() throws IOException {
+        ColumnarTable table = getDataStore().getTable(entry.getTypeName());
+        if (table == null) {
+            throw new IOException("Type " + entry.getTypeName() + " is no longer loaded");
+        }
+        return table;
+    }
+
+    @Override
+    protected boolean canFilter() {
+        return true;
+    }
+
+    @Override
+    protected boolean canRetype() {
+        return true;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.memory;
+
+import java.util.Arrays;
+
+/**
+ * Helpers to sort and collect row numbers without boxing them.
+ *
+ * @source $URL$
+ */
+final class Rows {
+
+    private Rows() {
+    }
+
+    /**
+     * Compares two rows of a table
+     */
+    interface Comparator {
+        int compare(int row1, int row2);
+    }
+
+    /**
+     * Stable sort of rows, rows comparing equal keep their order
+     */
+    static void sort(int[] rows, Comparator comparator) {
+        int n = rows.length;
+        int[] src = rows;
+        int[] dst = new int[n];
+        // bottom up merge sort
+        for (int width = 1; width < n; width *= 2) {
+            for (int lo = 0; lo < n; lo += 2 * width) {
+                int mid = Math.min(lo + width, n);
+                int hi = Math.min(lo + 2 * width, n);
+                int i = lo, j = mid, k = lo;
+                while (i < mid && j < hi) {
+                    dst[k++] = comparator.compare(src[i], src[j]) <= 0 ? src[i++] : src[j++];
+                }
+                while (i < mid) {
+                    dst[k++] = src[i++];
+                }
+                while (j < hi) {
+                    dst[k++] = src[j++];
+                }
+            }
+            int[] swap = src;
+            src = dst;
+            dst = swap;
+        }
+        if (src != rows) {
+            System.arraycopy(src, 0, rows, 0, n);
+        }
+    }
+
+    /**
+     * Growable list of rows
+     */
+    static final class IntList {
+        private int[] rows = new int[16];
+
+        private int size;
+
+        void add(int row) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            rows[size++] = row;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(rows, size);
+        }
+    }
+}
@@ -21,6 +21,7 @@ import java.io.IOException;
 import org.geotools.data.DataSourceException;
 import org.geotools.data.Diff;
 import org.geotools.data.FeatureWriter;
+import org.geotools.data.SpillingDiff;
 import org.geotools.data.Transaction;
 import org.geotools.data.TransactionStateDiff;
 import org.geotools.factory.Hints;
@@ -48,12 +49,26 @@ public class DiffTransactionState implements Transaction.State {
 
     /**
      * Transaction state responsible for holding an in memory {@link Diff}.
+     * <p>
+     * A {@link SpillingDiff} is used instead when the
+     * {@link SpillingDiff#SPILL_THRESHOLD_KEY} system property is set.
      * 
      * @param state ContentState for the transaction
      */
     public DiffTransactionState(ContentState state) {
+        this(state, System.getProperty(SpillingDiff.SPILL_THRESHOLD_KEY) != null
+                ? new SpillingDiff() : new Diff());
+    }
+
+    /**
+     * Transaction state responsible for holding the provided {@link Diff}.
+     * 
+     * @param state ContentState for the transaction
+     * @param diff Diff recording the modifications
+     */
+    protected DiffTransactionState(ContentState state, Diff diff) {
         this.state = state;
-        this.diff = new Diff();
+        this.diff = diff;
     }
     /**
      * Access the in memory Diff.
@@ -74,6 +89,10 @@ public class DiffTransactionState implements Transaction.State {
         if (this.transaction != null && transaction == null) {
             // clear ContentEntry transaction to fix GEOT-3315
             state.getEntry().clearTransaction(this.transaction);
+            if (diff instanceof SpillingDiff) {
+                // release the temporary file of the changes never committed
+                diff.clear();
+            }
         }
         this.transaction = transaction;
     }
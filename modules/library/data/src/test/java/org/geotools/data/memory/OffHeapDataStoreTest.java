@@ -0,0 +1,259 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.memory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.geotools.data.Query;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.identity.FeatureId;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * Tests the loading and querying of {@link OffHeapDataStore}
+ *
+ * @source $URL$
+ */
+public class OffHeapDataStoreTest {
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2(null);
+
+    static final GeometryFactory GF = new GeometryFactory();
+
+    static final int SIZE = 100;
+
+    SimpleFeatureType type;
+
+    List<SimpleFeature> features;
+
+    OffHeapDataStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("sample");
+        tb.add("geom", Point.class);
+        tb.add("name", String.class);
+        tb.add("count", Integer.class);
+        tb.add("total", Long.class);
+        tb.add("ratio", Double.class);
+        tb.add("flag", Boolean.class);
+        tb.add("date", Date.class);
+        type = tb.buildFeatureType();
+
+        features = new ArrayList<SimpleFeature>();
+        for (int i = 0; i < SIZE; i++) {
+            // every tenth feature has only nulls
+            Object[] values = i % 10 == 9 ? new Object[7] : new Object[] {
+                    GF.createPoint(new Coordinate(i, i % 10)), "name" + (i % 7), i,
+                    (long) i * 1000000000L, i / 4d, i % 2 == 0, new Date(i * 1000L) };
+            features.add(SimpleFeatureBuilder.build(type, values, "sample." + i));
+        }
+        store = new OffHeapDataStore();
+        store.load(new ListFeatureCollection(type, features));
+    }
+
+    @Test
+    public void testReadAll() throws Exception {
+        SimpleFeatureSource source = store.getFeatureSource("sample");
+        Assert.assertEquals(SIZE, source.getCount(Query.ALL));
+        Assert.assertEquals(0, source.getBounds().getMinX(), 0);
+        Assert.assertEquals(98, source.getBounds().getMaxX(), 0);
+        Assert.assertTrue(store.getOffHeapSize() > 0);
+
+        List<SimpleFeature> read = read(source, Query.ALL);
+        Assert.assertEquals(SIZE, read.size());
+        for (int i = 0; i < SIZE; i++) {
+            SimpleFeature expected = features.get(i);
+            SimpleFeature actual = read.get(i);
+            Assert.assertEquals(expected.getID(), actual.getID());
+            for (int j = 0; j < type.getAttributeCount(); j++) {
+                Object value = expected.getAttribute(j);
+                if (value instanceof Geometry) {
+                    Assert.assertTrue(((Geometry) value).equalsExact((Geometry) actual
+                            .getAttribute(j)));
+                } else {
+                    Assert.assertEquals(value, actual.getAttribute(j));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDispose() throws Exception {
+        // builds the sorted index of the column as well
+        assertQuery(FF.equals(FF.property("name"), FF.literal("name3")));
+        store.dispose();
+        Assert.assertEquals(0, store.getOffHeapSize());
+        Assert.assertNull(store.getTable("sample"));
+    }
+
+    @Test
+    public void testBufferGrowth() throws Exception {
+        OffHeapBuffer buffer = new OffHeapBuffer(16);
+        for (int i = 0; i < 600; i++) {
+            buffer.putInt(i);
+        }
+        buffer.trim();
+        Assert.assertEquals(2400, buffer.capacity());
+        Assert.assertEquals(599, buffer.getInt(599 * 4));
+        buffer.dispose();
+        Assert.assertEquals(0, buffer.capacity());
+        try {
+            buffer.getInt(0);
+            Assert.fail("The buffer was disposed");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBBOX() throws Exception {
+        Filter filter = FF.bbox("geom", 9.5, 2.5, 30.5, 4.5, null);
+        assertQuery(filter);
+        Assert.assertEquals(new HashSet<String>(ids("sample.13", "sample.14", "sample.23",
+                "sample.24")), fids(filter));
+    }
+
+    @Test
+    public void testRanges() throws Exception {
+        assertQuery(FF.greaterOrEqual(FF.property("count"), FF.literal(95)));
+        assertQuery(FF.less(FF.literal(95), FF.property("count")));
+        assertQuery(FF.lessOrEqual(FF.property("total"), FF.literal(3000000000L)));
+        assertQuery(FF.between(FF.property("ratio"), FF.literal(2), FF.literal(5.25)));
+        assertQuery(FF.greater(FF.property("date"), FF.literal(new Date(90000))));
+        assertQuery(FF.and(FF.greater(FF.property("count"), FF.literal(20)),
+                FF.bbox("geom", 0, 0, 50, 5, null)));
+    }
+
+    @Test
+    public void testEquality() throws Exception {
+        assertQuery(FF.equals(FF.property("name"), FF.literal("name3")));
+        assertQuery(FF.equals(FF.property("name"), FF.literal("missing")));
+        assertQuery(FF.equal(FF.property("name"), FF.literal("NAME3"), false));
+        assertQuery(FF.equals(FF.property("flag"), FF.literal(true)));
+        assertQuery(FF.equals(FF.property("count"), FF.literal("42")));
+        Assert.assertEquals(Collections.singleton("sample.42"), fids(FF.equals(
+                FF.property("count"), FF.literal(42))));
+    }
+
+    @Test
+    public void testId() throws Exception {
+        Filter filter = FF.id(new HashSet<FeatureId>(Arrays.asList(FF.featureId("sample.7"),
+                FF.featureId("sample.77"), FF.featureId("sample.missing"))));
+        assertQuery(filter);
+        Assert.assertEquals(new HashSet<String>(ids("sample.7", "sample.77")), fids(filter));
+    }
+
+    @Test
+    public void testRetype() throws Exception {
+        SimpleFeatureSource source = store.getFeatureSource("sample");
+        Query query = new Query("sample", FF.equals(FF.property("name"), FF.literal("name1")),
+                new String[] { "count" });
+        List<SimpleFeature> read = read(source, query);
+        Assert.assertFalse(read.isEmpty());
+        for (SimpleFeature feature : read) {
+            Assert.assertEquals(1, feature.getAttributeCount());
+            Assert.assertEquals(1, ((Integer) feature.getAttribute("count")) % 7);
+        }
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        SimpleFeatureSource source = store.getFeatureSource("sample");
+        Assert.assertEquals(SIZE, source.getCount(Query.ALL));
+
+        // a reader opened before the reload keeps reading the previous features
+        SimpleFeatureIterator it = source.getFeatures().features();
+        store.load(new ListFeatureCollection(type, features.subList(0, 10)));
+        try {
+            int count = 0;
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+            Assert.assertEquals(SIZE, count);
+        } finally {
+            it.close();
+        }
+
+        Assert.assertEquals(10, source.getCount(Query.ALL));
+        Assert.assertEquals(10, read(source, Query.ALL).size());
+    }
+
+    /**
+     * Checks the store returns the same features as a plain evaluation of the filter
+     */
+    void assertQuery(Filter filter) throws IOException {
+        Set<String> expected = new HashSet<String>();
+        for (SimpleFeature feature : features) {
+            if (filter.evaluate(feature)) {
+                expected.add(feature.getID());
+            }
+        }
+        Assert.assertEquals(filter.toString(), expected, fids(filter));
+    }
+
+    Set<String> fids(Filter filter) throws IOException {
+        Set<String> result = new HashSet<String>();
+        for (SimpleFeature feature : read(store.getFeatureSource("sample"), new Query("sample",
+                filter))) {
+            result.add(feature.getID());
+        }
+        return result;
+    }
+
+    List<String> ids(String... ids) {
+        return Arrays.asList(ids);
+    }
+
+    List<SimpleFeature> read(SimpleFeatureSource source, Query query) throws IOException {
+        List<SimpleFeature> result = new ArrayList<SimpleFeature>();
+        SimpleFeatureIterator it = source.getFeatures(query).features();
+        try {
+            while (it.hasNext()) {
+                result.add(it.next());
+            }
+        } finally {
+            it.close();
+        }
+        return result;
+    }
+}
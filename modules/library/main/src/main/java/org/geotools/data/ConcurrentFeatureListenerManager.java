@@ -0,0 +1,548 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.FeatureEvent.Type;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.feature.Feature;
+import org.opengis.feature.type.FeatureType;
+import org.opengis.filter.Filter;
+
+/**
+ * FeatureListener support for DataStores written to by many concurrent writers.
+ * <p>
+ * Behaves as {@link FeatureListenerManager}, but keeps the listeners in copy on write lists
+ * grouped by type name, so that firing an event only looks at the FeatureSources of its type and
+ * never blocks. FeatureSources are held with weak references, and forgotten once collected.
+ * </p>
+ * <p>
+ * In asynchronous mode events are queued and delivered by a background task, in the order they
+ * were fired. The events queued for a listener while it is busy are delivered together as a
+ * single {@link BatchFeatureEvent}, so that slow listeners do not slow down the writers.
+ * Exceptions thrown by listeners are then logged instead of being reported to the writer.
+ * </p>
+ *
+ * @source $URL$
+ */
+public class ConcurrentFeatureListenerManager extends FeatureListenerManager {
+
+    private static final Logger LOGGER = org.geotools.util.logging.Logging
+            .getLogger("org.geotools.data");
+
+    /**
+     * Executor shared by the asynchronous managers, each manager runs at most one delivery task
+     * at a time
+     */
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors
+            .newCachedThreadPool(new ThreadFactory() {
+                AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "FeatureListenerManager-"
+                            + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /** Registrations by type name */
+    private final ConcurrentMap<String, List<Registration>> registrations =
+            new ConcurrentHashMap<String, List<Registration>>();
+
+    private final Executor executor;
+
+    private final ConcurrentLinkedQueue<Delivery> queue = new ConcurrentLinkedQueue<Delivery>();
+
+    private final AtomicBoolean delivering = new AtomicBoolean();
+
+    private final AtomicLong fired = new AtomicLong();
+
+    private final AtomicLong delivered = new AtomicLong();
+
+    private final AtomicLong batched = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Manager delivering the events synchronously
+     */
+    public ConcurrentFeatureListenerManager() {
+        this(null);
+    }
+
+    /**
+     * Manager delivering the events asynchronously if an executor is provided
+     *
+     * @param executor the executor of the delivery tasks, null to deliver synchronously
+     */
+    public ConcurrentFeatureListenerManager(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Manager delivering the events asynchronously with a shared pool of daemon threads
+     */
+    public static ConcurrentFeatureListenerManager asynchronous() {
+        return new ConcurrentFeatureListenerManager(DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * @return <code>true</code> if the events are delivered asynchronously
+     */
+    public boolean isAsynchronous() {
+        return executor != null;
+    }
+
+    /**
+     * @return the number of events fired, one per FeatureSource notified
+     */
+    public long getFiredEvents() {
+        return fired.get();
+    }
+
+    /**
+     * @return the number of events delivered to the listeners
+     */
+    public long getDeliveredEvents() {
+        return delivered.get();
+    }
+
+    /**
+     * @return the number of events merged into a {@link BatchFeatureEvent} instead of being
+     *         delivered on their own
+     */
+    public long getBatchedEvents() {
+        return batched.get();
+    }
+
+    /**
+     * @return the number of events that listeners failed to handle
+     */
+    public long getFailedEvents() {
+        return failures.get();
+    }
+
+    /**
+     * @return the number of events waiting for delivery
+     */
+    public int getPendingEvents() {
+        return queue.size();
+    }
+
+    /**
+     * Waits for the events fired so far to be delivered
+     *
+     * @throws InterruptedException
+     */
+    public void flush() throws InterruptedException {
+        synchronized (queue) {
+            while (delivering.get() || !queue.isEmpty()) {
+                queue.wait(100);
+            }
+        }
+    }
+
+    public void addFeatureListener(
+            FeatureSource<? extends FeatureType, ? extends Feature> featureSource,
+            FeatureListener featureListener) {
+        List<Registration> list = registrations(featureSource.getName().getLocalPart());
+        synchronized (list) {
+            Registration registration = find(list, featureSource);
+            if (registration == null) {
+                registration = new Registration(featureSource);
+                list.add(registration);
+            }
+            registration.listeners.add(featureListener);
+        }
+    }
+
+    public void removeFeatureListener(
+            FeatureSource<? extends FeatureType, ? extends Feature> featureSource,
+            FeatureListener featureListener) {
+        List<Registration> list = registrations.get(featureSource.getName().getLocalPart());
+        if (list == null) {
+            return;
+        }
+        synchronized (list) {
+            Registration registration = find(list, featureSource);
+            if (registration != null) {
+                registration.listeners.remove(featureListener);
+                // don't keep references to feature sources without listeners
+                if (registration.listeners.isEmpty()) {
+                    list.remove(registration);
+                }
+            }
+        }
+    }
+
+    public void cleanListenerList(
+            FeatureSource<? extends FeatureType, ? extends Feature> featureSource) {
+        List<Registration> list = registrations.get(featureSource.getName().getLocalPart());
+        if (list == null) {
+            return;
+        }
+        synchronized (list) {
+            Registration registration = find(list, featureSource);
+            if (registration != null) {
+                list.remove(registration);
+            }
+        }
+    }
+
+    Map<SimpleFeatureSource, FeatureListener[]> getListeners(String typeName,
+            Transaction transaction) {
+        Map<SimpleFeatureSource, FeatureListener[]> map =
+                new HashMap<SimpleFeatureSource, FeatureListener[]>();
+        for (Registration registration : sources(typeName)) {
+            FeatureSource<? extends FeatureType, ? extends Feature> featureSource =
+                    registration.source.get();
+            if (featureSource == null || !isMatch(featureSource, transaction)) {
+                continue;
+            }
+            FeatureListener[] listeners = registration.getListeners();
+            if (listeners.length != 0) {
+                map.put((SimpleFeatureSource) featureSource, listeners);
+            }
+        }
+        return map;
+    }
+
+    public void fireFeaturesAdded(String typeName, Transaction transaction,
+            ReferencedEnvelope bounds, boolean commit) {
+        fire(typeName, transaction, Type.ADDED, bounds, commit);
+    }
+
+    public void fireFeaturesChanged(String typeName, Transaction transaction,
+            ReferencedEnvelope bounds, boolean commit) {
+        fire(typeName, transaction, Type.CHANGED, bounds, commit);
+    }
+
+    public void fireFeaturesRemoved(String typeName, Transaction transaction,
+            ReferencedEnvelope bounds, boolean commit) {
+        fire(typeName, transaction, Type.REMOVED, bounds, commit);
+    }
+
+    public void fireChanged(String typeName, Transaction transaction, boolean commit) {
+        fire(typeName, transaction, Type.CHANGED, null, commit);
+    }
+
+    public void fireEvent(String typeName, Transaction transaction, FeatureEvent event) {
+        // commit and rollback events go out to everyone
+        boolean everyone = event.getType() == FeatureEvent.Type.COMMIT
+                || event.getType() == FeatureEvent.Type.ROLLBACK;
+        Transaction match = everyone ? Transaction.AUTO_COMMIT : transaction;
+
+        for (Registration registration : sources(typeName)) {
+            FeatureSource<? extends FeatureType, ? extends Feature> featureSource =
+                    registration.source.get();
+            if (featureSource == null || !isMatch(featureSource, match)) {
+                continue;
+            }
+            FeatureListener[] listeners = registration.getListeners();
+            if (listeners.length == 0) {
+                continue;
+            }
+            fired.incrementAndGet();
+            if (isAsynchronous()) {
+                enqueue(listeners, copy(event, featureSource));
+            } else {
+                event.setFeatureSource(featureSource);
+                for (FeatureListener listener : listeners) {
+                    deliver(listener, event, true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fires an event to the FeatureSources of the transaction, or to everyone but the transaction
+     * on commit
+     */
+    private void fire(String typeName, Transaction transaction, Type type,
+            ReferencedEnvelope bounds, boolean commit) {
+        for (Registration registration : sources(typeName)) {
+            FeatureSource<? extends FeatureType, ? extends Feature> featureSource =
+                    registration.source.get();
+            if (featureSource == null) {
+                continue;
+            }
+            if (commit) {
+                Transaction sourceTransaction = transactionOf(featureSource);
+                if (sourceTransaction != null && sourceTransaction == transaction) {
+                    continue; // skip notify members of the same transaction
+                }
+            } else if (!isMatch(featureSource, transaction)) {
+                continue;
+            }
+            FeatureListener[] listeners = registration.getListeners();
+            if (listeners.length == 0) {
+                continue;
+            }
+            fired.incrementAndGet();
+            FeatureEvent event = new FeatureEvent(featureSource, type, bounds, Filter.INCLUDE);
+            if (isAsynchronous()) {
+                enqueue(listeners, event);
+            } else {
+                for (FeatureListener listener : listeners) {
+                    deliver(listener, event, false);
+                }
+            }
+        }
+    }
+
+    private boolean isMatch(FeatureSource<? extends FeatureType, ? extends Feature> featureSource,
+            Transaction transaction) {
+        // Transaction.AUTO_COMMIT will match with any change, a FeatureStore only sees the
+        // changes of its own transaction, a FeatureStore in Transaction.AUTO_COMMIT included
+        Transaction sourceTransaction = transactionOf(featureSource);
+        return transaction == Transaction.AUTO_COMMIT || sourceTransaction == null
+                || transaction == sourceTransaction;
+    }
+
+    /**
+     * The transaction of a FeatureStore, possibly {@link Transaction#AUTO_COMMIT}, null for a
+     * FeatureSource
+     */
+    private static Transaction transactionOf(
+            FeatureSource<? extends FeatureType, ? extends Feature> featureSource) {
+        if (featureSource instanceof FeatureStore) {
+            return ((FeatureStore<? extends FeatureType, ? extends Feature>) featureSource)
+                    .getTransaction();
+        }
+        return null;
+    }
+
+    private void deliver(FeatureListener listener, FeatureEvent event, boolean safe) {
+        delivered.incrementAndGet();
+        if (!safe) {
+            listener.changed(event);
+            return;
+        }
+        try {
+            listener.changed(event);
+        } catch (Throwable t) {
+            failures.incrementAndGet();
+            LOGGER.log(Level.FINE, "Could not deliver " + event + " to " + listener + ":"
+                    + t.getMessage(), t);
+        }
+    }
+
+    private void enqueue(FeatureListener[] listeners, FeatureEvent event) {
+        for (FeatureListener listener : listeners) {
+            queue.add(new Delivery(listener, event));
+        }
+        if (delivering.compareAndSet(false, true)) {
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        deliverQueued();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // executor shut down, deliver in this thread
+                deliverQueued();
+            }
+        }
+    }
+
+    /**
+     * Delivers the queued events until the queue is empty, merging the events queued for the
+     * same listener and FeatureSource
+     */
+    private void deliverQueued() {
+        do {
+            try {
+                Map<Delivery, List<FeatureEvent>> pending =
+                        new LinkedHashMap<Delivery, List<FeatureEvent>>();
+                for (Delivery delivery = queue.poll(); delivery != null; delivery = queue.poll()) {
+                    List<FeatureEvent> events = pending.get(delivery);
+                    if (events == null) {
+                        events = new ArrayList<FeatureEvent>(1);
+                        pending.put(delivery, events);
+                    }
+                    events.add(delivery.event);
+                }
+                for (Map.Entry<Delivery, List<FeatureEvent>> entry : pending.entrySet()) {
+                    List<FeatureEvent> events = entry.getValue();
+                    FeatureEvent event = events.size() == 1 ? events.get(0) : merge(events);
+                    batched.addAndGet(events.size() - 1);
+                    deliver(entry.getKey().listener, event, true);
+                }
+            } finally {
+                delivering.set(false);
+                synchronized (queue) {
+                    queue.notifyAll();
+                }
+            }
+            // events queued after the last poll, and not picked up by a new task
+        } while (!queue.isEmpty() && delivering.compareAndSet(false, true));
+    }
+
+    /**
+     * Merges the events of a FeatureSource into a single batch, of the type of the events if they
+     * all have the same type, {@link Type#CHANGED} otherwise
+     */
+    private static BatchFeatureEvent merge(List<FeatureEvent> events) {
+        FeatureEvent first = events.get(0);
+        BatchFeatureEvent batch = new BatchFeatureEvent(first.getFeatureSource());
+        Type type = first.getType();
+        for (FeatureEvent event : events) {
+            if (event.getType() != type) {
+                type = Type.CHANGED;
+            }
+            if (event instanceof BatchFeatureEvent) {
+                batch.fids.addAll(((BatchFeatureEvent) event).fids);
+            }
+            if (event.getFilter() == null || event.getBounds() == null) {
+                // unknown extent, something has changed
+                event = new FeatureEvent(event.getFeatureSource(), event.getType(),
+                        ReferencedEnvelope.EVERYTHING, Filter.INCLUDE);
+            }
+            batch.add(event);
+        }
+        batch.setType(type);
+        return batch;
+    }
+
+    /**
+     * Copy of an event for a FeatureSource, the events delivered asynchronously cannot be shared
+     */
+    private static FeatureEvent copy(FeatureEvent event,
+            FeatureSource<? extends FeatureType, ? extends Feature> featureSource) {
+        if (event instanceof BatchFeatureEvent) {
+            BatchFeatureEvent batch = new BatchFeatureEvent(featureSource, event.getBounds(),
+                    event.getFilter());
+            batch.setType(event.getType());
+            // shared, so that the feature ids replaced on commit are seen by all
+            batch.fids = ((BatchFeatureEvent) event).fids;
+            return batch;
+        }
+        return new FeatureEvent(featureSource, event.getType(), event.getBounds(),
+                event.getFilter());
+    }
+
+    private List<Registration> registrations(String typeName) {
+        List<Registration> list = registrations.get(typeName);
+        if (list == null) {
+            list = new CopyOnWriteArrayList<Registration>();
+            List<Registration> existing = registrations.putIfAbsent(typeName, list);
+            if (existing != null) {
+                list = existing;
+            }
+        }
+        return list;
+    }
+
+    /**
+     * The registrations of a type, forgetting the collected FeatureSources
+     */
+    private List<Registration> sources(String typeName) {
+        List<Registration> list = registrations.get(typeName);
+        if (list == null) {
+            return new ArrayList<Registration>(0);
+        }
+        for (Registration registration : list) {
+            if (registration.source.get() == null) {
+                synchronized (list) {
+                    list.remove(registration);
+                }
+            }
+        }
+        return list;
+    }
+
+    private static Registration find(List<Registration> list,
+            FeatureSource<? extends FeatureType, ? extends Feature> featureSource) {
+        for (Registration registration : list) {
+            if (registration.source.get() == featureSource) {
+                return registration;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The listeners of a FeatureSource
+     */
+    private static final class Registration {
+        final WeakReference<FeatureSource<? extends FeatureType, ? extends Feature>> source;
+
+        final List<FeatureListener> listeners = new CopyOnWriteArrayList<FeatureListener>();
+
+        Registration(FeatureSource<? extends FeatureType, ? extends Feature> source) {
+            this.source = new WeakReference<FeatureSource<? extends FeatureType, ? extends Feature>>(
+                    source);
+        }
+
+        FeatureListener[] getListeners() {
+            return listeners.toArray(new FeatureListener[0]);
+        }
+    }
+
+    /**
+     * An event waiting for delivery, equal to the other deliveries to the same listener for the
+     * same FeatureSource
+     */
+    private static final class Delivery {
+        final FeatureListener listener;
+
+        final FeatureEvent event;
+
+        Delivery(FeatureListener listener, FeatureEvent event) {
+            this.listener = listener;
+            this.event = event;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(listener) * 31
+                    + System.identityHashCode(event.getFeatureSource());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Delivery)) {
+                return false;
+            }
+            Delivery other = (Delivery) obj;
+            return listener == other.listener
+                    && event.getFeatureSource() == other.event.getFeatureSource();
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-Process FeatureLocking support for many concurrent writers.
+ * <p>
+ * Behaves as {@link InProcessLockingManager}, but keeps the locks in concurrent maps and
+ * serializes the lock requests of a feature on one of a fixed set of lock stripes, chosen by type
+ * name and feature id, instead of on the manager itself. Requests for unrelated features proceed
+ * in parallel, and a request waiting on a Transaction lock does not block the others.
+ * </p>
+ * <p>
+ * The number of requests, of requests that had to wait and the total time spent waiting are
+ * available for monitoring.
+ * </p>
+ *
+ * @source $URL$
+ */
+public class ConcurrentLockingManager extends InProcessLockingManager {
+
+    /** Default number of lock stripes */
+    public static final int DEFAULT_STRIPES = 64;
+
+    /** How long to wait on a Transaction lock before checking it again */
+    private static final long WAIT_INTERVAL = 100;
+
+    /** Typed view of lockTables, Map of typeName to Map of featureID to Lock */
+    private final ConcurrentMap<String, ConcurrentMap<String, Lock>> tables = new ConcurrentHashMap<String, ConcurrentMap<String, Lock>>();
+
+    private final ReentrantLock[] stripes;
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private final AtomicLong contentions = new AtomicLong();
+
+    private final AtomicLong waitTime = new AtomicLong();
+
+    public ConcurrentLockingManager() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes the number of lock stripes
+     */
+    public ConcurrentLockingManager(int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("At least one lock stripe is required");
+        }
+        this.stripes = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        lockTables = tables;
+    }
+
+    /**
+     * @return the number of lock and unlock requests
+     */
+    public long getLockRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of times a request had to wait for another one
+     */
+    public long getContentions() {
+        return contentions.get();
+    }
+
+    /**
+     * @return the total time spent by requests waiting for other ones, in milliseconds
+     */
+    public long getWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(waitTime.get());
+    }
+
+    /**
+     * Aquire lock on featureID, waiting for a Transaction lock held by another transaction to be
+     * released.
+     */
+    public void lockFeatureID(String typeName, String featureID, Transaction transaction,
+            FeatureLock featureLock) throws FeatureLockException {
+        requests.incrementAndGet();
+        ReentrantLock stripe = stripe(typeName, featureID);
+
+        // This is a loop so we can wait on Transaction Locks
+        while (true) {
+            TransactionLock tlock;
+            acquire(stripe);
+            try {
+                Lock lock = getLock(typeName, featureID);
+
+                if (lock == null) {
+                    // Lock is Available
+                    locks(typeName).put(featureID, createLock(transaction, featureLock));
+                    return;
+                } else if (lock instanceof TransactionLock) {
+                    tlock = (TransactionLock) lock;
+                    if (transaction == tlock.transaction) {
+                        throw new FeatureLockException(
+                                "Transaction Lock is already held by this Transaction", featureID);
+                    }
+                } else if (lock instanceof MemoryLock) {
+                    throw new FeatureLockException("Feature Lock is held by Authorization "
+                            + ((MemoryLock) lock).authID, featureID);
+                } else {
+                    throw new FeatureLockException("Lock is already held " + lock, featureID);
+                }
+            } finally {
+                stripe.unlock();
+            }
+
+            // wait outside of the stripe, the holder may need it to release
+            contentions.incrementAndGet();
+            long start = System.nanoTime();
+            try {
+                synchronized (tlock) {
+                    if (getLock(typeName, featureID) == tlock) {
+                        tlock.wait(WAIT_INTERVAL);
+                    }
+                }
+            } catch (InterruptedException interupted) {
+                throw new FeatureLockException("Interupted while waiting for Transaction Lock",
+                        featureID, interupted);
+            } finally {
+                waitTime.addAndGet(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Lock for typeName & featureID if it exists, expired locks are removed and not returned.
+     */
+    protected Lock getLock(String typeName, String featureID) {
+        ConcurrentMap<String, Lock> locks = locks(typeName);
+        Lock lock = locks.get(featureID);
+        if (lock != null && lock.isExpired()) {
+            locks.remove(featureID, lock);
+            return null;
+        }
+        return lock;
+    }
+
+    /**
+     * Creates the right sort of In-Process Lock, synchronizing on the transaction only.
+     */
+    protected Lock createLock(Transaction transaction, FeatureLock featureLock)
+            throws FeatureLockException {
+        if (featureLock != FeatureLock.TRANSACTION) {
+            return new MemoryLock(featureLock);
+        }
+        // we need a Transacstion Lock
+        if (transaction == Transaction.AUTO_COMMIT) {
+            throw new FeatureLockException(
+                    "We cannot issue a Transaction lock against AUTO_COMMIT");
+        }
+        synchronized (transaction) {
+            TransactionLock lock = (TransactionLock) transaction.getState(this);
+            if (lock == null) {
+                lock = new TransactionLock();
+                transaction.putState(this, lock);
+            }
+            return lock;
+        }
+    }
+
+    protected ConcurrentMap<String, Lock> locks(String typeName) {
+        ConcurrentMap<String, Lock> locks = tables.get(typeName);
+        if (locks == null) {
+            locks = new ConcurrentHashMap<String, Lock>();
+            ConcurrentMap<String, Lock> existing = tables.putIfAbsent(typeName, locks);
+            if (existing != null) {
+                locks = existing;
+            }
+        }
+        return locks;
+    }
+
+    protected Set<Lock> allLocks() {
+        Set<Lock> set = new HashSet<Lock>();
+        for (Map<String, Lock> locks : tables.values()) {
+            set.addAll(locks.values());
+        }
+        return set;
+    }
+
+    public void unLockFeatureID(String typeName, String featureID, Transaction transaction,
+            FeatureLock featureLock) throws IOException {
+        requests.incrementAndGet();
+        ReentrantLock stripe = stripe(typeName, featureID);
+        acquire(stripe);
+        try {
+            assertAccess(typeName, featureID, transaction);
+            locks(typeName).remove(featureID);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    public boolean refresh(String authID, Transaction transaction) throws IOException {
+        checkAuthorization(authID, transaction);
+
+        boolean refresh = false;
+        for (ConcurrentMap<String, Lock> fidMap : tables.values()) {
+            for (Map.Entry<String, Lock> entry : fidMap.entrySet()) {
+                Lock lock = entry.getValue();
+                if (lock.isExpired()) {
+                    fidMap.remove(entry.getKey(), lock);
+                } else if (lock.isMatch(authID)) {
+                    if (lock.isAuthorized(transaction)) {
+                        lock.refresh();
+                        refresh = true;
+                    } else {
+                        throw new IOException("Not authorized to refresh " + lock);
+                    }
+                }
+            }
+        }
+        return refresh;
+    }
+
+    public boolean release(String authID, Transaction transaction) throws IOException {
+        checkAuthorization(authID, transaction);
+
+        boolean release = false;
+        for (ConcurrentMap<String, Lock> fidMap : tables.values()) {
+            for (Map.Entry<String, Lock> entry : fidMap.entrySet()) {
+                Lock lock = entry.getValue();
+                if (lock.isExpired()) {
+                    fidMap.remove(entry.getKey(), lock);
+                } else if (lock.isMatch(authID)) {
+                    if (lock.isAuthorized(transaction)) {
+                        // only remove this very lock, the feature may have been locked again
+                        fidMap.remove(entry.getKey(), lock);
+                        release = true;
+                    } else {
+                        throw new IOException("Not authorized to release " + lock);
+                    }
+                }
+            }
+        }
+        return release;
+    }
+
+    public boolean exists(String authID) {
+        if (authID == null) {
+            return false;
+        }
+        for (Map<String, Lock> locks : tables.values()) {
+            for (Lock lock : locks.values()) {
+                if (!lock.isExpired() && lock.isMatch(authID)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void checkAuthorization(String authID, Transaction transaction) {
+        if (authID == null) {
+            throw new IllegalArgumentException("lockID required");
+        }
+        if ((transaction == null) || (transaction == Transaction.AUTO_COMMIT)) {
+            throw new IllegalArgumentException("Tansaction required (with authorization for "
+                    + authID + ")");
+        }
+    }
+
+    private ReentrantLock stripe(String typeName, String featureID) {
+        int hash = typeName.hashCode() * 31 + featureID.hashCode();
+        // spread the bits, feature ids often differ only in the last characters
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return stripes[(hash & 0x7fffffff) % stripes.length];
+    }
+
+    private void acquire(ReentrantLock stripe) {
+        if (stripe.tryLock()) {
+            return;
+        }
+        contentions.incrementAndGet();
+        long start = System.nanoTime();
+        stripe.lock();
+        waitTime.addAndGet(System.nanoTime() - start);
+    }
+}
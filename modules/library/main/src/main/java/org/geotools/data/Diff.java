@@ -123,11 +123,27 @@ public class Diff{
 
     /** Create an empty Diff */
     public Diff() {
+        this(new ConcurrentHashMap<String, SimpleFeature>(),
+                new ConcurrentHashMap<String, SimpleFeature>(), new CopyOnWriteArrayList<String>());
+    }
+
+    /**
+     * Create an empty Diff recording the changes in the provided collections.
+     * <p>
+     * Allows subclasses to store the changes differently; the collections are only modified while
+     * holding the Diff lock, but must support being read and iterated over concurrently.
+     * 
+     * @param modifiedFeatures map of modified features by feature id
+     * @param addedFeatures map of added features by feature id
+     * @param addedFidList list of added feature ids
+     */
+    protected Diff(Map<String, SimpleFeature> modifiedFeatures,
+            Map<String, SimpleFeature> addedFeatures, List<String> addedFidList) {
         // private fields
-        modifiedFeatures = new ConcurrentHashMap<String, SimpleFeature>();
-        addedFeatures =new ConcurrentHashMap<String, SimpleFeature>();
-        addedFidList = new CopyOnWriteArrayList<String>();
-        
+        this.modifiedFeatures = modifiedFeatures;
+        this.addedFeatures = addedFeatures;
+        this.addedFidList = addedFidList;
+
         // public "views" requiring synchronised( mutex )
         modified2 = Collections.unmodifiableMap(modifiedFeatures);
         added = Collections.unmodifiableMap(addedFeatures);
@@ -204,7 +220,7 @@ public class Diff{
                 modifiedFeatures.put(fid, f);
             }
             if(old != null) {
-            	spatialIndex.remove(ReferencedEnvelope.reference(old.getBounds()), old);
+            	removeFromSpatialIndex(old);
             }
             addToSpatialIndex(f);
 		}
@@ -226,6 +242,10 @@ public class Diff{
 		}
 	}
 	
+	protected void removeFromSpatialIndex(SimpleFeature f) {
+		spatialIndex.remove(ReferencedEnvelope.reference(f.getBounds()), f);
+	}
+	
 	public void remove(String fid) {
 		synchronized (mutex) {
 			SimpleFeature old = null;
@@ -239,7 +259,7 @@ public class Diff{
 				modifiedFeatures.put(fid, TransactionStateDiff.NULL);
 			}
 			if( old != null ) {
-				spatialIndex.remove(ReferencedEnvelope.reference(old.getBounds()), old);
+				removeFromSpatialIndex(old);
 			}			
 		}
 	}
@@ -0,0 +1,229 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.resources.NIOUtilities;
+
+/**
+ * Store of byte records, kept in heap segments up to a threshold and in segments memory mapped
+ * from a temporary file past it.
+ * <p>
+ * Records are addressed by the index of their segment and their position in it. Each record takes
+ * a slot whose size is a power of two; the slots of the records given back with
+ * {@link #free(long)} are reused by the next records of the same size class, so a transaction
+ * modifying the same features over and over does not grow the file. {@link #clear()} releases the
+ * segments and deletes the temporary file.
+ * </p>
+ *
+ * @source $URL$
+ */
+final class RecordBuffer {
+
+    static final Logger LOGGER = org.geotools.util.logging.Logging
+            .getLogger("org.geotools.data");
+
+    /** Size of the first heap segment */
+    static final int MIN_SEGMENT_SIZE = 64 * 1024;
+
+    /** Size of the largest segments */
+    static final int MAX_SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    /** Size of the smallest slot */
+    static final int MIN_SLOT_SIZE = 16;
+
+    private final long threshold;
+
+    private final File directory;
+
+    private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+
+    /** Addresses of the free slots, by slot size */
+    private final Map<Integer, List<Long>> free = new HashMap<Integer, List<Long>>();
+
+    /** Write position in the last segment */
+    private int position;
+
+    private long heapSize;
+
+    private long records;
+
+    private File file;
+
+    private RandomAccessFile raf;
+
+    private FileChannel channel;
+
+    private long fileSize;
+
+    /**
+     * @param threshold number of bytes kept on the heap before spilling to disk
+     * @param directory directory of the temporary file, null for the default one
+     */
+    RecordBuffer(long threshold, File directory) {
+        this.threshold = threshold;
+        this.directory = directory;
+    }
+
+    /**
+     * Writes a record, in a free slot if there is one large enough
+     *
+     * @return the address of the record
+     */
+    synchronized long write(byte[] record) throws IOException {
+        int size = slotSize(record.length);
+        long address;
+        List<Long> slots = free.get(size);
+        if (slots != null && !slots.isEmpty()) {
+            address = slots.remove(slots.size() - 1);
+        } else {
+            ByteBuffer segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (segment == null || segment.capacity() - position < size) {
+                segment = allocate(size);
+                segments.add(segment);
+                position = 0;
+            }
+            address = ((long) (segments.size() - 1) << 32) | position;
+            position += size;
+        }
+        ByteBuffer segment = segments.get((int) (address >>> 32));
+        segment.position((int) address);
+        segment.putInt(record.length);
+        segment.put(record);
+        records++;
+        return address;
+    }
+
+    /**
+     * Gives back the slot of a record no longer used, the record cannot be read afterwards
+     */
+    synchronized void free(long address) {
+        ByteBuffer segment = segments.get((int) (address >>> 32));
+        int size = slotSize(segment.getInt((int) address));
+        List<Long> slots = free.get(size);
+        if (slots == null) {
+            slots = new ArrayList<Long>();
+            free.put(size, slots);
+        }
+        slots.add(address);
+        records--;
+    }
+
+    /**
+     * Reads the record at an address returned by {@link #write(byte[])}
+     */
+    synchronized byte[] read(long address) {
+        ByteBuffer segment = segments.get((int) (address >>> 32));
+        segment.position((int) address);
+        byte[] record = new byte[segment.getInt()];
+        segment.get(record);
+        return record;
+    }
+
+    /**
+     * @return the number of bytes kept on the heap
+     */
+    synchronized long getHeapSize() {
+        return heapSize;
+    }
+
+    /**
+     * @return the number of bytes spilled to disk
+     */
+    synchronized long getSpilledSize() {
+        return fileSize;
+    }
+
+    /**
+     * @return the number of records in use
+     */
+    synchronized long getRecords() {
+        return records;
+    }
+
+    /**
+     * Forgets all records, releasing the heap segments and deleting the temporary file
+     */
+    synchronized void clear() {
+        if (file != null) {
+            // unmap the segments first, they keep the file open on some platforms
+            for (ByteBuffer segment : segments) {
+                NIOUtilities.clean(segment, true);
+            }
+        }
+        segments.clear();
+        free.clear();
+        position = 0;
+        heapSize = 0;
+        records = 0;
+        if (file != null) {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Could not close " + file, e);
+            }
+            if (!file.delete()) {
+                LOGGER.warning("Could not delete the temporary file " + file);
+            }
+            file = null;
+            raf = null;
+            channel = null;
+            fileSize = 0;
+        }
+    }
+
+    /**
+     * @return the smallest power of two holding a record of the given length and its header
+     */
+    static int slotSize(int length) {
+        int size = length + 4;
+        if (size <= MIN_SLOT_SIZE) {
+            return MIN_SLOT_SIZE;
+        }
+        return Integer.highestOneBit(size - 1) << 1;
+    }
+
+    private ByteBuffer allocate(int size) throws IOException {
+        // segments grow with the content, small diffs only need small buffers
+        int segmentSize = segments.isEmpty() ? MIN_SEGMENT_SIZE : Math.min(MAX_SEGMENT_SIZE,
+                segments.get(segments.size() - 1).capacity() * 2);
+        segmentSize = Math.max(segmentSize, size);
+        if (heapSize + segmentSize <= threshold) {
+            heapSize += segmentSize;
+            return ByteBuffer.allocate(segmentSize);
+        }
+        if (file == null) {
+            file = File.createTempFile("diff", ".spill", directory);
+            raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+        }
+        ByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, fileSize, segmentSize);
+        fileSize += segmentSize;
+        return segment;
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.geotools.factory.Hints;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKBWriter;
+
+/**
+ * Map of features by feature id keeping the features serialized in a {@link RecordBuffer}.
+ * <p>
+ * Attribute values are written in a compact binary form, geometries as WKB, other serializable
+ * values with java serialization. The {@link Hints#PROVIDED_FID} and
+ * {@link Hints#USE_PROVIDED_FID} user data are kept as well. Features that cannot be written (a
+ * value or user data that is not serializable) are kept as they are. Each lookup returns a new
+ * copy of the feature.
+ * </p>
+ * <p>
+ * The {@link TransactionStateDiff#NULL} placeholder of removed features is kept as is. The map is
+ * thread safe, its iterators work on a snapshot of the keys and never fail with concurrent
+ * modifications. {@link #put(String, SimpleFeature)} and {@link #remove(Object)} do not return
+ * the previous value, the record of the previous value is given back to the buffer.
+ * </p>
+ *
+ * @source $URL$
+ */
+final class SerializedFeatureMap extends AbstractMap<String, SimpleFeature> {
+
+    static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+
+    static final byte NULL = 0;
+
+    static final byte STRING = 1;
+
+    static final byte INTEGER = 2;
+
+    static final byte LONG = 3;
+
+    static final byte DOUBLE = 4;
+
+    static final byte FLOAT = 5;
+
+    static final byte SHORT = 6;
+
+    static final byte BYTE = 7;
+
+    static final byte BOOLEAN = 8;
+
+    static final byte DATE = 9;
+
+    static final byte GEOMETRY = 10;
+
+    static final byte SERIALIZED = 11;
+
+    private final RecordBuffer buffer;
+
+    /** Record address (Long) or feature kept as is, by feature id */
+    private final Map<String, Object> entries = new HashMap<String, Object>();
+
+    /** The feature types of the records, usually only one */
+    private final List<SimpleFeatureType> types = new ArrayList<SimpleFeatureType>(1);
+
+    SerializedFeatureMap(RecordBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public synchronized SimpleFeature get(Object key) {
+        return decode((String) key, entries.get(key));
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+        return entries.containsKey(key);
+    }
+
+    @Override
+    public synchronized SimpleFeature put(String key, SimpleFeature feature) {
+        Object entry = feature;
+        if (feature != null && feature != TransactionStateDiff.NULL) {
+            byte[] record = encode(feature);
+            if (record != null) {
+                try {
+                    entry = buffer.write(record);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not store feature " + key, e);
+                }
+            }
+        }
+        release(entries.put(key, entry));
+        return null;
+    }
+
+    @Override
+    public synchronized SimpleFeature remove(Object key) {
+        release(entries.remove(key));
+        return null;
+    }
+
+    @Override
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    @Override
+    public synchronized void clear() {
+        for (Object entry : entries.values()) {
+            release(entry);
+        }
+        entries.clear();
+        types.clear();
+    }
+
+    /**
+     * Gives the record of a replaced or removed entry back to the buffer
+     */
+    private void release(Object entry) {
+        if (entry instanceof Long) {
+            buffer.free((Long) entry);
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<String, SimpleFeature>> entrySet() {
+        return new AbstractSet<Map.Entry<String, SimpleFeature>>() {
+            @Override
+            public Iterator<Map.Entry<String, SimpleFeature>> iterator() {
+                final String[] keys;
+                synchronized (SerializedFeatureMap.this) {
+                    keys = entries.keySet().toArray(new String[entries.size()]);
+                }
+                return new Iterator<Map.Entry<String, SimpleFeature>>() {
+                    int index = 0;
+
+                    Map.Entry<String, SimpleFeature> next;
+
+                    public boolean hasNext() {
+                        while (next == null && index < keys.length) {
+                            String key = keys[index++];
+                            SimpleFeature feature;
+                            synchronized (SerializedFeatureMap.this) {
+                                if (!entries.containsKey(key)) {
+                                    // removed since the iteration started
+                                    continue;
+                                }
+                                feature = get(key);
+                            }
+                            next = new SimpleImmutableEntry<String, SimpleFeature>(key, feature);
+                        }
+                        return next != null;
+                    }
+
+                    public Map.Entry<String, SimpleFeature> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Map.Entry<String, SimpleFeature> entry = next;
+                        next = null;
+                        return entry;
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return SerializedFeatureMap.this.size();
+            }
+        };
+    }
+
+    private SimpleFeature decode(String fid, Object entry) {
+        if (!(entry instanceof Long)) {
+            return (SimpleFeature) entry;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                buffer.read((Long) entry)));
+        try {
+            SimpleFeatureType type = types.get(in.readShort());
+            Object[] values = new Object[type.getAttributeCount()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = readValue(in);
+            }
+            SimpleFeature feature = SimpleFeatureBuilder.build(type, values, fid);
+            int userData = in.readInt();
+            for (int i = 0; i < userData; i++) {
+                Object key = readValue(in);
+                if (key == null) {
+                    // one of the hints, which are not serializable
+                    key = in.readBoolean() ? Hints.PROVIDED_FID : Hints.USE_PROVIDED_FID;
+                }
+                feature.getUserData().put(key, readValue(in));
+            }
+            return feature;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read feature " + fid, e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Could not read feature " + fid, e);
+        } catch (ParseException e) {
+            throw new IllegalStateException("Could not read feature " + fid, e);
+        }
+    }
+
+    /**
+     * @return the record of the feature, null if it cannot be written
+     */
+    private byte[] encode(SimpleFeature feature) {
+        SimpleFeatureType type = feature.getFeatureType();
+        int typeIndex = types.indexOf(type);
+        if (typeIndex == -1) {
+            if (types.size() == Short.MAX_VALUE) {
+                return null;
+            }
+            types.add(type);
+            typeIndex = types.size() - 1;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(typeIndex);
+            for (int i = 0; i < type.getAttributeCount(); i++) {
+                if (!writeValue(out, feature.getAttribute(i))) {
+                    return null;
+                }
+            }
+            Map<Object, Object> userData = feature.getUserData();
+            out.writeInt(userData.size());
+            for (Map.Entry<Object, Object> entry : userData.entrySet()) {
+                Object key = entry.getKey();
+                if (key == Hints.PROVIDED_FID || key == Hints.USE_PROVIDED_FID) {
+                    out.writeByte(NULL);
+                    out.writeBoolean(key == Hints.PROVIDED_FID);
+                } else if (key == null || !writeValue(out, key)) {
+                    return null;
+                }
+                if (!writeValue(out, entry.getValue())) {
+                    return null;
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // not serializable after all
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return false if the value cannot be written
+     */
+    private static boolean writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            byte[] utf = ((String) value).getBytes("UTF-8");
+            out.writeByte(STRING);
+            out.writeInt(utf.length);
+            out.write(utf);
+        } else if (value.getClass() == Integer.class) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value.getClass() == Long.class) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value.getClass() == Double.class) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value.getClass() == Float.class) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value.getClass() == Short.class) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (value.getClass() == Byte.class) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value.getClass() == Boolean.class) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value.getClass() == Date.class) {
+            out.writeByte(DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof Geometry && isWKB((Geometry) value)) {
+            Geometry geometry = (Geometry) value;
+            Coordinate coordinate = geometry.getCoordinate();
+            int dimension = Double.isNaN(coordinate.z) ? 2 : 3;
+            byte[] wkb = new WKBWriter(dimension, true).write(geometry);
+            out.writeByte(GEOMETRY);
+            out.writeInt(wkb.length);
+            out.write(wkb);
+        } else if (value instanceof Serializable) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream object = new ObjectOutputStream(bytes);
+            object.writeObject(value);
+            object.close();
+            out.writeByte(SERIALIZED);
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Geometries without user data (such as a CRS) and with coordinates can be written as WKB,
+     * rings would be read back as line strings
+     */
+    private static boolean isWKB(Geometry geometry) {
+        return geometry.getUserData() == null && !geometry.isEmpty()
+                && !(geometry instanceof LinearRing);
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException,
+            ClassNotFoundException, ParseException {
+        byte tag = in.readByte();
+        switch (tag) {
+        case NULL:
+            return null;
+        case STRING:
+            return new String(readBytes(in), "UTF-8");
+        case INTEGER:
+            return in.readInt();
+        case LONG:
+            return in.readLong();
+        case DOUBLE:
+            return in.readDouble();
+        case FLOAT:
+            return in.readFloat();
+        case SHORT:
+            return in.readShort();
+        case BYTE:
+            return in.readByte();
+        case BOOLEAN:
+            return in.readBoolean();
+        case DATE:
+            return new Date(in.readLong());
+        case GEOMETRY:
+            return new WKBReader(GEOMETRY_FACTORY).read(readBytes(in));
+        case SERIALIZED:
+            ObjectInputStream object = new ObjectInputStream(new ByteArrayInputStream(
+                    readBytes(in)));
+            try {
+                return object.readObject();
+            } finally {
+                object.close();
+            }
+        default:
+            throw new IOException("Unknown value type " + tag);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
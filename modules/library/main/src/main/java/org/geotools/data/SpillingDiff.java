@@ -0,0 +1,145 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.geometry.BoundingBox;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.index.quadtree.Quadtree;
+
+/**
+ * Diff keeping the changes serialized, for transactions too large to be held in memory.
+ * <p>
+ * The added and modified features are written in a compact binary form, kept on the heap up to a
+ * threshold and spilled to a memory mapped temporary file past it. The spatial index only holds
+ * the bounds and feature ids of the changes, the features are read back on demand: each lookup
+ * returns a new copy, and only the {@link org.geotools.factory.Hints#PROVIDED_FID} and
+ * {@link org.geotools.factory.Hints#USE_PROVIDED_FID} user data of a feature are kept, unless it
+ * has other serializable user data.
+ * </p>
+ * <p>
+ * The records of replaced or removed changes are reused by the following ones. The temporary
+ * file is deleted when the diff is cleared, on commit or rollback.
+ * </p>
+ *
+ * @source $URL$
+ */
+public class SpillingDiff extends Diff {
+
+    /**
+     * System property setting the number of bytes of changes kept in memory by each diff
+     */
+    public static final String SPILL_THRESHOLD_KEY = "org.geotools.data.diff.spillThreshold";
+
+    /** Default number of bytes of changes kept in memory, 16MB */
+    public static final long DEFAULT_SPILL_THRESHOLD = 16 * 1024 * 1024;
+
+    private final RecordBuffer buffer;
+
+    /** Index of the feature ids of the changes */
+    private Quadtree index = new Quadtree();
+
+    /**
+     * Create an empty diff, keeping the amount of changes set by {@link #SPILL_THRESHOLD_KEY} in
+     * memory
+     */
+    public SpillingDiff() {
+        this(Long.getLong(SPILL_THRESHOLD_KEY, DEFAULT_SPILL_THRESHOLD), null);
+    }
+
+    /**
+     * Create an empty diff
+     *
+     * @param threshold number of bytes of changes kept in memory, 0 to keep them all on disk
+     * @param directory directory of the temporary file, null for the default temporary directory
+     */
+    public SpillingDiff(long threshold, File directory) {
+        this(new RecordBuffer(threshold, directory));
+    }
+
+    private SpillingDiff(RecordBuffer buffer) {
+        super(new SerializedFeatureMap(buffer), new SerializedFeatureMap(buffer),
+                new CopyOnWriteArrayList<String>());
+        this.buffer = buffer;
+    }
+
+    /**
+     * @return the number of bytes of changes kept in memory
+     */
+    public long getHeapSize() {
+        return buffer.getHeapSize();
+    }
+
+    /**
+     * @return the number of bytes of changes spilled to disk
+     */
+    public long getSpilledSize() {
+        return buffer.getSpilledSize();
+    }
+
+    @Override
+    public void clear() {
+        synchronized (mutex) {
+            super.clear();
+            index = new Quadtree();
+            buffer.clear();
+        }
+    }
+
+    @Override
+    protected void addToSpatialIndex(SimpleFeature f) {
+        if (f.getDefaultGeometry() != null) {
+            BoundingBox bounds = f.getBounds();
+            if (!bounds.isEmpty()) {
+                index.insert(ReferencedEnvelope.reference(bounds), f.getID());
+            }
+        }
+    }
+
+    @Override
+    protected void removeFromSpatialIndex(SimpleFeature f) {
+        if (f != TransactionStateDiff.NULL && f.getDefaultGeometry() != null) {
+            index.remove(ReferencedEnvelope.reference(f.getBounds()), f.getID());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public List<SimpleFeature> queryIndex(Envelope env) {
+        synchronized (mutex) {
+            List<String> fids = index.query(env);
+            List<SimpleFeature> features = new ArrayList<SimpleFeature>(fids.size());
+            for (String fid : fids) {
+                SimpleFeature feature = getModified().get(fid);
+                if (feature == null) {
+                    feature = getAdded().get(fid);
+                }
+                if (feature != null && feature != TransactionStateDiff.NULL) {
+                    features.add(feature);
+                }
+            }
+            return features;
+        }
+    }
+}
@@ -0,0 +1,732 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.collection;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.feature.collection.FilteringSimpleFeatureCollection;
+import org.geotools.feature.collection.FilteringSimpleFeatureIterator;
+import org.geotools.feature.collection.SortedSimpleFeatureCollection;
+import org.geotools.filter.visitor.ExtractBoundsFilterVisitor;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.util.NullProgressListener;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.FeatureVisitor;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.util.ProgressListener;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * FeatureCollection holding its features in a spatial index that can be bulk loaded, added to
+ * and searched concurrently.
+ * <p>
+ * Unlike {@link SpatialIndexFeatureCollection}, whose STRtree cannot be modified once built, the
+ * features are kept in a log structured set of packed R-trees:
+ * <ul>
+ * <li>{@link #load(FeatureIterator)} and the copy constructor sort the features with the
+ * Sort-Tile-Recursive algorithm, in parallel for large collections, into a new tree
+ * <li>{@link #add(SimpleFeature)} appends to a small log, scanned by the queries, that becomes a
+ * new tree once full
+ * <li>trees of similar size are merged in the background, the searches keep using the previous
+ * trees until the merged one replaces them
+ * </ul>
+ * Readers never lock: each iterator works on the trees and log entries present when it was
+ * created, and streams the matching features as it advances without collecting them in a list.
+ * Features cannot be removed.
+ * </p>
+ *
+ * @source $URL$
+ */
+public class ConcurrentSpatialIndexFeatureCollection implements SimpleFeatureCollection {
+
+    static final Logger LOGGER = Logging.getLogger(ConcurrentSpatialIndexFeatureCollection.class);
+
+    /** Number of features added one by one before they are indexed in a tree */
+    public static final int DEFAULT_LOG_CAPACITY = 1024;
+
+    /** Executor sorting the large trees, shared by all the collections */
+    static final ExecutorService BUILD_EXECUTOR = Executors.newFixedThreadPool(
+            PackedSTRtree.THREADS, threadFactory("SpatialIndexBuilder-"));
+
+    /** Executor running the background merges, each collection runs at most one at a time */
+    static final ExecutorService MERGE_EXECUTOR = Executors
+            .newCachedThreadPool(threadFactory("SpatialIndexMerger-"));
+
+    static ThreadFactory threadFactory(final String prefix) {
+        return new ThreadFactory() {
+            AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, prefix + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * A feature along with its bounds, NaN if the feature has no bounds
+     */
+    static final class Entry {
+        final SimpleFeature feature;
+
+        final double minX, minY, maxX, maxY;
+
+        Entry(SimpleFeature feature) {
+            this.feature = feature;
+            ReferencedEnvelope bounds = ReferencedEnvelope.reference(feature.getBounds());
+            if (bounds == null || bounds.isNull()) {
+                minX = minY = maxX = maxY = Double.NaN;
+            } else {
+                minX = bounds.getMinX();
+                minY = bounds.getMinY();
+                maxX = bounds.getMaxX();
+                maxY = bounds.getMaxY();
+            }
+        }
+
+        boolean isNull() {
+            return Double.isNaN(minX);
+        }
+
+        boolean intersects(Envelope envelope) {
+            return minX <= envelope.getMaxX() && maxX >= envelope.getMinX()
+                    && minY <= envelope.getMaxY() && maxY >= envelope.getMinY();
+        }
+    }
+
+    /**
+     * An immutable array of features indexed by a {@link PackedSTRtree}, the features without
+     * bounds are only returned by full scans
+     */
+    static final class FeatureTree implements PackedSTRtree.Bounds {
+        final Entry[] entries;
+
+        final PackedSTRtree tree;
+
+        /**
+         * @param pool the executor sorting large trees in parallel, or null
+         */
+        FeatureTree(Entry[] entries, ExecutorService pool) {
+            this.entries = entries;
+            this.tree = new PackedSTRtree(this, entries.length, pool);
+        }
+
+        public double getMinX(int id) {
+            return entries[id].minX;
+        }
+
+        public double getMinY(int id) {
+            return entries[id].minY;
+        }
+
+        public double getMaxX(int id) {
+            return entries[id].maxX;
+        }
+
+        public double getMaxY(int id) {
+            return entries[id].maxY;
+        }
+
+        int size() {
+            return entries.length;
+        }
+
+        Envelope getBounds() {
+            return tree.getBounds();
+        }
+
+        /**
+         * Copies the entries of the tree
+         *
+         * @return the position following the last entry copied
+         */
+        int copy(Entry[] target, int position) {
+            System.arraycopy(entries, 0, target, position, entries.length);
+            return position + entries.length;
+        }
+
+        /**
+         * @return all the features
+         */
+        Iterator<SimpleFeature> iterator() {
+            return new Iterator<SimpleFeature>() {
+                int position;
+
+                public boolean hasNext() {
+                    return position < entries.length;
+                }
+
+                public SimpleFeature next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return entries[position++].feature;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        /**
+         * @return the features whose bounds intersect the envelope, searched as the iterator
+         *         advances
+         */
+        Iterator<SimpleFeature> query(Envelope envelope) {
+            final PackedSTRtree.Cursor cursor = tree.cursor(envelope);
+            return new Iterator<SimpleFeature>() {
+                public boolean hasNext() {
+                    return cursor.hasNext();
+                }
+
+                public SimpleFeature next() {
+                    return entries[cursor.next()].feature;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    /**
+     * Features added one by one, written under the collection lock and read without locking up
+     * to the published size
+     */
+    static final class Log {
+        final Entry[] entries;
+
+        volatile int size;
+
+        Log(int capacity) {
+            entries = new Entry[capacity];
+        }
+    }
+
+    /**
+     * The trees, oldest and largest first, and the log of a collection. Replaced as a whole on
+     * each change, only the log size grows in place.
+     */
+    static final class State {
+        final FeatureTree[] trees;
+
+        final Log log;
+
+        State(FeatureTree[] trees, Log log) {
+            this.trees = trees;
+            this.log = log;
+        }
+    }
+
+    private static final State EMPTY = new State(new FeatureTree[0], new Log(0));
+
+    protected SimpleFeatureType schema;
+
+    private final int logCapacity;
+
+    private volatile State state;
+
+    /** Guarded by the collection lock */
+    private boolean merging;
+
+    /** Held while merging trees, makes merges run one at a time */
+    private final Object mergeLock = new Object();
+
+    public ConcurrentSpatialIndexFeatureCollection(SimpleFeatureType schema) {
+        this(schema, DEFAULT_LOG_CAPACITY);
+    }
+
+    /**
+     * @param logCapacity number of features added one by one before they are indexed in a tree
+     */
+    public ConcurrentSpatialIndexFeatureCollection(SimpleFeatureType schema, int logCapacity) {
+        if (logCapacity < 1) {
+            throw new IllegalArgumentException("The log capacity must be positive: " + logCapacity);
+        }
+        this.schema = schema;
+        this.logCapacity = logCapacity;
+        this.state = new State(new FeatureTree[0], new Log(logCapacity));
+    }
+
+    public ConcurrentSpatialIndexFeatureCollection(SimpleFeatureCollection copy) {
+        this(copy.getSchema());
+        SimpleFeatureIterator it = copy.features();
+        try {
+            load(it);
+        } finally {
+            it.close();
+        }
+    }
+
+    /**
+     * Bulk loads features into a new tree, sorted in parallel outside of the collection lock.
+     * The iterator is left open.
+     */
+    public void load(FeatureIterator<? extends SimpleFeature> features) {
+        List<Entry> entries = new ArrayList<Entry>();
+        while (features.hasNext()) {
+            entries.add(new Entry(features.next()));
+        }
+        if (entries.isEmpty()) {
+            return;
+        }
+        FeatureTree tree = new FeatureTree(entries.toArray(new Entry[entries
+                .size()]), BUILD_EXECUTOR);
+        synchronized (this) {
+            State current = state;
+            state = new State(append(current.trees, tree), current.log);
+            scheduleMerge();
+        }
+    }
+
+    public boolean add(SimpleFeature feature) {
+        Entry entry = new Entry(feature);
+        synchronized (this) {
+            Log log = state.log;
+            int size = log.size;
+            log.entries[size] = entry;
+            // publishes the entry to the readers
+            log.size = size + 1;
+            if (size + 1 == log.entries.length) {
+                flushLog();
+                scheduleMerge();
+            }
+        }
+        return true;
+    }
+
+    public boolean addAll(Collection<? extends SimpleFeature> collection) {
+        final Iterator<? extends SimpleFeature> it = collection.iterator();
+        load(new FeatureIterator<SimpleFeature>() {
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            public SimpleFeature next() throws NoSuchElementException {
+                return it.next();
+            }
+
+            public void close() {
+            }
+        });
+        return true;
+    }
+
+    public boolean addAll(
+            FeatureCollection<? extends SimpleFeatureType, ? extends SimpleFeature> collection) {
+        FeatureIterator<? extends SimpleFeature> it = collection.features();
+        try {
+            load(it);
+        } finally {
+            it.close();
+        }
+        return true;
+    }
+
+    /**
+     * Indexes the log entries in a new tree. Called holding the collection lock.
+     */
+    private void flushLog() {
+        State current = state;
+        int size = current.log.size;
+        if (size == 0) {
+            return;
+        }
+        // copied, the readers may still be scanning the log
+        Entry[] entries = new Entry[size];
+        System.arraycopy(current.log.entries, 0, entries, 0, size);
+        FeatureTree tree = new FeatureTree(entries, null);
+        state = new State(append(current.trees, tree), new Log(logCapacity));
+    }
+
+    /**
+     * Starts a background merge if there are trees to merge and none is running. Called holding
+     * the collection lock.
+     */
+    private void scheduleMerge() {
+        if (merging || mergeStart(state.trees) < 0) {
+            return;
+        }
+        merging = true;
+        MERGE_EXECUTOR.execute(new Runnable() {
+            public void run() {
+                boolean merged = false;
+                try {
+                    synchronized (mergeLock) {
+                        FeatureTree[] trees = state.trees;
+                        int start = mergeStart(trees);
+                        if (start >= 0) {
+                            merge(trees, start);
+                        }
+                    }
+                    merged = true;
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Failed to merge the spatial index trees", e);
+                } finally {
+                    synchronized (ConcurrentSpatialIndexFeatureCollection.this) {
+                        merging = false;
+                        if (merged) {
+                            scheduleMerge();
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Picks the newest trees to merge, those whose total size reaches half the size of the tree
+     * before them, so that each feature takes part in a logarithmic number of merges.
+     *
+     * @return the index of the first tree to merge, -1 if there is nothing to merge
+     */
+    static int mergeStart(FeatureTree[] trees) {
+        if (trees.length < 2) {
+            return -1;
+        }
+        int start = trees.length - 1;
+        long total = trees[start].size();
+        while (start > 0 && trees[start - 1].size() < 2 * total) {
+            start--;
+            total += trees[start].size();
+        }
+        return start < trees.length - 1 ? start : -1;
+    }
+
+    /**
+     * Merges the trees from start to the end of the array into a single one. Called holding the
+     * merge lock, the collection lock is only taken to swap the trees.
+     */
+    private void merge(FeatureTree[] trees, int start) {
+        int size = 0;
+        for (int i = start; i < trees.length; i++) {
+            size += trees[i].size();
+        }
+        Entry[] entries = new Entry[size];
+        int position = 0;
+        for (int i = start; i < trees.length; i++) {
+            position = trees[i].copy(entries, position);
+        }
+        FeatureTree merged = new FeatureTree(entries, BUILD_EXECUTOR);
+
+        synchronized (this) {
+            // trees are only appended while merging, unless the collection got cleared
+            FeatureTree[] current = state.trees;
+            if (current.length < trees.length) {
+                return;
+            }
+            for (int i = 0; i < trees.length; i++) {
+                if (current[i] != trees[i]) {
+                    return;
+                }
+            }
+            FeatureTree[] replaced = new FeatureTree[current.length - trees.length + start + 1];
+            System.arraycopy(current, 0, replaced, 0, start);
+            replaced[start] = merged;
+            System.arraycopy(current, trees.length, replaced, start + 1, current.length
+                    - trees.length);
+            state = new State(replaced, state.log);
+        }
+    }
+
+    /**
+     * Indexes the features added one by one and merges all the trees into one, waiting for the
+     * background merge to complete if one is running. Searches are fastest after a compaction.
+     */
+    public void compact() {
+        synchronized (mergeLock) {
+            FeatureTree[] trees;
+            synchronized (this) {
+                flushLog();
+                trees = state.trees;
+            }
+            if (trees.length > 1) {
+                merge(trees, 0);
+            }
+        }
+    }
+
+    private static FeatureTree[] append(FeatureTree[] trees, FeatureTree tree) {
+        FeatureTree[] result = new FeatureTree[trees.length + 1];
+        System.arraycopy(trees, 0, result, 0, trees.length);
+        result[trees.length] = tree;
+        return result;
+    }
+
+    /**
+     * @return the number of trees the features are currently spread on, the log excluded
+     */
+    int getTreeCount() {
+        return state.trees.length;
+    }
+
+    public SimpleFeatureIterator features() {
+        return iterator(state, null);
+    }
+
+    /**
+     * Streams the features whose bounds intersect an envelope. Features without bounds are never
+     * returned.
+     */
+    public SimpleFeatureIterator features(Envelope envelope) {
+        return iterator(state, envelope);
+    }
+
+    private SimpleFeatureIterator iterator(State current, final Envelope envelope) {
+        final FeatureTree[] trees = current.trees;
+        final Entry[] log = current.log.entries;
+        final int logSize = current.log.size;
+        return new SimpleFeatureIterator() {
+            int tree = -1;
+
+            Iterator<SimpleFeature> delegate;
+
+            int logPosition;
+
+            SimpleFeature next;
+
+            public boolean hasNext() {
+                while (next == null) {
+                    if (delegate != null && delegate.hasNext()) {
+                        next = delegate.next();
+                    } else if (tree + 1 < trees.length) {
+                        tree++;
+                        delegate = envelope == null ? trees[tree].iterator() : trees[tree]
+                                .query(envelope);
+                    } else if (logPosition < logSize) {
+                        Entry entry = log[logPosition++];
+                        if (envelope == null || (!entry.isNull() && entry.intersects(envelope))) {
+                            next = entry.feature;
+                        }
+                    } else {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            public SimpleFeature next() throws NoSuchElementException {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                SimpleFeature feature = next;
+                next = null;
+                return feature;
+            }
+
+            public void close() {
+                tree = trees.length;
+                delegate = null;
+                logPosition = logSize;
+                next = null;
+            }
+        };
+    }
+
+    public SimpleFeatureCollection sort(SortBy order) {
+        return new SortedSimpleFeatureCollection(this, new SortBy[] { order });
+    }
+
+    /**
+     * @return the features matching the filter, searched in the spatial index with the bounds of
+     *         the filter
+     */
+    public SimpleFeatureCollection subCollection(Filter filter) {
+        return new IndexedSubCollection(filter);
+    }
+
+    /**
+     * Filtered view of the collection using the spatial index
+     */
+    class IndexedSubCollection extends FilteringSimpleFeatureCollection {
+
+        final Filter filter;
+
+        IndexedSubCollection(Filter filter) {
+            super(ConcurrentSpatialIndexFeatureCollection.this, filter);
+            this.filter = filter;
+        }
+
+        @Override
+        public SimpleFeatureIterator features() {
+            Envelope bounds = (Envelope) filter.accept(ExtractBoundsFilterVisitor.BOUNDS_VISITOR,
+                    null);
+            SimpleFeatureIterator features;
+            if (bounds == null || Double.isInfinite(bounds.getWidth())
+                    || Double.isInfinite(bounds.getHeight())) {
+                features = ConcurrentSpatialIndexFeatureCollection.this.features();
+            } else if (bounds.isNull()) {
+                // nothing can match
+                features = iterator(EMPTY, null);
+            } else {
+                features = ConcurrentSpatialIndexFeatureCollection.this.features(bounds);
+            }
+            return new FilteringSimpleFeatureIterator(features, filter);
+        }
+
+        @Override
+        public SimpleFeatureCollection subCollection(Filter filter) {
+            return new IndexedSubCollection(CommonFactoryFinder.getFilterFactory2().and(
+                    this.filter, filter));
+        }
+    }
+
+    public void accepts(FeatureVisitor visitor, ProgressListener listener) throws IOException {
+        ProgressListener progress = listener != null ? listener : new NullProgressListener();
+        progress.started();
+        float size = (float) size();
+        float count = 0f;
+        SimpleFeatureIterator it = features();
+        try {
+            while (it.hasNext() && !progress.isCanceled()) {
+                SimpleFeature feature = it.next();
+                try {
+                    visitor.visit(feature);
+                } catch (Throwable t) {
+                    progress.exceptionOccurred(t);
+                    throw new IOException("Problem visiting " + feature.getIdentifier() + ":"
+                            + t, t);
+                } finally {
+                    progress.progress(++count / size);
+                }
+            }
+        } finally {
+            it.close();
+        }
+        progress.complete();
+    }
+
+    public synchronized void clear() {
+        state = new State(new FeatureTree[0], new Log(logCapacity));
+    }
+
+    public boolean contains(Object obj) {
+        if (obj instanceof SimpleFeature) {
+            Entry entry = new Entry((SimpleFeature) obj);
+            SimpleFeatureIterator it = entry.isNull() ? features() : features(new Envelope(
+                    entry.minX, entry.maxX, entry.minY, entry.maxY));
+            try {
+                while (it.hasNext()) {
+                    if (it.next() == obj) {
+                        return true;
+                    }
+                }
+            } finally {
+                it.close();
+            }
+        }
+        return false;
+    }
+
+    public boolean containsAll(Collection<?> collection) {
+        for (Object obj : collection) {
+            if (!contains(obj)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public ReferencedEnvelope getBounds() {
+        State current = state;
+        ReferencedEnvelope bounds = new ReferencedEnvelope(schema.getCoordinateReferenceSystem());
+        for (FeatureTree tree : current.trees) {
+            bounds.expandToInclude(tree.getBounds());
+        }
+        for (int i = 0, size = current.log.size; i < size; i++) {
+            Entry entry = current.log.entries[i];
+            if (!entry.isNull()) {
+                bounds.expandToInclude(new Envelope(entry.minX, entry.maxX, entry.minY,
+                        entry.maxY));
+            }
+        }
+        return bounds;
+    }
+
+    public String getID() {
+        return null;
+    }
+
+    public SimpleFeatureType getSchema() {
+        return schema;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean remove(Object o) {
+        throw new UnsupportedOperationException("Cannot remove items from the spatial index");
+    }
+
+    public boolean removeAll(Collection<?> c) {
+        throw new UnsupportedOperationException("Cannot remove items from the spatial index");
+    }
+
+    public boolean retainAll(Collection<?> c) {
+        throw new UnsupportedOperationException("Cannot remove items from the spatial index");
+    }
+
+    public int size() {
+        State current = state;
+        int size = current.log.size;
+        for (FeatureTree tree : current.trees) {
+            size += tree.size();
+        }
+        return size;
+    }
+
+    public Object[] toArray() {
+        return toArray(new Object[size()]);
+    }
+
+    public <O> O[] toArray(O[] array) {
+        List<SimpleFeature> list = new ArrayList<SimpleFeature>();
+        SimpleFeatureIterator it = features();
+        try {
+            while (it.hasNext()) {
+                list.add(it.next());
+            }
+        } finally {
+            it.close();
+        }
+        return list.toArray(array);
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.collection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Immutable R-tree bulk loaded with the Sort-Tile-Recursive algorithm, indexing items by their id.
+ * <p>
+ * The items stay where the caller keeps them, be it an array of features, the columns of an in
+ * memory table or the arrays of a granule catalog, and are numbered from 0. Their bounds are read
+ * through a {@link Bounds} that must not change while the tree is in use; items whose bounds are
+ * empty or NaN are not indexed. The tree stores the ids in tree order, each leaf covering
+ * {@link #NODE_CAPACITY} consecutive ids and each upper node as many consecutive nodes of the
+ * level below, so it is made of a few arrays and can be searched by any number of threads. Large
+ * trees are sorted in parallel.
+ * </p>
+ *
+ * @source $URL$
+ */
+public final class PackedSTRtree {
+
+    /** Number of children of each node */
+    public static final int NODE_CAPACITY = 16;
+
+    /** Below this number of items the tree is built by the calling thread only */
+    public static final int PARALLEL_THRESHOLD = 16384;
+
+    static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The bounds of the items of a tree, by item id
+     */
+    public interface Bounds {
+        double getMinX(int id);
+
+        double getMinY(int id);
+
+        double getMaxX(int id);
+
+        double getMaxY(int id);
+    }
+
+    private final Bounds items;
+
+    /** Ids of the indexed items, in tree order */
+    private final int[] ids;
+
+    /** Node bounds, minx, miny, maxx, maxy, level by level starting from the leaves */
+    private final double[] nodes;
+
+    private final int[] levelStart;
+
+    private final int[] levelSize;
+
+    private final Envelope bounds = new Envelope();
+
+    /**
+     * Builds a tree over the items with an id between 0 and count - 1
+     *
+     * @param items the bounds of the items
+     * @param count the number of items
+     * @param pool the executor sorting large trees in parallel, or null
+     */
+    public PackedSTRtree(Bounds items, int count, ExecutorService pool) {
+        this.items = items;
+        int[] indexed = new int[count];
+        final double[] xs = new double[count];
+        final double[] ys = new double[count];
+        int size = 0;
+        for (int id = 0; id < count; id++) {
+            double minX = items.getMinX(id);
+            double minY = items.getMinY(id);
+            double maxX = items.getMaxX(id);
+            double maxY = items.getMaxY(id);
+            // also false for NaN
+            if (minX <= maxX && minY <= maxY) {
+                indexed[size++] = id;
+                xs[id] = minX + maxX;
+                ys[id] = minY + maxY;
+            }
+        }
+        ids = size == count ? indexed : Arrays.copyOf(indexed, size);
+        final int[] sorted = ids;
+        if (size < PARALLEL_THRESHOLD) {
+            pool = null;
+        }
+
+        // sort tile recursive: slices along x, each sorted along y
+        sort(sorted, xs, 0, size, pool);
+        int leaves = (size + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int slices = (int) Math.ceil(Math.sqrt(leaves));
+        int sliceSize = slices == 0 ? 0 : ((leaves + slices - 1) / slices) * NODE_CAPACITY;
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int start = 0; start < size; start += sliceSize) {
+            final int from = start;
+            final int to = Math.min(start + sliceSize, size);
+            tasks.add(new Callable<Void>() {
+                public Void call() {
+                    sort(sorted, ys, from, to);
+                    return null;
+                }
+            });
+        }
+        run(tasks, pool);
+
+        // levels, the top one has at most NODE_CAPACITY nodes
+        int levels = leaves == 0 ? 0 : 1;
+        for (int n = leaves; n > NODE_CAPACITY; n = (n + NODE_CAPACITY - 1) / NODE_CAPACITY) {
+            levels++;
+        }
+        levelStart = new int[levels];
+        levelSize = new int[levels];
+        int total = 0;
+        for (int level = 0, n = leaves; level < levels; level++) {
+            levelStart[level] = total;
+            levelSize[level] = n;
+            total += n;
+            n = (n + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        }
+        nodes = new double[total * 4];
+        for (int node = 0; node < leaves; node++) {
+            double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+            int end = Math.min((node + 1) * NODE_CAPACITY, size);
+            for (int i = node * NODE_CAPACITY; i < end; i++) {
+                int id = sorted[i];
+                minX = Math.min(minX, items.getMinX(id));
+                minY = Math.min(minY, items.getMinY(id));
+                maxX = Math.max(maxX, items.getMaxX(id));
+                maxY = Math.max(maxY, items.getMaxY(id));
+            }
+            setNode(node, minX, minY, maxX, maxY);
+            bounds.expandToInclude(new Envelope(minX, maxX, minY, maxY));
+        }
+        for (int level = 1; level < levels; level++) {
+            for (int node = 0; node < levelSize[level]; node++) {
+                double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+                double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+                int end = Math.min((node + 1) * NODE_CAPACITY, levelSize[level - 1]);
+                for (int child = node * NODE_CAPACITY; child < end; child++) {
+                    int offset = (levelStart[level - 1] + child) * 4;
+                    minX = Math.min(minX, nodes[offset]);
+                    minY = Math.min(minY, nodes[offset + 1]);
+                    maxX = Math.max(maxX, nodes[offset + 2]);
+                    maxY = Math.max(maxY, nodes[offset + 3]);
+                }
+                setNode(levelStart[level] + node, minX, minY, maxX, maxY);
+            }
+        }
+    }
+
+    private void setNode(int node, double minX, double minY, double maxX, double maxY) {
+        nodes[node * 4] = minX;
+        nodes[node * 4 + 1] = minY;
+        nodes[node * 4 + 2] = maxX;
+        nodes[node * 4 + 3] = maxY;
+    }
+
+    /**
+     * @return the number of indexed items, those without bounds excluded
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @return the bounds of the indexed items, null envelope if there is none
+     */
+    public Envelope getBounds() {
+        return new Envelope(bounds);
+    }
+
+    /**
+     * @return the ids of the items whose bounds intersect the envelope, in tree order
+     */
+    public int[] query(Envelope envelope) {
+        int[] result = new int[16];
+        int count = 0;
+        Cursor cursor = cursor(envelope);
+        while (cursor.hasNext()) {
+            if (count == result.length) {
+                result = Arrays.copyOf(result, count * 2);
+            }
+            result[count++] = cursor.next();
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * @return the ids of the items whose bounds intersect the envelope, searched as the cursor
+     *         advances
+     */
+    public Cursor cursor(Envelope envelope) {
+        return new Cursor(envelope);
+    }
+
+    /**
+     * Depth first search keeping the nodes left to visit on a stack
+     */
+    public final class Cursor {
+        final Envelope envelope;
+
+        final int[] stackLevel;
+
+        final int[] stackNode;
+
+        int stackSize;
+
+        /** Range of ids of the current leaf */
+        int position, end;
+
+        int next = -1;
+
+        Cursor(Envelope envelope) {
+            this.envelope = envelope;
+            int levels = levelStart.length;
+            stackLevel = new int[(levels + 1) * NODE_CAPACITY];
+            stackNode = new int[stackLevel.length];
+            if (levels > 0) {
+                for (int node = levelSize[levels - 1] - 1; node >= 0; node--) {
+                    push(levels - 1, node);
+                }
+            }
+        }
+
+        private void push(int level, int node) {
+            stackLevel[stackSize] = level;
+            stackNode[stackSize] = node;
+            stackSize++;
+        }
+
+        public boolean hasNext() {
+            while (next < 0) {
+                while (position < end) {
+                    int id = ids[position++];
+                    if (items.getMinX(id) <= envelope.getMaxX()
+                            && items.getMaxX(id) >= envelope.getMinX()
+                            && items.getMinY(id) <= envelope.getMaxY()
+                            && items.getMaxY(id) >= envelope.getMinY()) {
+                        next = id;
+                        return true;
+                    }
+                }
+                if (stackSize == 0) {
+                    return false;
+                }
+                stackSize--;
+                int level = stackLevel[stackSize];
+                int node = stackNode[stackSize];
+                int offset = (levelStart[level] + node) * 4;
+                if (nodes[offset] > envelope.getMaxX() || nodes[offset + 1] > envelope.getMaxY()
+                        || nodes[offset + 2] < envelope.getMinX()
+                        || nodes[offset + 3] < envelope.getMinY()) {
+                    continue;
+                }
+                if (level == 0) {
+                    position = node * NODE_CAPACITY;
+                    end = Math.min(position + NODE_CAPACITY, ids.length);
+                } else {
+                    int first = node * NODE_CAPACITY;
+                    int last = Math.min(first + NODE_CAPACITY, levelSize[level - 1]) - 1;
+                    for (int child = last; child >= first; child--) {
+                        push(level - 1, child);
+                    }
+                }
+            }
+            return true;
+        }
+
+        public int next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int id = next;
+            next = -1;
+            return id;
+        }
+    }
+
+    /**
+     * Sorts a range of ids by the key of each id, keys being indexed by id
+     */
+    public static void sort(int[] ids, double[] keys, int from, int to) {
+        while (to - from > 16) {
+            // median of three pivot
+            int mid = (from + to) >>> 1;
+            double a = keys[ids[from]], b = keys[ids[mid]], c = keys[ids[to - 1]];
+            double pivot = a < b ? (b < c ? b : (a < c ? c : a)) : (a < c ? a : (b < c ? c : b));
+            int i = from, j = to - 1;
+            while (i <= j) {
+                while (keys[ids[i]] < pivot) {
+                    i++;
+                }
+                while (keys[ids[j]] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = ids[i];
+                    ids[i++] = ids[j];
+                    ids[j--] = tmp;
+                }
+            }
+            // recurse on the smaller part
+            if (j - from < to - i) {
+                sort(ids, keys, from, j + 1);
+                from = i;
+            } else {
+                sort(ids, keys, i, to);
+                to = j + 1;
+            }
+        }
+        for (int i = from + 1; i < to; i++) {
+            int id = ids[i];
+            double key = keys[id];
+            int j = i - 1;
+            while (j >= from && keys[ids[j]] > key) {
+                ids[j + 1] = ids[j];
+                j--;
+            }
+            ids[j + 1] = id;
+        }
+    }
+
+    /**
+     * Sorts a range of ids by key, sorting chunks in parallel then merging them pairwise
+     */
+    static void sort(int[] ids, final double[] keys, final int from, final int to,
+            ExecutorService pool) {
+        if (pool == null) {
+            sort(ids, keys, from, to);
+            return;
+        }
+        final int chunk = Math.max(NODE_CAPACITY, (to - from + THREADS - 1) / THREADS);
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int start = from; start < to; start += chunk) {
+            final int[] target = ids;
+            final int lo = start;
+            final int hi = Math.min(start + chunk, to);
+            tasks.add(new Callable<Void>() {
+                public Void call() {
+                    sort(target, keys, lo, hi);
+                    return null;
+                }
+            });
+        }
+        run(tasks, pool);
+
+        int[] src = ids;
+        int[] dst = new int[ids.length];
+        for (int width = chunk; width < to - from; width *= 2) {
+            tasks.clear();
+            for (int start = from; start < to; start += 2 * width) {
+                final int[] source = src;
+                final int[] target = dst;
+                final int lo = start;
+                final int mid = Math.min(start + width, to);
+                final int hi = Math.min(start + 2 * width, to);
+                tasks.add(new Callable<Void>() {
+                    public Void call() {
+                        int i = lo, j = mid, k = lo;
+                        while (i < mid && j < hi) {
+                            target[k++] = keys[source[i]] <= keys[source[j]] ? source[i++]
+                                    : source[j++];
+                        }
+                        while (i < mid) {
+                            target[k++] = source[i++];
+                        }
+                        while (j < hi) {
+                            target[k++] = source[j++];
+                        }
+                        return null;
+                    }
+                });
+            }
+            run(tasks, pool);
+            int[] swap = src;
+            src = dst;
+            dst = swap;
+        }
+        if (src != ids) {
+            System.arraycopy(src, from, ids, from, to - from);
+        }
+    }
+
+    /**
+     * Runs tasks on the executor, or on the calling thread if none, waiting for all of them
+     */
+    static void run(List<Callable<Void>> tasks, ExecutorService pool) {
+        try {
+            if (pool == null || tasks.size() < 2) {
+                for (Callable<Void> task : tasks) {
+                    task.call();
+                }
+                return;
+            }
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while building the spatial index", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Failed to build the spatial index", cause);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to build the spatial index", e);
+        }
+    }
+}
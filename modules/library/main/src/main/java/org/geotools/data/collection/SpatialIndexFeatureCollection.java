@@ -35,7 +35,8 @@ import com.vividsolutions.jts.index.strtree.STRtree;
 /**
  * FeatureCollection used to stage information for display using a SpatialIndex.
  * <p>
- * Please note that this feature collection cannot be modified after the spatial index is created.
+ * Please note that this feature collection cannot be modified after the spatial index is created,
+ * see {@link ConcurrentSpatialIndexFeatureCollection} for a collection that can.
  * 
  * @author Jody
  *
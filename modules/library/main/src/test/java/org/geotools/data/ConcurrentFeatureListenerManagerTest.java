@@ -0,0 +1,205 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.geotools.data.FeatureEvent.Type;
+import org.geotools.data.memory.MemoryDataStore;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.data.simple.SimpleFeatureStore;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ *
+ * @source $URL$
+ */
+public class ConcurrentFeatureListenerManagerTest {
+
+    MemoryDataStore store;
+
+    SimpleFeatureSource roads;
+
+    SimpleFeatureStore transactionRoads;
+
+    SimpleFeatureSource rivers;
+
+    Transaction transaction;
+
+    @Before
+    public void setUp() throws Exception {
+        store = new MemoryDataStore();
+        store.createSchema(DataUtilities.createType("road", "name:String,*geom:LineString"));
+        store.createSchema(DataUtilities.createType("river", "name:String,*geom:LineString"));
+        roads = store.getFeatureSource("road");
+        transactionRoads = (SimpleFeatureStore) store.getFeatureSource("road");
+        transaction = new DefaultTransaction();
+        transactionRoads.setTransaction(transaction);
+        rivers = store.getFeatureSource("river");
+    }
+
+    @Test
+    public void testSynchronous() throws Exception {
+        ConcurrentFeatureListenerManager manager = new ConcurrentFeatureListenerManager();
+        Listener roadListener = new Listener();
+        Listener transactionListener = new Listener();
+        Listener riverListener = new Listener();
+        manager.addFeatureListener(roads, roadListener);
+        manager.addFeatureListener(transactionRoads, transactionListener);
+        manager.addFeatureListener(rivers, riverListener);
+
+        ReferencedEnvelope bounds = new ReferencedEnvelope(0, 10, 0, 10, null);
+        manager.fireFeaturesAdded("road", Transaction.AUTO_COMMIT, bounds, false);
+        assertEquals(1, roadListener.events.size());
+        assertEquals(1, transactionListener.events.size());
+        assertEquals(0, riverListener.events.size());
+        assertEquals(Type.ADDED, roadListener.events.get(0).getType());
+        assertSame(roads, roadListener.events.get(0).getFeatureSource());
+
+        // changes in a transaction are only seen in the transaction, not by the store working
+        // in auto commit
+        manager.fireFeaturesChanged("road", transaction, bounds, false);
+        assertEquals(1, roadListener.events.size());
+        assertEquals(2, transactionListener.events.size());
+        manager.fireFeaturesChanged("road", new DefaultTransaction(), bounds, false);
+        assertEquals(1, roadListener.events.size());
+        assertEquals(2, transactionListener.events.size());
+
+        // and the commit by everyone but the transaction
+        manager.fireChanged("road", transaction, true);
+        assertEquals(2, roadListener.events.size());
+        assertEquals(2, transactionListener.events.size());
+
+        manager.removeFeatureListener(roads, roadListener);
+        manager.fireFeaturesRemoved("road", Transaction.AUTO_COMMIT, bounds, false);
+        assertEquals(2, roadListener.events.size());
+        assertEquals(3, transactionListener.events.size());
+        assertEquals(5, manager.getDeliveredEvents());
+    }
+
+    @Test
+    public void testSameDeliveriesAsFeatureListenerManager() throws Exception {
+        FeatureListenerManager[] managers = new FeatureListenerManager[] {
+                new FeatureListenerManager(), new ConcurrentFeatureListenerManager() };
+        Listener[][] listeners = new Listener[managers.length][];
+        for (int m = 0; m < managers.length; m++) {
+            listeners[m] = new Listener[] { new Listener(), new Listener() };
+            managers[m].addFeatureListener(roads, listeners[m][0]);
+            managers[m].addFeatureListener(transactionRoads, listeners[m][1]);
+
+            ReferencedEnvelope bounds = new ReferencedEnvelope(0, 10, 0, 10, null);
+            Transaction other = new DefaultTransaction();
+            managers[m].fireFeaturesAdded("road", Transaction.AUTO_COMMIT, bounds, false);
+            managers[m].fireFeaturesAdded("road", transaction, bounds, false);
+            managers[m].fireFeaturesChanged("road", other, bounds, false);
+            managers[m].fireFeaturesRemoved("road", transaction, bounds, false);
+            managers[m].fireChanged("road", transaction, true);
+            managers[m].fireChanged("road", other, true);
+            managers[m].fireChanged("road", Transaction.AUTO_COMMIT, true);
+        }
+        for (int l = 0; l < 2; l++) {
+            assertEquals(types(listeners[0][l]), types(listeners[1][l]));
+        }
+    }
+
+    List<Type> types(Listener listener) {
+        List<Type> types = new ArrayList<Type>();
+        for (FeatureEvent event : listener.events) {
+            types.add(event.getType());
+        }
+        return types;
+    }
+
+    @Test
+    public void testCommitEvent() throws Exception {
+        ConcurrentFeatureListenerManager manager = new ConcurrentFeatureListenerManager();
+        Listener roadListener = new Listener();
+        Listener transactionListener = new Listener();
+        manager.addFeatureListener(roads, roadListener);
+        manager.addFeatureListener(transactionRoads, transactionListener);
+
+        BatchFeatureEvent event = new BatchFeatureEvent(transactionRoads);
+        manager.fireEvent("road", transaction, event);
+        assertEquals(1, roadListener.events.size());
+        assertEquals(1, transactionListener.events.size());
+    }
+
+    @Test
+    public void testAsynchronousBatching() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ConcurrentFeatureListenerManager manager = new ConcurrentFeatureListenerManager(
+                    executor);
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            Listener listener = new Listener() {
+                public void changed(FeatureEvent featureEvent) {
+                    super.changed(featureEvent);
+                    started.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        // done
+                    }
+                }
+            };
+            manager.addFeatureListener(roads, listener);
+
+            manager.fireFeaturesAdded("road", Transaction.AUTO_COMMIT,
+                    new ReferencedEnvelope(0, 1, 0, 1, null), false);
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            // queued while the listener is busy
+            for (int i = 0; i < 5; i++) {
+                manager.fireFeaturesChanged("road", Transaction.AUTO_COMMIT,
+                        new ReferencedEnvelope(i, i + 1, i, i + 1, null), false);
+            }
+            assertEquals(5, manager.getPendingEvents());
+            release.countDown();
+            manager.flush();
+
+            assertEquals(2, listener.events.size());
+            FeatureEvent batch = listener.events.get(1);
+            assertTrue(batch instanceof BatchFeatureEvent);
+            assertEquals(Type.CHANGED, batch.getType());
+            assertEquals(6, manager.getFiredEvents());
+            assertEquals(2, manager.getDeliveredEvents());
+            assertEquals(4, manager.getBatchedEvents());
+            assertEquals(0, manager.getPendingEvents());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    static class Listener implements FeatureListener {
+        List<FeatureEvent> events = new CopyOnWriteArrayList<FeatureEvent>();
+
+        public void changed(FeatureEvent featureEvent) {
+            events.add(featureEvent);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ *
+ *
+ * @source $URL$
+ */
+public class ConcurrentLockingManagerTest {
+
+    ConcurrentLockingManager manager = new ConcurrentLockingManager(4);
+
+    @Test
+    public void testFeatureLock() throws Exception {
+        FeatureLock lock = new FeatureLock("auth", 60000);
+        manager.lockFeatureID("road", "road.1", Transaction.AUTO_COMMIT, lock);
+        assertTrue(manager.isLocked("road", "road.1"));
+        assertFalse(manager.isLocked("road", "road.2"));
+        assertFalse(manager.isLocked("river", "road.1"));
+        assertTrue(manager.exists("auth"));
+
+        try {
+            manager.lockFeatureID("road", "road.1", Transaction.AUTO_COMMIT, new FeatureLock(
+                    "other", 60000));
+            fail("Feature is already locked");
+        } catch (FeatureLockException e) {
+            // expected
+        }
+
+        Transaction transaction = new DefaultTransaction();
+        try {
+            manager.assertAccess("road", "road.1", transaction);
+            fail("Transaction is not authorized");
+        } catch (FeatureLockException e) {
+            // expected
+        }
+        transaction.addAuthorization("auth");
+        manager.assertAccess("road", "road.1", transaction);
+
+        assertTrue(manager.refresh("auth", transaction));
+        assertTrue(manager.release("auth", transaction));
+        assertFalse(manager.isLocked("road", "road.1"));
+        assertFalse(manager.exists("auth"));
+        transaction.close();
+    }
+
+    @Test
+    public void testUnlock() throws Exception {
+        Transaction transaction = new DefaultTransaction();
+        transaction.addAuthorization("auth");
+        FeatureLock lock = new FeatureLock("auth", 60000);
+        manager.lockFeatureID("road", "road.1", transaction, lock);
+        manager.unLockFeatureID("road", "road.1", transaction, lock);
+        assertFalse(manager.isLocked("road", "road.1"));
+        assertEquals(2, manager.getLockRequests());
+        transaction.close();
+    }
+
+    @Test
+    public void testConcurrentLocks() throws Exception {
+        final int threads = 8;
+        final int features = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // each thread locks its own features
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                results.add(executor.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        FeatureLock lock = new FeatureLock("auth" + thread, 60000);
+                        for (int i = 0; i < features; i++) {
+                            manager.lockFeatureID("road", "road." + (thread * features + i),
+                                    Transaction.AUTO_COMMIT, lock);
+                        }
+                        return features;
+                    }
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(features, result.get().intValue());
+            }
+
+            // and fails to lock the ones of the next thread
+            results.clear();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                results.add(executor.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        FeatureLock lock = new FeatureLock("auth" + thread, 60000);
+                        int next = (thread + 1) % threads;
+                        int conflicts = 0;
+                        for (int i = 0; i < features; i++) {
+                            try {
+                                manager.lockFeatureID("road", "road." + (next * features + i),
+                                        Transaction.AUTO_COMMIT, lock);
+                            } catch (FeatureLockException e) {
+                                conflicts++;
+                            }
+                        }
+                        return conflicts;
+                    }
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(features, result.get().intValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        for (int i = 0; i < threads * features; i++) {
+            assertTrue(manager.isLocked("road", "road." + i));
+        }
+        for (int t = 0; t < threads; t++) {
+            assertTrue(manager.exists("auth" + t));
+        }
+        assertEquals(threads * features * 2, manager.getLockRequests());
+    }
+}
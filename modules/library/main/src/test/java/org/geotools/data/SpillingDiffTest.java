@@ -0,0 +1,173 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.geotools.factory.Hints;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ *
+ *
+ * @source $URL$
+ */
+public class SpillingDiffTest extends TestCase {
+
+    SimpleFeatureType type;
+
+    GeometryFactory factory = new GeometryFactory();
+
+    SpillingDiff diff;
+
+    protected void setUp() throws Exception {
+        type = DataUtilities.createType("default", "name:String,count:Integer,*geom:Point");
+        // everything on disk
+        diff = new SpillingDiff(0, null);
+    }
+
+    protected void tearDown() throws Exception {
+        diff.clear();
+    }
+
+    SimpleFeature feature(String fid, String name, int x, int y) {
+        Point point = factory.createPoint(new Coordinate(x, y));
+        return SimpleFeatureBuilder.build(type, new Object[] { name, x, point }, fid);
+    }
+
+    public void testAddModifyRemove() throws Exception {
+        diff.add("new1", feature("new1", "added", 1, 1));
+        diff.modify("original", feature("original", "modified", 2, 2));
+        assertTrue(diff.getSpilledSize() > 0);
+        assertEquals(0, diff.getHeapSize());
+
+        SimpleFeature added = diff.getAdded().get("new1");
+        assertEquals("new1", added.getID());
+        assertEquals("added", added.getAttribute("name"));
+        assertEquals(1, added.getAttribute("count"));
+        assertEquals(factory.createPoint(new Coordinate(1, 1)), added.getDefaultGeometry());
+        assertSame(type, added.getFeatureType());
+        assertEquals("modified", diff.getModified().get("original").getAttribute("name"));
+        assertEquals(1, diff.getAddedOrder().size());
+
+        diff.remove("original");
+        assertSame(TransactionStateDiff.NULL, diff.getModified().get("original"));
+        diff.remove("new1");
+        assertFalse(diff.getAdded().containsKey("new1"));
+        assertTrue(diff.getAddedOrder().isEmpty());
+
+        diff.clear();
+        assertTrue(diff.isEmpty());
+        assertEquals(0, diff.getSpilledSize());
+    }
+
+    public void testReuseRecords() throws Exception {
+        diff.add("new1", feature("new1", "added", 1, 1));
+        diff.modify("original", feature("original", "modified", 2, 2));
+        long size = diff.getSpilledSize();
+        for (int i = 0; i < 100000; i++) {
+            diff.modify("new1", feature("new1", "added" + (i % 10), i, i));
+            diff.modify("original", feature("original", "modified" + (i % 10), i, i));
+        }
+        assertEquals(size, diff.getSpilledSize());
+        assertEquals("added9", diff.getAdded().get("new1").getAttribute("name"));
+        assertEquals("modified9", diff.getModified().get("original").getAttribute("name"));
+
+        diff.remove("new1");
+        diff.add("new2", feature("new2", "added", 3, 3));
+        assertEquals(size, diff.getSpilledSize());
+        assertEquals("added", diff.getAdded().get("new2").getAttribute("name"));
+    }
+
+    public void testQueryIndex() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            diff.add("new" + i, feature("new" + i, "added", i, i));
+        }
+        List<SimpleFeature> features = diff.queryIndex(new Envelope(10.5, 20.5, 10.5, 20.5));
+        Set<String> fids = new HashSet<String>();
+        for (SimpleFeature feature : features) {
+            if (new Envelope(10.5, 20.5, 10.5, 20.5).intersects(((Point) feature
+                    .getDefaultGeometry()).getCoordinate())) {
+                fids.add(feature.getID());
+            }
+        }
+        assertEquals(10, fids.size());
+        assertTrue(fids.contains("new11"));
+
+        // moved away
+        diff.modify("new11", feature("new11", "moved", 50, 50));
+        boolean found = false;
+        for (SimpleFeature feature : diff.queryIndex(new Envelope(49, 51, 49, 51))) {
+            if (feature.getID().equals("new11")) {
+                assertEquals("moved", feature.getAttribute("name"));
+                found = true;
+            }
+        }
+        assertTrue(found);
+    }
+
+    public void testUserData() throws Exception {
+        SimpleFeature feature = feature("new1", "added", 1, 1);
+        feature.getUserData().put(Hints.USE_PROVIDED_FID, Boolean.TRUE);
+        feature.getUserData().put(Hints.PROVIDED_FID, "provided");
+        feature.getUserData().put("key", "value");
+        diff.add("new1", feature);
+
+        SimpleFeature added = diff.getAdded().get("new1");
+        assertEquals(Boolean.TRUE, added.getUserData().get(Hints.USE_PROVIDED_FID));
+        assertEquals("provided", added.getUserData().get(Hints.PROVIDED_FID));
+        assertEquals("value", added.getUserData().get("key"));
+    }
+
+    public void testHeap() throws Exception {
+        diff = new SpillingDiff(1024 * 1024, null);
+        diff.add("new1", feature("new1", "added", 1, 1));
+        assertEquals(0, diff.getSpilledSize());
+        assertTrue(diff.getHeapSize() > 0);
+        assertEquals("added", diff.getAdded().get("new1").getAttribute("name"));
+    }
+
+    public void testReader() throws Exception {
+        diff.add("new1", feature("new1", "added", 1, 1));
+        diff.modify("original", feature("original", "modified", 2, 2));
+        FeatureReader<SimpleFeatureType, SimpleFeature> reader;
+        reader = new DiffFeatureReader<SimpleFeatureType, SimpleFeature>(new TestReader(type,
+                feature("original", "original", 2, 2)), diff);
+        Set<String> names = new HashSet<String>();
+        try {
+            while (reader.hasNext()) {
+                names.add((String) reader.next().getAttribute("name"));
+            }
+        } finally {
+            reader.close();
+        }
+        assertEquals(2, names.size());
+        assertTrue(names.contains("added"));
+        assertTrue(names.contains("modified"));
+    }
+}
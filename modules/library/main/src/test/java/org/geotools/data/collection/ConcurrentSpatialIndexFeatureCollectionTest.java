@@ -0,0 +1,221 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.collection;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.referencing.crs.DefaultEngineeringCRS;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.FilterFactory2;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * Unit tests for ConcurrentSpatialIndexFeatureCollection.
+ *
+ * @source $URL$
+ */
+public class ConcurrentSpatialIndexFeatureCollectionTest {
+
+    static final GeometryFactory GF = new GeometryFactory();
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2(null);
+
+    SimpleFeatureType type;
+
+    Random random = new Random(42);
+
+    int nextId;
+
+    @Before
+    public void setUp() {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("points");
+        tb.setCRS(DefaultEngineeringCRS.CARTESIAN_2D);
+        tb.add("geom", Point.class);
+        tb.add("name", String.class);
+        type = tb.buildFeatureType();
+    }
+
+    SimpleFeature feature(Point point) {
+        int id = nextId++;
+        return SimpleFeatureBuilder.build(type, new Object[] { point, "name" + id }, "points."
+                + id);
+    }
+
+    List<SimpleFeature> randomFeatures(int count) {
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        for (int i = 0; i < count; i++) {
+            features.add(feature(GF.createPoint(new Coordinate(random.nextDouble() * 100, random
+                    .nextDouble() * 100))));
+        }
+        return features;
+    }
+
+    Set<String> ids(SimpleFeatureIterator it) {
+        Set<String> ids = new HashSet<String>();
+        try {
+            while (it.hasNext()) {
+                assertTrue(ids.add(it.next().getID()));
+            }
+        } finally {
+            it.close();
+        }
+        return ids;
+    }
+
+    Set<String> expected(List<SimpleFeature> features, Envelope envelope) {
+        Set<String> ids = new HashSet<String>();
+        for (SimpleFeature feature : features) {
+            Point point = (Point) feature.getDefaultGeometry();
+            if (point != null && envelope.contains(point.getX(), point.getY())) {
+                ids.add(feature.getID());
+            }
+        }
+        return ids;
+    }
+
+    void assertQueries(ConcurrentSpatialIndexFeatureCollection collection,
+            List<SimpleFeature> features) {
+        assertEquals(features.size(), collection.size());
+        assertEquals(features.size(), ids(collection.features()).size());
+        for (int i = 0; i < 20; i++) {
+            double x = random.nextDouble() * 100;
+            double y = random.nextDouble() * 100;
+            Envelope envelope = new Envelope(x, x + random.nextDouble() * 30, y, y
+                    + random.nextDouble() * 30);
+            assertEquals(expected(features, envelope), ids(collection.features(envelope)));
+        }
+    }
+
+    @Test
+    public void testBulkLoad() {
+        List<SimpleFeature> features = randomFeatures(1000);
+        ConcurrentSpatialIndexFeatureCollection collection = new ConcurrentSpatialIndexFeatureCollection(
+                new ListFeatureCollection(type, features));
+        assertEquals(1, collection.getTreeCount());
+        assertQueries(collection, features);
+        assertEquals(DefaultEngineeringCRS.CARTESIAN_2D, collection.getBounds()
+                .getCoordinateReferenceSystem());
+        assertTrue(collection.getBounds().getMinX() >= 0);
+        assertTrue(collection.getBounds().getMaxX() <= 100);
+    }
+
+    @Test
+    public void testParallelBulkLoad() {
+        List<SimpleFeature> features = randomFeatures(PackedSTRtree.PARALLEL_THRESHOLD * 2 + 17);
+        ConcurrentSpatialIndexFeatureCollection collection = new ConcurrentSpatialIndexFeatureCollection(
+                new ListFeatureCollection(type, features));
+        assertQueries(collection, features);
+    }
+
+    @Test
+    public void testIncrementalAdd() {
+        ConcurrentSpatialIndexFeatureCollection collection = new ConcurrentSpatialIndexFeatureCollection(
+                type, 8);
+        List<SimpleFeature> features = randomFeatures(500);
+        collection.addAll(features.subList(0, 100));
+        for (SimpleFeature feature : features.subList(100, 500)) {
+            collection.add(feature);
+        }
+        assertQueries(collection, features);
+        assertTrue(collection.contains(features.get(250)));
+        assertFalse(collection.contains(randomFeatures(1).get(0)));
+
+        collection.compact();
+        assertEquals(1, collection.getTreeCount());
+        assertQueries(collection, features);
+    }
+
+    @Test
+    public void testWithoutGeometry() {
+        ConcurrentSpatialIndexFeatureCollection collection = new ConcurrentSpatialIndexFeatureCollection(
+                type, 4);
+        List<SimpleFeature> features = randomFeatures(10);
+        features.add(feature(null));
+        collection.addAll(features);
+        collection.add(feature(null));
+
+        assertEquals(12, collection.size());
+        assertEquals(12, ids(collection.features()).size());
+        assertEquals(10, ids(collection.features(new Envelope(-1, 101, -1, 101))).size());
+    }
+
+    @Test
+    public void testSubCollection() {
+        List<SimpleFeature> features = randomFeatures(1000);
+        ConcurrentSpatialIndexFeatureCollection collection = new ConcurrentSpatialIndexFeatureCollection(
+                new ListFeatureCollection(type, features));
+        SimpleFeatureCollection sub = collection.subCollection(FF.bbox("geom", 10, 10, 40, 30,
+                null));
+        Set<String> expected = expected(features, new Envelope(10, 40, 10, 30));
+        assertEquals(expected, ids(sub.features()));
+        assertEquals(expected.size(), sub.size());
+
+        SimpleFeatureCollection named = sub.subCollection(FF.equals(FF.property("name"),
+                FF.literal(features.get(0).getAttribute("name"))));
+        assertEquals(expected.contains(features.get(0).getID()) ? 1 : 0, named.size());
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        final ConcurrentSpatialIndexFeatureCollection collection = new ConcurrentSpatialIndexFeatureCollection(
+                type, 16);
+        final List<SimpleFeature> features = randomFeatures(5000);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread reader = new Thread() {
+            public void run() {
+                try {
+                    int previous = 0;
+                    while (previous < features.size()) {
+                        int count = ids(collection.features()).size();
+                        assertTrue(count >= previous);
+                        previous = count;
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        };
+        reader.start();
+        for (SimpleFeature feature : features) {
+            collection.add(feature);
+        }
+        reader.join(60000);
+        assertNull(failure.get());
+        assertFalse(reader.isAlive());
+        assertQueries(collection, features);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.collection;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Unit tests for PackedSTRtree.
+ *
+ * @source $URL$
+ */
+public class PackedSTRtreeTest {
+
+    Random random = new Random(42);
+
+    /**
+     * Random boxes in a 1000x1000 square, every tenth one without bounds
+     */
+    double[] randomBounds(int count) {
+        double[] bounds = new double[count * 4];
+        for (int id = 0; id < count; id++) {
+            double x = random.nextDouble() * 1000;
+            double y = random.nextDouble() * 1000;
+            bounds[id * 4] = id % 10 == 0 ? Double.NaN : x;
+            bounds[id * 4 + 1] = y;
+            bounds[id * 4 + 2] = x + random.nextDouble() * 10;
+            bounds[id * 4 + 3] = y + random.nextDouble() * 10;
+        }
+        return bounds;
+    }
+
+    PackedSTRtree.Bounds wrap(final double[] bounds) {
+        return new PackedSTRtree.Bounds() {
+            public double getMinX(int id) {
+                return bounds[id * 4];
+            }
+
+            public double getMinY(int id) {
+                return bounds[id * 4 + 1];
+            }
+
+            public double getMaxX(int id) {
+                return bounds[id * 4 + 2];
+            }
+
+            public double getMaxY(int id) {
+                return bounds[id * 4 + 3];
+            }
+        };
+    }
+
+    void assertQueries(double[] bounds, PackedSTRtree tree) {
+        for (int i = 0; i < 100; i++) {
+            double x = random.nextDouble() * 1000;
+            double y = random.nextDouble() * 1000;
+            Envelope envelope = new Envelope(x, x + 50, y, y + 50);
+            int[] expected = new int[bounds.length / 4];
+            int count = 0;
+            for (int id = 0; id < bounds.length / 4; id++) {
+                if (!Double.isNaN(bounds[id * 4])
+                        && new Envelope(bounds[id * 4], bounds[id * 4 + 2], bounds[id * 4 + 1],
+                                bounds[id * 4 + 3]).intersects(envelope)) {
+                    expected[count++] = id;
+                }
+            }
+            int[] actual = tree.query(envelope);
+            Arrays.sort(actual);
+            assertArrayEquals(Arrays.copyOf(expected, count), actual);
+        }
+    }
+
+    @Test
+    public void testQuery() {
+        double[] bounds = randomBounds(5000);
+        PackedSTRtree tree = new PackedSTRtree(wrap(bounds), 5000, null);
+        assertEquals(4500, tree.size());
+        assertQueries(bounds, tree);
+    }
+
+    @Test
+    public void testParallelBuild() {
+        int count = PackedSTRtree.PARALLEL_THRESHOLD * 2 + 17;
+        double[] bounds = randomBounds(count);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            PackedSTRtree tree = new PackedSTRtree(wrap(bounds), count, pool);
+            assertQueries(bounds, tree);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        PackedSTRtree tree = new PackedSTRtree(wrap(new double[0]), 0, null);
+        assertEquals(0, tree.size());
+        assertTrue(tree.getBounds().isNull());
+        assertEquals(0, tree.query(new Envelope(0, 10, 0, 10)).length);
+        assertFalse(tree.cursor(new Envelope(0, 10, 0, 10)).hasNext());
+    }
+
+    @Test
+    public void testSort() {
+        double[] keys = new double[1000];
+        int[] ids = new int[keys.length];
+        for (int id = 0; id < keys.length; id++) {
+            keys[id] = random.nextDouble();
+            ids[id] = id;
+        }
+        PackedSTRtree.sort(ids, keys, 0, ids.length);
+        for (int i = 1; i < ids.length; i++) {
+            assertTrue(keys[ids[i - 1]] <= keys[ids[i]]);
+        }
+    }
+}
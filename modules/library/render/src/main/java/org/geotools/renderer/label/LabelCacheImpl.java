@@ -903,6 +903,13 @@ public final class LabelCacheImpl implements LabelCache {
         TextStyle2D cloned = new TextStyle2D(ts);
         // ... and the closest quadrant angle that we'll use to start the search from
         int startAngle = getClosestStandardAngle(ts.getDisplacementX(), ts.getDisplacementY());
+        // ... and the scratch space for the anchor point candidates
+        AffineTransform[] candidateTransforms = new AffineTransform[3];
+        for (int i = 0; i < candidateTransforms.length; i++) {
+            candidateTransforms[i] = new AffineTransform();
+        }
+        Rectangle2D[] candidateRectangles = new Rectangle2D[candidateTransforms.length];
+        double[] candidateBounds = new double[candidateTransforms.length * 4];
         int angle = startAngle;
         while(radius <= labelItem.maxDisplacement) {
             // the offset is used to generate a x, -x, 2x, -2x, 3x, -3x sequence
@@ -925,18 +932,36 @@ public final class LabelCacheImpl implements LabelCache {
                     anchorPointCandidates = MID_ANCHOR_CANDIDATES;
                 }
                 
-                // try out various anchor point positions
-                for (int i = 0; i < anchorPointCandidates.length; i +=2) {
-                    double ax = anchorPointCandidates[i];
-                    double ay = anchorPointCandidates[i + 1];
-                    cloned.setAnchorX(ax);
-                    cloned.setAnchorY(ay);
+                // try out various anchor point positions, evaluating all of them
+                // against the index in a single pass
+                int count = anchorPointCandidates.length / 2;
+                for (int i = 0; i < count; i++) {
+                    cloned.setAnchorX(anchorPointCandidates[i * 2]);
+                    cloned.setAnchorY(anchorPointCandidates[i * 2 + 1]);
                     cloned.setDisplacementX(dx);
                     cloned.setDisplacementY(dy);
                     
-                    tx = new AffineTransform(tempTransform);
-                    if(paintPointLabelInternal(painter, tx, displayArea, glyphs, labelItem, point, cloned))
-                        return true;
+                    candidateTransforms[i].setTransform(tempTransform);
+                    setupPointTransform(candidateTransforms[i], point, cloned, painter);
+                    Rectangle2D transformed = candidateTransforms[i]
+                            .createTransformedShape(painter.getFullLabelBounds()).getBounds2D();
+                    candidateRectangles[i] = transformed;
+                    if (displayArea.contains(transformed) || labelItem.isPartialsEnabled()) {
+                        candidateBounds[i * 4] = transformed.getMinX();
+                        candidateBounds[i * 4 + 1] = transformed.getMinY();
+                        candidateBounds[i * 4 + 2] = transformed.getMaxX();
+                        candidateBounds[i * 4 + 3] = transformed.getMaxY();
+                    } else {
+                        candidateBounds[i * 4] = Double.NaN;
+                    }
+                }
+                double distance = labelItem.isConflictResolutionEnabled() ? labelItem
+                        .getSpaceAround() : -1;
+                int winner = glyphs.firstAvailable(candidateBounds, count, distance);
+                if (winner >= 0) {
+                    paintPointLabel(painter, candidateTransforms[winner], glyphs, labelItem,
+                            candidateRectangles[winner]);
+                    return true;
                 }
                 
                 // make sure we do the jumps back and forth to generate the proper sequence
@@ -991,18 +1016,28 @@ public final class LabelCacheImpl implements LabelCache {
                         glyphs.labelsWithinDistance(transformed, labelItem.getSpaceAround()))) {
             return false;
         } else {
-            if(DEBUG_CACHE_BOUNDS) {
-                painter.graphics.setStroke(new BasicStroke());
-                painter.graphics.setColor(Color.RED);
-                painter.graphics.draw(transformed);
-            }
-            painter.paintStraightLabel(tempTransform);
-            if(labelItem.isConflictResolutionEnabled())
-                glyphs.addLabel(labelItem, transformed);
+            paintPointLabel(painter, tempTransform, glyphs, labelItem, transformed);
             return true;
         }
     }
 
+    /**
+     * Paints a point label whose position has already been checked, and adds it
+     * to the index
+     */
+    private void paintPointLabel(LabelPainter painter, AffineTransform transform,
+            LabelIndex glyphs, LabelCacheItem labelItem, Rectangle2D transformed)
+            throws Exception {
+        if(DEBUG_CACHE_BOUNDS) {
+            painter.graphics.setStroke(new BasicStroke());
+            painter.graphics.setColor(Color.RED);
+            painter.graphics.draw(transformed);
+        }
+        painter.paintStraightLabel(transform);
+        if(labelItem.isConflictResolutionEnabled())
+            glyphs.addLabel(labelItem, transformed);
+    }
+
     /**
      * returns the representative geometry (for further processing)
      * 
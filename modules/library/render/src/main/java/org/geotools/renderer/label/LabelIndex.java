@@ -17,18 +17,22 @@
 package org.geotools.renderer.label;
 
 import java.awt.geom.Rectangle2D;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
 
-import com.vividsolutions.jts.geom.Envelope;
-import com.vividsolutions.jts.index.quadtree.Quadtree;
-
 /**
  * Stores label items and helps in finding the interferering ones, either by
  * pure overlap or within a certain distance from the specified bounds
- * 
+ * <p>
+ * Labels live in screen space and are mostly small and evenly sized, so the
+ * bounds are kept in a uniform grid of square cells hashed on their column
+ * and row, each cell listing the labels touching it. Bounds are stored as
+ * packed doubles, and interference checks only read the arrays, without
+ * allocating anything. Items spanning too many cells (reserved areas, very
+ * long labels) are kept in a separate list checked linearly.
+ *
  * @author Andrea Aime
- * 
+ *
  *
  *
  *
@@ -36,88 +40,278 @@ import com.vividsolutions.jts.index.quadtree.Quadtree;
  */
 public class LabelIndex {
 
-    Quadtree index = new Quadtree();
+    /** Default size of a grid cell, in pixels */
+    public static final double DEFAULT_CELL_SIZE = 32;
+
+    /** Items touching more cells than this are not gridded */
+    static final int MAX_CELLS_PER_ITEM = 64;
+
+    /**
+     * Grid coordinates are clamped to +/- this value, so that the number of cells covered by any
+     * bounds, even infinite ones, fits in a long
+     */
+    static final long MAX_CELL = 1L << 30;
+
+    final double cellSize;
+
+    /** packed bounds of the items, minx, miny, maxx, maxy */
+    double[] bounds = new double[64];
+
+    /** the items themselves (keeping them around helps in debugging) */
+    LabelCacheItem[] items = new LabelCacheItem[16];
+
+    int itemCount;
+
+    /** ids of the items not stored in the grid */
+    int[] large = new int[8];
+
+    int largeCount;
+
+    /** open addressing table from cell to bucket, slot value is bucket + 1 */
+    long[] cellColumns = new long[64];
+
+    long[] cellRows = new long[64];
+
+    int[] cellBuckets = new int[64];
+
+    int cellCount;
+
+    /** item ids of each bucket */
+    int[][] buckets = new int[64][];
+
+    int[] bucketSizes = new int[64];
+
+    public LabelIndex() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * Builds an index with the given grid cell size, best set to about the
+     * size of a typical label
+     *
+     * @param cellSize
+     */
+    public LabelIndex(double cellSize) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("Cell size must be positive: " + cellSize);
+        }
+        this.cellSize = cellSize;
+    }
 
     /**
      * Returns true if there is any label in the index within the specified
      * distance from the bounds. For speed reasons the bounds will be simply
      * expanded by the distance, no curved buffer will be generated
-     * 
+     *
      * @param bounds
      * @param distance
      * @return
      */
-    @SuppressWarnings("unchecked")
     public boolean labelsWithinDistance(Rectangle2D bounds, double distance) {
         if (distance < 0)
             return false;
 
-        Envelope e = toEnvelope(bounds);
-        e.expandBy(distance);
-        List<InterferenceItem> results = index.query(e);
-        if (results.size() == 0)
-            return false;
-        for (Iterator<InterferenceItem> it = results.iterator(); it.hasNext();) {
-            InterferenceItem item = it.next();
-            if (item.env.intersects(e)) {
-                return true;
+        return intersects(bounds.getMinX() - distance, bounds.getMinY() - distance,
+                bounds.getMaxX() + distance, bounds.getMaxY() + distance);
+    }
+
+    /**
+     * Batch version of {@link #labelsWithinDistance(Rectangle2D, double)}, looks
+     * for the first candidate position that does not interfere with the labels
+     * in the index.
+     *
+     * @param candidates packed candidate bounds, minx, miny, maxx, maxy for each
+     *        candidate. Candidates whose minx is NaN are considered unavailable
+     * @param count the number of candidates
+     * @param distance the minimum distance to the other labels, a negative
+     *        distance disables the interference check
+     * @return the index of the first available candidate, or -1 if none is
+     */
+    public int firstAvailable(double[] candidates, int count, double distance) {
+        for (int i = 0; i < count; i++) {
+            int base = i * 4;
+            double minx = candidates[base];
+            if (Double.isNaN(minx))
+                continue;
+            if (distance < 0 || !intersects(minx - distance, candidates[base + 1] - distance,
+                    candidates[base + 2] + distance, candidates[base + 3] + distance)) {
+                return i;
             }
         }
-        return false;
+        return -1;
     }
 
     /**
      * Adds a label into the index
-     * 
+     *
      * @param item
      * @param bounds
      */
     public void addLabel(LabelCacheItem item, Rectangle2D bounds) {
-        Envelope e = toEnvelope(bounds);
-        index.insert(e, new InterferenceItem(e, item));
+        add(item, bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY());
     }
 
     /**
-     * Turns the specified Java2D rectangle into a JTS envelope
-     * 
-     * @param bounds
-     * @return
+     * Reserve the area indicated by these Geometry.
+     *
+     * @param reserved
      */
-    private Envelope toEnvelope(Rectangle2D bounds) {
-        return new Envelope(bounds.getMinX(), bounds.getMaxX(), bounds.getMinY(), bounds.getMaxY());
+    public void reserveArea(List<Rectangle2D> reserved) {
+        for( Rectangle2D area : reserved ){
+            add(null, area.getMinX(), area.getMinY(), area.getMaxX(), area.getMaxY());
+        }
     }
 
     /**
-     * Simple structure stored into the quadtree (keeping the item around helps
-     * in debugging)
-     * 
-     * @author Andrea Aime
-     * 
+     * Returns true if any item intersects the specified bounds
      */
-    static class InterferenceItem {
-        Envelope env;
+    boolean intersects(double minx, double miny, double maxx, double maxy) {
+        final double[] b = bounds;
+
+        // items outside of the grid
+        for (int i = 0; i < largeCount; i++) {
+            if (intersects(b, large[i], minx, miny, maxx, maxy))
+                return true;
+        }
+
+        long c0 = column(minx), c1 = column(maxx);
+        long r0 = column(miny), r1 = column(maxy);
+        if ((c1 - c0 + 1) * (r1 - r0 + 1) > itemCount) {
+            // scanning all items is cheaper than scanning the cells
+            for (int i = 0; i < itemCount; i++) {
+                if (intersects(b, i, minx, miny, maxx, maxy))
+                    return true;
+            }
+            return false;
+        }
+
+        for (long c = c0; c <= c1; c++) {
+            for (long r = r0; r <= r1; r++) {
+                int bucket = bucket(c, r);
+                if (bucket < 0)
+                    continue;
+                int[] ids = buckets[bucket];
+                for (int i = 0, size = bucketSizes[bucket]; i < size; i++) {
+                    if (intersects(b, ids[i], minx, miny, maxx, maxy))
+                        return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean intersects(double[] b, int id, double minx, double miny,
+            double maxx, double maxy) {
+        int base = id * 4;
+        return !(b[base] > maxx || b[base + 2] < minx || b[base + 1] > maxy || b[base + 3] < miny);
+    }
 
-        LabelCacheItem item;
+    void add(LabelCacheItem item, double minx, double miny, double maxx, double maxy) {
+        int id = itemCount++;
+        if (id == items.length) {
+            items = Arrays.copyOf(items, id * 2);
+            bounds = Arrays.copyOf(bounds, id * 8);
+        }
+        items[id] = item;
+        int base = id * 4;
+        bounds[base] = minx;
+        bounds[base + 1] = miny;
+        bounds[base + 2] = maxx;
+        bounds[base + 3] = maxy;
 
-        public InterferenceItem(Envelope env, LabelCacheItem item) {
-            super();
-            this.env = env;
-            this.item = item;
+        long c0 = column(minx), c1 = column(maxx);
+        long r0 = column(miny), r1 = column(maxy);
+        if ((c1 - c0 + 1) * (r1 - r0 + 1) > MAX_CELLS_PER_ITEM) {
+            if (largeCount == large.length) {
+                large = Arrays.copyOf(large, largeCount * 2);
+            }
+            large[largeCount++] = id;
+            return;
         }
 
+        for (long c = c0; c <= c1; c++) {
+            for (long r = r0; r <= r1; r++) {
+                int bucket = bucketForUpdate(c, r);
+                int size = bucketSizes[bucket];
+                int[] ids = buckets[bucket];
+                if (ids == null) {
+                    ids = buckets[bucket] = new int[4];
+                } else if (size == ids.length) {
+                    ids = buckets[bucket] = Arrays.copyOf(ids, size * 2);
+                }
+                ids[size] = id;
+                bucketSizes[bucket] = size + 1;
+            }
+        }
+    }
+
+    private long column(double ordinate) {
+        long column = (long) Math.floor(ordinate / cellSize);
+        return Math.max(-MAX_CELL, Math.min(MAX_CELL, column));
+    }
+
+    private static int hash(long column, long row) {
+        long h = column * 0x9E3779B97F4A7C15L + row;
+        h ^= (h >>> 32);
+        h *= 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 29));
     }
 
     /**
-     * Reserve the area indicated by these Geometry.
-     * 
-     * @param reserved
+     * Returns the bucket of a cell, or -1 if the cell is empty
      */
-    public void reserveArea(List<Rectangle2D> reserved) {
-        for( Rectangle2D area : reserved ){
-            Envelope env = toEnvelope(area);
-            
-            InterferenceItem item = new InterferenceItem(env,null);            
-            index.insert( env, item );
+    private int bucket(long column, long row) {
+        int mask = cellBuckets.length - 1;
+        for (int i = hash(column, row) & mask; cellBuckets[i] != 0; i = (i + 1) & mask) {
+            if (cellColumns[i] == column && cellRows[i] == row)
+                return cellBuckets[i] - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the bucket of a cell, creating it if missing
+     */
+    private int bucketForUpdate(long column, long row) {
+        if (2 * (cellCount + 1) > cellBuckets.length) {
+            rehash();
+        }
+        int mask = cellBuckets.length - 1;
+        int i = hash(column, row) & mask;
+        for (; cellBuckets[i] != 0; i = (i + 1) & mask) {
+            if (cellColumns[i] == column && cellRows[i] == row)
+                return cellBuckets[i] - 1;
+        }
+        int bucket = cellCount++;
+        if (bucket == buckets.length) {
+            buckets = Arrays.copyOf(buckets, bucket * 2);
+            bucketSizes = Arrays.copyOf(bucketSizes, bucket * 2);
+        }
+        cellColumns[i] = column;
+        cellRows[i] = row;
+        cellBuckets[i] = bucket + 1;
+        return bucket;
+    }
+
+    private void rehash() {
+        long[] columns = cellColumns;
+        long[] rows = cellRows;
+        int[] slots = cellBuckets;
+
+        int capacity = slots.length * 2;
+        cellColumns = new long[capacity];
+        cellRows = new long[capacity];
+        cellBuckets = new int[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < slots.length; j++) {
+            if (slots[j] == 0)
+                continue;
+            int i = hash(columns[j], rows[j]) & mask;
+            while (cellBuckets[i] != 0)
+                i = (i + 1) & mask;
+            cellColumns[i] = columns[j];
+            cellRows[i] = rows[j];
+            cellBuckets[i] = slots[j];
         }
     }
 }
@@ -21,6 +21,10 @@ import java.awt.image.DataBuffer;
 import java.awt.image.LookupTable;
 import java.awt.image.RenderedImage;
 import java.awt.image.renderable.ParameterBlock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -41,6 +45,7 @@ import org.geotools.renderer.i18n.VocabularyKeys;
 import org.geotools.styling.ColorMap;
 import org.geotools.styling.ColorMapEntry;
 import org.geotools.styling.StyleVisitor;
+import org.geotools.util.LRULinkedHashMap;
 import org.geotools.util.SimpleInternationalString;
 import org.geotools.util.logging.Logging;
 import org.opengis.coverage.SampleDimensionType;
@@ -65,6 +70,20 @@ class ColorMapNode extends StyleVisitorCoverageProcessingNodeAdapter implements
 
 	/** {@link Logger} for this class. */
 	private final static Logger LOGGER = Logging.getLogger(ColorMapNode.class.getName());
+
+	/**
+	 * The maximum number of {@link LinearColorMap}s, along with their lookup
+	 * tables, kept around for reuse by the styles rendered over and over.
+	 */
+	public static final String COLOR_MAP_CACHE_SIZE_KEY = "org.geotools.renderer.lite.gridcoverage2d.colorMapCacheSize";
+
+	/**
+	 * The {@link LinearColorMap}s already built, by the values of the color map
+	 * entries and of the no data values.
+	 */
+	private final static Map<List<Object>, LinearColorMap> COLOR_MAPS = Collections
+			.synchronizedMap(LRULinkedHashMap.<List<Object>, LinearColorMap> createForRecentAccess(Integer
+					.getInteger(COLOR_MAP_CACHE_SIZE_KEY, 64)));
 	static {
 		try {
 			if (JAI.getDefaultInstance().getOperationRegistry().getDescriptor(
@@ -160,50 +179,96 @@ class ColorMapNode extends StyleVisitorCoverageProcessingNodeAdapter implements
 			//
 			// /////////////////////////////////////////////////////////////////////
 			final GridSampleDimension candidateSD = (GridSampleDimension) sourceCoverage.getSampleDimension(0);
-			double[] candidateNoDataValues = preparaNoDataValues(candidateSD);
+			colorMapTransform = buildLinearColorMap(colorMap, candidateSD);
 
-			// /////////////////////////////////////////////////////////////////////
-			//
-			// Main Loop
-			//
-			// /////////////////////////////////////////////////////////////////////
-			//TODO MAKE THE COLORS CONFIGURABLE 
-			final SLDColorMapBuilder builder = new SLDColorMapBuilder();
-			builder.setExtendedColors(this.extendedColors)
-					.setLinearColorMapType(this.type)
-					.setNumberColorMapEntries(cmEntries.length)
-					.setColorForValuesToPreserve(new Color(0, 0, 0, 0))
-					.setGapsColor(new Color(0, 0, 0, 0));
-			for (int i = 0; i < cmEntries.length; i++) {
-				builder.addColorMapEntry(cmEntries[i]);
-
-			}
+		} else
+			this.type = -1;
 
+	}
 
+    /**
+     * Builds the {@link LinearColorMap} for the provided {@link ColorMap}, preserving the no data
+     * values of the provided sample dimension. Color maps are cached by value, so that the same
+     * style rendered again reuses the same {@link LinearColorMap} and its lookup tables.
+     * 
+     * @param colorMap the {@link ColorMap} to convert, it must have at least one entry
+     * @param candidateSD the {@link GridSampleDimension} of the band to be colormapped
+     * @return the {@link LinearColorMap} mapping values to palette indexes
+     */
+    static LinearColorMap buildLinearColorMap(final ColorMap colorMap,
+            final GridSampleDimension candidateSD) {
+        // /////////////////////////////////////////////////////////////////////
+        //
+        // Check the sample dimension we are going to use for NoData
+        // categories.
+        //
+        // It is important to have such categories since we might have holes
+        // in the categories we are going to build hence it is important to
+        // have a valid NoDataValue that we can use.
+        //
+        // /////////////////////////////////////////////////////////////////////
+        final double[] candidateNoDataValues = preparaNoDataValues(candidateSD);
+        final ColorMapEntry[] cmEntries = colorMap.getColorMapEntries();
 
-			// /////////////////////////////////////////////////////////////////////
-			//
-			// Create the list of no data colorMapTransform domain elements. Note that all of them 
-			//
-			// /////////////////////////////////////////////////////////////////////
-			if(candidateNoDataValues!=null&&candidateNoDataValues.length>0){
-				final LinearColorMapElement noDataCategories[] = new LinearColorMapElement[candidateNoDataValues.length];
-				for (int i = 0; i < noDataCategories.length; i++) {
-					builder.addValueToPreserve(candidateNoDataValues[i]);
-				}
-			}
+        // the key is made of the evaluated entries, the style could be changed in place
+        final List<Object> key = new ArrayList<Object>();
+        key.add(colorMap.getType());
+        key.add(colorMap.getExtendedColors());
+        key.add(candidateNoDataValues != null ? candidateNoDataValues.length : 0);
+        if (candidateNoDataValues != null) {
+            for (double noData : candidateNoDataValues) {
+                key.add(noData);
+            }
+        }
+        for (ColorMapEntry entry : cmEntries) {
+            key.add(entry.getLabel());
+            key.add(SLDColorMapBuilder.getQuantity(entry));
+            key.add(SLDColorMapBuilder.getColor(entry));
+            key.add(SLDColorMapBuilder.getOpacity(entry));
+        }
+        final LinearColorMap cached = COLOR_MAPS.get(key);
+        if (cached != null) {
+            return cached;
+        }
 
-			// /////////////////////////////////////////////////////////////////////
-			//
-			// Create the list of colorMapTransform categories
-			//
-			// /////////////////////////////////////////////////////////////////////
-			colorMapTransform = builder.buildLinearColorMap();
+        // /////////////////////////////////////////////////////////////////////
+        //
+        // Main Loop
+        //
+        // /////////////////////////////////////////////////////////////////////
+        //TODO MAKE THE COLORS CONFIGURABLE 
+        final SLDColorMapBuilder builder = new SLDColorMapBuilder();
+        builder.setExtendedColors(colorMap.getExtendedColors())
+                .setLinearColorMapType(colorMap.getType())
+                .setNumberColorMapEntries(cmEntries.length)
+                .setColorForValuesToPreserve(new Color(0, 0, 0, 0))
+                .setGapsColor(new Color(0, 0, 0, 0));
+        for (int i = 0; i < cmEntries.length; i++) {
+            builder.addColorMapEntry(cmEntries[i]);
+        }
 
-		} else
-			this.type = -1;
+        // /////////////////////////////////////////////////////////////////////
+        //
+        // Create the list of no data colorMapTransform domain elements. Note that all of them 
+        //
+        // /////////////////////////////////////////////////////////////////////
+        if (candidateNoDataValues != null && candidateNoDataValues.length > 0) {
+            for (int i = 0; i < candidateNoDataValues.length; i++) {
+                builder.addValueToPreserve(candidateNoDataValues[i]);
+            }
+        }
 
-	}
+        // /////////////////////////////////////////////////////////////////////
+        //
+        // Create the list of colorMapTransform categories
+        //
+        // /////////////////////////////////////////////////////////////////////
+        final LinearColorMap linearColorMap = builder.buildLinearColorMap();
+        // initialize it before sharing it
+        linearColorMap.getColorModel();
+        COLOR_MAPS.put(key, linearColorMap);
+        return linearColorMap;
+    }
 
     /**
      * @param candidateSD
@@ -0,0 +1,395 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.renderer.lite.gridcoverage2d;
+
+import java.awt.Rectangle;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+import org.geotools.referencing.piecewise.DefaultLinearPiecewiseTransform1DElement;
+import org.geotools.referencing.piecewise.DomainElement1D;
+import org.geotools.referencing.piecewise.PiecewiseTransform1DElement;
+import org.geotools.renderer.i18n.ErrorKeys;
+import org.geotools.renderer.i18n.Errors;
+import org.opengis.referencing.operation.TransformException;
+
+/**
+ * Classifies sample values using lookup tables precomputed from a {@link ColorMapTransform},
+ * avoiding the search of the domain element for each pixel.
+ * <p>
+ * Byte and short samples are mapped through a table covering their whole domain. The other data
+ * types use a binned table over the finite boundaries of the domain elements: bins falling
+ * entirely inside an element, or a gap, store the output directly, or the element when its
+ * output is not constant over the bin. Bins crossed by an element boundary, NaN and values
+ * outside of the binned range fall back on the exact search.
+ * <p>
+ * The tables are built lazily for each data type and are safe to be shared among threads.
+ *
+ * @source $URL$
+ */
+final class CompiledColorMap {
+
+    /** Marks the table entries that need to be evaluated with the exact search */
+    static final int EXACT = Integer.MIN_VALUE;
+
+    /** Number of bins used for non integral data */
+    static final int BINS = 4096;
+
+    final ColorMapTransform<?> transform;
+
+    private int[] byteTable;
+
+    private int[] ushortTable;
+
+    private int[] shortTable;
+
+    private Bins bins;
+
+    private boolean binsBuilt;
+
+    CompiledColorMap(final ColorMapTransform<?> transform) {
+        ColorMapUtilities.ensureNonNull("transform", transform);
+        this.transform = transform;
+    }
+
+    /**
+     * Returns the compiled version of the provided {@link ColorMapTransform}, shared with all
+     * the users of a {@link LinearColorMap}
+     */
+    static CompiledColorMap get(final ColorMapTransform<?> transform) {
+        if (transform instanceof LinearColorMap) {
+            return ((LinearColorMap) transform).getCompiledColorMap();
+        }
+        return new CompiledColorMap(transform);
+    }
+
+    /**
+     * Classifies the value searching the domain element, the same way {@link RasterClassifier}
+     * always did.
+     *
+     * @throws IllegalArgumentException if the value falls in a gap and there is no default value
+     */
+    int classifyExact(final double value) throws TransformException {
+        final PiecewiseTransform1DElement element = (PiecewiseTransform1DElement) transform
+                .findDomainElement(value);
+        if (element != null) {
+            return (int) element.transform(value);
+        }
+        if (transform.hasDefaultValue()) {
+            return (int) transform.getDefaultValue();
+        }
+        throw new IllegalArgumentException(Errors.format(ErrorKeys.ILLEGAL_ARGUMENT_$1,
+                Double.toString(value)));
+    }
+
+    /**
+     * Classifies the value using the binned table
+     */
+    int classify(final double value) throws TransformException {
+        final Bins bins = getBins();
+        if (bins != null && value >= bins.minimum && value < bins.maximum) {
+            int i = (int) ((value - bins.minimum) * bins.scale);
+            if (i >= BINS) {
+                i = BINS - 1;
+            }
+            final int output = bins.outputs[i];
+            if (output != EXACT) {
+                return output;
+            }
+            final PiecewiseTransform1DElement element = bins.elements[i];
+            if (element != null) {
+                return (int) element.transform(value);
+            }
+        }
+        return classifyExact(value);
+    }
+
+    /**
+     * Classifies the band of the source raster in the provided rectangle, writing the outputs in
+     * the first band of the destination raster.
+     */
+    void classify(final Raster source, final int band, final WritableRaster dest,
+            final Rectangle rect) throws TransformException {
+        final int width = rect.width;
+        final int[] row = new int[width];
+        final SampleModel sm = source.getSampleModel();
+        final DataBuffer db = source.getDataBuffer();
+        final int dataType = sm.getDataType();
+
+        // direct access to the source samples
+        int offset = 0, pixelStride = 0, lineStride = 0;
+        final boolean direct = sm instanceof ComponentSampleModel && isStandard(db);
+        if (direct) {
+            final ComponentSampleModel csm = (ComponentSampleModel) sm;
+            final int bank = csm.getBankIndices()[band];
+            pixelStride = csm.getPixelStride();
+            lineStride = csm.getScanlineStride();
+            offset = db.getOffsets()[bank] + csm.getBandOffsets()[band]
+                    + (rect.y - source.getSampleModelTranslateY()) * lineStride
+                    + (rect.x - source.getSampleModelTranslateX()) * pixelStride;
+        }
+        final int[] table = getTable(dataType);
+        final int[] intSamples = !direct && table != null ? new int[width] : null;
+        final double[] doubleSamples = !direct && table == null ? new double[width] : null;
+
+        for (int y = rect.y; y < rect.y + rect.height; y++) {
+            if (direct) {
+                final int bank = ((ComponentSampleModel) sm).getBankIndices()[band];
+                switch (dataType) {
+                case DataBuffer.TYPE_BYTE: {
+                    final byte[] data = ((DataBufferByte) db).getData(bank);
+                    for (int i = 0, p = offset; i < width; i++, p += pixelStride) {
+                        final int output = table[data[p] & 0xFF];
+                        row[i] = output != EXACT ? output : classifyExact(data[p] & 0xFF);
+                    }
+                    break;
+                }
+                case DataBuffer.TYPE_USHORT: {
+                    final short[] data = ((DataBufferUShort) db).getData(bank);
+                    for (int i = 0, p = offset; i < width; i++, p += pixelStride) {
+                        final int output = table[data[p] & 0xFFFF];
+                        row[i] = output != EXACT ? output : classifyExact(data[p] & 0xFFFF);
+                    }
+                    break;
+                }
+                case DataBuffer.TYPE_SHORT: {
+                    final short[] data = ((DataBufferShort) db).getData(bank);
+                    for (int i = 0, p = offset; i < width; i++, p += pixelStride) {
+                        final int output = table[data[p] + 32768];
+                        row[i] = output != EXACT ? output : classifyExact(data[p]);
+                    }
+                    break;
+                }
+                case DataBuffer.TYPE_INT: {
+                    final int[] data = ((DataBufferInt) db).getData(bank);
+                    for (int i = 0, p = offset; i < width; i++, p += pixelStride) {
+                        row[i] = classify(data[p]);
+                    }
+                    break;
+                }
+                case DataBuffer.TYPE_FLOAT: {
+                    final float[] data = ((DataBufferFloat) db).getData(bank);
+                    for (int i = 0, p = offset; i < width; i++, p += pixelStride) {
+                        row[i] = classify(data[p]);
+                    }
+                    break;
+                }
+                default: {
+                    final double[] data = ((DataBufferDouble) db).getData(bank);
+                    for (int i = 0, p = offset; i < width; i++, p += pixelStride) {
+                        row[i] = classify(data[p]);
+                    }
+                }
+                }
+                offset += lineStride;
+            } else if (table != null) {
+                sm.getSamples(rect.x - source.getSampleModelTranslateX(),
+                        y - source.getSampleModelTranslateY(), width, 1, band, intSamples, db);
+                final int shift = dataType == DataBuffer.TYPE_SHORT ? 32768 : 0;
+                final int mask = dataType == DataBuffer.TYPE_BYTE ? 0xFF : 0xFFFF;
+                for (int i = 0; i < width; i++) {
+                    final int output = table[(intSamples[i] + shift) & mask];
+                    row[i] = output != EXACT ? output : classifyExact(intSamples[i]);
+                }
+            } else {
+                sm.getSamples(rect.x - source.getSampleModelTranslateX(),
+                        y - source.getSampleModelTranslateY(), width, 1, band, doubleSamples, db);
+                for (int i = 0; i < width; i++) {
+                    row[i] = classify(doubleSamples[i]);
+                }
+            }
+            write(dest, rect.x, y, row);
+        }
+    }
+
+    /**
+     * Writes a row of outputs in the first band of the destination
+     */
+    private static void write(final WritableRaster dest, final int x, final int y, final int[] row) {
+        final SampleModel sm = dest.getSampleModel();
+        final DataBuffer db = dest.getDataBuffer();
+        if (sm instanceof ComponentSampleModel
+                && (db instanceof DataBufferByte || db instanceof DataBufferUShort)) {
+            final ComponentSampleModel csm = (ComponentSampleModel) sm;
+            final int bank = csm.getBankIndices()[0];
+            final int pixelStride = csm.getPixelStride();
+            final int offset = db.getOffsets()[bank] + csm.getBandOffsets()[0]
+                    + (y - dest.getSampleModelTranslateY()) * csm.getScanlineStride()
+                    + (x - dest.getSampleModelTranslateX()) * pixelStride;
+            if (db instanceof DataBufferByte) {
+                final byte[] data = ((DataBufferByte) db).getData(bank);
+                for (int i = 0, p = offset; i < row.length; i++, p += pixelStride) {
+                    data[p] = (byte) row[i];
+                }
+            } else {
+                final short[] data = ((DataBufferUShort) db).getData(bank);
+                for (int i = 0, p = offset; i < row.length; i++, p += pixelStride) {
+                    data[p] = (short) row[i];
+                }
+            }
+        } else {
+            dest.setSamples(x, y, row.length, 1, 0, row);
+        }
+    }
+
+    private static boolean isStandard(final DataBuffer db) {
+        return db instanceof DataBufferByte || db instanceof DataBufferUShort
+                || db instanceof DataBufferShort || db instanceof DataBufferInt
+                || db instanceof DataBufferFloat || db instanceof DataBufferDouble;
+    }
+
+    /**
+     * Returns the table covering the whole domain of the data type, or null if the data type is
+     * not a byte or short one. Entries that cannot be classified are marked with {@link #EXACT},
+     * the callers evaluate them with {@link #classifyExact(double)} to report the error.
+     */
+    synchronized int[] getTable(final int dataType) {
+        switch (dataType) {
+        case DataBuffer.TYPE_BYTE:
+            if (byteTable == null) {
+                byteTable = buildTable(0, 256);
+            }
+            return byteTable;
+        case DataBuffer.TYPE_USHORT:
+            if (ushortTable == null) {
+                ushortTable = buildTable(0, 65536);
+            }
+            return ushortTable;
+        case DataBuffer.TYPE_SHORT:
+            if (shortTable == null) {
+                shortTable = buildTable(Short.MIN_VALUE, 65536);
+            }
+            return shortTable;
+        default:
+            return null;
+        }
+    }
+
+    private int[] buildTable(final int minimum, final int size) {
+        final int[] table = new int[size];
+        for (int i = 0; i < size; i++) {
+            try {
+                table[i] = classifyExact(minimum + i);
+            } catch (Exception e) {
+                table[i] = EXACT;
+            }
+        }
+        return table;
+    }
+
+    /** The binned table for non integral data */
+    private static final class Bins {
+        double minimum;
+
+        double maximum;
+
+        double scale;
+
+        final int[] outputs = new int[BINS];
+
+        final PiecewiseTransform1DElement[] elements = new PiecewiseTransform1DElement[BINS];
+    }
+
+    synchronized Bins getBins() {
+        if (!binsBuilt) {
+            bins = buildBins();
+            binsBuilt = true;
+        }
+        return bins;
+    }
+
+    private Bins buildBins() {
+        // the finite boundaries of all the elements, prefiltering ones included
+        final double[] boundaries = new double[transform.size() * 2];
+        int count = 0;
+        for (Object o : transform) {
+            final DomainElement1D element = (DomainElement1D) o;
+            final double min = element.getRange().getMinimum();
+            final double max = element.getRange().getMaximum();
+            if (!Double.isNaN(min) && !Double.isInfinite(min)) {
+                boundaries[count++] = min;
+            }
+            if (!Double.isNaN(max) && !Double.isInfinite(max)) {
+                boundaries[count++] = max;
+            }
+        }
+        if (count < 2) {
+            return null;
+        }
+        Arrays.sort(boundaries, 0, count);
+        final Bins bins = new Bins();
+        bins.minimum = boundaries[0];
+        bins.maximum = boundaries[count - 1];
+        if (!(bins.maximum > bins.minimum)) {
+            return null;
+        }
+        final double width = (bins.maximum - bins.minimum) / BINS;
+        bins.scale = BINS / (bins.maximum - bins.minimum);
+
+        // bins touched by a boundary, and their neighbours to be safe against rounding when
+        // computing the bin of a value, need the exact search
+        final boolean[] crossed = new boolean[BINS];
+        for (int i = 0; i < BINS; i++) {
+            final double low = bins.minimum + i * width;
+            final double high = i == BINS - 1 ? bins.maximum : bins.minimum + (i + 1) * width;
+            int p = Arrays.binarySearch(boundaries, 0, count, low);
+            if (p < 0) {
+                p = -p - 1;
+            }
+            crossed[i] = p < count && boundaries[p] <= high;
+        }
+        for (int i = 0; i < BINS; i++) {
+            if (crossed[i] || (i > 0 && crossed[i - 1]) || (i < BINS - 1 && crossed[i + 1])) {
+                bins.outputs[i] = EXACT;
+                continue;
+            }
+            final double low = bins.minimum + i * width;
+            final double high = bins.minimum + (i + 1) * width;
+            final PiecewiseTransform1DElement element = (PiecewiseTransform1DElement) transform
+                    .findDomainElement((low + high) / 2);
+            if (element == null) {
+                bins.outputs[i] = transform.hasDefaultValue() ? (int) transform
+                        .getDefaultValue() : EXACT;
+                continue;
+            }
+            bins.outputs[i] = EXACT;
+            bins.elements[i] = element;
+            if (element instanceof DefaultLinearPiecewiseTransform1DElement) {
+                // linear, hence monotonic, check if the output is the same over the whole bin
+                try {
+                    final int first = (int) element.transform(low);
+                    if (first == (int) element.transform(high)) {
+                        bins.outputs[i] = first;
+                    }
+                } catch (TransformException e) {
+                    // the element will be used for each value
+                }
+            }
+        }
+        return bins;
+    }
+}
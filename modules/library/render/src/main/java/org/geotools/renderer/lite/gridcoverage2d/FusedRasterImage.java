@@ -0,0 +1,504 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.renderer.lite.gridcoverage2d;
+
+import java.awt.Color;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.geom.AffineTransform;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.media.jai.ImageLayout;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.util.ImagingException;
+
+import org.geotools.resources.image.DaemonExecutors;
+
+
+/**
+ * Renders a coverage image straight in the destination raster space, computing each output tile
+ * in a single pass: inverse mapping of the destination pixels, interpolation, no data handling
+ * and color mapping, without building intermediate images for the crop, the scale and the
+ * {@link RasterClassifier} steps.
+ * <p>
+ * Two cases are supported:
+ * <ul>
+ * <li>a single band image with a {@link LinearColorMap}, producing a paletted image when using
+ * nearest neighbour interpolation, and a RGBA one when using bilinear interpolation, in which case
+ * the colors of the neighbours are interpolated</li>
+ * <li>a three or four bands byte image, whose bands are copied or interpolated</li>
+ * </ul>
+ * Pixels whose center falls outside of the source image are set to the background color, or
+ * left transparent when there is none, borders are extended by copy when interpolating. Each
+ * tile requested starts the computation of the next few ones on a shared pool, in row major
+ * order, so that the tiles are computed in parallel as they are being drawn.
+ *
+ * @source $URL$
+ */
+final class FusedRasterImage extends PlanarImage {
+
+    final RenderedImage source;
+
+    /** The source image bounds */
+    final Rectangle sourceBounds;
+
+    /** Maps the destination raster space to the source one */
+    final AffineTransform screenToSource;
+
+    final boolean bilinear;
+
+    /** The color map, null for the RGB case */
+    final LinearColorMap colorMap;
+
+    /** The lookup tables of the color map */
+    final CompiledColorMap compiled;
+
+    /** The colors of the palette, with the opacity applied */
+    final int[] palette;
+
+    /** The output samples of the pixels outside of the source, null if all zero */
+    final int[] background;
+
+    /** The band to be set to opaque for the pixels inside the source, -1 if none */
+    final int alphaBand;
+
+    /** How many tiles are computed ahead of the last one requested */
+    final int window;
+
+    final Future<Raster>[] pending;
+
+    final Raster[] computed;
+
+    /**
+     * Returns the pool shared by all the fused images, with as many daemon threads as processors
+     */
+    static ExecutorService getExecutor() {
+        return DaemonExecutors.getExecutor("FusedRaster");
+    }
+
+    /**
+     * Builds a color mapped image
+     *
+     * @param source the single band source image
+     * @param sourceToScreen maps the source raster space to the destination one
+     * @param bounds the destination bounds
+     * @param tileWidth the destination tile width
+     * @param tileHeight the destination tile height
+     * @param bilinear true for bilinear interpolation, false for nearest neighbour
+     * @param colorMap the color map
+     * @param opacity the opacity applied to the colors
+     * @param background the color of the pixels outside of the source, null for transparent
+     * @return the image, or null if the background cannot be represented in the palette
+     */
+    static FusedRasterImage createColorMapped(RenderedImage source,
+            AffineTransform sourceToScreen, Rectangle bounds, int tileWidth, int tileHeight,
+            boolean bilinear, LinearColorMap colorMap, float opacity, Color background) {
+        final IndexColorModel icm = colorMap.getColorModel();
+        final int size = icm.getMapSize();
+        final int[] palette = new int[size];
+        icm.getRGBs(palette);
+        final byte[][] rgba = new byte[4][size];
+        for (int i = 0; i < size; i++) {
+            int alpha = palette[i] >>> 24;
+            if (opacity < 1) {
+                alpha = Math.round(alpha * opacity);
+                palette[i] = (alpha << 24) | (palette[i] & 0xFFFFFF);
+            }
+            rgba[0][i] = (byte) (palette[i] >> 16);
+            rgba[1][i] = (byte) (palette[i] >> 8);
+            rgba[2][i] = (byte) palette[i];
+            rgba[3][i] = (byte) alpha;
+        }
+
+        final ImageLayout layout = buildLayout(bounds, tileWidth, tileHeight);
+        final int[] backgroundSamples;
+        if (bilinear) {
+            final ColorModel cm = new ComponentColorModel(
+                    ColorSpace.getInstance(ColorSpace.CS_sRGB), true, false,
+                    Transparency.TRANSLUCENT, DataBuffer.TYPE_BYTE);
+            layout.setColorModel(cm);
+            layout.setSampleModel(cm.createCompatibleSampleModel(tileWidth, tileHeight));
+            backgroundSamples = toRGBA(background);
+        } else {
+            final ColorModel cm = opacity < 1 ? new IndexColorModel(icm.getPixelSize(), size,
+                    rgba[0], rgba[1], rgba[2], rgba[3]) : icm;
+            layout.setColorModel(cm);
+            layout.setSampleModel(colorMap.getSampleModel(tileWidth, tileHeight));
+            final int index = findPaletteIndex(palette, background);
+            if (index < 0) {
+                return null;
+            }
+            backgroundSamples = new int[] { index };
+        }
+        return new FusedRasterImage(source, sourceToScreen, layout, bilinear, colorMap, palette,
+                backgroundSamples, -1);
+    }
+
+    /**
+     * Builds a RGB(A) image
+     *
+     * @param source the three or four bands byte source image
+     * @param sourceToScreen maps the source raster space to the destination one
+     * @param bounds the destination bounds
+     * @param tileWidth the destination tile width
+     * @param tileHeight the destination tile height
+     * @param bilinear true for bilinear interpolation, false for nearest neighbour
+     * @param background the color of the pixels outside of the source, null for transparent, in
+     *        which case a RGB source gets an alpha band
+     */
+    static FusedRasterImage createRGB(RenderedImage source, AffineTransform sourceToScreen,
+            Rectangle bounds, int tileWidth, int tileHeight, boolean bilinear, Color background) {
+        final ImageLayout layout = buildLayout(bounds, tileWidth, tileHeight);
+        ColorModel cm = source.getColorModel();
+        int alphaBand = -1;
+        int[] backgroundSamples = toRGBA(background);
+        if (!cm.hasAlpha()) {
+            if (background == null) {
+                cm = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), true,
+                        false, Transparency.TRANSLUCENT, DataBuffer.TYPE_BYTE);
+                alphaBand = 3;
+            } else {
+                backgroundSamples = new int[] { background.getRed(), background.getGreen(),
+                        background.getBlue() };
+            }
+        }
+        layout.setColorModel(cm);
+        layout.setSampleModel(cm.createCompatibleSampleModel(tileWidth, tileHeight));
+        return new FusedRasterImage(source, sourceToScreen, layout, bilinear, null, null,
+                backgroundSamples, alphaBand);
+    }
+
+    /**
+     * Returns the RGBA samples of a color, null for a transparent background
+     */
+    private static int[] toRGBA(Color color) {
+        if (color == null) {
+            return null;
+        }
+        return new int[] { color.getRed(), color.getGreen(), color.getBlue(), color.getAlpha() };
+    }
+
+    /**
+     * Looks up the palette entry of the background, any transparent one if there is no
+     * background
+     *
+     * @return the index of the entry, -1 if there is no such entry
+     */
+    private static int findPaletteIndex(int[] palette, Color background) {
+        for (int i = 0; i < palette.length; i++) {
+            if (background == null ? (palette[i] >>> 24) == 0
+                    : palette[i] == background.getRGB()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static ImageLayout buildLayout(Rectangle bounds, int tileWidth, int tileHeight) {
+        final ImageLayout layout = new ImageLayout(bounds.x, bounds.y, bounds.width,
+                bounds.height);
+        layout.setTileGridXOffset(0);
+        layout.setTileGridYOffset(0);
+        layout.setTileWidth(tileWidth);
+        layout.setTileHeight(tileHeight);
+        return layout;
+    }
+
+    @SuppressWarnings("unchecked")
+    private FusedRasterImage(RenderedImage source, AffineTransform sourceToScreen,
+            ImageLayout layout, boolean bilinear, LinearColorMap colorMap, int[] palette,
+            int[] background, int alphaBand) {
+        super(layout, null, null);
+        this.source = source;
+        this.sourceBounds = new Rectangle(source.getMinX(), source.getMinY(), source.getWidth(),
+                source.getHeight());
+        try {
+            this.screenToSource = sourceToScreen.createInverse();
+        } catch (java.awt.geom.NoninvertibleTransformException e) {
+            throw new IllegalArgumentException(e);
+        }
+        this.bilinear = bilinear;
+        this.colorMap = colorMap;
+        this.compiled = colorMap != null ? CompiledColorMap.get(colorMap) : null;
+        this.palette = palette;
+        this.background = isZero(background) ? null : background;
+        this.alphaBand = alphaBand;
+        this.window = Runtime.getRuntime().availableProcessors();
+        final int numTiles = getNumXTiles() * getNumYTiles();
+        this.pending = new Future[numTiles];
+        this.computed = new Raster[numTiles];
+    }
+
+    private static boolean isZero(int[] samples) {
+        if (samples != null) {
+            for (int sample : samples) {
+                if (sample != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Starts computing the tiles following the given one in row major order, up to the window
+     * size, {@link #getTile(int, int)} will wait for them as needed
+     */
+    private void scheduleAfter(int index) {
+        final ExecutorService pool = getExecutor();
+        synchronized (computed) {
+            final int last = Math.min(index + window, computed.length - 1);
+            for (int i = index + 1; i <= last; i++) {
+                if (computed[i] == null && pending[i] == null) {
+                    final int x = getMinTileX() + i % getNumXTiles();
+                    final int y = getMinTileY() + i / getNumXTiles();
+                    pending[i] = pool.submit(new Callable<Raster>() {
+
+                        public Raster call() throws Exception {
+                            return computeTile(x, y);
+                        }
+                    });
+                }
+            }
+        }
+    }
+
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        if (tileX < getMinTileX() || tileX > getMaxTileX() || tileY < getMinTileY()
+                || tileY > getMaxTileY()) {
+            return null;
+        }
+        final int index = getTileIndex(tileX, tileY);
+        final Future<Raster> future;
+        synchronized (computed) {
+            if (computed[index] != null) {
+                return computed[index];
+            }
+            future = pending[index];
+        }
+        scheduleAfter(index);
+
+        Raster tile;
+        if (future != null) {
+            try {
+                tile = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ImagingException("Interrupted while computing tile " + tileX + ","
+                        + tileY, e);
+            } catch (ExecutionException e) {
+                throw new ImagingException("Failed to compute tile " + tileX + "," + tileY,
+                        e.getCause());
+            }
+        } else {
+            tile = computeTile(tileX, tileY);
+        }
+        synchronized (computed) {
+            computed[index] = tile;
+            pending[index] = null;
+        }
+        return tile;
+    }
+
+    @Override
+    public void dispose() {
+        synchronized (computed) {
+            for (int i = 0; i < pending.length; i++) {
+                if (pending[i] != null) {
+                    pending[i].cancel(false);
+                    pending[i] = null;
+                }
+                computed[i] = null;
+            }
+        }
+        super.dispose();
+    }
+
+    private int getTileIndex(int tileX, int tileY) {
+        return (tileY - getMinTileY()) * getNumXTiles() + (tileX - getMinTileX());
+    }
+
+    /**
+     * Computes a destination tile in a single pass over its pixels
+     */
+    Raster computeTile(int tileX, int tileY) {
+        final WritableRaster tile = Raster.createWritableRaster(getSampleModel(), new Point(
+                tileXToX(tileX), tileYToY(tileY)));
+        final Rectangle rect = getTileRect(tileX, tileY);
+        if (rect.isEmpty()) {
+            return tile;
+        }
+
+        final SourceSampler sampler = new SourceSampler();
+        final int bands = colorMap != null ? 1 : source.getSampleModel().getNumBands();
+        final int[] pixel = new int[4];
+        final double m00 = screenToSource.getScaleX();
+        final double m01 = screenToSource.getShearX();
+        final double m02 = screenToSource.getTranslateX();
+        final double m10 = screenToSource.getShearY();
+        final double m11 = screenToSource.getScaleY();
+        final double m12 = screenToSource.getTranslateY();
+        final int minX = sourceBounds.x;
+        final int minY = sourceBounds.y;
+        final int maxX = sourceBounds.x + sourceBounds.width;
+        final int maxY = sourceBounds.y + sourceBounds.height;
+
+        for (int y = rect.y; y < rect.y + rect.height; y++) {
+            // center of the first pixel of the row in the source raster space
+            double sx = m00 * (rect.x + 0.5) + m01 * (y + 0.5) + m02;
+            double sy = m10 * (rect.x + 0.5) + m11 * (y + 0.5) + m12;
+            for (int x = rect.x; x < rect.x + rect.width; x++, sx += m00, sy += m10) {
+                if (sx < minX || sy < minY || sx >= maxX || sy >= maxY) {
+                    if (background != null) {
+                        tile.setPixel(x, y, background);
+                    }
+                    continue;
+                }
+                if (alphaBand >= 0) {
+                    tile.setSample(x, y, alphaBand, 255);
+                }
+                if (!bilinear) {
+                    final int ix = (int) Math.floor(sx);
+                    final int iy = (int) Math.floor(sy);
+                    if (colorMap != null) {
+                        tile.setSample(x, y, 0, classify(sampler.getSampleDouble(ix, iy, 0)));
+                    } else {
+                        for (int b = 0; b < bands; b++) {
+                            tile.setSample(x, y, b, sampler.getSample(ix, iy, b));
+                        }
+                    }
+                } else {
+                    // neighbours, extending the borders by copy
+                    final double fx = sx - 0.5;
+                    final double fy = sy - 0.5;
+                    final int x0 = (int) Math.floor(fx);
+                    final int y0 = (int) Math.floor(fy);
+                    final float wx = (float) (fx - x0);
+                    final float wy = (float) (fy - y0);
+                    final int xa = Math.max(x0, minX);
+                    final int xb = Math.min(x0 + 1, maxX - 1);
+                    final int ya = Math.max(y0, minY);
+                    final int yb = Math.min(y0 + 1, maxY - 1);
+                    if (colorMap != null) {
+                        final int c00 = palette[classify(sampler.getSampleDouble(xa, ya, 0))];
+                        final int c10 = palette[classify(sampler.getSampleDouble(xb, ya, 0))];
+                        final int c01 = palette[classify(sampler.getSampleDouble(xa, yb, 0))];
+                        final int c11 = palette[classify(sampler.getSampleDouble(xb, yb, 0))];
+                        // RGBA band order
+                        for (int b = 0, shift = 16; b < 3; b++, shift -= 8) {
+                            pixel[b] = interpolate((c00 >> shift) & 0xFF, (c10 >> shift) & 0xFF,
+                                    (c01 >> shift) & 0xFF, (c11 >> shift) & 0xFF, wx, wy);
+                        }
+                        pixel[3] = interpolate(c00 >>> 24, c10 >>> 24, c01 >>> 24, c11 >>> 24,
+                                wx, wy);
+                        tile.setPixel(x, y, pixel);
+                    } else {
+                        for (int b = 0; b < bands; b++) {
+                            tile.setSample(x, y, b, interpolate(sampler.getSample(xa, ya, b),
+                                    sampler.getSample(xb, ya, b), sampler.getSample(xa, yb, b),
+                                    sampler.getSample(xb, yb, b), wx, wy));
+                        }
+                    }
+                }
+            }
+        }
+        return tile;
+    }
+
+    private static int interpolate(int s00, int s10, int s01, int s11, float wx, float wy) {
+        final float top = s00 + (s10 - s00) * wx;
+        final float bottom = s01 + (s11 - s01) * wx;
+        final int value = Math.round(top + (bottom - top) * wy);
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+
+    /**
+     * Maps a sample value to its palette index, the same way {@link RasterClassifier} does
+     */
+    int classify(double value) {
+        try {
+            return compiled.classify(value);
+        } catch (Exception e) {
+            throw new ImagingException(e.getLocalizedMessage(), e);
+        }
+    }
+
+    /**
+     * Reads source samples, fetching and keeping the source tiles touched while computing a
+     * destination tile
+     */
+    final class SourceSampler {
+
+        final Map<Long, Raster> tiles = new HashMap<Long, Raster>();
+
+        final SampleModel sm = source.getSampleModel();
+
+        final boolean integral = sm.getDataType() == DataBuffer.TYPE_BYTE
+                || sm.getDataType() == DataBuffer.TYPE_USHORT
+                || sm.getDataType() == DataBuffer.TYPE_SHORT
+                || sm.getDataType() == DataBuffer.TYPE_INT;
+
+        Raster last;
+
+        Raster getRaster(int x, int y) {
+            if (last != null && x >= last.getMinX() && y >= last.getMinY()
+                    && x < last.getMinX() + last.getWidth()
+                    && y < last.getMinY() + last.getHeight()) {
+                return last;
+            }
+            final int tx = floorDiv(x - source.getTileGridXOffset(), source.getTileWidth());
+            final int ty = floorDiv(y - source.getTileGridYOffset(), source.getTileHeight());
+            final Long key = Long.valueOf(((long) tx << 32) | (ty & 0xFFFFFFFFL));
+            Raster raster = tiles.get(key);
+            if (raster == null) {
+                raster = source.getTile(tx, ty);
+                tiles.put(key, raster);
+            }
+            last = raster;
+            return raster;
+        }
+
+        double getSampleDouble(int x, int y, int band) {
+            final Raster raster = getRaster(x, y);
+            return integral ? raster.getSample(x, y, band) : raster.getSampleDouble(x, y, band);
+        }
+
+        int getSample(int x, int y, int band) {
+            return getRaster(x, y).getSample(x, y, band);
+        }
+    }
+
+    private static int floorDiv(int a, int b) {
+        return (int) Math.floor((double) a / b);
+    }
+}
@@ -22,10 +22,14 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.color.ColorSpace;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
 import java.awt.image.ImagingOpException;
 import java.awt.image.IndexColorModel;
 import java.awt.image.RenderedImage;
@@ -38,6 +42,7 @@ import javax.imageio.ImageIO;
 import javax.media.jai.BorderExtender;
 import javax.media.jai.ImageLayout;
 import javax.media.jai.Interpolation;
+import javax.media.jai.InterpolationBilinear;
 import javax.media.jai.InterpolationNearest;
 import javax.media.jai.JAI;
 
@@ -63,7 +68,11 @@ import org.geotools.referencing.operation.builder.GridToEnvelopeMapper;
 import org.geotools.referencing.operation.matrix.XAffineTransform;
 import org.geotools.resources.i18n.ErrorKeys;
 import org.geotools.resources.i18n.Errors;
+import org.geotools.styling.ChannelSelection;
+import org.geotools.styling.ColorMap;
+import org.geotools.styling.ContrastEnhancement;
 import org.geotools.styling.RasterSymbolizer;
+import org.geotools.styling.SelectedChannelType;
 import org.jaitools.imageutils.ImageLayout2;
 import org.opengis.coverage.grid.GridCoverage;
 import org.opengis.filter.expression.Expression;
@@ -101,6 +110,16 @@ public final class GridCoverageRenderer {
             .getBoolean("org.geotools.renderer.lite.gridcoverage2d.debug");
 
     private static String debugDir;
+
+    /**
+     * Enables the fused rendering path, computing the output pixels in one pass for the simple
+     * color mapped and RGB cases, disabled by default
+     */
+    public static final String FUSED_RENDERING_KEY = "org.geotools.renderer.lite.gridcoverage2d.fusedRendering";
+    static boolean FUSED_RENDERING_ENABLED = Boolean.getBoolean(FUSED_RENDERING_KEY);
+
+    /** Tile size of the images built by the fused path when painting */
+    static final int FUSED_TILE_SIZE = 256;
     static {
         if (DEBUG) {
             final File tempDir = new File(System.getProperty("user.home"),"gt-renderer");
@@ -833,6 +852,17 @@ public final class GridCoverageRenderer {
     		if(DEBUG)
     			writeRenderedImage(im, "postAffine");
     	}
+
+        // simple cases are computed in a single pass, on the same bounds, the chain
+        // above is not computed at all
+        if (im != null) {
+            final FusedRasterImage fused = prepareFusedImage(gridCoverage, symbolizer,
+                    interpolation, background, new Rectangle(im.getMinX(), im.getMinY(),
+                            im.getWidth(), im.getHeight()), tileSizeX, tileSizeY);
+            if (fused != null) {
+                return fused;
+            }
+        }
     	return im;
 
     }
@@ -876,13 +906,22 @@ public final class GridCoverageRenderer {
         graphics.setRenderingHints(this.hints);
         
         
-        // Build the final image and the transformation
-        GCpair couple = prepareFinalImage(gridCoverage, symbolizer);
-        if (couple == null)
-            return;
-
-        RenderedImage finalImage = couple.getGridCoverage().getRenderedImage();
-        AffineTransform clonedFinalWorldToGrid = couple.getTransform();
+        // Build the final image and the transformation, simple cases are
+        // computed in a single pass directly in the screen space
+        RenderedImage finalImage;
+        AffineTransform clonedFinalWorldToGrid;
+        final FusedRasterImage fused = prepareFusedImage(gridCoverage, symbolizer,
+                getPaintInterpolation(), null, null, FUSED_TILE_SIZE, FUSED_TILE_SIZE);
+        if (fused != null) {
+            finalImage = fused;
+            clonedFinalWorldToGrid = new AffineTransform();
+        } else {
+            GCpair couple = prepareFinalImage(gridCoverage, symbolizer);
+            if (couple == null)
+                return;
+            finalImage = couple.getGridCoverage().getRenderedImage();
+            clonedFinalWorldToGrid = couple.getTransform();
+        }
 
         try {
             //debug
@@ -984,6 +1023,140 @@ public final class GridCoverageRenderer {
 
 
 
+    /**
+     * Builds an image computing the rendered pixels in a single pass, for the common cases of a
+     * single band coverage with a color map and of a RGB(A) coverage, that do not need
+     * reprojection nor any other symbolizer processing.
+     * 
+     * @param background the color of the destination pixels outside of the coverage, null to
+     *        leave them transparent
+     * @param destination the bounds of the image in the destination raster space, null to use
+     *        the part of the destination area covered by the coverage
+     * @return the image in the destination raster space, or null if the fused path cannot be
+     *         used and the full processing chain is needed
+     */
+    private FusedRasterImage prepareFusedImage(final GridCoverage2D gridCoverage,
+            final RasterSymbolizer symbolizer, final Interpolation interpolation,
+            final Color background, final Rectangle destination, final int tileSizeX,
+            final int tileSizeY) throws FactoryException {
+        if (!FUSED_RENDERING_ENABLED || gridCoverage == null || symbolizer == null) {
+            return null;
+        }
+        final boolean bilinear;
+        if (interpolation == null || interpolation instanceof InterpolationNearest) {
+            bilinear = false;
+        } else if (interpolation instanceof InterpolationBilinear) {
+            bilinear = true;
+        } else {
+            return null;
+        }
+        if (!isColorMapOnly(symbolizer)) {
+            return null;
+        }
+
+        // no reprojection and an affine grid to world
+        final CoordinateReferenceSystem sourceCRS = gridCoverage.getCoordinateReferenceSystem2D();
+        if (sourceCRS == null
+                || !CRS.findMathTransform(sourceCRS, destinationCRS, true).isIdentity()) {
+            return null;
+        }
+        final MathTransform2D gridToCRS = gridCoverage.getGridGeometry().getGridToCRS2D(
+                PixelOrientation.UPPER_LEFT);
+        if (!(gridToCRS instanceof AffineTransform)) {
+            return null;
+        }
+        final AffineTransform sourceToScreen = (AffineTransform) finalWorldToGrid.clone();
+        sourceToScreen.concatenate((AffineTransform) gridToCRS);
+        if (sourceToScreen.getDeterminant() == 0) {
+            return null;
+        }
+
+        final RenderedImage image = gridCoverage.getRenderedImage();
+        final Rectangle bounds = destination != null ? destination : sourceToScreen
+                .createTransformedShape(
+                        new Rectangle(image.getMinX(), image.getMinY(), image.getWidth(), image
+                                .getHeight())).getBounds().intersection(destinationSize);
+        if (bounds.isEmpty()) {
+            return null;
+        }
+
+        final float opacity = getOpacity(symbolizer);
+        final ColorMap colorMap = symbolizer.getColorMap();
+        final int numBands = image.getSampleModel().getNumBands();
+        if (colorMap != null && colorMap.getColorMapEntries() != null
+                && colorMap.getColorMapEntries().length > 0) {
+            if (numBands != 1 || gridCoverage.getNumSampleDimensions() != 1) {
+                return null;
+            }
+            final LinearColorMap linearColorMap = ColorMapNode.buildLinearColorMap(colorMap,
+                    gridCoverage.getSampleDimension(0));
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.fine("Rendering color mapped coverage in a single pass");
+            // paletted values are not interpolated
+            return FusedRasterImage.createColorMapped(image, sourceToScreen, bounds, tileSizeX,
+                    tileSizeY, bilinear && !(image.getColorModel() instanceof IndexColorModel),
+                    linearColorMap, opacity, background);
+        }
+
+        // RGB, RGBA with nothing to do but scaling
+        final ColorModel cm = image.getColorModel();
+        if (opacity < 1 || !(cm instanceof ComponentColorModel)
+                || cm.getColorSpace().getType() != ColorSpace.TYPE_RGB
+                || image.getSampleModel().getDataType() != DataBuffer.TYPE_BYTE
+                || (numBands != 3 && numBands != 4) || cm.getNumComponents() != numBands) {
+            return null;
+        }
+        if (LOGGER.isLoggable(Level.FINE))
+            LOGGER.fine("Rendering RGB coverage in a single pass");
+        return FusedRasterImage.createRGB(image, sourceToScreen, bounds, tileSizeX, tileSizeY,
+                bilinear, background);
+    }
+
+    /**
+     * Returns true if the symbolizer does nothing but, eventually, applying a color map and an
+     * opacity
+     */
+    private static boolean isColorMapOnly(final RasterSymbolizer symbolizer) {
+        final ChannelSelection cs = symbolizer.getChannelSelection();
+        if (cs != null) {
+            final SelectedChannelType gray = cs.getGrayChannel();
+            final SelectedChannelType[] rgb = cs.getRGBChannels();
+            if (gray != null || (rgb != null && (rgb[0] != null || rgb[1] != null || rgb[2] != null))) {
+                return false;
+            }
+        }
+        final ContrastEnhancement ce = symbolizer.getContrastEnhancement();
+        if (ce != null) {
+            if (ce.getType() != null && ce.getType().evaluate(null, String.class) != null) {
+                return false;
+            }
+            if (ce.getGammaValue() != null) {
+                final Number gamma = ce.getGammaValue().evaluate(null, Double.class);
+                if (gamma != null && Math.abs(gamma.doubleValue() - 1) >= 1E-6) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The interpolation used when painting, from the JAI or Java2D hints
+     */
+    private Interpolation getPaintInterpolation() {
+        final Object interpolation = hints.get(JAI.KEY_INTERPOLATION);
+        if (interpolation instanceof Interpolation) {
+            return (Interpolation) interpolation;
+        }
+        final Object java2d = hints.get(RenderingHints.KEY_INTERPOLATION);
+        if (java2d == null || RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR.equals(java2d)) {
+            return new InterpolationNearest();
+        } else if (RenderingHints.VALUE_INTERPOLATION_BILINEAR.equals(java2d)) {
+            return new InterpolationBilinear();
+        }
+        return Interpolation.getInstance(Interpolation.INTERP_BICUBIC);
+    }
+
     private static Rectangle2D layoutHelper(RenderedImage source,
                                         float scaleX,
                                         float scaleY,
@@ -121,6 +121,11 @@ public final class LinearColorMap extends AbstractList<LinearColorMapElement>
 
         private int hashCode=-1;
 
+	/**
+	 * The lookup tables used to classify rasters with this color map, built lazily.
+	 */
+	private CompiledColorMap compiledColorMap;
+
 	/**
 	 * Constructor which creates a {@link LinearColorMap} without a
 	 * {@link NoDataCategory}. Keep in mind that if the list has gaps, if you
@@ -676,6 +681,16 @@ public final class LinearColorMap extends AbstractList<LinearColorMapElement>
 //		return (double[]) scales.clone();
 //	}
 
+	/**
+	 * Returns the lookup tables classifying rasters with this color map, shared by all the
+	 * users of this {@link LinearColorMap}.
+	 */
+	synchronized CompiledColorMap getCompiledColorMap() {
+		if (compiledColorMap == null)
+			compiledColorMap = new CompiledColorMap(this);
+		return compiledColorMap;
+	}
+
 	public LinearColorMapElement get(int index) {
 		if(index<standardElements.length)
 			return standardElements[index];
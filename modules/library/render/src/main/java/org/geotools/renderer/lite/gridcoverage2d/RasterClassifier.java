@@ -19,6 +19,7 @@ package org.geotools.renderer.lite.gridcoverage2d;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.image.ColorModel;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
@@ -62,6 +63,13 @@ public class RasterClassifier extends PointOpImage {
 	 */
 	public static final String OPERATION_NAME = "org.geotools.RasterClassifier";
 
+	/**
+	 * Controls the usage of precomputed lookup tables to classify the pixels
+	 * instead of searching the domain element of each sample.
+	 */
+	public static final String COMPILED_COLORMAP_KEY = "org.geotools.renderer.lite.gridcoverage2d.compiledColorMap";
+	static boolean COMPILED_COLORMAP_ENABLED = Boolean.parseBoolean(System.getProperty(COMPILED_COLORMAP_KEY, "TRUE"));
+
 	/**
 	 * DomainElement1D lists for each bands. The array length must matches the number
 	 * of bands in source image.
@@ -73,6 +81,11 @@ public class RasterClassifier extends PointOpImage {
 	 */
 	private int bandIndex;
 
+	/**
+	 * The lookup tables for the pieces.
+	 */
+	private final CompiledColorMap compiled;
+
 	/**
 	 * Constructs a new {@code RasterClassifier}.
 	 * 
@@ -91,6 +104,7 @@ public class RasterClassifier extends PointOpImage {
 				.get(JAI.KEY_IMAGE_LAYOUT), lic), hints, false);
 		this.pieces = lic;
 		this.bandIndex = bandIndex;
+		this.compiled = CompiledColorMap.get(lic);
 		permitInPlaceOperation();
 	}
 
@@ -149,6 +163,10 @@ public class RasterClassifier extends PointOpImage {
 	protected void computeRect(final PlanarImage[] sources,
 			final WritableRaster dest, final Rectangle destRect) {
 		final PlanarImage source = sources[0];
+		if (COMPILED_COLORMAP_ENABLED && dest.getNumBands() == 1) {
+			computeRectCompiled(source, dest, destRect);
+			return;
+		}
 		WritableRectIter iterator = RectIterFactory.createWritable(dest,
 				destRect);
 		if (true) {
@@ -270,6 +288,31 @@ public class RasterClassifier extends PointOpImage {
 		} while (iterator.finishedBands());
 	}
 
+	/**
+	 * Computes the destination rectangle classifying the samples with the
+	 * lookup tables, directly on the data of the source tiles.
+	 */
+	private void computeRectCompiled(final PlanarImage source,
+			final WritableRaster dest, final Rectangle destRect) {
+		final int band = bandIndex == -1 ? 0 : bandIndex;
+		final int minTileX = source.XToTileX(destRect.x);
+		final int maxTileX = source.XToTileX(destRect.x + destRect.width - 1);
+		final int minTileY = source.YToTileY(destRect.y);
+		final int maxTileY = source.YToTileY(destRect.y + destRect.height - 1);
+		try {
+			for (int tileY = minTileY; tileY <= maxTileY; tileY++) {
+				for (int tileX = minTileX; tileX <= maxTileX; tileX++) {
+					final Raster tile = source.getTile(tileX, tileY);
+					final Rectangle rect = tile.getBounds().intersection(destRect);
+					if (!rect.isEmpty())
+						compiled.classify(tile, band, dest, rect);
+				}
+			}
+		} catch (Throwable cause) {
+			throw new ImagingException(cause.getLocalizedMessage(), cause);
+		}
+	}
+
 	// ///////////////////////////////////////////////////////////////////////////////
 	// ////// ////////
 	// ////// REGISTRATION OF "SampleTranscode" IMAGE OPERATION ////////
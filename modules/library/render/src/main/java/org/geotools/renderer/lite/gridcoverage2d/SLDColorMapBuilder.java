@@ -442,7 +442,7 @@ public class SLDColorMapBuilder {
 	 * @return
 	 * @throws NumberFormatException
 	 */
-	private static Color getColor(ColorMapEntry entry)
+	static Color getColor(ColorMapEntry entry)
 			throws NumberFormatException {
 		ColorMapUtilities.ensureNonNull("ColorMapEntry",entry);
 		final Expression color = entry.getColor();
@@ -458,7 +458,7 @@ public class SLDColorMapBuilder {
 	 * @throws IllegalArgumentException
 	 * @throws MissingResourceException
 	 */
-	private static double getOpacity(ColorMapEntry entry)
+	static double getOpacity(ColorMapEntry entry)
 			throws IllegalArgumentException, MissingResourceException {
 		
 	        ColorMapUtilities.ensureNonNull("ColorMapEntry",entry);
@@ -491,7 +491,7 @@ public class SLDColorMapBuilder {
 	 * @param entry
 	 * @return
 	 */
-	private static double getQuantity(ColorMapEntry entry) {
+	static double getQuantity(ColorMapEntry entry) {
 		ColorMapUtilities.ensureNonNull("ColorMapEntry",entry);
 		Expression quantity = entry.getQuantity();
 		ColorMapUtilities.ensureNonNull("quantity",quantity);
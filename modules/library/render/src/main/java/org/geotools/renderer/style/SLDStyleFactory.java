@@ -32,6 +32,7 @@ import java.awt.geom.Rectangle2D;
 import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
 import java.net.MalformedURLException;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -168,10 +169,13 @@ public class SLDStyleFactory {
 	}
 
 	/** Symbolizers that depend on attributes */
-	Map dynamicSymbolizers = new SoftValueHashMap();
+	Map dynamicSymbolizers = Collections.synchronizedMap(new SoftValueHashMap());
 
 	/** Symbolizers that do not depend on attributes */
-	Map staticSymbolizers = new SoftValueHashMap();
+	Map staticSymbolizers = Collections.synchronizedMap(new SoftValueHashMap());
+
+	/** Styles shared with the other factories, compared by value */
+	Style2DCache sharedCache = Style2DCache.getDefaultInstance();
 
 	/**
 	 * Build a default rendering hint to avoid NPE
@@ -270,6 +274,26 @@ public class SLDStyleFactory {
 		this.vectorRenderingEnabled = vectorRenderingEnabled;
 	}
 
+	/**
+	 * Returns the process wide cache the styles built out of feature
+	 * independent symbolizers are shared through, or null if sharing is
+	 * disabled
+	 */
+	public Style2DCache getSharedCache() {
+		return sharedCache;
+	}
+
+	/**
+	 * Sets the cache used to share styles with the other factories, by
+	 * default {@link Style2DCache#getDefaultInstance()}. Use null to disable
+	 * sharing.
+	 * 
+	 * @param sharedCache
+	 */
+	public void setSharedCache(Style2DCache sharedCache) {
+		this.sharedCache = sharedCache;
+	}
+
 	public double getHitRatio() {
 		return (double) hits / (double) requests;
 	}
@@ -315,8 +339,30 @@ public class SLDStyleFactory {
 
 		if (style != null) {
 			hits++;
-		} else {
+		} else if (dynamicSymbolizers.containsKey(key)) {
+			// known dynamic symbolizer, the style cannot be cached
 			style = createStyleInternal(drawMe, symbolizer, scaleRange);
+		} else {
+			// lets see if it's static or dynamic
+			StyleAttributeExtractorTruncated sae = new StyleAttributeExtractorTruncated();
+			sae.visit(symbolizer);
+
+			Set nameSet = sae.getAttributeNameSet();
+			boolean noAttributes = (nameSet == null) || (nameSet.size() == 0);
+			boolean dynamic = !noAttributes || sae.isUsingVolatileFunctions();
+
+			// a static style might have been built already by another factory
+			Style2DCache.Key sharedKey = null;
+			if (!dynamic && sharedCache != null) {
+				sharedKey = new Style2DCache.Key(symbolizer, scaleRange,
+						vectorRenderingEnabled, lineOptimizationEnabled,
+						renderingHints);
+				style = sharedCache.get(sharedKey);
+			}
+			boolean shared = style != null;
+			if (!shared) {
+				style = createStyleInternal(drawMe, symbolizer, scaleRange);
+			}
 
 			// for some legitimate cases some styles cannot be turned into a
 			// valid Style2D
@@ -326,21 +372,13 @@ public class SLDStyleFactory {
 				return null;
 			}
 
-			// if known dynamic symbolizer return the style
-			if (dynamicSymbolizers.containsKey(key)) {
-				return style;
+			if (dynamic) {
+				dynamicSymbolizers.put(key, Boolean.TRUE);
 			} else {
-				// lets see if it's static or dynamic
-				StyleAttributeExtractorTruncated sae = new StyleAttributeExtractorTruncated();
-				sae.visit(symbolizer);
-
-				Set nameSet = sae.getAttributeNameSet();
-				boolean noAttributes = (nameSet == null) || (nameSet.size() == 0);
-				if (noAttributes && !sae.isUsingVolatileFunctions()) {
-					staticSymbolizers.put(key, style);
-				} else {
-					dynamicSymbolizers.put(key, Boolean.TRUE);
+				if (sharedKey != null && !shared) {
+					style = sharedCache.put(sharedKey, style);
 				}
+				staticSymbolizers.put(key, style);
 			}
 		}
 		return style;
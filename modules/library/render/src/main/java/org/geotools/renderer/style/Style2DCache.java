@@ -0,0 +1,342 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.renderer.style;
+
+import java.awt.RenderingHints;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.geotools.styling.Fill;
+import org.geotools.styling.Graphic;
+import org.geotools.styling.LineSymbolizer;
+import org.geotools.styling.Mark;
+import org.geotools.styling.PointSymbolizer;
+import org.geotools.styling.PolygonSymbolizer;
+import org.geotools.styling.Stroke;
+import org.geotools.styling.Symbolizer;
+import org.geotools.styling.TextSymbolizer;
+import org.geotools.styling.TextSymbolizer2;
+import org.geotools.styling.visitor.DuplicatingStyleVisitor;
+import org.geotools.util.LRULinkedHashMap;
+import org.geotools.util.Range;
+
+/**
+ * A process wide, thread safe and size bounded cache of the {@link Style2D}
+ * built out of feature independent symbolizers.
+ * <p>
+ * The {@link SLDStyleFactory} caches styles by symbolizer identity, which only
+ * helps within a single rendering, as the renderer duplicates the symbolizers
+ * of each request while rescaling them to pixels. This cache compares the
+ * symbolizers by value instead, so that concurrent renderings using the same
+ * style share the styles, along with the icons and graphic fills
+ * pre-rasterized in them. DPI and unit of measure rescaling are already
+ * applied to the symbolizers, so they are part of the key, along with the
+ * scale range and the factory settings affecting the result. Graphic equality
+ * ignores the displacement and anchor point, which are baked into the styles,
+ * so the key compares them separately.
+ * <p>
+ * The least recently used entries are evicted once the maximum size is
+ * reached. The entries are split among a few independently locked segments to
+ * limit contention.
+ *
+ * @source $URL$
+ */
+public class Style2DCache {
+
+    /** Default maximum number of cached styles */
+    public static final int DEFAULT_MAXIMUM_SIZE = Integer.getInteger(
+            "org.geotools.render.style.cacheSize", 1000);
+
+    static final int SEGMENTS = 16;
+
+    static Style2DCache defaultInstance;
+
+    final LRULinkedHashMap<Key, Style2D>[] segments;
+
+    final int maximumSize;
+
+    final AtomicLong hits = new AtomicLong();
+
+    final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Returns the default, process wide style cache
+     */
+    public static synchronized Style2DCache getDefaultInstance() {
+        if (defaultInstance == null) {
+            defaultInstance = new Style2DCache(DEFAULT_MAXIMUM_SIZE);
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Builds a new cache
+     *
+     * @param maximumSize the maximum number of styles kept in the cache
+     */
+    @SuppressWarnings("unchecked")
+    public Style2DCache(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be positive: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        int segmentSize = Math.max(1, (maximumSize + SEGMENTS - 1) / SEGMENTS);
+        segments = new LRULinkedHashMap[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = LRULinkedHashMap.createForRecentAccess(segmentSize);
+        }
+    }
+
+    /**
+     * Returns the cached style for the key, or null if not found
+     */
+    public Style2D get(Key key) {
+        LRULinkedHashMap<Key, Style2D> segment = segment(key);
+        Style2D style;
+        synchronized (segment) {
+            style = segment.get(key);
+        }
+        if (style != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return style;
+    }
+
+    /**
+     * Caches a style, unless another thread already cached one for the same
+     * key, in which case the latter is returned to make sure all renderings
+     * share the same instance.
+     *
+     * @return the cached style
+     */
+    public Style2D put(Key key, Style2D style) {
+        // the key must not change while in the cache
+        Key detached = key.detach();
+        LRULinkedHashMap<Key, Style2D> segment = segment(key);
+        synchronized (segment) {
+            Style2D existing = segment.get(detached);
+            if (existing != null) {
+                return existing;
+            }
+            segment.put(detached, style);
+        }
+        return style;
+    }
+
+    /**
+     * Removes all the cached styles
+     */
+    public void clear() {
+        for (LRULinkedHashMap<Key, Style2D> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of cached styles
+     */
+    public int size() {
+        int size = 0;
+        for (LRULinkedHashMap<Key, Style2D> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private LRULinkedHashMap<Key, Style2D> segment(Key key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[(h & 0x7fffffff) % SEGMENTS];
+    }
+
+    /**
+     * Key of the cache, compares symbolizers by value and caches their hash
+     * code, which is expensive to compute
+     */
+    public static class Key {
+        Symbolizer symbolizer;
+
+        double minScale;
+
+        double maxScale;
+
+        boolean vectorRenderingEnabled;
+
+        boolean lineOptimizationEnabled;
+
+        Map<Object, Object> renderingHints;
+
+        List<Object> placements;
+
+        int hash;
+
+        /**
+         * Builds a key for a symbolizer rendered with the specified factory
+         * settings
+         */
+        public Key(Symbolizer symbolizer, Range scaleRange, boolean vectorRenderingEnabled,
+                boolean lineOptimizationEnabled, RenderingHints renderingHints) {
+            this(symbolizer, ((Number) scaleRange.getMinValue()).doubleValue(),
+                    ((Number) scaleRange.getMaxValue()).doubleValue(), vectorRenderingEnabled,
+                    lineOptimizationEnabled, renderingHints);
+        }
+
+        Key(Symbolizer symbolizer, double minScale, double maxScale,
+                boolean vectorRenderingEnabled, boolean lineOptimizationEnabled,
+                Map<Object, Object> renderingHints) {
+            this.symbolizer = symbolizer;
+            this.minScale = minScale;
+            this.maxScale = maxScale;
+            this.vectorRenderingEnabled = vectorRenderingEnabled;
+            this.lineOptimizationEnabled = lineOptimizationEnabled;
+            this.renderingHints = renderingHints;
+            this.placements = new ArrayList<Object>();
+            addPlacements(symbolizer);
+
+            long bits = Double.doubleToLongBits(minScale) * 31 + Double.doubleToLongBits(maxScale);
+            int h = symbolizer.hashCode();
+            h = h * 37 + (int) (bits ^ (bits >>> 32));
+            h = h * 37 + (vectorRenderingEnabled ? 1 : 0);
+            h = h * 37 + (lineOptimizationEnabled ? 1 : 0);
+            h = h * 37 + (renderingHints == null ? 0 : renderingHints.hashCode());
+            h = h * 37 + placements.hashCode();
+            this.hash = h;
+        }
+
+        /**
+         * Collects the displacement and anchor point of the graphics
+         * used by the symbolizer, in a fixed order
+         */
+        void addPlacements(Symbolizer symbolizer) {
+            if (symbolizer instanceof PointSymbolizer) {
+                addPlacements(((PointSymbolizer) symbolizer).getGraphic());
+            } else if (symbolizer instanceof LineSymbolizer) {
+                addPlacements(((LineSymbolizer) symbolizer).getStroke());
+            } else if (symbolizer instanceof PolygonSymbolizer) {
+                addPlacements(((PolygonSymbolizer) symbolizer).getFill());
+                addPlacements(((PolygonSymbolizer) symbolizer).getStroke());
+            } else if (symbolizer instanceof TextSymbolizer) {
+                TextSymbolizer ts = (TextSymbolizer) symbolizer;
+                addPlacements(ts.getFill());
+                if (ts.getHalo() != null) {
+                    addPlacements(ts.getHalo().getFill());
+                }
+                if (ts instanceof TextSymbolizer2) {
+                    addPlacements(((TextSymbolizer2) ts).getGraphic());
+                }
+            }
+        }
+
+        void addPlacements(Stroke stroke) {
+            if (stroke != null) {
+                addPlacements(stroke.getGraphicFill());
+                addPlacements(stroke.getGraphicStroke());
+            }
+        }
+
+        void addPlacements(Fill fill) {
+            if (fill != null) {
+                addPlacements(fill.getGraphicFill());
+            }
+        }
+
+        void addPlacements(Graphic graphic) {
+            if (graphic == null) {
+                placements.add(null);
+                return;
+            }
+            placements.add(graphic.getDisplacement());
+            placements.add(graphic.getAnchorPoint());
+            Mark[] marks = graphic.getMarks();
+            if (marks != null) {
+                for (Mark mark : marks) {
+                    addPlacements(mark.getFill());
+                    addPlacements(mark.getStroke());
+                }
+            }
+        }
+
+        /**
+         * Returns a copy of this key that does not share mutable state with
+         * the caller
+         */
+        Key detach() {
+            DuplicatingStyleVisitor duplicator = new DuplicatingStyleVisitor();
+            symbolizer.accept(duplicator);
+            Symbolizer copy = (Symbolizer) duplicator.getCopy();
+            RenderingHints hints = null;
+            if (renderingHints != null) {
+                hints = new RenderingHints(null);
+                hints.putAll(renderingHints);
+            }
+            Key key = new Key(copy, minScale, maxScale, vectorRenderingEnabled,
+                    lineOptimizationEnabled, hints);
+            // keep the hash of the original, the copy must be found using it
+            key.hash = hash;
+            return key;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            if (hash != other.hash || minScale != other.minScale || maxScale != other.maxScale
+                    || vectorRenderingEnabled != other.vectorRenderingEnabled
+                    || lineOptimizationEnabled != other.lineOptimizationEnabled) {
+                return false;
+            }
+            if (renderingHints == null ? other.renderingHints != null : !renderingHints
+                    .equals(other.renderingHints)) {
+                return false;
+            }
+            if (!placements.equals(other.placements)) {
+                return false;
+            }
+            return symbolizer == other.symbolizer || symbolizer.equals(other.symbolizer);
+        }
+    }
+}
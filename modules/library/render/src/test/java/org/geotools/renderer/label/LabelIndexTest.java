@@ -0,0 +1,131 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.renderer.label;
+
+import static org.junit.Assert.*;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LabelIndexTest {
+
+    @Test
+    public void testOverlapAndDistance() {
+        LabelIndex index = new LabelIndex();
+        index.addLabel(null, new Rectangle2D.Double(10, 10, 20, 10));
+
+        assertTrue(index.labelsWithinDistance(new Rectangle2D.Double(25, 15, 10, 10), 0));
+        // touching bounds do interfere
+        assertTrue(index.labelsWithinDistance(new Rectangle2D.Double(30, 10, 10, 10), 0));
+        assertFalse(index.labelsWithinDistance(new Rectangle2D.Double(35, 10, 10, 10), 0));
+        assertTrue(index.labelsWithinDistance(new Rectangle2D.Double(35, 10, 10, 10), 5));
+        // negative distance disables the check
+        assertFalse(index.labelsWithinDistance(new Rectangle2D.Double(10, 10, 20, 10), -1));
+    }
+
+    @Test
+    public void testReservedArea() {
+        LabelIndex index = new LabelIndex(8);
+        List<Rectangle2D> reserved = new ArrayList<Rectangle2D>();
+        // large enough not to be gridded
+        reserved.add(new Rectangle2D.Double(-1000, -1000, 2000, 10));
+        index.reserveArea(reserved);
+
+        assertTrue(index.labelsWithinDistance(new Rectangle2D.Double(500, -995, 1, 1), 0));
+        assertFalse(index.labelsWithinDistance(new Rectangle2D.Double(500, 0, 1, 1), 0));
+    }
+
+    @Test
+    public void testHugeBounds() {
+        LabelIndex index = new LabelIndex();
+        index.addLabel(null, new Rectangle2D.Double(0, 0, 10, 10));
+        index.addLabel(null, new Rectangle2D.Double(1e12, 1e12, 10, 10));
+
+        // spans more cells than an int, or a long, can count
+        assertTrue(index.labelsWithinDistance(new Rectangle2D.Double(-1e300, -1e300, 2e300,
+                2e300), 0));
+        assertTrue(index.labelsWithinDistance(new Rectangle2D.Double(1e12 + 5, 1e12 + 5, 1, 1),
+                0));
+        assertFalse(index.labelsWithinDistance(new Rectangle2D.Double(1e12 + 50, 1e12, 1, 1), 0));
+
+        List<Rectangle2D> reserved = new ArrayList<Rectangle2D>();
+        reserved.add(new Rectangle2D.Double(-Double.MAX_VALUE / 2, 100, Double.MAX_VALUE, 10));
+        index.reserveArea(reserved);
+        assertTrue(index.labelsWithinDistance(new Rectangle2D.Double(500, 105, 1, 1), 0));
+        assertFalse(index.labelsWithinDistance(new Rectangle2D.Double(500, 50, 1, 1), 0));
+    }
+
+    @Test
+    public void testFirstAvailable() {
+        LabelIndex index = new LabelIndex();
+        index.addLabel(null, new Rectangle2D.Double(0, 0, 10, 10));
+
+        double[] candidates = new double[] {
+                5, 5, 15, 15, // overlaps
+                Double.NaN, 0, 0, 0, // not available
+                20, 20, 30, 30 };
+        assertEquals(2, index.firstAvailable(candidates, 3, 0));
+        assertEquals(-1, index.firstAvailable(candidates, 3, 20));
+        assertEquals(0, index.firstAvailable(candidates, 3, -1));
+        assertEquals(-1, index.firstAvailable(candidates, 2, 0));
+    }
+
+    @Test
+    public void testSameAsLinearScan() {
+        Random random = new Random(1);
+        LabelIndex index = new LabelIndex(16);
+        List<Rectangle2D> labels = new ArrayList<Rectangle2D>();
+        for (int i = 0; i < 2000; i++) {
+            Rectangle2D label = randomRectangle(random);
+            labels.add(label);
+            if (i % 100 == 0) {
+                index.reserveArea(Arrays.asList(label));
+            } else {
+                index.addLabel(null, label);
+            }
+        }
+
+        for (int i = 0; i < 2000; i++) {
+            Rectangle2D query = randomRectangle(random);
+            double distance = random.nextInt(4) * 2.5;
+            boolean expected = false;
+            for (Rectangle2D label : labels) {
+                if (label.getMinX() <= query.getMaxX() + distance
+                        && label.getMaxX() >= query.getMinX() - distance
+                        && label.getMinY() <= query.getMaxY() + distance
+                        && label.getMaxY() >= query.getMinY() - distance) {
+                    expected = true;
+                    break;
+                }
+            }
+            assertEquals(query.toString(), expected, index.labelsWithinDistance(query, distance));
+        }
+    }
+
+    Rectangle2D randomRectangle(Random random) {
+        // mostly small labels, a few long ones, some off screen
+        double width = random.nextInt(10) == 0 ? random.nextDouble() * 800 : random.nextDouble() * 40;
+        double height = random.nextDouble() * 12;
+        return new Rectangle2D.Double(random.nextDouble() * 4200 - 100,
+                random.nextDouble() * 4200 - 100, width, height);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.renderer.lite.gridcoverage2d;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import javax.media.jai.JAI;
+import javax.media.jai.ParameterBlockJAI;
+import javax.media.jai.RasterFactory;
+import javax.media.jai.RenderedOp;
+import javax.media.jai.TiledImage;
+
+import org.geotools.coverage.GridSampleDimension;
+import org.geotools.styling.ColorMap;
+import org.geotools.styling.StyleBuilder;
+import org.geotools.util.NumberRange;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks the lookup tables of {@link CompiledColorMap} classify as the exact search does
+ *
+ * @source $URL$
+ */
+public class CompiledColorMapTest {
+
+    static {
+        RasterClassifier.register(JAI.getDefaultInstance());
+    }
+
+    @After
+    public void resetCompiledColorMap() {
+        RasterClassifier.COMPILED_COLORMAP_ENABLED = true;
+    }
+
+    LinearColorMap buildColorMap() {
+        final LinearColorMapElement c0 = LinearColorMapElement.create("c0", Color.BLACK,
+                NumberRange.create(Double.NEGATIVE_INFINITY, false, 10, true), 0);
+        final LinearColorMapElement c1 = LinearColorMapElement.create("c1", Color.blue,
+                NumberRange.create(10.0, false, 100.0, true), 1);
+        final LinearColorMapElement c2 = LinearColorMapElement.create("c2", new Color[] {
+                Color.blue, Color.red }, NumberRange.create(100.0, false, 400, true),
+                NumberRange.create(2, 200));
+        final LinearColorMapElement c3 = LinearColorMapElement.create("c3", Color.white,
+                1001.0, 201);
+        final LinearColorMapElement nodata = LinearColorMapElement.create("nodata", new Color(0,
+                0, 0, 0), NumberRange.create(Double.NaN, Double.NaN), 202);
+        return new LinearColorMap("", new LinearColorMapElement[] { c0, c1, c2, c3 },
+                new LinearColorMapElement[] { nodata }, Color.GREEN);
+    }
+
+    @Test
+    public void testClassifyValues() throws Exception {
+        final LinearColorMap colorMap = buildColorMap();
+        final CompiledColorMap compiled = CompiledColorMap.get(colorMap);
+        assertSame(compiled, CompiledColorMap.get(colorMap));
+
+        final double[] specials = { Double.NaN, 10, 100, 400, 1001, 1001.5, -0.0,
+                Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 99.99999999, 100.00000001 };
+        for (double value : specials) {
+            assertEquals("Value " + value, compiled.classifyExact(value), compiled.classify(value));
+        }
+        final Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            final double value = random.nextDouble() * 1200 - 100;
+            assertEquals("Value " + value, compiled.classifyExact(value), compiled.classify(value));
+        }
+    }
+
+    @Test
+    public void testRasterClassifier() throws Exception {
+        final Random random = new Random(1);
+        for (int dataType : new int[] { DataBuffer.TYPE_BYTE, DataBuffer.TYPE_SHORT,
+                DataBuffer.TYPE_USHORT, DataBuffer.TYPE_INT, DataBuffer.TYPE_FLOAT,
+                DataBuffer.TYPE_DOUBLE }) {
+            final WritableRaster raster = RasterFactory.createBandedRaster(dataType, 300, 200, 2,
+                    null);
+            for (int y = 0; y < raster.getHeight(); y++) {
+                for (int x = 0; x < raster.getWidth(); x++) {
+                    raster.setSample(x, y, 0, random.nextInt(250));
+                    raster.setSample(x, y, 1, random.nextInt(1100) + random.nextDouble());
+                }
+            }
+            final TiledImage image = new TiledImage(0, 0, 300, 200, 0, 0,
+                    raster.getSampleModel().createCompatibleSampleModel(64, 64), null);
+            image.setData(raster);
+
+            // same output as the exact search on the whole domain
+            RasterClassifier.COMPILED_COLORMAP_ENABLED = true;
+            Raster compiled = classify(image, 0);
+            RasterClassifier.COMPILED_COLORMAP_ENABLED = false;
+            final Raster exact = classify(image, 0);
+            for (int y = 0; y < exact.getHeight(); y++) {
+                for (int x = 0; x < exact.getWidth(); x++) {
+                    assertEquals(exact.getSample(x, y, 0), compiled.getSample(x, y, 0));
+                }
+            }
+
+            // the compiled path can classify any band
+            RasterClassifier.COMPILED_COLORMAP_ENABLED = true;
+            compiled = classify(image, 1);
+            final CompiledColorMap compiledColorMap = new CompiledColorMap(buildColorMap());
+            for (int y = 0; y < raster.getHeight(); y++) {
+                for (int x = 0; x < raster.getWidth(); x++) {
+                    assertEquals(compiledColorMap.classifyExact(raster.getSampleDouble(x, y, 1)),
+                            compiled.getSample(x, y, 0));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testColorMapCache() throws Exception {
+        final StyleBuilder sb = new StyleBuilder();
+        final GridSampleDimension sd = new GridSampleDimension("sd");
+        final ColorMap cm1 = sb.createColorMap(new String[] { "a", "b" }, new double[] { 0, 100 },
+                new Color[] { Color.BLUE, Color.RED }, ColorMap.TYPE_RAMP);
+        final ColorMap cm2 = sb.createColorMap(new String[] { "a", "b" }, new double[] { 0, 100 },
+                new Color[] { Color.BLUE, Color.RED }, ColorMap.TYPE_RAMP);
+        final ColorMap cm3 = sb.createColorMap(new String[] { "a", "b" }, new double[] { 0, 100 },
+                new Color[] { Color.BLUE, Color.GREEN }, ColorMap.TYPE_RAMP);
+        final LinearColorMap lcm = ColorMapNode.buildLinearColorMap(cm1, sd);
+        assertSame(lcm, ColorMapNode.buildLinearColorMap(cm2, sd));
+        assertNotSame(lcm, ColorMapNode.buildLinearColorMap(cm3, sd));
+    }
+
+    Raster classify(RenderedImage image, int band) {
+        final ParameterBlockJAI pbj = new ParameterBlockJAI(RasterClassifier.OPERATION_NAME);
+        pbj.addSource(image);
+        pbj.setParameter("Domain1D", buildColorMap());
+        pbj.setParameter("bandIndex", band);
+        final RenderedOp op = JAI.create(RasterClassifier.OPERATION_NAME, pbj);
+        try {
+            return op.getData();
+        } finally {
+            op.dispose();
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.renderer.lite.gridcoverage2d;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.geom.AffineTransform;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import javax.media.jai.Interpolation;
+import javax.media.jai.InterpolationBilinear;
+import javax.media.jai.InterpolationNearest;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.RasterFactory;
+
+import org.geotools.coverage.CoverageFactoryFinder;
+import org.geotools.coverage.GridSampleDimension;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.geometry.GeneralEnvelope;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.resources.image.ComponentColorModelJAI;
+import org.geotools.styling.ColorMap;
+import org.geotools.styling.RasterSymbolizer;
+import org.geotools.styling.StyleBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the fused rendering path produces the same output as the full processing chain
+ *
+ * @source $URL$
+ */
+public class FusedRasterImageTest {
+
+    static final GeneralEnvelope ENVELOPE = new GeneralEnvelope(new double[] { -180, -90 },
+            new double[] { 180, 90 });
+    static {
+        ENVELOPE.setCoordinateReferenceSystem(DefaultGeographicCRS.WGS84);
+    }
+
+    boolean fusedRendering;
+
+    @Before
+    public void saveFusedRendering() {
+        fusedRendering = GridCoverageRenderer.FUSED_RENDERING_ENABLED;
+    }
+
+    @After
+    public void resetFusedRendering() {
+        GridCoverageRenderer.FUSED_RENDERING_ENABLED = fusedRendering;
+    }
+
+    GridCoverage2D buildFloatCoverage() {
+        final int width = 200;
+        final int height = 100;
+        final WritableRaster raster = RasterFactory.createBandedRaster(DataBuffer.TYPE_FLOAT,
+                width, height, 1, null);
+        final Random random = new Random(1);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                raster.setSample(x, y, 0, random.nextFloat() > 0.9 ? Float.NaN : x + y);
+            }
+        }
+        final ColorModel cm = new ComponentColorModelJAI(ColorSpace.getInstance(ColorSpace.CS_GRAY),
+                false, false, Transparency.OPAQUE, DataBuffer.TYPE_FLOAT);
+        final BufferedImage image = new BufferedImage(cm, raster, false, null);
+        return CoverageFactoryFinder.getGridCoverageFactory(null).create("float",
+                PlanarImage.wrapRenderedImage(image), ENVELOPE,
+                new GridSampleDimension[] { new GridSampleDimension("sd") }, null, null);
+    }
+
+    GridCoverage2D buildRGBCoverage() {
+        final BufferedImage image = new BufferedImage(200, 100, BufferedImage.TYPE_3BYTE_BGR);
+        final Graphics2D graphics = image.createGraphics();
+        final Random random = new Random(1);
+        for (int i = 0; i < 50; i++) {
+            graphics.setColor(new Color(random.nextInt(256), random.nextInt(256), random
+                    .nextInt(256)));
+            graphics.fillRect(random.nextInt(200), random.nextInt(100), random.nextInt(50),
+                    random.nextInt(50));
+        }
+        graphics.dispose();
+        return CoverageFactoryFinder.getGridCoverageFactory(null).create("rgb", image, ENVELOPE);
+    }
+
+    RasterSymbolizer buildColorMapSymbolizer(float opacity) {
+        final StyleBuilder sb = new StyleBuilder();
+        final ColorMap colorMap = sb.createColorMap(new String[] { "low", "mid", "high" },
+                new double[] { 0, 150, 300 }, new Color[] { Color.BLUE, Color.GREEN, Color.RED },
+                ColorMap.TYPE_RAMP);
+        return sb.createRasterSymbolizer(colorMap, opacity);
+    }
+
+    @Test
+    public void testColorMapNearest() throws Exception {
+        final GridCoverage2D coverage = buildFloatCoverage();
+        final RasterSymbolizer symbolizer = buildColorMapSymbolizer(1);
+        for (Rectangle screen : new Rectangle[] { new Rectangle(0, 0, 100, 50),
+                new Rectangle(0, 0, 400, 200), new Rectangle(0, 0, 300, 300) }) {
+            final RenderedImage fused = render(coverage, symbolizer, screen,
+                    new InterpolationNearest(), true);
+            assertTrue(fused instanceof FusedRasterImage);
+            assertTrue(fused.getColorModel() instanceof IndexColorModel);
+            final RenderedImage chain = render(coverage, symbolizer, screen,
+                    new InterpolationNearest(), false);
+            assertFalse(chain instanceof FusedRasterImage);
+            assertSimilar(chain, fused, 0.01);
+        }
+    }
+
+    @Test
+    public void testColorMapOpacity() throws Exception {
+        final GridCoverage2D coverage = buildFloatCoverage();
+        final RasterSymbolizer symbolizer = buildColorMapSymbolizer(0.5f);
+        final Rectangle screen = new Rectangle(0, 0, 400, 200);
+        final RenderedImage fused = render(coverage, symbolizer, screen,
+                new InterpolationNearest(), true);
+        final IndexColorModel icm = (IndexColorModel) fused.getColorModel();
+        for (int i = 0; i < icm.getMapSize(); i++) {
+            assertTrue(icm.getAlpha(i) <= 128);
+        }
+        assertSimilar(render(coverage, symbolizer, screen, new InterpolationNearest(), false),
+                fused, 0.01);
+    }
+
+    @Test
+    public void testColorMapBilinear() throws Exception {
+        final GridCoverage2D coverage = buildFloatCoverage();
+        final RasterSymbolizer symbolizer = buildColorMapSymbolizer(1);
+        final RenderedImage fused = render(coverage, symbolizer, new Rectangle(0, 0, 400, 200),
+                new InterpolationBilinear(), true);
+        assertTrue(fused instanceof FusedRasterImage);
+        assertFalse(fused.getColorModel() instanceof IndexColorModel);
+        assertEquals(4, fused.getSampleModel().getNumBands());
+    }
+
+    @Test
+    public void testRGB() throws Exception {
+        final GridCoverage2D coverage = buildRGBCoverage();
+        final RasterSymbolizer symbolizer = new StyleBuilder().createRasterSymbolizer();
+        for (Rectangle screen : new Rectangle[] { new Rectangle(0, 0, 100, 50),
+                new Rectangle(0, 0, 400, 200) }) {
+            final RenderedImage fused = render(coverage, symbolizer, screen,
+                    new InterpolationNearest(), true);
+            assertTrue(fused instanceof FusedRasterImage);
+            assertSimilar(render(coverage, symbolizer, screen, new InterpolationNearest(), false),
+                    fused, 0.01);
+        }
+    }
+
+    @Test
+    public void testDisabledByDefault() throws Exception {
+        assertFalse(GridCoverageRenderer.FUSED_RENDERING_ENABLED);
+    }
+
+    @Test
+    public void testSameBounds() throws Exception {
+        final GridCoverage2D coverage = buildFloatCoverage();
+        final RasterSymbolizer symbolizer = buildColorMapSymbolizer(1);
+        for (Rectangle screen : new Rectangle[] { new Rectangle(0, 0, 100, 50),
+                new Rectangle(0, 0, 300, 300) }) {
+            final RenderedImage fused = render(coverage, symbolizer, screen,
+                    new InterpolationNearest(), true);
+            final RenderedImage chain = render(coverage, symbolizer, screen,
+                    new InterpolationNearest(), false);
+            assertEquals(bounds(chain), bounds(fused));
+            assertEquals(chain.getTileWidth(), fused.getTileWidth());
+            assertEquals(chain.getTileHeight(), fused.getTileHeight());
+        }
+    }
+
+    @Test
+    public void testPalettedSourceNearest() throws Exception {
+        final byte[] gray = new byte[256];
+        for (int i = 0; i < gray.length; i++) {
+            gray[i] = (byte) i;
+        }
+        final BufferedImage image = new BufferedImage(200, 100, BufferedImage.TYPE_BYTE_INDEXED,
+                new IndexColorModel(8, 256, gray, gray, gray));
+        final WritableRaster raster = image.getRaster();
+        for (int y = 0; y < 100; y++) {
+            for (int x = 0; x < 200; x++) {
+                raster.setSample(x, y, 0, (x + y) % 256);
+            }
+        }
+        final GridCoverage2D coverage = CoverageFactoryFinder.getGridCoverageFactory(null)
+                .create("paletted", image, ENVELOPE);
+        final RenderedImage fused = render(coverage, buildColorMapSymbolizer(1), new Rectangle(
+                0, 0, 400, 200), new InterpolationBilinear(), true);
+        assertTrue(fused instanceof FusedRasterImage);
+        assertTrue(fused.getColorModel() instanceof IndexColorModel);
+    }
+
+    @Test
+    public void testBackground() throws Exception {
+        final RenderedImage source = buildRGBCoverage().getRenderedImage();
+        // the destination is larger than the source on the right and bottom sides
+        final Rectangle bounds = new Rectangle(0, 0, 300, 150);
+        final FusedRasterImage image = FusedRasterImage.createRGB(source, new AffineTransform(),
+                bounds, 64, 64, false, Color.YELLOW);
+        assertEquals(3, image.getSampleModel().getNumBands());
+        final Raster data = image.getData();
+        assertArrayEquals(new int[] { 255, 255, 0 }, data.getPixel(250, 120, (int[]) null));
+        assertArrayEquals(source.getData().getPixel(10, 10, (int[]) null), data.getPixel(10,
+                10, (int[]) null));
+
+        // without background the outside is transparent
+        final FusedRasterImage transparent = FusedRasterImage.createRGB(source,
+                new AffineTransform(), bounds, 64, 64, true, null);
+        assertEquals(4, transparent.getSampleModel().getNumBands());
+        final Raster alpha = transparent.getData();
+        assertEquals(0, alpha.getSample(250, 120, 3));
+        assertEquals(255, alpha.getSample(10, 10, 3));
+    }
+
+    @Test
+    public void testNotFused() throws Exception {
+        // bicubic is left to the full chain
+        final RenderedImage image = render(buildRGBCoverage(),
+                new StyleBuilder().createRasterSymbolizer(), new Rectangle(0, 0, 100, 50),
+                Interpolation.getInstance(Interpolation.INTERP_BICUBIC), true);
+        assertFalse(image instanceof FusedRasterImage);
+    }
+
+    RenderedImage render(GridCoverage2D coverage, RasterSymbolizer symbolizer, Rectangle screen,
+            Interpolation interpolation, boolean fused) throws Exception {
+        GridCoverageRenderer.FUSED_RENDERING_ENABLED = fused;
+        final GridCoverageRenderer renderer = new GridCoverageRenderer(
+                DefaultGeographicCRS.WGS84, ReferencedEnvelope.reference(ENVELOPE), screen, null);
+        final RenderedImage image = renderer.renderImage(coverage, symbolizer, interpolation,
+                null, 64, 64);
+        assertNotNull(image);
+        return image;
+    }
+
+    Rectangle bounds(RenderedImage image) {
+        return new Rectangle(image.getMinX(), image.getMinY(), image.getWidth(),
+                image.getHeight());
+    }
+
+    /**
+     * Compares the colors of the two images where they overlap, allowing for a small fraction of
+     * differences due to rounding in the inverse mapping of the pixel centers
+     */
+    void assertSimilar(RenderedImage expected, RenderedImage actual, double maxDifferent) {
+        final Rectangle ebounds = new Rectangle(expected.getMinX(), expected.getMinY(),
+                expected.getWidth(), expected.getHeight());
+        final Rectangle abounds = new Rectangle(actual.getMinX(), actual.getMinY(),
+                actual.getWidth(), actual.getHeight());
+        final Rectangle common = ebounds.intersection(abounds);
+        assertFalse(common.isEmpty());
+        final BufferedImage e = PlanarImage.wrapRenderedImage(expected).getAsBufferedImage();
+        final BufferedImage a = PlanarImage.wrapRenderedImage(actual).getAsBufferedImage();
+        int different = 0;
+        for (int y = common.y; y < common.y + common.height; y++) {
+            for (int x = common.x; x < common.x + common.width; x++) {
+                if (e.getRGB(x - ebounds.x, y - ebounds.y) != a.getRGB(x - abounds.x, y
+                        - abounds.y)) {
+                    different++;
+                }
+            }
+        }
+        assertTrue("Too many different pixels: " + different, different <= common.width
+                * common.height * maxDifferent);
+    }
+}
@@ -45,7 +45,9 @@ import org.geotools.styling.Mark;
 import org.geotools.styling.PointSymbolizer;
 import org.geotools.styling.PolygonSymbolizer;
 import org.geotools.styling.StyleFactory;
+import org.geotools.styling.Symbolizer;
 import org.geotools.styling.TextSymbolizer;
+import org.geotools.styling.visitor.DuplicatingStyleVisitor;
 import org.geotools.util.NumberRange;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
@@ -368,4 +370,68 @@ public class SLDStyleFactoryTest extends TestCase {
          IconStyle2D icon = (IconStyle2D) sld.createPointStyle(feature, symb, range);
          assertNull(icon);
      }
+
+     public void testSharedStyleCache() throws Exception {
+         Style2DCache cache = new Style2DCache(10);
+         SLDStyleFactory sld1 = new SLDStyleFactory();
+         sld1.setSharedCache(cache);
+         SLDStyleFactory sld2 = new SLDStyleFactory();
+         sld2.setSharedCache(cache);
+
+         PointSymbolizer symb = sf.createPointSymbolizer();
+         Mark myMark = sf.createMark();
+         myMark.setWellKnownName(ff.literal("square"));
+         symb.getGraphic().graphicalSymbols().add(myMark);
+         // equal but not the same, as the copies made by the renderer
+         DuplicatingStyleVisitor duplicator = new DuplicatingStyleVisitor();
+         symb.accept(duplicator);
+         PointSymbolizer copy = (PointSymbolizer) duplicator.getCopy();
+
+         Style2D style = sld1.createStyle(feature, symb, range);
+         assertNotNull(style);
+         assertEquals(1, cache.size());
+         assertSame(style, sld2.createStyle(feature, copy, range));
+         assertEquals(1, cache.getHits());
+
+         // changing the original does not affect the cached key
+         symb.getGraphic().setSize(ff.literal(32));
+         SLDStyleFactory sld3 = new SLDStyleFactory();
+         sld3.setSharedCache(cache);
+         assertNotSame(style, sld3.createStyle(feature, symb, range));
+         assertEquals(2, cache.size());
+         assertSame(style, sld3.createStyle(feature, copy, range));
+
+         // factory settings are part of the key
+         sld2.setVectorRenderingEnabled(true);
+         sld2.staticSymbolizers.clear();
+         assertNotSame(style, sld2.createStyle(feature, copy, range));
+         assertEquals(3, cache.size());
+
+         // displacement and anchor point are baked into the style, and part of the key
+         PointSymbolizer displaced = (PointSymbolizer) duplicate(copy);
+         displaced.getGraphic().setDisplacement(sf.createDisplacement(ff.literal(5), ff.literal(5)));
+         Style2D displacedStyle = sld1.createStyle(feature, displaced, range);
+         assertNotSame(style, displacedStyle);
+         assertSame(displacedStyle, sld3.createStyle(feature, duplicate(displaced), range));
+         PointSymbolizer anchored = (PointSymbolizer) duplicate(copy);
+         anchored.getGraphic().setAnchorPoint(sf.createAnchorPoint(ff.literal(0), ff.literal(1)));
+         Style2D anchoredStyle = sld1.createStyle(feature, anchored, range);
+         assertNotSame(style, anchoredStyle);
+         assertNotSame(displacedStyle, anchoredStyle);
+
+         // dynamic styles are not shared
+         int size = cache.size();
+         PointSymbolizer dynamic = sf.createPointSymbolizer();
+         Mark dynamicMark = sf.createMark();
+         dynamicMark.setWellKnownName(ff.literal("ttf://Serif#${symb}"));
+         dynamic.getGraphic().graphicalSymbols().add(dynamicMark);
+         assertNotNull(sld1.createStyle(feature, dynamic, range));
+         assertEquals(size, cache.size());
+     }
+
+     private Symbolizer duplicate(Symbolizer symbolizer) {
+         DuplicatingStyleVisitor duplicator = new DuplicatingStyleVisitor();
+         symbolizer.accept(duplicator);
+         return (Symbolizer) duplicator.getCopy();
+     }
 }
@@ -0,0 +1,194 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.gen;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geotools.data.DataStore;
+import org.geotools.data.FeatureEvent;
+import org.geotools.data.FeatureListener;
+import org.geotools.data.gen.GeometryCache.TypeCache;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.data.store.ContentDataStore;
+import org.geotools.data.store.ContentEntry;
+import org.geotools.data.store.ContentFeatureSource;
+import org.geotools.factory.Hints;
+import org.geotools.feature.NameImpl;
+import org.opengis.feature.type.Name;
+
+/**
+ * Read only data store wrapping another data store, generalizing the geometries of its features
+ * on the fly.
+ *
+ * The first time a feature is read with a {@link Hints#GEOMETRY_DISTANCE} hint, its geometry is
+ * simplified at each of the configured distances and the results are stored in a disk cache,
+ * keyed by feature id and source modification time. The next queries with the hint read the
+ * attributes from the source without the geometry, and take the geometry at the best fitting
+ * distance from the cache, as {@link PreGeneralizedDataStore} does with generalizations built
+ * offline. Queries without the hint, or asking for a distance smaller than the smallest
+ * configured one, are answered by the source.
+ *
+ * The cache of a feature type is discarded when features are modified through the source data
+ * store, or when the modification time returned by {@link #getModificationTime(String)}
+ * changes. Sources modified by other means should have it set with
+ * {@link #setModificationTime(String, long)}, for example to the last modified time of a shape
+ * file.
+ *
+ * The features must have reliable feature ids, types without them are not cached.
+ *
+ * @source $URL$
+ */
+public class GeneralizingDataStore extends ContentDataStore {
+
+    final DataStore delegate;
+
+    final double[] distances;
+
+    final GeometryCache cache;
+
+    private final Map<String, Long> modificationTimes = new HashMap<String, Long>();
+
+    private final Map<String, CacheInvalidator> listeners = new HashMap<String, CacheInvalidator>();
+
+    /**
+     * @param delegate
+     *            the source data store
+     * @param distances
+     *            the generalization distances
+     * @param cacheDirectory
+     *            the directory of the geometry cache, shared by the feature types of the source
+     * @throws IOException
+     */
+    public GeneralizingDataStore(DataStore delegate, double[] distances, File cacheDirectory)
+            throws IOException {
+        if (distances.length == 0)
+            throw new IllegalArgumentException("No generalization distances");
+        this.delegate = delegate;
+        this.distances = distances.clone();
+        Arrays.sort(this.distances);
+        this.cache = new GeometryCache(cacheDirectory, this.distances);
+    }
+
+    /**
+     * @return the source data store
+     */
+    public DataStore getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    protected List<Name> createTypeNames() throws IOException {
+        List<Name> names = new ArrayList<Name>();
+        for (String typeName : delegate.getTypeNames())
+            names.add(new NameImpl(namespaceURI, typeName));
+        return names;
+    }
+
+    @Override
+    protected ContentFeatureSource createFeatureSource(ContentEntry entry) throws IOException {
+        final String typeName = entry.getTypeName();
+        SimpleFeatureSource source = delegate.getFeatureSource(typeName);
+        synchronized (listeners) {
+            if (listeners.containsKey(typeName) == false) {
+                CacheInvalidator listener = new CacheInvalidator(typeName, source);
+                source.addFeatureListener(listener);
+                listeners.put(typeName, listener);
+            }
+        }
+        return new GeneralizingFeatureSource(entry, source);
+    }
+
+    /**
+     * Returns the modification time of a source feature type, a change discards the cached
+     * geometries of the type. Returns the time set with
+     * {@link #setModificationTime(String, long)}, 0 if not set.
+     *
+     * @param typeName
+     * @return the modification time
+     * @throws IOException
+     */
+    protected long getModificationTime(String typeName) throws IOException {
+        synchronized (modificationTimes) {
+            Long time = modificationTimes.get(typeName);
+            return time == null ? 0 : time;
+        }
+    }
+
+    /**
+     * Sets the modification time of a source feature type
+     *
+     * @param typeName
+     * @param time
+     */
+    public void setModificationTime(String typeName, long time) {
+        synchronized (modificationTimes) {
+            modificationTimes.put(typeName, time);
+        }
+    }
+
+    /**
+     * @return the index of the distance to use for the requested one, -1 if none
+     */
+    int getLevel(Double requestedDistance) {
+        if (requestedDistance == null)
+            return -1;
+        int level = -1;
+        for (int i = 0; i < distances.length && requestedDistance >= distances[i]; i++)
+            level = i;
+        return level;
+    }
+
+    TypeCache getTypeCache(String typeName) throws IOException {
+        return cache.getTypeCache(typeName, getModificationTime(typeName));
+    }
+
+    @Override
+    public void dispose() {
+        synchronized (listeners) {
+            for (CacheInvalidator listener : listeners.values())
+                listener.source.removeFeatureListener(listener);
+            listeners.clear();
+        }
+        cache.dispose();
+        super.dispose();
+    }
+
+    /**
+     * Discards the cached geometries of a feature type when its features are modified through
+     * the source data store
+     */
+    class CacheInvalidator implements FeatureListener {
+        final String typeName;
+
+        final SimpleFeatureSource source;
+
+        CacheInvalidator(String typeName, SimpleFeatureSource source) {
+            this.typeName = typeName;
+            this.source = source;
+        }
+
+        public void changed(FeatureEvent featureEvent) {
+            cache.invalidate(typeName);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.gen;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.geotools.data.FeatureReader;
+import org.geotools.data.gen.GeometryCache.TypeCache;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKBWriter;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+
+/**
+ * Feature reader of a {@link GeneralizingFeatureSource}.
+ *
+ * Reads the attributes of the features from the source in windows of {@link #WINDOW_SIZE}
+ * features and merges them with the cached generalized geometries. The geometries missing from
+ * the cache are read from the source with a single id query per window, generalized at each
+ * distance and cached.
+ *
+ * Without a cache the features of the source are only retyped.
+ *
+ * @source $URL$
+ */
+class GeneralizingFeatureReader implements FeatureReader<SimpleFeatureType, SimpleFeature> {
+
+    static final int WINDOW_SIZE = 256;
+
+    private final SimpleFeatureType featureType;
+
+    private final FeatureReader<SimpleFeatureType, SimpleFeature> delegate;
+
+    private final SimpleFeatureBuilder builder;
+
+    private final GeneralizingFeatureSource source;
+
+    private final TypeCache cache;
+
+    private final int level;
+
+    private final String geometryName;
+
+    private final LinkedList<SimpleFeature> window = new LinkedList<SimpleFeature>();
+
+    private WKBWriter wkbWriter;
+
+    private WKBReader wkbReader;
+
+    /**
+     * Reader retyping the features of the source
+     */
+    GeneralizingFeatureReader(SimpleFeatureType featureType,
+            FeatureReader<SimpleFeatureType, SimpleFeature> delegate) {
+        this(featureType, delegate, null, null, -1, null);
+    }
+
+    /**
+     * Reader merging the attributes read from the source with the cached geometries
+     */
+    GeneralizingFeatureReader(SimpleFeatureType featureType,
+            FeatureReader<SimpleFeatureType, SimpleFeature> delegate,
+            GeneralizingFeatureSource source, TypeCache cache, int level, String geometryName) {
+        this.featureType = featureType;
+        this.delegate = delegate;
+        this.builder = new SimpleFeatureBuilder(featureType);
+        this.source = source;
+        this.cache = cache;
+        this.level = level;
+        this.geometryName = geometryName;
+    }
+
+    public SimpleFeatureType getFeatureType() {
+        return featureType;
+    }
+
+    public boolean hasNext() throws IOException {
+        if (window.isEmpty())
+            fill();
+        return window.isEmpty() == false;
+    }
+
+    public SimpleFeature next() throws IOException, IllegalArgumentException,
+            NoSuchElementException {
+        if (hasNext() == false)
+            throw new NoSuchElementException();
+        return window.removeFirst();
+    }
+
+    public void close() throws IOException {
+        window.clear();
+        delegate.close();
+    }
+
+    private void fill() throws IOException {
+        if (cache == null) {
+            if (delegate.hasNext())
+                window.add(build(delegate.next(), null));
+            return;
+        }
+
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>(WINDOW_SIZE);
+        while (features.size() < WINDOW_SIZE && delegate.hasNext())
+            features.add(delegate.next());
+        if (features.isEmpty())
+            return;
+
+        Map<String, byte[][]> cached = new HashMap<String, byte[][]>();
+        Set<String> missing = new HashSet<String>();
+        for (SimpleFeature feature : features) {
+            byte[][] wkbs = cache.get(feature.getID());
+            if (wkbs == null)
+                missing.add(feature.getID());
+            else
+                cached.put(feature.getID(), wkbs);
+        }
+        if (missing.isEmpty() == false)
+            cached.putAll(generalize(missing));
+
+        for (SimpleFeature feature : features) {
+            byte[][] wkbs = cached.get(feature.getID());
+            window.add(build(feature, wkbs == null ? null : decode(wkbs[level])));
+        }
+    }
+
+    /**
+     * Reads the geometries of the features from the source, generalizes them at each distance and
+     * caches the results
+     */
+    private Map<String, byte[][]> generalize(Set<String> fids) throws IOException {
+        if (wkbWriter == null)
+            wkbWriter = new WKBWriter();
+        double[] distances = source.getDataStore().distances;
+
+        Map<String, byte[][]> result = new HashMap<String, byte[][]>();
+        Map<String, Geometry> geometries = source.getSourceGeometries(fids, geometryName);
+        for (String fid : fids) {
+            Geometry geometry = geometries.get(fid);
+            byte[][] wkbs = new byte[distances.length][];
+            for (int i = 0; geometry != null && i < distances.length; i++) {
+                Geometry generalized = TopologyPreservingSimplifier.simplify(geometry,
+                        distances[i]);
+                wkbs[i] = wkbWriter.write(generalized);
+            }
+            cache.put(fid, wkbs);
+            result.put(fid, wkbs);
+        }
+        return result;
+    }
+
+    private Geometry decode(byte[] wkb) throws IOException {
+        if (wkb == null)
+            return null;
+        if (wkbReader == null)
+            wkbReader = new WKBReader();
+        try {
+            return wkbReader.read(wkb);
+        } catch (ParseException e) {
+            throw (IOException) new IOException("Corrupted geometry cache").initCause(e);
+        }
+    }
+
+    private SimpleFeature build(SimpleFeature feature, Geometry geometry) {
+        builder.reset();
+        for (AttributeDescriptor descriptor : featureType.getAttributeDescriptors()) {
+            String name = descriptor.getLocalName();
+            if (cache != null && name.equals(geometryName))
+                builder.set(name, geometry);
+            else
+                builder.set(name, feature.getAttribute(name));
+        }
+        return builder.buildFeature(feature.getID());
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.gen;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.data.store.ContentEntry;
+import org.geotools.data.store.ContentFeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.factory.Hints;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.filter.FilterFactory;
+import org.opengis.filter.identity.FeatureId;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Feature source of a {@link GeneralizingDataStore}, reading the attributes from the source
+ * feature source and the generalized geometries from the cache
+ *
+ * @source $URL$
+ */
+public class GeneralizingFeatureSource extends ContentFeatureSource {
+
+    static final FilterFactory FF = CommonFactoryFinder.getFilterFactory(null);
+
+    final SimpleFeatureSource delegate;
+
+    public GeneralizingFeatureSource(ContentEntry entry, SimpleFeatureSource delegate) {
+        super(entry, null);
+        this.delegate = delegate;
+    }
+
+    @Override
+    public GeneralizingDataStore getDataStore() {
+        return (GeneralizingDataStore) super.getDataStore();
+    }
+
+    @Override
+    protected SimpleFeatureType buildFeatureType() throws IOException {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.init(delegate.getSchema());
+        tb.setName(entry.getName());
+        return tb.buildFeatureType();
+    }
+
+    @Override
+    protected ReferencedEnvelope getBoundsInternal(Query query) throws IOException {
+        return delegate.getBounds(toSourceQuery(query, query.getPropertyNames()));
+    }
+
+    @Override
+    protected int getCountInternal(Query query) throws IOException {
+        return delegate.getCount(toSourceQuery(query, query.getPropertyNames()));
+    }
+
+    @Override
+    protected FeatureReader<SimpleFeatureType, SimpleFeature> getReaderInternal(Query query)
+            throws IOException {
+        GeneralizingDataStore store = getDataStore();
+        int level = store.getLevel((Double) query.getHints().get(Hints.GEOMETRY_DISTANCE));
+        String geometryName = getSchema().getGeometryDescriptor() == null ? null : getSchema()
+                .getGeometryDescriptor().getLocalName();
+        SimpleFeatureType resultType = getResultType(query);
+
+        if (level < 0 || geometryName == null || resultType.getDescriptor(geometryName) == null
+                || delegate.getQueryCapabilities().isReliableFIDSupported() == false) {
+            // full resolution geometries, or no geometry at all
+            return new GeneralizingFeatureReader(resultType, store.delegate.getFeatureReader(
+                    toSourceQuery(query, query.getPropertyNames()), getTransaction()));
+        }
+
+        // read the attributes without the geometry, it comes from the cache
+        List<String> attributes = new ArrayList<String>();
+        for (AttributeDescriptor descriptor : resultType.getAttributeDescriptors()) {
+            if (descriptor.getLocalName().equals(geometryName) == false)
+                attributes.add(descriptor.getLocalName());
+        }
+        FeatureReader<SimpleFeatureType, SimpleFeature> reader = store.delegate.getFeatureReader(
+                toSourceQuery(query, attributes.toArray(new String[attributes.size()])),
+                getTransaction());
+        return new GeneralizingFeatureReader(resultType, reader, this, store.getTypeCache(entry
+                .getTypeName()), level, geometryName);
+    }
+
+    /**
+     * @return the type of the features returned for the query
+     */
+    SimpleFeatureType getResultType(Query query) {
+        if (query.getPropertyNames() == Query.ALL_NAMES)
+            return getSchema();
+        return SimpleFeatureTypeBuilder.retype(getSchema(), query.getPropertyNames());
+    }
+
+    /**
+     * @return the query to run against the source, limit, offset and sorting are left to the
+     *         caller
+     */
+    Query toSourceQuery(Query query, String[] propertyNames) {
+        Query result = new Query(query);
+        result.setTypeName(delegate.getSchema().getTypeName());
+        result.setPropertyNames(propertyNames);
+        result.setMaxFeatures(Query.DEFAULT_MAX);
+        result.setStartIndex(null);
+        result.setSortBy(null);
+        return result;
+    }
+
+    /**
+     * Reads the full resolution geometries of the specified features from the source
+     *
+     * @param fids
+     *            the feature ids
+     * @param geometryName
+     *            the geometry property
+     * @return the geometries by feature id
+     * @throws IOException
+     */
+    Map<String, Geometry> getSourceGeometries(Set<String> fids, String geometryName)
+            throws IOException {
+        Set<FeatureId> ids = new HashSet<FeatureId>();
+        for (String fid : fids)
+            ids.add(FF.featureId(fid));
+        Query query = new Query(delegate.getSchema().getTypeName(), FF.id(ids),
+                new String[] { geometryName });
+
+        Map<String, Geometry> result = new HashMap<String, Geometry>();
+        SimpleFeatureIterator it = delegate.getFeatures(query).features();
+        try {
+            while (it.hasNext()) {
+                SimpleFeature feature = it.next();
+                result.put(feature.getID(), (Geometry) feature.getDefaultGeometry());
+            }
+        } finally {
+            it.close();
+        }
+        return result;
+    }
+
+    @Override
+    protected boolean canFilter() {
+        return true;
+    }
+
+    @Override
+    protected boolean canRetype() {
+        return true;
+    }
+
+    @Override
+    protected void addHints(Set<Hints.Key> hints) {
+        hints.add(Hints.GEOMETRY_DISTANCE);
+    }
+}
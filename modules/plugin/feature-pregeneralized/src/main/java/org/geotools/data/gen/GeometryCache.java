@@ -0,0 +1,245 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.gen;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+
+/**
+ * Disk backed cache of the generalized geometries of the features of a data store, used by
+ * {@link GeneralizingDataStore}.
+ *
+ * Each feature type has its own file, named after the type, the modification time of the source
+ * and the generalization distances, holding a record per feature id with the WKB of the
+ * geometry at each distance. Records are appended as features are generalized, the index of the
+ * records is kept in memory and rebuilt from the file when the cache is reopened.
+ *
+ * @source $URL$
+ */
+class GeometryCache {
+
+    static final Logger LOGGER = Logging.getLogger(GeometryCache.class);
+
+    static final String SUFFIX = ".gcache";
+
+    private final File directory;
+
+    private final String distancesKey;
+
+    private final int levels;
+
+    private final Map<String, TypeCache> types = new HashMap<String, TypeCache>();
+
+    GeometryCache(File directory, double[] distances) throws IOException {
+        if (directory.exists() == false && directory.mkdirs() == false)
+            throw new IOException("Could not create " + directory);
+        this.directory = directory;
+        this.levels = distances.length;
+        this.distancesKey = Integer.toHexString(Arrays.hashCode(distances));
+    }
+
+    /**
+     * Returns the cache of a feature type, discarding the cached geometries if the source was
+     * modified since they were cached
+     */
+    synchronized TypeCache getTypeCache(String typeName, long modificationTime)
+            throws IOException {
+        TypeCache cache = types.get(typeName);
+        if (cache != null && cache.modificationTime == modificationTime)
+            return cache;
+        if (cache != null)
+            cache.delete();
+
+        String prefix = getPrefix(typeName);
+        String name = prefix + modificationTime + "_" + distancesKey + SUFFIX;
+        File[] stale = directory.listFiles();
+        for (int i = 0; stale != null && i < stale.length; i++) {
+            if (stale[i].getName().startsWith(prefix) && stale[i].getName().equals(name) == false)
+                stale[i].delete();
+        }
+        cache = new TypeCache(new File(directory, name), modificationTime, levels);
+        types.put(typeName, cache);
+        return cache;
+    }
+
+    /**
+     * Discards the cached geometries of a feature type
+     */
+    synchronized void invalidate(String typeName) {
+        TypeCache cache = types.remove(typeName);
+        if (cache != null)
+            cache.delete();
+    }
+
+    synchronized void dispose() {
+        for (TypeCache cache : types.values())
+            cache.close();
+        types.clear();
+    }
+
+    private String getPrefix(String typeName) {
+        return typeName.replaceAll("[^A-Za-z0-9_\\-]", "_") + "_"
+                + Integer.toHexString(typeName.hashCode()) + "_";
+    }
+
+    /**
+     * The cached geometries of a feature type
+     */
+    static class TypeCache {
+
+        final long modificationTime;
+
+        private final File file;
+
+        private final int levels;
+
+        private RandomAccessFile raf;
+
+        /**
+         * Record offset and length by feature id
+         */
+        private final Map<String, long[]> index = new HashMap<String, long[]>();
+
+        TypeCache(File file, long modificationTime, int levels) throws IOException {
+            this.file = file;
+            this.modificationTime = modificationTime;
+            this.levels = levels;
+            this.raf = new RandomAccessFile(file, "rw");
+            load();
+        }
+
+        /**
+         * Rebuilds the index, dropping the last record if it was not completely written
+         */
+        private void load() throws IOException {
+            long offset = 0;
+            long length = raf.length();
+            raf.seek(0);
+            try {
+                while (offset < length) {
+                    int size = raf.readInt();
+                    if (size < 0 || offset + 4 + size > length)
+                        break;
+                    String fid = raf.readUTF();
+                    index.put(fid, new long[] { offset + 4, size });
+                    offset += 4 + size;
+                    raf.seek(offset);
+                }
+            } catch (EOFException e) {
+                // truncated record
+            }
+            if (offset < length) {
+                LOGGER.warning("Dropping the incomplete tail of " + file);
+                raf.setLength(offset);
+            }
+        }
+
+        /**
+         * @return the WKB of the geometries at each distance, null elements for null geometries,
+         *         or null if the feature is not cached
+         */
+        synchronized byte[][] get(String fid) throws IOException {
+            long[] entry = index.get(fid);
+            if (entry == null || raf == null)
+                return null;
+            byte[] record = new byte[(int) entry[1]];
+            raf.seek(entry[0]);
+            raf.readFully(record);
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+            in.readUTF();
+            byte[][] result = new byte[in.readInt()][];
+            for (int i = 0; i < result.length; i++) {
+                int size = in.readInt();
+                if (size >= 0) {
+                    result[i] = new byte[size];
+                    in.readFully(result[i]);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Caches the WKB of the geometries of a feature at each distance
+         */
+        synchronized void put(String fid, byte[][] wkbs) throws IOException {
+            if (raf == null)
+                return;
+            if (wkbs.length != levels)
+                throw new IllegalArgumentException("Expected " + levels + " geometries");
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0); // size placeholder
+            out.writeUTF(fid);
+            out.writeInt(wkbs.length);
+            for (int i = 0; i < wkbs.length; i++) {
+                if (wkbs[i] == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(wkbs[i].length);
+                    out.write(wkbs[i]);
+                }
+            }
+            out.flush();
+            byte[] record = bytes.toByteArray();
+            int size = record.length - 4;
+            record[0] = (byte) (size >>> 24);
+            record[1] = (byte) (size >>> 16);
+            record[2] = (byte) (size >>> 8);
+            record[3] = (byte) size;
+
+            long offset = raf.length();
+            raf.seek(offset);
+            raf.write(record);
+            index.put(fid, new long[] { offset + 4, size });
+        }
+
+        synchronized int size() {
+            return index.size();
+        }
+
+        synchronized void close() {
+            if (raf == null)
+                return;
+            try {
+                raf.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Error closing " + file, e);
+            }
+            raf = null;
+        }
+
+        synchronized void delete() {
+            close();
+            index.clear();
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.gen.info;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Writes GeneralizationInfos as the XML read by {@link GeneralizationInfosProviderImpl}
+ *
+ * @source $URL$
+ */
+public class GeneralizationInfosWriter {
+
+    /**
+     * Writes the generalization infos, the stream is not closed
+     *
+     * @param infos
+     * @param out
+     * @throws IOException
+     */
+    public void write(GeneralizationInfos infos, OutputStream out) throws IOException {
+        Document doc = null;
+        try {
+            doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        } catch (ParserConfigurationException e) {
+            throw (IOException) new IOException(e.getMessage()).initCause(e);
+        }
+
+        Element infosElement = doc
+                .createElement(GeneralizationInfosProviderImpl.GENERALIZATION_INFOS_TAG);
+        infosElement.setAttribute(GeneralizationInfosProviderImpl.VERSION_ATTR, "1.0");
+        setDataSource(infosElement, infos.getDataSourceName(), infos.getDataSourceNameSpace(),
+                null, null);
+        doc.appendChild(infosElement);
+
+        for (GeneralizationInfo info : infos.getGeneralizationInfoCollection()) {
+            Element infoElement = doc
+                    .createElement(GeneralizationInfosProviderImpl.GENERALIZATION_INFO_TAG);
+            setDataSource(infoElement, info.getDataSourceName(), info.getDataSourceNameSpace(),
+                    infos.getDataSourceName(), infos.getDataSourceNameSpace());
+            infoElement.setAttribute(GeneralizationInfosProviderImpl.FEATURE_NAME_ATTR, info
+                    .getFeatureName());
+            infoElement.setAttribute(GeneralizationInfosProviderImpl.BASE_FEATURE_NAME_ATTR, info
+                    .getBaseFeatureName());
+            if (info.getGeomPropertyName() != null)
+                infoElement.setAttribute(GeneralizationInfosProviderImpl.GEOM_PROPERTY_NAME_ATTR,
+                        info.getGeomPropertyName());
+            infosElement.appendChild(infoElement);
+
+            for (Generalization gen : info.getGeneralizations()) {
+                Element genElement = doc
+                        .createElement(GeneralizationInfosProviderImpl.GENERALIZATION_TAG);
+                setDataSource(genElement, gen.getDataSourceName(), gen.getDataSourceNameSpace(),
+                        info.getDataSourceName(), info.getDataSourceNameSpace());
+                genElement.setAttribute(GeneralizationInfosProviderImpl.DISTANCE_ATTR, gen
+                        .getDistance().toString());
+                genElement.setAttribute(GeneralizationInfosProviderImpl.FEATURE_NAME_ATTR, gen
+                        .getFeatureName());
+                if (gen.getGeomPropertyName() != null)
+                    genElement.setAttribute(
+                            GeneralizationInfosProviderImpl.GEOM_PROPERTY_NAME_ATTR, gen
+                                    .getGeomPropertyName());
+                infoElement.appendChild(genElement);
+            }
+        }
+
+        try {
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+            transformer.transform(new DOMSource(doc), new StreamResult(out));
+        } catch (TransformerException e) {
+            throw (IOException) new IOException(e.getMessage()).initCause(e);
+        }
+    }
+
+    /**
+     * Sets the data source attributes. The getters of the infos return the values inherited from
+     * the parent when not set, so only the values differing from the parent ones are written.
+     */
+    private void setDataSource(Element element, String dataSourceName, String namespace,
+            String parentDataSourceName, String parentNamespace) {
+        if (dataSourceName != null && dataSourceName.equals(parentDataSourceName) == false)
+            element.setAttribute(GeneralizationInfosProviderImpl.DATASOURCE_NAME_ATTR,
+                    dataSourceName);
+        if (namespace != null && namespace.equals(parentNamespace) == false)
+            element.setAttribute(GeneralizationInfosProviderImpl.DATASOURCE_NAMESPACE_NAME_ATTR,
+                    namespace);
+    }
+}
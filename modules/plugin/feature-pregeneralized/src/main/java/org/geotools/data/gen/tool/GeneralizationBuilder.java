@@ -0,0 +1,433 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.gen.tool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.geotools.data.DataStore;
+import org.geotools.data.DefaultTransaction;
+import org.geotools.data.FeatureWriter;
+import org.geotools.data.Transaction;
+import org.geotools.data.gen.PreGeneralizedDataStore;
+import org.geotools.data.gen.info.Generalization;
+import org.geotools.data.gen.info.GeneralizationInfo;
+import org.geotools.data.gen.info.GeneralizationInfos;
+import org.geotools.data.gen.info.GeneralizationInfosWriter;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+
+/**
+ * Builds the generalized copies of a feature source used by {@link PreGeneralizedDataStore}.
+ *
+ * The source is read once, in batches. The geometries of a batch are simplified for all the
+ * distances by a pool of threads, each level being derived from the previous finer one, and
+ * written to the target data stores with a transaction per batch and level.
+ *
+ * If a checkpoint file is set, the number of features written to each level is recorded after
+ * each batch, and a later run with the same checkpoint skips the features already written.
+ * Resuming relies on the source returning the features in the same order. The checkpoint is
+ * deleted once a run completes, so that the next run starts over.
+ *
+ * @source $URL$
+ */
+public class GeneralizationBuilder {
+
+    static final Logger LOGGER = Logging.getLogger(GeneralizationBuilder.class);
+
+    static final String CHECKPOINT_PREFIX = "distance.";
+
+    private final SimpleFeatureSource source;
+
+    private final SortedMap<Double, Level> levels = new TreeMap<Double, Level>();
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private int batchSize = 1000;
+
+    private boolean cascade = true;
+
+    private File checkpoint;
+
+    /**
+     * A generalization distance and its target
+     */
+    static class Level {
+        Double distance;
+
+        DataStore store;
+
+        String typeName;
+
+        String dataSourceName;
+    }
+
+    public GeneralizationBuilder(SimpleFeatureSource source) {
+        this.source = source;
+    }
+
+    /**
+     * Adds a generalization level, the target type is created with the source attributes if the
+     * data store doesn't have it yet
+     *
+     * @param distance
+     *            the generalization distance
+     * @param store
+     *            the target data store
+     * @param typeName
+     *            the target type name
+     * @param dataSourceName
+     *            the name of the target data store in the generalization infos, may be null if
+     *            the infos are not written
+     */
+    public void addLevel(double distance, DataStore store, String typeName, String dataSourceName) {
+        if (distance <= 0)
+            throw new IllegalArgumentException("Distance must be positive: " + distance);
+        Level level = new Level();
+        level.distance = distance;
+        level.store = store;
+        level.typeName = typeName;
+        level.dataSourceName = dataSourceName;
+        levels.put(level.distance, level);
+    }
+
+    /**
+     * @param threads
+     *            the number of threads simplifying the geometries, defaults to the number of
+     *            processors
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @param batchSize
+     *            the number of features written in a transaction, and between checkpoints
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * @param cascade
+     *            true to derive each level from the previous finer one, simplifying it with the
+     *            difference of the distances, so that each level stays within its distance of
+     *            the source geometries. False to simplify the source geometries for each level.
+     */
+    public void setCascade(boolean cascade) {
+        this.cascade = cascade;
+    }
+
+    /**
+     * @param checkpoint
+     *            the file recording the progress of the run, null for no checkpointing. It is
+     *            left in place only by a run that failed.
+     */
+    public void setCheckpoint(File checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Generalizes the source features, resuming from the checkpoint if any, and deletes the
+     * checkpoint on completion
+     *
+     * @return the number of source features
+     * @throws IOException
+     */
+    public int run() throws IOException {
+        if (levels.isEmpty())
+            throw new IOException("No generalization distances");
+
+        final List<Level> list = new ArrayList<Level>(levels.values());
+        Properties done = readCheckpoint();
+        int[] written = new int[list.size()];
+        int skip = Integer.MAX_VALUE;
+        for (int i = 0; i < list.size(); i++) {
+            Level level = list.get(i);
+            written[i] = Integer.parseInt(done.getProperty(CHECKPOINT_PREFIX + level.distance,
+                    "0"));
+            skip = Math.min(skip, written[i]);
+            if (Arrays.asList(level.store.getTypeNames()).contains(level.typeName) == false) {
+                SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+                tb.init(source.getSchema());
+                tb.setName(level.typeName);
+                level.store.createSchema(tb.buildFeatureType());
+            }
+        }
+        if (skip > 0)
+            LOGGER.info("Resuming after " + skip + " features");
+
+        ExecutorService pool = null;
+        if (threads > 1) {
+            final AtomicInteger count = new AtomicInteger();
+            pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Generalizer-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        int position = 0;
+        SimpleFeatureIterator it = source.getFeatures().features();
+        try {
+            List<SimpleFeature> batch = new ArrayList<SimpleFeature>(batchSize);
+            while (it.hasNext()) {
+                SimpleFeature feature = it.next();
+                position++;
+                if (position <= skip)
+                    continue;
+                batch.add(feature);
+                if (batch.size() == batchSize || it.hasNext() == false) {
+                    writeBatch(batch, position - batch.size(), list, written, done, pool);
+                    batch.clear();
+                    progress(position);
+                }
+            }
+        } finally {
+            it.close();
+            if (pool != null)
+                pool.shutdown();
+        }
+        deleteCheckpoint();
+        return position;
+    }
+
+    /**
+     * Called after each batch, does nothing by default
+     *
+     * @param processed
+     *            the number of source features processed so far
+     */
+    protected void progress(int processed) {
+    }
+
+    void writeBatch(List<SimpleFeature> batch, int start, List<Level> list, int[] written,
+            Properties done, ExecutorService pool) throws IOException {
+        Geometry[][] generalized = generalize(batch, list, pool);
+        for (int l = 0; l < list.size(); l++) {
+            int end = start + batch.size();
+            if (written[l] >= end)
+                continue;
+            Level level = list.get(l);
+
+            Transaction transaction = new DefaultTransaction("generalize");
+            FeatureWriter<SimpleFeatureType, SimpleFeature> writer = null;
+            try {
+                writer = level.store.getFeatureWriterAppend(level.typeName, transaction);
+                for (int i = Math.max(0, written[l] - start); i < batch.size(); i++) {
+                    SimpleFeature genFeature = writer.next();
+                    genFeature.setAttributes(batch.get(i).getAttributes());
+                    genFeature.setDefaultGeometry(generalized[i][l]);
+                    writer.write();
+                }
+                writer.close();
+                writer = null;
+                transaction.commit();
+            } catch (IOException e) {
+                transaction.rollback();
+                throw e;
+            } finally {
+                if (writer != null)
+                    writer.close();
+                transaction.close();
+            }
+
+            written[l] = end;
+            done.setProperty(CHECKPOINT_PREFIX + level.distance, String.valueOf(end));
+            writeCheckpoint(done);
+        }
+    }
+
+    /**
+     * @return the generalized geometries, by feature and level
+     */
+    Geometry[][] generalize(final List<SimpleFeature> batch, List<Level> list,
+            ExecutorService pool) throws IOException {
+        final double[] distances = new double[list.size()];
+        for (int i = 0; i < distances.length; i++)
+            distances[i] = list.get(i).distance;
+
+        final Geometry[][] result = new Geometry[batch.size()][];
+        if (pool == null) {
+            for (int i = 0; i < batch.size(); i++)
+                result[i] = generalize((Geometry) batch.get(i).getDefaultGeometry(), distances);
+            return result;
+        }
+
+        int chunk = (batch.size() + threads - 1) / threads;
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int start = 0; start < batch.size(); start += chunk) {
+            final int from = start;
+            final int to = Math.min(start + chunk, batch.size());
+            futures.add(pool.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    for (int i = from; i < to; i++)
+                        result[i] = generalize((Geometry) batch.get(i).getDefaultGeometry(),
+                                distances);
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<Void> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            throw (IOException) new IOException("Interrupted").initCause(e);
+        } catch (ExecutionException e) {
+            throw (IOException) new IOException("Generalization failed").initCause(e.getCause());
+        }
+        return result;
+    }
+
+    Geometry[] generalize(Geometry geom, double[] distances) {
+        Geometry[] result = new Geometry[distances.length];
+        if (geom == null)
+            return result;
+
+        Geometry previous = geom;
+        double previousDistance = 0;
+        for (int i = 0; i < distances.length; i++) {
+            Geometry base = geom;
+            double tolerance = distances[i];
+            // a simplified geometry stays within the tolerance of its input, so the previous
+            // level simplified with the remaining distance stays within the distance of geom
+            if (cascade && previous.isEmpty() == false) {
+                base = previous;
+                tolerance = distances[i] - previousDistance;
+            }
+            result[i] = tolerance > 0 ? TopologyPreservingSimplifier.simplify(base, tolerance)
+                    : base;
+            previous = result[i];
+            previousDistance = distances[i];
+        }
+        return result;
+    }
+
+    Properties readCheckpoint() throws IOException {
+        Properties done = new Properties();
+        if (checkpoint != null && checkpoint.exists()) {
+            InputStream in = new FileInputStream(checkpoint);
+            try {
+                done.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        return done;
+    }
+
+    void writeCheckpoint(Properties done) throws IOException {
+        if (checkpoint == null)
+            return;
+        File tmp = new File(checkpoint.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            done.store(out, "Generalization of " + source.getSchema().getTypeName());
+        } finally {
+            out.close();
+        }
+        if (checkpoint.exists() && checkpoint.delete() == false)
+            throw new IOException("Could not replace " + checkpoint);
+        if (tmp.renameTo(checkpoint) == false)
+            throw new IOException("Could not rename " + tmp + " to " + checkpoint);
+    }
+
+    void deleteCheckpoint() throws IOException {
+        if (checkpoint == null)
+            return;
+        if (checkpoint.exists() && checkpoint.delete() == false)
+            throw new IOException("Could not delete " + checkpoint);
+    }
+
+    /**
+     * Describes the generalized levels for {@link PreGeneralizedDataStore}
+     *
+     * @param featureName
+     *            the name of the generalized feature type
+     * @param dataSourceName
+     *            the name of the source data store
+     * @return the generalization infos
+     * @throws IOException
+     */
+    public GeneralizationInfos getGeneralizationInfos(String featureName, String dataSourceName)
+            throws IOException {
+        SimpleFeatureType schema = source.getSchema();
+        GeneralizationInfos infos = new GeneralizationInfos();
+        infos.setDataSourceName(dataSourceName);
+        GeneralizationInfo info = new GeneralizationInfo(schema.getTypeName(), featureName, schema
+                .getGeometryDescriptor().getLocalName(), infos);
+        for (Level level : levels.values()) {
+            SimpleFeatureType genSchema = level.store.getSchema(level.typeName);
+            Generalization gen = new Generalization(level.distance, level.typeName, genSchema
+                    .getGeometryDescriptor().getLocalName(), info);
+            gen.setDataSourceName(level.dataSourceName);
+            info.getGeneralizations().add(gen);
+        }
+        infos.addGeneralizationInfo(info);
+        return infos;
+    }
+
+    /**
+     * Writes the generalization infos XML read by {@link PreGeneralizedDataStore}
+     *
+     * @param file
+     *            the XML file
+     * @param featureName
+     *            the name of the generalized feature type
+     * @param dataSourceName
+     *            the name of the source data store
+     * @throws IOException
+     */
+    public void writeGeneralizationInfos(File file, String featureName, String dataSourceName)
+            throws IOException {
+        GeneralizationInfos infos = getGeneralizationInfos(featureName, dataSourceName);
+        infos.validate();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            new GeneralizationInfosWriter().write(infos, out);
+        } finally {
+            out.close();
+        }
+    }
+}
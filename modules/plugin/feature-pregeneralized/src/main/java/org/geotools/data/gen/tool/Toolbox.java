@@ -19,27 +19,17 @@ package org.geotools.data.gen.tool;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import org.geotools.data.DataStore;
-import org.geotools.data.FeatureWriter;
 import org.geotools.data.FileDataStoreFactorySpi;
-import org.geotools.data.Transaction;
 import org.geotools.data.gen.info.GeneralizationInfosProviderImpl;
 import org.geotools.data.shapefile.ShapefileDataStore;
 import org.geotools.data.shapefile.ShapefileDataStoreFactory;
-import org.geotools.data.simple.SimpleFeatureCollection;
-import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.data.simple.SimpleFeatureSource;
-import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 
-import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
-
 /**
  * 
  * Utility class
@@ -158,78 +148,61 @@ public class Toolbox {
         String typeName = shapeDS.getTypeNames()[0];
         SimpleFeatureSource fs = shapeDS.getFeatureSource(typeName);
         SimpleFeatureType ftype = fs.getSchema();
-        DataStore[] dataStores = createDataStores(shapeFile, targetDir, ftype, distanceArray);
 
-        SimpleFeatureCollection fcoll = fs.getFeatures();
-        SimpleFeatureIterator it = fcoll.features();
+        // a checkpoint left by a failed run means the shape files are there to be completed
+        File checkpoint = new File(targetDir, typeName + ".checkpoint");
+        DataStore[] dataStores = createDataStores(shapeFile, targetDir, ftype, distanceArray,
+                checkpoint.exists());
+
         try {
-            int countTotal = fcoll.size();
-    
-            List<FeatureWriter<SimpleFeatureType, SimpleFeature>> writers = new ArrayList<FeatureWriter<SimpleFeatureType, SimpleFeature>>();
-            for (int i = 0; i < dataStores.length; i++) {
-                writers.add(dataStores[i].getFeatureWriter(typeName, Transaction.AUTO_COMMIT));
-            }
-    
-            int counter = 0;
-            while (it.hasNext()) {
-                SimpleFeature feature = it.next();
-                for (int i = 0; i < distanceArray.length; i++) {
-                    FeatureWriter<SimpleFeatureType, SimpleFeature> w = writers.get(i);
-                    SimpleFeature genFeature = w.next();
-                    genFeature.setAttributes(feature.getAttributes());
-                    Geometry newGeom = TopologyPreservingSimplifier.simplify((Geometry) feature
-                            .getDefaultGeometry(), distanceArray[i]);
-                    genFeature.setDefaultGeometry(newGeom);
-                    w.write();
+            final int countTotal = fs.getFeatures().size();
+            GeneralizationBuilder builder = new GeneralizationBuilder(fs) {
+                int previous = 0;
+
+                @Override
+                protected void progress(int processed) {
+                    showProgress(countTotal, previous, processed);
+                    previous = processed;
                 }
-                counter++;
-                showProgress(countTotal, counter);
-    
+            };
+            builder.setCheckpoint(checkpoint);
+            // simplify the source geometries for each distance, as earlier versions did
+            builder.setCascade(false);
+            for (int i = 0; i < distanceArray.length; i++) {
+                builder.addLevel(distanceArray[i], dataStores[i], typeName,
+                        getShapeFile(shapeFile, targetDir, distanceArray[i]).toURI().toURL()
+                                .toExternalForm());
             }
-            for (FeatureWriter<SimpleFeatureType, SimpleFeature> w : writers){
-                w.close();
+            builder.run();
+            builder.writeGeneralizationInfos(new File(targetDir, typeName + "_geninfo.xml"),
+                    typeName, shapeFile.toURI().toURL().toExternalForm());
+        } finally {
+            for (DataStore ds : dataStores) {
+                ds.dispose();
             }
         }
-        finally {
-            it.close();
-        }
-
-        for (DataStore ds : dataStores) {
-            ds.dispose();
-        }
 
     }
 
     DataStore[] createDataStores(File shapeFile, File targetDir, SimpleFeatureType ft,
-            Double[] distanceArray) throws IOException {
+            Double[] distanceArray, boolean resume) throws IOException {
 
         FileDataStoreFactorySpi factory = new ShapefileDataStoreFactory();
-        String shapeFileName = shapeFile.getAbsolutePath();
-
-        String newShapeFileRelativeName = null;
-        int index = shapeFileName.lastIndexOf(File.separator);
-        if (index == -1)
-            newShapeFileRelativeName = shapeFileName;
-        else
-            newShapeFileRelativeName = shapeFileName.substring(index + 1);
 
         DataStore[] result = new DataStore[distanceArray.length];
 
         for (int i = 0; i < distanceArray.length; i++) {
-
-            String newShapeFileDirName = targetDir.getAbsolutePath();
-            if (newShapeFileDirName.endsWith(File.separator) == false)
-                newShapeFileDirName += File.separator;
-            newShapeFileDirName += distanceArray[i] + File.separator;
-
-            File dir = new File(newShapeFileDirName);
+            File file = getShapeFile(shapeFile, targetDir, distanceArray[i]);
+            File dir = file.getParentFile();
             if (dir.exists() == false)
                 dir.mkdir();
 
-            File file = new File(newShapeFileDirName + newShapeFileRelativeName);
-
             Map<String, Serializable> params = new HashMap<String, Serializable>();
             params.put(ShapefileDataStoreFactory.URLP.key, file.toURI().toURL());
+            if (resume && file.exists()) {
+                result[i] = factory.createDataStore(params);
+                continue;
+            }
             result[i] = factory.createNewDataStore(params);
             result[i].createSchema(ft);
             ((ShapefileDataStore) result[i]).forceSchemaCRS(ft.getCoordinateReferenceSystem());
@@ -237,6 +210,24 @@ public class Toolbox {
         return result;
     }
 
+    File getShapeFile(File shapeFile, File targetDir, Double distance) {
+        String shapeFileName = shapeFile.getAbsolutePath();
+
+        String newShapeFileRelativeName = null;
+        int index = shapeFileName.lastIndexOf(File.separator);
+        if (index == -1)
+            newShapeFileRelativeName = shapeFileName;
+        else
+            newShapeFileRelativeName = shapeFileName.substring(index + 1);
+
+        String newShapeFileDirName = targetDir.getAbsolutePath();
+        if (newShapeFileDirName.endsWith(File.separator) == false)
+            newShapeFileDirName += File.separator;
+        newShapeFileDirName += distance + File.separator;
+
+        return new File(newShapeFileDirName + newShapeFileRelativeName);
+    }
+
     private void dumpGeneralizeParameters(String argv[]) {
         for (int i = 1; i < argv.length; i++) {
             String paramName = null;
@@ -262,18 +253,18 @@ public class Toolbox {
         return counter * 100 / countTotal;
     }
 
-    private void showProgress(int countTotal, int counter) {
+    private void showProgress(int countTotal, int previous, int counter) {
 
-        if (counter == 1)
+        if (previous == 0)
             System.out.print("% |");
 
         int percentage = calculatePercentage(countTotal, counter);
-        int prevPercentage = counter == 1 ? 0 : calculatePercentage(countTotal, counter - 1);
+        int prevPercentage = calculatePercentage(countTotal, previous);
 
-        if (percentage != prevPercentage)
+        for (int i = prevPercentage; i < percentage; i++)
             System.out.print("#");
 
-        if (counter == countTotal)
+        if (counter >= countTotal)
             System.out.println("|");
 
     }
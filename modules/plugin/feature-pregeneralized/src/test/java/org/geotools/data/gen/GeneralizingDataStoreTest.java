@@ -0,0 +1,201 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.gen;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.Query;
+import org.geotools.data.memory.MemoryDataStore;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureStore;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.factory.Hints;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.FilterFactory;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+
+/**
+ *
+ *
+ * @source $URL$
+ */
+public class GeneralizingDataStoreTest extends TestCase {
+
+    static final double[] DISTANCES = new double[] { 5.0, 10.0, 20.0 };
+
+    File cacheDirectory;
+
+    MemoryDataStore source;
+
+    Map<String, Geometry> geometries;
+
+    Map<String, String> fids;
+
+    GeometryFactory gf = new GeometryFactory();
+
+    @Override
+    protected void setUp() throws Exception {
+        cacheDirectory = new File("target/geometrycache");
+        File[] files = cacheDirectory.listFiles();
+        for (int i = 0; files != null && i < files.length; i++)
+            files[i].delete();
+
+        SimpleFeatureType type = DataUtilities.createType("lines", "the_geom:LineString,name:String");
+        source = new MemoryDataStore();
+        source.createSchema(type);
+        geometries = new HashMap<String, Geometry>();
+        fids = new HashMap<String, String>();
+        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(type);
+        for (int i = 0; i < 10; i++) {
+            Geometry geom = createLine(i + 1);
+            builder.add(geom);
+            builder.add("line" + i);
+            SimpleFeature feature = builder.buildFeature(null);
+            source.addFeature(feature);
+            geometries.put("line" + i, geom);
+            fids.put("line" + i, feature.getID());
+        }
+    }
+
+    Geometry createLine(int frequency) {
+        Coordinate[] coords = new Coordinate[200];
+        for (int j = 0; j < coords.length; j++)
+            coords[j] = new Coordinate(j, 30 * Math.sin(frequency * j / 37.0) + (j % 7));
+        return gf.createLineString(coords);
+    }
+
+    Map<String, SimpleFeature> read(GeneralizingDataStore store, Double distance,
+            String[] propertyNames) throws IOException {
+        Query query = new Query("lines");
+        query.setPropertyNames(propertyNames);
+        if (distance != null)
+            query.setHints(new Hints(Hints.GEOMETRY_DISTANCE, distance));
+        Map<String, SimpleFeature> result = new HashMap<String, SimpleFeature>();
+        SimpleFeatureIterator it = store.getFeatureSource("lines").getFeatures(query).features();
+        try {
+            while (it.hasNext()) {
+                SimpleFeature f = it.next();
+                result.put((String) f.getAttribute("name"), f);
+            }
+        } finally {
+            it.close();
+        }
+        return result;
+    }
+
+    public void testGeneralized() throws Exception {
+        GeneralizingDataStore store = new GeneralizingDataStore(source, DISTANCES, cacheDirectory);
+        try {
+            assertTrue(store.getFeatureSource("lines").getSupportedHints()
+                    .contains(Hints.GEOMETRY_DISTANCE));
+            for (int i = 0; i < 2; i++) {
+                Map<String, SimpleFeature> features = read(store, 12.0, Query.ALL_NAMES);
+                assertEquals(geometries.keySet(), features.keySet());
+                for (String name : geometries.keySet()) {
+                    Geometry expected = TopologyPreservingSimplifier.simplify(
+                            geometries.get(name), 10.0);
+                    Geometry geom = (Geometry) features.get(name).getDefaultGeometry();
+                    assertTrue(expected.equalsExact(geom));
+                    assertEquals(fids.get(name), features.get(name).getID());
+                }
+            }
+            assertEquals(10, store.getTypeCache("lines").size());
+        } finally {
+            store.dispose();
+        }
+    }
+
+    public void testFullResolution() throws Exception {
+        GeneralizingDataStore store = new GeneralizingDataStore(source, DISTANCES, cacheDirectory);
+        try {
+            Map<String, SimpleFeature> features = read(store, null, Query.ALL_NAMES);
+            for (String name : geometries.keySet())
+                assertTrue(geometries.get(name).equalsExact(
+                        (Geometry) features.get(name).getDefaultGeometry()));
+
+            features = read(store, 1.0, Query.ALL_NAMES);
+            for (String name : geometries.keySet())
+                assertTrue(geometries.get(name).equalsExact(
+                        (Geometry) features.get(name).getDefaultGeometry()));
+
+            features = read(store, 12.0, new String[] { "name" });
+            assertEquals(geometries.keySet(), features.keySet());
+            assertEquals(1, features.get("line0").getAttributeCount());
+            assertEquals(0, store.getTypeCache("lines").size());
+        } finally {
+            store.dispose();
+        }
+    }
+
+    public void testCacheReused() throws Exception {
+        GeneralizingDataStore store = new GeneralizingDataStore(source, DISTANCES, cacheDirectory);
+        read(store, 25.0, Query.ALL_NAMES);
+        store.dispose();
+
+        store = new GeneralizingDataStore(source, DISTANCES, cacheDirectory);
+        try {
+            assertEquals(10, store.getTypeCache("lines").size());
+            Map<String, SimpleFeature> features = read(store, 25.0, Query.ALL_NAMES);
+            for (String name : geometries.keySet()) {
+                Geometry expected = TopologyPreservingSimplifier.simplify(geometries.get(name),
+                        20.0);
+                assertTrue(expected.equalsExact((Geometry) features.get(name)
+                        .getDefaultGeometry()));
+            }
+
+            // a new modification time discards the cache
+            store.setModificationTime("lines", 1);
+            assertEquals(0, store.getTypeCache("lines").size());
+        } finally {
+            store.dispose();
+        }
+    }
+
+    public void testInvalidatedOnChange() throws Exception {
+        GeneralizingDataStore store = new GeneralizingDataStore(source, DISTANCES, cacheDirectory);
+        try {
+            read(store, 5.0, Query.ALL_NAMES);
+            assertEquals(10, store.getTypeCache("lines").size());
+
+            FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+            Geometry modified = createLine(20);
+            SimpleFeatureStore fs = (SimpleFeatureStore) source.getFeatureSource("lines");
+            fs.modifyFeatures(fs.getSchema().getDescriptor("the_geom").getName(), modified,
+                    ff.equals(ff.property("name"), ff.literal("line0")));
+            assertEquals(0, store.getTypeCache("lines").size());
+
+            Map<String, SimpleFeature> features = read(store, 5.0, Query.ALL_NAMES);
+            Geometry expected = TopologyPreservingSimplifier.simplify(modified, 5.0);
+            assertTrue(expected.equalsExact((Geometry) features.get("line0")
+                    .getDefaultGeometry()));
+        } finally {
+            store.dispose();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.gen.tool;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.FeatureWriter;
+import org.geotools.data.Transaction;
+import org.geotools.data.gen.info.Generalization;
+import org.geotools.data.gen.info.GeneralizationInfo;
+import org.geotools.data.gen.info.GeneralizationInfos;
+import org.geotools.data.gen.info.GeneralizationInfosProviderImpl;
+import org.geotools.data.memory.MemoryDataStore;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.algorithm.distance.DiscreteHausdorffDistance;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+
+/**
+ *
+ *
+ * @source $URL$
+ */
+public class GeneralizationBuilderTest extends TestCase {
+
+    static final double[] DISTANCES = new double[] { 5.0, 10.0, 20.0 };
+
+    MemoryDataStore source;
+
+    Map<String, Geometry> geometries;
+
+    @Override
+    protected void setUp() throws Exception {
+        SimpleFeatureType type = DataUtilities.createType("lines", "the_geom:LineString,name:String");
+        source = new MemoryDataStore();
+        source.createSchema(type);
+        geometries = new HashMap<String, Geometry>();
+        GeometryFactory gf = new GeometryFactory();
+        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(type);
+        for (int i = 0; i < 10; i++) {
+            Coordinate[] coords = new Coordinate[200];
+            for (int j = 0; j < coords.length; j++)
+                coords[j] = new Coordinate(j, 30 * Math.sin((i + 1) * j / 37.0) + (j % 7));
+            Geometry geom = gf.createLineString(coords);
+            builder.add(geom);
+            builder.add("line" + i);
+            source.addFeature(builder.buildFeature(null));
+            geometries.put("line" + i, geom);
+        }
+    }
+
+    MemoryDataStore[] createTargets(GeneralizationBuilder builder) {
+        MemoryDataStore[] targets = new MemoryDataStore[DISTANCES.length];
+        for (int i = 0; i < DISTANCES.length; i++) {
+            targets[i] = new FailingDataStore();
+            builder.addLevel(DISTANCES[i], targets[i], "lines_" + i, "target" + i);
+        }
+        return targets;
+    }
+
+    Map<String, Geometry> read(MemoryDataStore store, String typeName) throws IOException {
+        Map<String, Geometry> result = new HashMap<String, Geometry>();
+        SimpleFeatureIterator it = store.getFeatureSource(typeName).getFeatures().features();
+        try {
+            while (it.hasNext()) {
+                SimpleFeature f = it.next();
+                assertNull("Duplicate feature", result.put((String) f.getAttribute("name"),
+                        (Geometry) f.getDefaultGeometry()));
+            }
+        } finally {
+            it.close();
+        }
+        return result;
+    }
+
+    public void testSimplifySource() throws Exception {
+        GeneralizationBuilder builder = new GeneralizationBuilder(source.getFeatureSource("lines"));
+        builder.setCascade(false);
+        builder.setBatchSize(3);
+        builder.setThreads(2);
+        MemoryDataStore[] targets = createTargets(builder);
+        assertEquals(10, builder.run());
+
+        for (int i = 0; i < DISTANCES.length; i++) {
+            Map<String, Geometry> generalized = read(targets[i], "lines_" + i);
+            assertEquals(geometries.keySet(), generalized.keySet());
+            for (String name : geometries.keySet()) {
+                Geometry expected = TopologyPreservingSimplifier.simplify(geometries.get(name),
+                        DISTANCES[i]);
+                assertTrue(expected.equalsExact(generalized.get(name)));
+            }
+        }
+    }
+
+    public void testCascade() throws Exception {
+        GeneralizationBuilder builder = new GeneralizationBuilder(source.getFeatureSource("lines"));
+        builder.setBatchSize(4);
+        MemoryDataStore[] targets = createTargets(builder);
+        builder.run();
+
+        for (int i = 0; i < DISTANCES.length; i++) {
+            Map<String, Geometry> generalized = read(targets[i], "lines_" + i);
+            assertEquals(geometries.keySet(), generalized.keySet());
+            for (String name : geometries.keySet()) {
+                Geometry original = geometries.get(name);
+                Geometry geom = generalized.get(name);
+                assertTrue(geom.getNumPoints() < original.getNumPoints());
+                assertTrue(DiscreteHausdorffDistance.distance(original, geom) <= DISTANCES[i]);
+                if (i > 0) {
+                    Geometry finer = read(targets[i - 1], "lines_" + (i - 1)).get(name);
+                    assertTrue(geom.getNumPoints() <= finer.getNumPoints());
+                }
+            }
+        }
+    }
+
+    public void testResume() throws Exception {
+        File checkpoint = new File("target/generalization.checkpoint");
+        checkpoint.delete();
+
+        GeneralizationBuilder builder = new GeneralizationBuilder(source.getFeatureSource("lines"));
+        builder.setBatchSize(3);
+        builder.setCheckpoint(checkpoint);
+        MemoryDataStore[] targets = createTargets(builder);
+        // the second level fails on its third batch
+        ((FailingDataStore) targets[1]).writers = 2;
+        try {
+            builder.run();
+            fail("Expected the write to fail");
+        } catch (IOException e) {
+            // expected
+        }
+        assertTrue(checkpoint.exists());
+        assertEquals(9, read(targets[0], "lines_0").size());
+        assertEquals(6, read(targets[1], "lines_1").size());
+
+        ((FailingDataStore) targets[1]).writers = Integer.MAX_VALUE;
+        builder.run();
+        for (int i = 0; i < DISTANCES.length; i++)
+            assertEquals(geometries.keySet(), read(targets[i], "lines_" + i).keySet());
+        assertFalse(checkpoint.exists());
+    }
+
+    public void testRerun() throws Exception {
+        File checkpoint = new File("target/generalization.checkpoint");
+        checkpoint.delete();
+
+        GeneralizationBuilder builder = new GeneralizationBuilder(source.getFeatureSource("lines"));
+        builder.setBatchSize(3);
+        builder.setCheckpoint(checkpoint);
+        createTargets(builder);
+        assertEquals(10, builder.run());
+        assertFalse(checkpoint.exists());
+
+        // a completed run does not make the next one skip the source
+        builder = new GeneralizationBuilder(source.getFeatureSource("lines"));
+        builder.setBatchSize(3);
+        builder.setCheckpoint(checkpoint);
+        MemoryDataStore[] targets = createTargets(builder);
+        assertEquals(10, builder.run());
+        for (int i = 0; i < DISTANCES.length; i++)
+            assertEquals(geometries.keySet(), read(targets[i], "lines_" + i).keySet());
+        assertFalse(checkpoint.exists());
+    }
+
+    public void testGeneralizationInfos() throws Exception {
+        GeneralizationBuilder builder = new GeneralizationBuilder(source.getFeatureSource("lines"));
+        createTargets(builder);
+        builder.run();
+
+        File file = new File("target/builder_geninfo.xml");
+        builder.writeGeneralizationInfos(file, "GenLines", "source");
+        GeneralizationInfos infos = new GeneralizationInfosProviderImpl()
+                .getGeneralizationInfos(file.getAbsolutePath());
+        GeneralizationInfo info = infos.getGeneralizationInfoForBaseFeatureName("lines");
+        assertEquals("GenLines", info.getFeatureName());
+        assertEquals("source", info.getDataSourceName());
+        assertEquals("the_geom", info.getGeomPropertyName());
+        assertEquals(DISTANCES.length, info.getGeneralizations().size());
+        int i = 0;
+        for (Generalization gen : info.getGeneralizations()) {
+            assertEquals(DISTANCES[i], gen.getDistance(), 0);
+            assertEquals("lines_" + i, gen.getFeatureName());
+            assertEquals("target" + i, gen.getDataSourceName());
+            i++;
+        }
+        file.delete();
+    }
+
+    /**
+     * Fails to open writers after the configured number of them
+     */
+    static class FailingDataStore extends MemoryDataStore {
+        int writers = Integer.MAX_VALUE;
+
+        @Override
+        public FeatureWriter<SimpleFeatureType, SimpleFeature> getFeatureWriterAppend(
+                String typeName, Transaction transaction) throws IOException {
+            if (writers-- <= 0)
+                throw new IOException("Simulated failure");
+            return super.getFeatureWriterAppend(typeName, transaction);
+        }
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.gce.geotiff;
+
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageReaderSpi;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataFormat;
+import javax.imageio.spi.ImageInputStreamSpi;
+import javax.imageio.stream.ImageInputStream;
+
+import org.geotools.image.io.ImageIOExt;
+import org.geotools.util.LRULinkedHashMap;
+import org.w3c.dom.Node;
+
+/**
+ * A process wide cache of the parsed TIFF headers of the GeoTIFF files, along
+ * with a small pool of TIFF image readers.
+ * <p>
+ * Opening a GeoTIFF requires walking all of its IFDs, which for large tiled
+ * files with internal overviews means parsing big tile offset and byte count
+ * tables. The cache keeps, for each file, the metadata of the first image
+ * (GeoTIFF keys and tags, tile offsets included) and the layout of all the
+ * images, so that readers opened again on the same file, from any thread, do
+ * not parse the header again. Entries are checked against the file
+ * modification time and size on each access and reloaded if the file
+ * changed. The least recently used entries are evicted once the maximum size
+ * is reached.
+ *
+ * @source $URL$
+ */
+public class GeoTiffHeaderCache {
+
+    /** Logger for the {@link GeoTiffHeaderCache} class. */
+    private final static Logger LOGGER = org.geotools.util.logging.Logging
+            .getLogger(GeoTiffHeaderCache.class.toString());
+
+    /** Default maximum number of cached headers */
+    public static final int DEFAULT_MAXIMUM_SIZE = Integer.getInteger(
+            "org.geotools.gce.geotiff.headerCacheSize", 128);
+
+    /** Maximum number of idle readers kept in the pool */
+    static final int MAX_POOLED_READERS = Runtime.getRuntime().availableProcessors() * 2;
+
+    /** SPI for creating tiff readers in ImageIO tools */
+    final static TIFFImageReaderSpi READER_SPI = new TIFFImageReaderSpi();
+
+    static GeoTiffHeaderCache defaultInstance;
+
+    final Map<String, Header> headers;
+
+    final List<ImageReader> readers = new ArrayList<ImageReader>();
+
+    final int maximumSize;
+
+    /**
+     * Returns the default, process wide header cache
+     */
+    public static synchronized GeoTiffHeaderCache getDefaultInstance() {
+        if (defaultInstance == null) {
+            defaultInstance = new GeoTiffHeaderCache(DEFAULT_MAXIMUM_SIZE);
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Builds a new cache
+     *
+     * @param maximumSize the maximum number of headers kept in the cache
+     */
+    public GeoTiffHeaderCache(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be positive: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        this.headers = LRULinkedHashMap.createForRecentAccess(maximumSize);
+    }
+
+    /**
+     * Returns the header of the specified file, parsing it if not cached yet
+     * or if the file changed since it was cached
+     *
+     * @param file the GeoTIFF file
+     * @return the file header
+     * @throws IOException if the header cannot be read
+     */
+    public Header getHeader(File file) throws IOException {
+        final String key = file.getAbsolutePath();
+        final long lastModified = file.lastModified();
+        final long length = file.length();
+        synchronized (headers) {
+            Header header = headers.get(key);
+            if (header != null && header.lastModified == lastModified
+                    && header.length == length) {
+                return header;
+            }
+        }
+
+        // parse outside of the lock, concurrent loads of the same file are
+        // harmless, the last one wins
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Parsing the TIFF header of " + key);
+        }
+        final ImageInputStreamSpi spi = ImageIOExt.getImageInputStreamSPI(file);
+        if (spi == null) {
+            throw new IOException("No input stream for the provided source: " + file);
+        }
+        ImageInputStream stream = null;
+        ImageReader reader = null;
+        Header header;
+        try {
+            stream = spi.createInputStreamInstance(file, ImageIO.getUseCache(),
+                    ImageIO.getCacheDirectory());
+            if (stream == null) {
+                throw new IOException("No input stream for the provided source: " + file);
+            }
+            reader = acquireReader();
+            reader.setInput(stream);
+            header = new Header(reader, lastModified, length);
+        } finally {
+            if (reader != null) {
+                releaseReader(reader);
+            }
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (Throwable t) {
+                }
+            }
+        }
+        synchronized (headers) {
+            headers.put(key, header);
+        }
+        return header;
+    }
+
+    /**
+     * Drops the cached header of the specified file, if any
+     */
+    public void remove(File file) {
+        synchronized (headers) {
+            headers.remove(file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Removes all the cached headers
+     */
+    public void clear() {
+        synchronized (headers) {
+            headers.clear();
+        }
+    }
+
+    /**
+     * Returns the number of cached headers
+     */
+    public int size() {
+        synchronized (headers) {
+            return headers.size();
+        }
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Returns an idle TIFF reader from the pool, or a new one if the pool is
+     * empty. The reader should be given back with
+     * {@link #releaseReader(ImageReader)} once done.
+     */
+    public ImageReader acquireReader() throws IOException {
+        synchronized (readers) {
+            if (!readers.isEmpty()) {
+                return readers.remove(readers.size() - 1);
+            }
+        }
+        return READER_SPI.createReaderInstance();
+    }
+
+    /**
+     * Gives back a reader obtained from {@link #acquireReader()}. The reader
+     * input is reset, closing the input stream is up to the caller.
+     */
+    public void releaseReader(ImageReader reader) {
+        try {
+            reader.reset();
+        } catch (Throwable t) {
+            // not reusable
+            reader.dispose();
+            return;
+        }
+        synchronized (readers) {
+            if (readers.size() < MAX_POOLED_READERS) {
+                readers.add(reader);
+                return;
+            }
+        }
+        reader.dispose();
+    }
+
+    /**
+     * The parsed header of a TIFF file: the metadata of the first image and
+     * the layout of all of the images it contains.
+     */
+    public static class Header {
+
+        final long lastModified;
+
+        final long length;
+
+        final IIOMetadata metadata;
+
+        final ImageTypeSpecifier imageType;
+
+        final int[] widths;
+
+        final int[] heights;
+
+        final int[] tileWidths;
+
+        final int[] tileHeights;
+
+        /**
+         * Parses the header using a reader whose input has already been set
+         */
+        Header(ImageReader reader, long lastModified, long length) throws IOException {
+            this.lastModified = lastModified;
+            this.length = length;
+            final int numImages = reader.getNumImages(true);
+            widths = new int[numImages];
+            heights = new int[numImages];
+            tileWidths = new int[numImages];
+            tileHeights = new int[numImages];
+            for (int i = 0; i < numImages; i++) {
+                widths[i] = reader.getWidth(i);
+                heights[i] = reader.getHeight(i);
+                tileWidths[i] = reader.getTileWidth(i);
+                tileHeights[i] = reader.getTileHeight(i);
+            }
+            metadata = new ReadOnlyMetadata(reader.getImageMetadata(0));
+            imageType = reader.getImageTypes(0).next();
+        }
+
+        /**
+         * Parses the header of a stream that is not cached
+         */
+        static Header read(ImageReader reader) throws IOException {
+            return new Header(reader, -1, -1);
+        }
+
+        /** The number of images, including the internal overviews */
+        public int getNumImages() {
+            return widths.length;
+        }
+
+        /** The metadata of the first image, a read only view shared by all the readers */
+        public IIOMetadata getMetadata() {
+            return metadata;
+        }
+
+        /** The type of the first image */
+        public ImageTypeSpecifier getImageType() {
+            return imageType;
+        }
+
+        public int getWidth(int imageIndex) {
+            return widths[imageIndex];
+        }
+
+        public int getHeight(int imageIndex) {
+            return heights[imageIndex];
+        }
+
+        public int getTileWidth(int imageIndex) {
+            return tileWidths[imageIndex];
+        }
+
+        public int getTileHeight(int imageIndex) {
+            return tileHeights[imageIndex];
+        }
+    }
+
+    /**
+     * A read only view of the cached metadata, the trees it returns are
+     * copies built on each call
+     */
+    static final class ReadOnlyMetadata extends IIOMetadata {
+
+        final IIOMetadata delegate;
+
+        ReadOnlyMetadata(IIOMetadata delegate) {
+            super(delegate.isStandardMetadataFormatSupported(), delegate
+                    .getNativeMetadataFormatName(), null, delegate.getExtraMetadataFormatNames(),
+                    delegate.getExtraMetadataFormatNames() == null ? null : new String[delegate
+                            .getExtraMetadataFormatNames().length]);
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean isReadOnly() {
+            return true;
+        }
+
+        @Override
+        public IIOMetadataFormat getMetadataFormat(String formatName) {
+            return delegate.getMetadataFormat(formatName);
+        }
+
+        @Override
+        public Node getAsTree(String formatName) {
+            return delegate.getAsTree(formatName);
+        }
+
+        @Override
+        public void mergeTree(String formatName, Node root) throws IIOInvalidTreeException {
+            throw new IllegalStateException("The cached metadata is read only");
+        }
+
+        @Override
+        public void reset() {
+            throw new IllegalStateException("The cached metadata is read only");
+        }
+    }
+}
@@ -145,6 +145,11 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
 
     private int extOvrImgChoice = -1;
 
+    /** The readers handed to the ImageRead operations, for file sources */
+    private TIFFReaderPool readerPool;
+
+    private TIFFReaderPool ovrReaderPool;
+
 	/**
 	 * Creates a new instance of GeoTiffReader
 	 * 
@@ -203,6 +208,8 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
 				throw new IllegalArgumentException("No input stream for the provided source");
 
                         checkForExternalOverviews();
+			if (source instanceof File)
+			    readerPool = TIFFReaderPool.getPool((File) source);
 			// /////////////////////////////////////////////////////////////////////
 			//
 			// Informations about multiple levels and such
@@ -236,7 +243,7 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
 		}
 	}
 	
-    private void checkForExternalOverviews() {
+    private void checkForExternalOverviews() throws IOException {
         if (!(source instanceof File)) {
             return;
         }
@@ -246,6 +253,7 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
             return;
         }
         ovrInStreamSPI = ImageIOExt.getImageInputStreamSPI(ovrSource);
+        ovrReaderPool = TIFFReaderPool.getPool(ovrSource);
     }
 
     /**
@@ -255,26 +263,24 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
      * @throws DataSourceException
      */
     private void getHRInfo(Hints hints) throws DataSourceException {
+        final GeoTiffHeaderCache headerCache = GeoTiffHeaderCache.getDefaultInstance();
         ImageReader reader = null;
-        ImageReader ovrReader = null;
-        ImageInputStream ovrStream = null;
         try {
             // //
             //
-            // Get a reader for this format
-            //
-            // //
-            reader = READER_SPI.createReaderInstance();
-
-            // //
-            //
-            // get the METADATA
+            // get the METADATA, files headers are parsed once and cached
             //
             // //
             inStream.mark();
-            reader.setInput(inStream);
-            final IIOMetadata iioMetadata = reader.getImageMetadata(0);
-            final GeoTiffIIOMetadataDecoder metadata = new GeoTiffIIOMetadataDecoder(iioMetadata);
+            final GeoTiffHeaderCache.Header header;
+            if (source instanceof File) {
+                header = headerCache.getHeader((File) source);
+            } else {
+                reader = headerCache.acquireReader();
+                reader.setInput(inStream);
+                header = GeoTiffHeaderCache.Header.read(reader);
+            }
+            final GeoTiffIIOMetadataDecoder metadata = new GeoTiffIIOMetadataDecoder(header.getMetadata());
             gtcs = new GeoTiffMetadata2CRSAdapter(hints);
             
             // //
@@ -313,16 +319,16 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
             // 
             // parse and set layout
             // 
-            setLayout(reader);
+            setLayout(header);
             
             // //
             //
             // get the dimension of the hr image and build the model as well as
             // computing the resolution
             // //
-            numOverviews = reader.getNumImages(true) - 1;
-            int hrWidth = reader.getWidth(0);
-            int hrHeight = reader.getHeight(0);
+            numOverviews = header.getNumImages() - 1;
+            int hrWidth = header.getWidth(0);
+            int hrHeight = header.getHeight(0);
             final Rectangle actualDim = new Rectangle(0, 0, hrWidth, hrHeight);
             originalGridRange = new GridEnvelope2D(actualDim);
 
@@ -365,14 +371,12 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
             highestRes[0] = XAffineTransform.getScaleX0(tempTransform);
             highestRes[1] = XAffineTransform.getScaleY0(tempTransform);
 
+            GeoTiffHeaderCache.Header ovrHeader = null;
             if (ovrInStreamSPI != null) {
-                ovrReader = READER_SPI.createReaderInstance();
-                ovrStream = ovrInStreamSPI.createInputStreamInstance(ovrSource,
-                        ImageIO.getUseCache(), ImageIO.getCacheDirectory());
-                ovrReader.setInput(ovrStream);
+                ovrHeader = headerCache.getHeader(ovrSource);
                 // this includes the real image as this is a image index, we need to add one.
                 extOvrImgChoice = numOverviews + 1;
-                numOverviews = numOverviews + ovrReader.getNumImages(true);
+                numOverviews = numOverviews + ovrHeader.getNumImages();
                 if (numOverviews < extOvrImgChoice)
                     extOvrImgChoice = -1;
             }
@@ -391,12 +395,12 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
                 double spanRes0 = highestRes[0] * this.originalGridRange.getSpan(0);
                 double spanRes1 = highestRes[1] * this.originalGridRange.getSpan(1);
                 for (int i = 0; i < firstExternalOverview; i++) {
-                    overViewResolutions[i][0] = spanRes0 / reader.getWidth(i + 1);
-                    overViewResolutions[i][1] = spanRes1 / reader.getHeight(i + 1);
+                    overViewResolutions[i][0] = spanRes0 / header.getWidth(i + 1);
+                    overViewResolutions[i][1] = spanRes1 / header.getHeight(i + 1);
                 }
                 for (int i = firstExternalOverview; i < numOverviews; i++) {
-                    overViewResolutions[i][0] = spanRes0 / ovrReader.getWidth(i - firstExternalOverview);
-                    overViewResolutions[i][1] = spanRes1 / ovrReader.getHeight(i - firstExternalOverview);
+                    overViewResolutions[i][0] = spanRes0 / ovrHeader.getWidth(i - firstExternalOverview);
+                    overViewResolutions[i][1] = spanRes1 / ovrHeader.getHeight(i - firstExternalOverview);
                 }
                
             } else
@@ -405,22 +409,7 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
             throw new DataSourceException(e);
         } finally {
             if (reader != null)
-                try {
-                    reader.dispose();
-                } catch (Throwable t) {
-                }
-                
-            if (ovrReader != null)
-                try {
-                    ovrReader.dispose();
-                } catch (Throwable t) {
-                }
-
-            if (ovrStream != null)
-                try {
-                    ovrStream.close();
-                } catch (Throwable t) {
-                }
+                headerCache.releaseReader(reader);
 
             if (inStream != null)
                 try {
@@ -431,6 +420,24 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
         }
     }
 
+    /**
+     * Sets the layout of the highest resolution image out of the parsed header
+     */
+    private void setLayout(GeoTiffHeaderCache.Header header) {
+        final ImageLayout layout = new ImageLayout();
+        layout.setColorModel(header.getImageType().getColorModel());
+        layout.setSampleModel(header.getImageType().getSampleModel());
+        layout.setMinX(0);
+        layout.setMinY(0);
+        layout.setWidth(header.getWidth(0));
+        layout.setHeight(header.getHeight(0));
+        layout.setTileGridXOffset(0);
+        layout.setTileGridYOffset(0);
+        layout.setTileWidth(header.getTileWidth(0));
+        layout.setTileHeight(header.getTileHeight(0));
+        setlayout(layout);
+    }
+
 	/**
 	 * @see org.opengis.coverage.grid.GridCoverageReader#getFormat()
 	 */
@@ -526,11 +533,19 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
                     newHints.add(new RenderingHints(JAI.KEY_IMAGE_LAYOUT, layout));
 		}
 		final ParameterBlock pbjRead = new ParameterBlock();
+        // the pooled readers come with their stream and the IFDs they parsed
+        // for the previous requests
+        final ImageReader reader;
         if (extOvrImgChoice >= 0 && imageChoice >= extOvrImgChoice) {
-            pbjRead.add(ovrInStreamSPI.createInputStreamInstance(ovrSource, ImageIO.getUseCache(),
-                    ImageIO.getCacheDirectory()));
+            reader = ovrReaderPool.acquire();
+            pbjRead.add(reader.getInput());
             pbjRead.add(imageChoice - extOvrImgChoice);
+        } else if (readerPool != null) {
+            reader = readerPool.acquire();
+            pbjRead.add(reader.getInput());
+            pbjRead.add(imageChoice);
         } else {
+            reader = READER_SPI.createReaderInstance();
             pbjRead.add(inStreamSPI != null ? inStreamSPI.createInputStreamInstance(source, ImageIO.getUseCache(), 
                     ImageIO.getCacheDirectory()) : ImageIO.createImageInputStream(source));
             pbjRead.add(imageChoice);
@@ -541,7 +556,7 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
 		pbjRead.add(null);
 		pbjRead.add(null);
 		pbjRead.add(readP);
-		pbjRead.add(READER_SPI.createReaderInstance());
+		pbjRead.add(reader);
 		RenderedOp coverageRaster=JAI.create("ImageRead", pbjRead,newHints!=null?(RenderingHints) newHints:null);
 		
                 //
@@ -596,6 +611,12 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
         ImageInputStream stream = null;
         
         try {
+            if (source instanceof File) {
+                // the header is most likely cached already
+                final GeoTiffHeaderCache.Header header = GeoTiffHeaderCache.getDefaultInstance()
+                        .getHeader((File) source);
+                return new GeoTiffIIOMetadataDecoder(header.getMetadata());
+            }
             if ((source instanceof InputStream)|| (source instanceof ImageInputStream)){
                 closeMe = false;
             }
@@ -612,7 +633,7 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
                     throw new IllegalArgumentException("No input stream for the provided source");
             }
             stream.mark();
-            reader = READER_SPI.createReaderInstance();
+            reader = GeoTiffHeaderCache.getDefaultInstance().acquireReader();
             reader.setInput(stream);
             final IIOMetadata iioMetadata = reader.getImageMetadata(0);
             metadata = new GeoTiffIIOMetadataDecoder(iioMetadata);
@@ -622,10 +643,7 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
             }
         } finally {
             if (reader != null)
-                try {
-                    reader.dispose();
-                } catch (Throwable t) {
-                }
+                GeoTiffHeaderCache.getDefaultInstance().releaseReader(reader);
 
             if (stream != null){
                 try {
@@ -858,4 +876,17 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
 		return 1;
 	}
 
+    @Override
+    public void dispose() {
+        if (readerPool != null) {
+            readerPool.dispose();
+            readerPool = null;
+        }
+        if (ovrReaderPool != null) {
+            ovrReaderPool.dispose();
+            ovrReaderPool = null;
+        }
+        super.dispose();
+    }
+
 }
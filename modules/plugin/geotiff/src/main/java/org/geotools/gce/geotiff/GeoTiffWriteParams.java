@@ -21,6 +21,7 @@ import it.geosolutions.imageio.plugins.tiff.TIFFCompressor;
 import it.geosolutions.imageio.plugins.tiff.TIFFImageWriteParam;
 
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
 
 import javax.imageio.ImageWriteParam;
 
@@ -92,6 +93,18 @@ import org.geotools.coverage.grid.io.imageio.GeoToolsWriteParams;
  */
 public class GeoTiffWriteParams extends GeoToolsWriteParams {
 
+    /**
+     * Overview levels value asking to add overviews until the smallest one
+     * fits in a single tile.
+     */
+    public static final int AUTO_OVERVIEW_LEVELS = -1;
+
+    private int overviewLevels = 0;
+
+    private int writeThreads = 1;
+
+    private ExecutorService writeExecutor;
+
     /**
      * Default constructor.
      */
@@ -99,6 +112,82 @@ public class GeoTiffWriteParams extends GeoToolsWriteParams {
         super(new TIFFImageWriteParam(Locale.getDefault()));
     }
 
+    /**
+     * Returns the number of internal overviews to be added to the output.
+     *
+     * @see #setOverviewLevels(int)
+     */
+    public int getOverviewLevels() {
+        return overviewLevels;
+    }
+
+    /**
+     * Sets the number of internal overviews to be written after the full
+     * resolution image, each one halving the resolution of the previous one by
+     * area averaging (nearest neighbour is used for paletted images). Use
+     * {@link #AUTO_OVERVIEW_LEVELS} to add overviews until the smallest one
+     * fits in a single tile, 0 (the default) not to add any.
+     * <p>
+     * Each overview is computed from the tiles of the previous level while
+     * they are written, and kept in a temporary file until it is written in
+     * turn, so the source image is read only once.
+     */
+    public void setOverviewLevels(int overviewLevels) {
+        if (overviewLevels < AUTO_OVERVIEW_LEVELS) {
+            throw new IllegalArgumentException("Invalid number of overview levels: "
+                    + overviewLevels);
+        }
+        this.overviewLevels = overviewLevels;
+    }
+
+    /**
+     * Returns the number of threads computing the tiles to be written.
+     *
+     * @see #setWriteThreads(int)
+     */
+    public int getWriteThreads() {
+        return writeThreads;
+    }
+
+    /**
+     * Sets the number of tiles of the image and its overviews computed at the
+     * same time while the writer encodes them. The tiles are computed, and
+     * compressed when using the Deflate, ZLib, LZW or PackBits compression,
+     * on the {@link #setWriteExecutor(ExecutorService) write executor}, and
+     * are still written in order. The default, 1, computes and compresses the
+     * tiles in the writing thread.
+     * <p>
+     * When using more threads or adding overviews the output is always tiled,
+     * with 256x256 tiles unless a tiling is explicitly set.
+     */
+    public void setWriteThreads(int writeThreads) {
+        if (writeThreads < 1) {
+            throw new IllegalArgumentException("The number of threads must be positive: "
+                    + writeThreads);
+        }
+        this.writeThreads = writeThreads;
+    }
+
+    /**
+     * Returns the pool computing the tiles, or null if the pool shared by all
+     * the writers is used.
+     *
+     * @see #setWriteExecutor(ExecutorService)
+     */
+    public ExecutorService getWriteExecutor() {
+        return writeExecutor;
+    }
+
+    /**
+     * Sets the pool computing and compressing the tiles when using more than
+     * one {@link #setWriteThreads(int) write thread}. The default, null, uses
+     * a pool shared by all the writers, with one thread per processor. The
+     * pool is not shut down by the writer.
+     */
+    public void setWriteExecutor(ExecutorService writeExecutor) {
+        this.writeExecutor = writeExecutor;
+    }
+
     public void setForceToBigTIFF(final boolean forceToBigTIFF) {
         ((TIFFImageWriteParam) adaptee).setForceToBigTIFF(forceToBigTIFF);
     }
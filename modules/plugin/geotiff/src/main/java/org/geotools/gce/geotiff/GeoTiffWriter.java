@@ -16,6 +16,7 @@
  */
 package org.geotools.gce.geotiff;
 
+import it.geosolutions.imageio.plugins.tiff.BaselineTIFFTagSet;
 import it.geosolutions.imageio.plugins.tiff.TIFFImageWriteParam;
 import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageMetadata;
 import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageWriter;
@@ -23,14 +24,18 @@ import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageWriter;
 import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.image.RenderedImage;
+import java.awt.image.renderable.ParameterBlock;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -42,6 +47,7 @@ import javax.imageio.ImageWriter;
 import javax.imageio.metadata.IIOInvalidTreeException;
 import javax.imageio.metadata.IIOMetadata;
 import javax.imageio.stream.ImageOutputStream;
+import javax.media.jai.JAI;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridEnvelope2D;
@@ -56,6 +62,7 @@ import org.geotools.coverage.grid.io.imageio.geotiff.GeoTiffIIOMetadataEncoder;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.WorldFileWriter;
 import org.geotools.factory.Hints;
+import org.geotools.gce.geotiff.TilePrefetchingImage.TileConsumer;
 import org.geotools.image.io.GridCoverageWriterProgressAdapter;
 import org.geotools.image.io.ImageIOExt;
 import org.geotools.parameter.Parameter;
@@ -63,6 +70,7 @@ import org.geotools.referencing.CRS;
 import org.geotools.referencing.CRS.AxisOrder;
 import org.geotools.referencing.operation.matrix.XAffineTransform;
 import org.geotools.resources.coverage.CoverageUtilities;
+import org.geotools.resources.image.DaemonExecutors;
 import org.geotools.util.logging.Logging;
 import org.jdom.Document;
 import org.jdom.Element;
@@ -89,6 +97,10 @@ import org.opengis.util.ProgressListener;
 public class GeoTiffWriter extends AbstractGridCoverageWriter implements
                 GridCoverageWriter {
     private final static Logger LOGGER= Logging.getLogger(GeoTiffWriter.class);
+
+    /** Tile size used for untiled outputs written with overviews or multiple threads */
+    static final int DEFAULT_TILE_SIZE = 256;
+
     
         private final Map<String, String> metadataKeyValue = new HashMap<String, String>(); 
         
@@ -403,9 +415,15 @@ public class GeoTiffWriter extends AbstractGridCoverageWriter implements
                         throw new NullPointerException("Some input parameters are null");
                 }
                 final ImageWriteParam params = gtParams.getAdaptee();
+                int writeThreads = 1;
+                int overviewLevels = 0;
+                ExecutorService executor = null;
                 if (params instanceof TIFFImageWriteParam && gtParams instanceof GeoTiffWriteParams){
                     TIFFImageWriteParam param = (TIFFImageWriteParam) params;
                     param.setForceToBigTIFF(((GeoTiffWriteParams)gtParams).isForceToBigTIFF());
+                    writeThreads = ((GeoTiffWriteParams) gtParams).getWriteThreads();
+                    overviewLevels = ((GeoTiffWriteParams) gtParams).getOverviewLevels();
+                    executor = ((GeoTiffWriteParams) gtParams).getWriteExecutor();
                 }
                 //
                 // GETTING READER AND METADATA
@@ -425,7 +443,16 @@ public class GeoTiffWriter extends AbstractGridCoverageWriter implements
                             writer.addIIOWriteProgressListener(progressAdapter);
                             writer.addIIOWriteWarningListener(progressAdapter);
                         }
-                        writer.write(writer.getDefaultStreamMetadata(params), new IIOImage(image, null, metadata), params);
+                        if (writeThreads > 1 || overviewLevels != 0) {
+                            if (writeThreads > 1 && executor == null) {
+                                executor = getTileExecutor();
+                            }
+                            writeTiled(writer, outputStream, image, metadata, params,
+                                    writeThreads > 1 ? executor : null, writeThreads,
+                                    overviewLevels);
+                        } else {
+                            writer.write(writer.getDefaultStreamMetadata(params), new IIOImage(image, null, metadata), params);
+                        }
 
 
                         outputStream.flush();
@@ -456,6 +483,133 @@ public class GeoTiffWriter extends AbstractGridCoverageWriter implements
                 return true;
         }
 
+    /**
+     * Returns the pool computing the tiles of the outputs written with
+     * multiple threads, one thread per processor, shared by all the writers
+     */
+    static ExecutorService getTileExecutor() {
+        return DaemonExecutors.getExecutor("GeoTiffWriter");
+    }
+
+    /**
+     * Writes the image as a tiled TIFF, followed by its overviews, computing
+     * and compressing the tiles of each level on the executor while the writer
+     * copies them to the output in order.
+     * <p>
+     * Each overview is computed from the tiles of the previous level as they
+     * are written and spooled to a temporary file, which is read back to write
+     * the overview, so the source is read only once.
+     *
+     * @param executor the pool computing the tiles, or null to compute them in
+     *        the writing thread
+     */
+    private void writeTiled(final TIFFImageWriter writer, final ImageOutputStream outputStream,
+            RenderedImage image, final IIOMetadata metadata, final ImageWriteParam params,
+            final ExecutorService executor, final int writeThreads, final int overviewLevels)
+            throws IOException {
+        if (params.getTilingMode() != ImageWriteParam.MODE_EXPLICIT) {
+            params.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+            params.setTiling(DEFAULT_TILE_SIZE, DEFAULT_TILE_SIZE, 0, 0);
+        }
+        final int tileWidth = params.getTileWidth();
+        final int tileHeight = params.getTileHeight();
+
+        // the source region would apply to the overviews as well, crop upfront
+        final Rectangle sourceRegion = params.getSourceRegion();
+        if (sourceRegion != null && !sourceRegion.contains(new Rectangle(image.getMinX(),
+                image.getMinY(), image.getWidth(), image.getHeight()))) {
+            final ParameterBlock pb = new ParameterBlock();
+            pb.addSource(image);
+            final Rectangle region = sourceRegion.intersection(new Rectangle(image.getMinX(),
+                    image.getMinY(), image.getWidth(), image.getHeight()));
+            pb.add((float) region.x);
+            pb.add((float) region.y);
+            pb.add((float) region.width);
+            pb.add((float) region.height);
+            image = JAI.create("Crop", pb);
+        }
+        params.setSourceRegion(null);
+
+        int levels = overviewLevels;
+        if (levels == GeoTiffWriteParams.AUTO_OVERVIEW_LEVELS) {
+            levels = 0;
+            for (int w = image.getWidth(), h = image.getHeight(); w > tileWidth
+                    || h > tileHeight; w = (w + 1) / 2, h = (h + 1) / 2) {
+                levels++;
+            }
+        }
+
+        final boolean parallelCompression = executor != null
+                && ParallelTIFFCompressor.isSupported(image, params);
+        OverviewSpool spool = null;
+        OverviewSpool nextSpool = null;
+        try {
+            writer.prepareWriteSequence(writer.getDefaultStreamMetadata(params));
+            RenderedImage level = image;
+            for (int i = 0; i <= levels; i++) {
+                IIOMetadata levelMetadata = metadata;
+                if (i > 0) {
+                    level = spool.getOverview();
+                    levelMetadata = createOverviewMetadata(writer, level, params);
+                }
+                final List<TileConsumer> consumers = new ArrayList<TileConsumer>();
+                if (i < levels && (level.getWidth() > 1 || level.getHeight() > 1)) {
+                    nextSpool = new OverviewSpool(level, tileWidth, tileHeight);
+                    consumers.add(nextSpool);
+                }
+                ParallelTIFFCompressor compressor = null;
+                if (parallelCompression) {
+                    compressor = new ParallelTIFFCompressor(level, params, levelMetadata,
+                            outputStream.getByteOrder());
+                    consumers.add(compressor);
+                    ((TIFFImageWriteParam) params).setTIFFCompressor(compressor);
+                }
+                final TilePrefetchingImage prefetching = new TilePrefetchingImage(level,
+                        tileWidth, tileHeight, executor, writeThreads,
+                        consumers.toArray(new TileConsumer[consumers.size()]));
+                try {
+                    writer.writeToSequence(new IIOImage(prefetching, null, levelMetadata),
+                            params);
+                } finally {
+                    prefetching.cancel();
+                    if (compressor != null) {
+                        ((TIFFImageWriteParam) params).setTIFFCompressor(null);
+                    }
+                }
+                if (spool != null) {
+                    spool.dispose();
+                }
+                spool = nextSpool;
+                nextSpool = null;
+                if (spool == null) {
+                    break;
+                }
+                spool.complete();
+            }
+            writer.endWriteSequence();
+        } finally {
+            if (spool != null) {
+                spool.dispose();
+            }
+            if (nextSpool != null) {
+                nextSpool.dispose();
+            }
+        }
+    }
+
+    /**
+     * Creates the metadata of an overview, marking it as a reduced resolution
+     * version of the main image
+     */
+    private static IIOMetadata createOverviewMetadata(ImageWriter writer, RenderedImage overview,
+            ImageWriteParam params) {
+        final TIFFImageMetadata metadata = (TIFFImageMetadata) writer.getDefaultImageMetadata(
+                ImageTypeSpecifier.createFromRenderedImage(overview), params);
+        metadata.addShortOrLongField(BaselineTIFFTagSet.TAG_NEW_SUBFILE_TYPE,
+                BaselineTIFFTagSet.NEW_SUBFILE_TYPE_REDUCED_RESOLUTION);
+        return metadata;
+    }
+
         /**
          * Creates image metadata which complies to the GeoTIFFWritingUtilities
          * specification for the given image writer, image type and
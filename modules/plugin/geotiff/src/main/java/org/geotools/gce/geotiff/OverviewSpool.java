@@ -0,0 +1,322 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.gce.geotiff;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.media.jai.ImageLayout;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.util.ImagingException;
+
+import org.geotools.util.logging.Logging;
+
+/**
+ * Builds the next overview of an image being written, at half its resolution,
+ * from the tiles of the image as the writer goes through them, so that the
+ * overviews of an image are all computed in a single pass over the source.
+ * <p>
+ * The image is read with the same tiling used for the output. Each tile,
+ * which needs to have an even size, is reduced to a quarter of an overview
+ * tile, by area averaging or by nearest neighbour for paletted images, and
+ * stored in a temporary file at a position depending on the tile index only,
+ * so the tiles can be consumed in any order and from any thread. Once all the
+ * tiles went through, {@link #getOverview()} returns the overview, reading its
+ * tiles back from the file.
+ *
+ * @source $URL$
+ */
+class OverviewSpool implements TilePrefetchingImage.TileConsumer {
+
+    private final static Logger LOGGER = Logging.getLogger(OverviewSpool.class);
+
+    final RenderedImage image;
+
+    final int tileWidth;
+
+    final int tileHeight;
+
+    final int tilesX;
+
+    final int tilesY;
+
+    final boolean nearest;
+
+    /** the layout of a quarter of an overview tile */
+    final SampleModel quarterModel;
+
+    final long quarterBytes;
+
+    final File file;
+
+    final RandomAccessFile storage;
+
+    final FileChannel channel;
+
+    /** the tiles of the image already reduced */
+    final BitSet spooled = new BitSet();
+
+    /**
+     * @param image the image to be reduced
+     * @param tileWidth the output tile width, an even number
+     * @param tileHeight the output tile height, an even number
+     */
+    OverviewSpool(RenderedImage image, int tileWidth, int tileHeight) throws IOException {
+        if (tileWidth % 2 != 0 || tileHeight % 2 != 0) {
+            throw new IllegalArgumentException("The tile size must be even: " + tileWidth
+                    + "x" + tileHeight);
+        }
+        this.image = image;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.tilesX = (image.getWidth() + tileWidth - 1) / tileWidth;
+        this.tilesY = (image.getHeight() + tileHeight - 1) / tileHeight;
+        this.nearest = image.getColorModel() instanceof IndexColorModel;
+        this.quarterModel = image.getSampleModel().createCompatibleSampleModel(tileWidth / 2,
+                tileHeight / 2);
+        final DataBuffer buffer = quarterModel.createDataBuffer();
+        this.quarterBytes = (long) buffer.getNumBanks() * buffer.getSize()
+                * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+        this.file = File.createTempFile("overview", ".raw");
+        this.storage = new RandomAccessFile(file, "rw");
+        this.channel = storage.getChannel();
+    }
+
+    public void tileComputed(int index, Raster tile) throws IOException {
+        final WritableRaster quarter = Raster.createWritableRaster(quarterModel, null);
+        final int x0 = tile.getMinX(), y0 = tile.getMinY();
+        final int width = (tile.getWidth() + 1) / 2, height = (tile.getHeight() + 1) / 2;
+        final int bands = tile.getNumBands();
+        final double[] row0 = new double[tile.getWidth()];
+        final double[] row1 = new double[tile.getWidth()];
+        for (int y = 0; y < height; y++) {
+            final boolean two = !nearest && 2 * y + 1 < tile.getHeight();
+            for (int b = 0; b < bands; b++) {
+                tile.getSamples(x0, y0 + 2 * y, tile.getWidth(), 1, b, row0);
+                if (two) {
+                    tile.getSamples(x0, y0 + 2 * y + 1, tile.getWidth(), 1, b, row1);
+                }
+                for (int x = 0; x < width; x++) {
+                    double value = row0[2 * x];
+                    if (!nearest) {
+                        int count = 1;
+                        if (2 * x + 1 < tile.getWidth()) {
+                            value += row0[2 * x + 1];
+                            count++;
+                        }
+                        if (two) {
+                            value += row1[2 * x];
+                            count++;
+                            if (2 * x + 1 < tile.getWidth()) {
+                                value += row1[2 * x + 1];
+                                count++;
+                            }
+                        }
+                        value /= count;
+                    }
+                    quarter.setSample(x, y, b, round(value));
+                }
+            }
+        }
+        write(index, quarter.getDataBuffer());
+        synchronized (spooled) {
+            spooled.set(index);
+        }
+    }
+
+    private double round(double value) {
+        final int type = quarterModel.getDataType();
+        if (type == DataBuffer.TYPE_FLOAT || type == DataBuffer.TYPE_DOUBLE) {
+            return value;
+        }
+        return Math.floor(value + 0.5);
+    }
+
+    /**
+     * Reduces the tiles of the image that did not go through this spool, in
+     * case the writer read some of them in a different way
+     */
+    void complete() throws IOException {
+        for (int i = 0; i < tilesX * tilesY; i++) {
+            final boolean done;
+            synchronized (spooled) {
+                done = spooled.get(i);
+            }
+            if (!done) {
+                final int x = image.getMinX() + (i % tilesX) * tileWidth;
+                final int y = image.getMinY() + (i / tilesX) * tileHeight;
+                final Rectangle bounds = new Rectangle(x, y, tileWidth, tileHeight)
+                        .intersection(new Rectangle(image.getMinX(), image.getMinY(), image
+                                .getWidth(), image.getHeight()));
+                tileComputed(i, image.getData(bounds));
+            }
+        }
+    }
+
+    /**
+     * Returns the overview, to be used only after all the tiles of the image
+     * have been consumed, see {@link #complete()}
+     */
+    RenderedImage getOverview() {
+        return new Overview();
+    }
+
+    /**
+     * Releases the temporary file
+     */
+    void dispose() {
+        try {
+            storage.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to close the overview storage", e);
+        }
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private void write(int index, DataBuffer data) throws IOException {
+        final ByteBuffer bytes = ByteBuffer.allocate((int) quarterBytes);
+        final int size = data.getSize();
+        for (int bank = 0; bank < data.getNumBanks(); bank++) {
+            for (int i = 0; i < size; i++) {
+                switch (data.getDataType()) {
+                case DataBuffer.TYPE_BYTE:
+                    bytes.put((byte) data.getElem(bank, i));
+                    break;
+                case DataBuffer.TYPE_USHORT:
+                case DataBuffer.TYPE_SHORT:
+                    bytes.putShort((short) data.getElem(bank, i));
+                    break;
+                case DataBuffer.TYPE_INT:
+                    bytes.putInt(data.getElem(bank, i));
+                    break;
+                case DataBuffer.TYPE_FLOAT:
+                    bytes.putFloat(data.getElemFloat(bank, i));
+                    break;
+                default:
+                    bytes.putDouble(data.getElemDouble(bank, i));
+                }
+            }
+        }
+        bytes.flip();
+        long position = index * quarterBytes;
+        while (bytes.hasRemaining()) {
+            position += channel.write(bytes, position);
+        }
+    }
+
+    private DataBuffer read(int index) throws IOException {
+        final ByteBuffer bytes = ByteBuffer.allocate((int) quarterBytes);
+        long position = index * quarterBytes;
+        while (bytes.hasRemaining()) {
+            final int read = channel.read(bytes, position);
+            if (read < 0) {
+                throw new IOException("Overview tile " + index + " was not stored");
+            }
+            position += read;
+        }
+        bytes.flip();
+        final DataBuffer data = quarterModel.createDataBuffer();
+        final int size = data.getSize();
+        for (int bank = 0; bank < data.getNumBanks(); bank++) {
+            for (int i = 0; i < size; i++) {
+                switch (data.getDataType()) {
+                case DataBuffer.TYPE_BYTE:
+                    data.setElem(bank, i, bytes.get());
+                    break;
+                case DataBuffer.TYPE_USHORT:
+                case DataBuffer.TYPE_SHORT:
+                    data.setElem(bank, i, bytes.getShort());
+                    break;
+                case DataBuffer.TYPE_INT:
+                    data.setElem(bank, i, bytes.getInt());
+                    break;
+                case DataBuffer.TYPE_FLOAT:
+                    data.setElemFloat(bank, i, bytes.getFloat());
+                    break;
+                default:
+                    data.setElemDouble(bank, i, bytes.getDouble());
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * The overview, whose tiles are each made of the quarters reduced from
+     * four tiles of the image
+     */
+    class Overview extends PlanarImage {
+
+        Overview() {
+            super(createLayout(), null, null);
+        }
+
+        @Override
+        public Raster getTile(int tileX, int tileY) {
+            final WritableRaster tile = Raster.createWritableRaster(getSampleModel(), new Point(
+                    tileXToX(tileX), tileYToY(tileY)));
+            try {
+                for (int dy = 0; dy < 2; dy++) {
+                    for (int dx = 0; dx < 2; dx++) {
+                        final int x = 2 * tileX + dx, y = 2 * tileY + dy;
+                        if (x < tilesX && y < tilesY) {
+                            final Raster quarter = Raster.createRaster(quarterModel,
+                                    read(y * tilesX + x), null);
+                            tile.setRect(tile.getMinX() + dx * tileWidth / 2, tile.getMinY()
+                                    + dy * tileHeight / 2, quarter);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new ImagingException("Failed to read overview tile " + tileX + ","
+                        + tileY, e);
+            }
+            return tile;
+        }
+    }
+
+    private ImageLayout createLayout() {
+        final ImageLayout layout = new ImageLayout(0, 0, (image.getWidth() + 1) / 2,
+                (image.getHeight() + 1) / 2);
+        layout.setTileGridXOffset(0).setTileGridYOffset(0);
+        layout.setTileWidth(tileWidth).setTileHeight(tileHeight);
+        layout.setSampleModel(image.getSampleModel().createCompatibleSampleModel(tileWidth,
+                tileHeight));
+        final ColorModel colorModel = image.getColorModel();
+        if (colorModel != null) {
+            layout.setColorModel(colorModel);
+        }
+        return layout;
+    }
+}
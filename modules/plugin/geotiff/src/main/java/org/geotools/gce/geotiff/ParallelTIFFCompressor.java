@@ -0,0 +1,290 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.gce.geotiff;
+
+import it.geosolutions.imageio.plugins.tiff.BaselineTIFFTagSet;
+import it.geosolutions.imageio.plugins.tiff.TIFFCompressor;
+import it.geosolutions.imageio.plugins.tiff.TIFFField;
+import it.geosolutions.imageio.plugins.tiff.TIFFImageWriteParam;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFDeflateCompressor;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageMetadata;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFLZWCompressor;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFPackBitsCompressor;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFZLibCompressor;
+
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.ImageWriteParam;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Compresses the tiles of an image in the threads computing them, leaving to
+ * the writer only the copy of the compressed bytes to the output.
+ * <p>
+ * The writer packs each tile and hands it to {@link #encode} in row major
+ * order. This compressor packs the same tiles in the same way as soon as they
+ * are computed, see {@link TilePrefetchingImage}, and compresses them with a
+ * compressor of the requested type, so that by the time the writer asks for
+ * a tile to be encoded its compressed bytes are usually ready. Should the
+ * tile packed by the writer differ from the one compressed upfront, it is
+ * compressed again in the writing thread and the compression upfront is
+ * stopped, so the output is the same as the one of the writer alone.
+ * <p>
+ * Only the lossless, general purpose compressions are supported: the writer
+ * configures its JPEG compressor from the image metadata while writing, and
+ * the CCITT ones apply to bilevel images only.
+ *
+ * @source $URL$
+ */
+class ParallelTIFFCompressor extends TIFFCompressor implements
+        TilePrefetchingImage.TileConsumer {
+
+    final ImageWriteParam params;
+
+    final int predictor;
+
+    final ByteOrder byteOrder;
+
+    final int tileWidth;
+
+    final int tileHeight;
+
+    final int[] bitsPerSample;
+
+    final int scanlineStride;
+
+    /** the tiles compressed upfront, by tile index, until the writer encodes them */
+    final Map<Integer, CompressedTile> compressed = new ConcurrentHashMap<Integer, CompressedTile>();
+
+    /** turned off as soon as the writer packs a tile differently */
+    volatile boolean enabled = true;
+
+    /** the index of the next tile to be encoded */
+    int nextTile;
+
+    static class CompressedTile {
+        final byte[] packed;
+
+        final byte[] bytes;
+
+        CompressedTile(byte[] packed, byte[] bytes) {
+            this.packed = packed;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Returns true if the tiles of the image can be compressed upfront with
+     * the given parameters
+     */
+    static boolean isSupported(RenderedImage image, ImageWriteParam params) {
+        if (params.getCompressionMode() != ImageWriteParam.MODE_EXPLICIT
+                || getCompressionTagValue(params.getCompressionType()) < 0
+                || params.getSourceBands() != null || params.getSourceXSubsampling() != 1
+                || params.getSourceYSubsampling() != 1 || params.getDestinationType() != null) {
+            return false;
+        }
+        if (!(params instanceof TIFFImageWriteParam)
+                || ((TIFFImageWriteParam) params).getTIFFCompressor() != null
+                || ((TIFFImageWriteParam) params).getColorConverter() != null) {
+            return false;
+        }
+        final SampleModel sampleModel = image.getSampleModel();
+        if (!(sampleModel instanceof ComponentSampleModel)) {
+            return false;
+        }
+        final int type = sampleModel.getDataType();
+        if (type == DataBuffer.TYPE_UNDEFINED) {
+            return false;
+        }
+        for (int size : sampleModel.getSampleSize()) {
+            if (size != DataBuffer.getDataTypeSize(type)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int getCompressionTagValue(String compressionType) {
+        if ("Deflate".equals(compressionType)) {
+            return BaselineTIFFTagSet.COMPRESSION_DEFLATE;
+        } else if ("ZLib".equals(compressionType)) {
+            return BaselineTIFFTagSet.COMPRESSION_ZLIB;
+        } else if ("LZW".equals(compressionType)) {
+            return BaselineTIFFTagSet.COMPRESSION_LZW;
+        } else if ("PackBits".equals(compressionType)) {
+            return BaselineTIFFTagSet.COMPRESSION_PACKBITS;
+        }
+        return -1;
+    }
+
+    /**
+     * @param image the image to be written, see {@link #isSupported}
+     * @param params the write parameters
+     * @param metadata the image metadata, providing the predictor
+     * @param byteOrder the byte order of the output
+     */
+    ParallelTIFFCompressor(RenderedImage image, ImageWriteParam params, IIOMetadata metadata,
+            ByteOrder byteOrder) {
+        super(params.getCompressionType(), getCompressionTagValue(params.getCompressionType()),
+                true);
+        this.params = params;
+        int predictor = BaselineTIFFTagSet.PREDICTOR_NONE;
+        if (metadata instanceof TIFFImageMetadata) {
+            final TIFFField field = ((TIFFImageMetadata) metadata)
+                    .getTIFFField(BaselineTIFFTagSet.TAG_PREDICTOR);
+            if (field != null) {
+                predictor = field.getAsInt(0);
+            }
+        }
+        this.predictor = predictor;
+        this.byteOrder = byteOrder;
+        this.tileWidth = params.getTileWidth();
+        this.tileHeight = params.getTileHeight();
+        final SampleModel sampleModel = image.getSampleModel();
+        this.bitsPerSample = new int[sampleModel.getNumBands()];
+        Arrays.fill(bitsPerSample, DataBuffer.getDataTypeSize(sampleModel.getDataType()));
+        this.scanlineStride = tileWidth * bitsPerSample.length * bitsPerSample[0] / 8;
+    }
+
+    /**
+     * Creates a compressor of the requested type, as the writer would
+     */
+    private TIFFCompressor createCompressor() {
+        switch (compressionTagValue) {
+        case BaselineTIFFTagSet.COMPRESSION_DEFLATE:
+            return new TIFFDeflateCompressor(params, predictor);
+        case BaselineTIFFTagSet.COMPRESSION_ZLIB:
+            return new TIFFZLibCompressor(params, predictor);
+        case BaselineTIFFTagSet.COMPRESSION_LZW:
+            return new TIFFLZWCompressor(predictor);
+        default:
+            return new TIFFPackBitsCompressor();
+        }
+    }
+
+    public void tileComputed(int index, Raster tile) throws IOException {
+        if (!enabled) {
+            return;
+        }
+        final byte[] packed = pack(tile);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(packed.length / 2);
+        final MemoryCacheImageOutputStream output = new MemoryCacheImageOutputStream(bytes);
+        output.setByteOrder(byteOrder);
+        final TIFFCompressor compressor = createCompressor();
+        compressor.setStream(output);
+        compressor.setMetadata(metadata);
+        // the predictor works in place
+        compressor.encode(packed.clone(), 0, tileWidth, tileHeight, bitsPerSample,
+                scanlineStride);
+        compressor.dispose();
+        output.close();
+        compressed.put(index, new CompressedTile(packed, bytes.toByteArray()));
+    }
+
+    /**
+     * Packs a tile as the writer does, pixel interleaved, with the samples in
+     * the byte order of the output and zeros past the image bounds
+     */
+    private byte[] pack(Raster tile) {
+        final byte[] packed = new byte[tileHeight * scanlineStride];
+        final ByteBuffer buffer = ByteBuffer.wrap(packed).order(byteOrder);
+        final int type = tile.getSampleModel().getDataType();
+        final int width = tile.getWidth();
+        final int samples = width * bitsPerSample.length;
+        final int[] ints = type == DataBuffer.TYPE_FLOAT || type == DataBuffer.TYPE_DOUBLE ? null
+                : new int[samples];
+        final double[] doubles = ints == null ? new double[samples] : null;
+        for (int y = 0; y < tile.getHeight(); y++) {
+            buffer.position(y * scanlineStride);
+            if (ints != null) {
+                tile.getPixels(tile.getMinX(), tile.getMinY() + y, width, 1, ints);
+            } else {
+                tile.getPixels(tile.getMinX(), tile.getMinY() + y, width, 1, doubles);
+            }
+            for (int i = 0; i < samples; i++) {
+                switch (type) {
+                case DataBuffer.TYPE_BYTE:
+                    buffer.put((byte) ints[i]);
+                    break;
+                case DataBuffer.TYPE_USHORT:
+                case DataBuffer.TYPE_SHORT:
+                    buffer.putShort((short) ints[i]);
+                    break;
+                case DataBuffer.TYPE_INT:
+                    buffer.putInt(ints[i]);
+                    break;
+                case DataBuffer.TYPE_FLOAT:
+                    buffer.putFloat((float) doubles[i]);
+                    break;
+                default:
+                    buffer.putDouble(doubles[i]);
+                }
+            }
+        }
+        return packed;
+    }
+
+    @Override
+    public int encode(byte[] b, int off, int width, int height, int[] bitsPerSample,
+            int scanlineStride) throws IOException {
+        final CompressedTile tile = compressed.remove(nextTile++);
+        if (tile != null && width == tileWidth && height == tileHeight
+                && scanlineStride == this.scanlineStride
+                && Arrays.equals(bitsPerSample, this.bitsPerSample)
+                && matches(tile.packed, b, off)) {
+            stream.write(tile.bytes);
+            return tile.bytes.length;
+        }
+        if (tile != null) {
+            enabled = false;
+            compressed.clear();
+        }
+        final TIFFCompressor compressor = createCompressor();
+        compressor.setStream(stream);
+        compressor.setWriter(writer);
+        compressor.setMetadata(metadata);
+        final int count = compressor.encode(b, off, width, height, bitsPerSample,
+                scanlineStride);
+        compressor.dispose();
+        return count;
+    }
+
+    private static boolean matches(byte[] packed, byte[] b, int off) {
+        if (b.length - off < packed.length) {
+            return false;
+        }
+        for (int i = 0; i < packed.length; i++) {
+            if (packed[i] != b[off + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
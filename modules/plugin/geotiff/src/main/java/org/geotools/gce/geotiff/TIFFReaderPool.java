@@ -0,0 +1,240 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.gce.geotiff;
+
+import it.geosolutions.imageio.stream.input.FileImageInputStreamExtImpl;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.ImageReader;
+
+/**
+ * A pool of TIFF readers bound to a single file, used to feed the ImageRead
+ * operations of the {@link GeoTiffReader}s open on that file.
+ * <p>
+ * Each pooled reader keeps its own stream on the file, so the IFDs it parsed
+ * for a request are still there for the next one: setting the same input
+ * again, as the ImageRead operation does, does not reset the reader. The
+ * reader goes back to the pool when the operation disposes it, and the
+ * stream is only closed once the reader leaves the pool.
+ * <p>
+ * The pools are shared through {@link #getPool(File)}, by canonical path, so
+ * all the readers open on the same file use the same pool. A pool goes away
+ * once all of its users {@link #dispose() disposed} it. The pooled readers
+ * are bound to the modification time and length the file had when they were
+ * created, they are discarded as soon as the file changes.
+ *
+ * @source $URL$
+ */
+class TIFFReaderPool {
+
+    /** Logger for the {@link TIFFReaderPool} class. */
+    private final static Logger LOGGER = org.geotools.util.logging.Logging
+            .getLogger(TIFFReaderPool.class.toString());
+
+    /** the pools in use, by canonical path of their file */
+    static final Map<String, TIFFReaderPool> POOLS = new HashMap<String, TIFFReaderPool>();
+
+    final File file;
+
+    final String key;
+
+    final List<PooledReader> idle = new ArrayList<PooledReader>();
+
+    /** the number of users of the pool, guarded by {@link #POOLS} */
+    int users;
+
+    boolean disposed;
+
+    /** the modification time and length of the file the pooled readers parsed */
+    long lastModified;
+
+    long length;
+
+    /**
+     * Returns the pool of a file, shared with the other users of the same
+     * file. Each call has to be matched by a call to {@link #dispose()}.
+     */
+    static TIFFReaderPool getPool(File file) throws IOException {
+        final String key = file.getCanonicalPath();
+        synchronized (POOLS) {
+            TIFFReaderPool pool = POOLS.get(key);
+            if (pool == null) {
+                pool = new TIFFReaderPool(new File(key), key);
+                POOLS.put(key, pool);
+            }
+            pool.users++;
+            return pool;
+        }
+    }
+
+    private TIFFReaderPool(File file, String key) {
+        this.file = file;
+        this.key = key;
+        this.lastModified = file.lastModified();
+        this.length = file.length();
+    }
+
+    /**
+     * Returns an idle reader whose input is already set to a stream on the
+     * file, or a new one if there is none. The stream is the reader input,
+     * and calling {@link ImageReader#dispose()} gives the reader back.
+     */
+    ImageReader acquire() throws IOException {
+        final long lastModified = file.lastModified();
+        final long length = file.length();
+        List<PooledReader> stale = null;
+        synchronized (idle) {
+            if (lastModified != this.lastModified || length != this.length) {
+                // the file changed, the IFDs parsed so far are not valid anymore
+                stale = new ArrayList<PooledReader>(idle);
+                idle.clear();
+                this.lastModified = lastModified;
+                this.length = length;
+            } else if (!idle.isEmpty()) {
+                return idle.remove(idle.size() - 1);
+            }
+        }
+        if (stale != null) {
+            for (PooledReader reader : stale) {
+                reader.destroy();
+            }
+        }
+        final PooledStream stream = new PooledStream(file);
+        final PooledReader reader = new PooledReader(this, stream, lastModified, length);
+        reader.setInput(stream);
+        return reader;
+    }
+
+    void release(PooledReader reader) {
+        synchronized (idle) {
+            if (!disposed && reader.lastModified == lastModified && reader.length == length
+                    && idle.size() < GeoTiffHeaderCache.MAX_POOLED_READERS) {
+                idle.add(reader);
+                return;
+            }
+        }
+        reader.destroy();
+    }
+
+    /**
+     * Releases this use of the pool. Once all of its users are gone the idle
+     * readers are disposed, the readers still in use are disposed when given
+     * back.
+     */
+    void dispose() {
+        synchronized (POOLS) {
+            if (--users > 0) {
+                return;
+            }
+            if (POOLS.get(key) == this) {
+                POOLS.remove(key);
+            }
+        }
+        final List<PooledReader> readers;
+        synchronized (idle) {
+            disposed = true;
+            readers = new ArrayList<PooledReader>(idle);
+            idle.clear();
+        }
+        for (PooledReader reader : readers) {
+            reader.destroy();
+        }
+    }
+
+    /**
+     * A TIFF reader that keeps its parsed state when given the same input
+     * again, and goes back to its pool when disposed
+     */
+    static final class PooledReader extends TIFFImageReader {
+
+        final TIFFReaderPool pool;
+
+        final PooledStream stream;
+
+        final long lastModified;
+
+        final long length;
+
+        PooledReader(TIFFReaderPool pool, PooledStream stream, long lastModified, long length) {
+            super(GeoTiffHeaderCache.READER_SPI);
+            this.pool = pool;
+            this.stream = stream;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        @Override
+        public void setInput(Object input, boolean seekForwardOnly, boolean ignoreMetadata) {
+            if (input != null && input == getInput()) {
+                // same stream, keep the IFDs parsed so far
+                return;
+            }
+            super.setInput(input, seekForwardOnly, ignoreMetadata);
+        }
+
+        @Override
+        public void dispose() {
+            pool.release(this);
+        }
+
+        void destroy() {
+            super.dispose();
+            stream.closeable = true;
+            try {
+                stream.close();
+            } catch (IOException e) {
+                if (LOGGER.isLoggable(Level.FINE))
+                    LOGGER.log(Level.FINE, e.getLocalizedMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * A stream that ignores the close calls of the operations using it while
+     * its reader is pooled
+     */
+    static final class PooledStream extends FileImageInputStreamExtImpl {
+
+        boolean closeable;
+
+        PooledStream(File file) throws IOException {
+            super(file);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closeable) {
+                super.close();
+            }
+        }
+
+        @Override
+        protected void finalize() throws Throwable {
+            closeable = true;
+            super.finalize();
+        }
+    }
+}
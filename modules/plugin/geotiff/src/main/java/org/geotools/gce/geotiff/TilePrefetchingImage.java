@@ -0,0 +1,204 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.gce.geotiff;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.media.jai.ImageLayout;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.util.ImagingException;
+
+/**
+ * Wraps an image being written tile by tile, in row major order, computing the
+ * upcoming output tiles in parallel while the writer encodes the current one.
+ * <p>
+ * The output tiles do not need to match the tiling of the source: the data of
+ * each output tile is extracted from the source with
+ * {@link RenderedImage#getData(Rectangle)}, up to a fixed number of tiles
+ * ahead of the last one requested. Requests not aligned with the output
+ * tiling are served directly from the source.
+ * <p>
+ * Each output tile is handed to the {@link TileConsumer}s by the thread that
+ * computed it, before the writer gets it, so that the consumers can compress
+ * the tile or derive the overviews from it in parallel as well. Without an
+ * executor the tiles are computed, and consumed, in the writing thread.
+ *
+ * @source $URL$
+ */
+class TilePrefetchingImage extends PlanarImage {
+
+    /**
+     * Receives the output tiles as they are computed, possibly from several
+     * threads at the same time
+     */
+    interface TileConsumer {
+
+        /**
+         * @param index the output tile index, in row major order
+         * @param tile the data of the output tile, clipped to the image bounds
+         */
+        void tileComputed(int index, Raster tile) throws IOException;
+    }
+
+    final RenderedImage source;
+
+    final ExecutorService executor;
+
+    final int outputTileWidth;
+
+    final int outputTileHeight;
+
+    final int outputTilesX;
+
+    final int outputTilesY;
+
+    final int window;
+
+    final List<TileConsumer> consumers;
+
+    /** the scheduled tiles, by output tile index */
+    final Map<Integer, Future<Raster>> pending = new HashMap<Integer, Future<Raster>>();
+
+    /** the index of the next output tile to be scheduled */
+    int nextScheduled;
+
+    /**
+     * @param source the image to be written
+     * @param outputTileWidth the width of the tiles requested by the writer
+     * @param outputTileHeight the height of the tiles requested by the writer
+     * @param executor the pool computing the tiles, or null to compute them in
+     *        the writing thread
+     * @param window how many tiles can be computed ahead of the writer
+     * @param consumers the consumers of the output tiles
+     */
+    TilePrefetchingImage(RenderedImage source, int outputTileWidth, int outputTileHeight,
+            ExecutorService executor, int window, TileConsumer... consumers) {
+        super(new ImageLayout(source), null, null);
+        this.source = source;
+        this.executor = executor;
+        this.outputTileWidth = outputTileWidth;
+        this.outputTileHeight = outputTileHeight;
+        this.outputTilesX = (source.getWidth() + outputTileWidth - 1) / outputTileWidth;
+        this.outputTilesY = (source.getHeight() + outputTileHeight - 1) / outputTileHeight;
+        this.window = Math.max(1, window);
+        this.consumers = Arrays.asList(consumers);
+    }
+
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        return source.getTile(tileX, tileY);
+    }
+
+    @Override
+    public Raster getData(Rectangle rect) {
+        final int dx = rect.x - getMinX();
+        final int dy = rect.y - getMinY();
+        if (dx < 0 || dy < 0 || dx % outputTileWidth != 0 || dy % outputTileHeight != 0) {
+            return source.getData(rect);
+        }
+        final int index = (dy / outputTileHeight) * outputTilesX + dx / outputTileWidth;
+        if (index >= outputTilesX * outputTilesY
+                || !rect.equals(getOutputTileBounds(index))) {
+            return source.getData(rect);
+        }
+        if (executor == null) {
+            try {
+                return computeTile(index);
+            } catch (IOException e) {
+                throw new ImagingException("Failed to compute tile " + rect, e);
+            }
+        }
+
+        Future<Raster> future;
+        synchronized (pending) {
+            // drop anything the writer skipped
+            for (Iterator<Integer> it = pending.keySet().iterator(); it.hasNext();) {
+                if (it.next() < index) {
+                    it.remove();
+                }
+            }
+            if (nextScheduled < index) {
+                nextScheduled = index;
+            }
+            final int last = Math.min(index + window, outputTilesX * outputTilesY - 1);
+            for (; nextScheduled <= last; nextScheduled++) {
+                final int scheduled = nextScheduled;
+                pending.put(scheduled, executor.submit(new Callable<Raster>() {
+
+                    public Raster call() throws Exception {
+                        return computeTile(scheduled);
+                    }
+                }));
+            }
+            future = pending.remove(index);
+        }
+
+        if (future == null) {
+            // already consumed, the writer is going back
+            return source.getData(rect);
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ImagingException("Interrupted while computing tile " + rect, e);
+        } catch (ExecutionException e) {
+            throw new ImagingException("Failed to compute tile " + rect, e.getCause());
+        }
+    }
+
+    /**
+     * Cancels the tiles still being computed
+     */
+    void cancel() {
+        synchronized (pending) {
+            for (Future<Raster> future : pending.values()) {
+                future.cancel(false);
+            }
+            pending.clear();
+        }
+    }
+
+    /**
+     * Computes an output tile and hands it to the consumers
+     */
+    private Raster computeTile(int index) throws IOException {
+        final Raster tile = source.getData(getOutputTileBounds(index));
+        for (TileConsumer consumer : consumers) {
+            consumer.tileComputed(index, tile);
+        }
+        return tile;
+    }
+
+    Rectangle getOutputTileBounds(int index) {
+        final int x = getMinX() + (index % outputTilesX) * outputTileWidth;
+        final int y = getMinY() + (index / outputTilesX) * outputTileHeight;
+        return new Rectangle(x, y, outputTileWidth, outputTileHeight).intersection(getBounds());
+    }
+}
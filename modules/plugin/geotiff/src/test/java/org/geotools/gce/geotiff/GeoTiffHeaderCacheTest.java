@@ -0,0 +1,208 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+package org.geotools.gce.geotiff;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.channels.FileChannel;
+
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+
+import org.geotools.coverage.grid.io.imageio.geotiff.GeoTiffIIOMetadataDecoder;
+import org.geotools.test.TestData;
+import org.junit.Test;
+import org.w3c.dom.Node;
+
+/**
+ * Testing {@link GeoTiffHeaderCache}
+ *
+ * @source $URL$
+ */
+public class GeoTiffHeaderCacheTest {
+
+    @Test
+    public void testCacheAndInvalidation() throws Exception {
+        final File source = TestData.file(GeoTiffHeaderCacheTest.class, "latlon.tiff");
+        final File file = new File(source.getParentFile(), "header_cache_test.tif");
+        copy(source, file);
+        try {
+            GeoTiffHeaderCache cache = new GeoTiffHeaderCache(2);
+            GeoTiffHeaderCache.Header header = cache.getHeader(file);
+            assertSame(header, cache.getHeader(file));
+            assertEquals(1, cache.size());
+            assertTrue(header.getNumImages() >= 1);
+            assertTrue(new GeoTiffIIOMetadataDecoder(header.getMetadata()).hasGeoKey());
+
+            // touching the file invalidates the entry
+            assertTrue(file.setLastModified(file.lastModified() - 10000));
+            GeoTiffHeaderCache.Header reloaded = cache.getHeader(file);
+            assertNotSame(header, reloaded);
+            assertEquals(header.getNumImages(), reloaded.getNumImages());
+            assertEquals(header.getWidth(0), reloaded.getWidth(0));
+            assertEquals(header.getHeight(0), reloaded.getHeight(0));
+
+            // bounded size
+            cache.getHeader(source);
+            cache.getHeader(TestData.file(GeoTiffHeaderCacheTest.class, "ovr.tif"));
+            assertEquals(2, cache.size());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testReaderPool() throws Exception {
+        GeoTiffHeaderCache cache = new GeoTiffHeaderCache(1);
+        ImageReader reader = cache.acquireReader();
+        cache.releaseReader(reader);
+        assertSame(reader, cache.acquireReader());
+        assertNotSame(reader, cache.acquireReader());
+    }
+
+    @Test
+    public void testMetadataIsReadOnly() throws Exception {
+        final File file = TestData.file(GeoTiffHeaderCacheTest.class, "latlon.tiff");
+        IIOMetadata metadata = new GeoTiffHeaderCache(1).getHeader(file).getMetadata();
+        assertTrue(metadata.isReadOnly());
+        Node tree = metadata.getAsTree(metadata.getNativeMetadataFormatName());
+        assertNotSame(tree, metadata.getAsTree(metadata.getNativeMetadataFormatName()));
+        try {
+            metadata.mergeTree(metadata.getNativeMetadataFormatName(), tree);
+            fail("The cached metadata should not be modifiable");
+        } catch (IllegalStateException e) {
+            // fine
+        }
+        try {
+            metadata.reset();
+            fail("The cached metadata should not be modifiable");
+        } catch (IllegalStateException e) {
+            // fine
+        }
+    }
+
+    @Test
+    public void testTIFFReaderPool() throws Exception {
+        final File file = TestData.file(GeoTiffHeaderCacheTest.class, "ovr.tif");
+        TIFFReaderPool pool = TIFFReaderPool.getPool(file);
+        ImageReader reader = pool.acquire();
+        ImageInputStream input = (ImageInputStream) reader.getInput();
+        assertNotNull(input);
+        final int numImages = reader.getNumImages(true);
+        final int width = reader.getWidth(numImages - 1);
+
+        // the ImageRead operation sets the same input, closes it and disposes the reader
+        reader.setInput(input, false, false);
+        input.close();
+        reader.dispose();
+
+        // the reader comes back with its stream, still open
+        assertSame(reader, pool.acquire());
+        assertSame(input, reader.getInput());
+        assertEquals(numImages, reader.getNumImages(false));
+        assertEquals(width, reader.getWidth(numImages - 1));
+        ImageReader other = pool.acquire();
+        assertNotSame(reader, other);
+
+        // once the pool is disposed the readers are not pooled anymore
+        pool.dispose();
+        reader.dispose();
+        other.dispose();
+        other = pool.acquire();
+        assertNotSame(reader, other);
+        other.dispose();
+    }
+
+    @Test
+    public void testTIFFReaderPoolSharing() throws Exception {
+        final File file = TestData.file(GeoTiffHeaderCacheTest.class, "ovr.tif");
+        TIFFReaderPool pool = TIFFReaderPool.getPool(file);
+        TIFFReaderPool same = TIFFReaderPool.getPool(new File(file.getParentFile(), "./"
+                + file.getName()));
+        assertSame(pool, same);
+
+        // a reader given back by one user is reused by the other
+        ImageReader reader = pool.acquire();
+        reader.dispose();
+        assertSame(reader, same.acquire());
+        reader.dispose();
+
+        // the pool stays until its last user is gone
+        pool.dispose();
+        assertSame(same, TIFFReaderPool.getPool(file));
+        same.dispose();
+        same.dispose();
+        assertNotSame(same, pool = TIFFReaderPool.getPool(file));
+        pool.dispose();
+    }
+
+    @Test
+    public void testTIFFReaderPoolFileChange() throws Exception {
+        final File file = File.createTempFile("pooled", ".tif");
+        try {
+            copy(TestData.file(GeoTiffHeaderCacheTest.class, "ovr.tif"), file);
+            TIFFReaderPool pool = TIFFReaderPool.getPool(file);
+            ImageReader reader = pool.acquire();
+            ImageReader other = pool.acquire();
+            reader.dispose();
+
+            // once the file changes neither the idle readers nor the ones in use are reused
+            assertTrue(file.setLastModified(file.lastModified() - 10000));
+            ImageReader fresh = pool.acquire();
+            assertNotSame(reader, fresh);
+            other.dispose();
+            assertNotSame(other, pool.acquire());
+            fresh.dispose();
+            pool.dispose();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testReaderUsesCache() throws Exception {
+        final File file = TestData.file(GeoTiffHeaderCacheTest.class, "ovr.tif");
+        GeoTiffReader reader = new GeoTiffReader(file);
+        GeoTiffHeaderCache.Header header = GeoTiffHeaderCache.getDefaultInstance().getHeader(file);
+        assertEquals(header.getNumImages() - 1, reader.getNumOverviews() - countExternal(file));
+        assertEquals(header.getWidth(0), reader.getOriginalGridRange().getSpan(0));
+        assertNotNull(reader.getMetadata());
+        reader.dispose();
+    }
+
+    private void copy(File source, File target) throws Exception {
+        FileChannel in = new FileInputStream(source).getChannel();
+        FileChannel out = new FileOutputStream(target).getChannel();
+        try {
+            in.transferTo(0, in.size(), out);
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    private int countExternal(File file) throws Exception {
+        File ovr = new File(file.getParent(), file.getName() + ".ovr");
+        return ovr.exists() ? GeoTiffHeaderCache.getDefaultInstance().getHeader(ovr)
+                .getNumImages() : 0;
+    }
+}
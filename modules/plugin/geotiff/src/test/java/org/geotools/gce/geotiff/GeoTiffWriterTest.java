@@ -18,8 +18,10 @@ package org.geotools.gce.geotiff;
 
 import it.geosolutions.imageio.plugins.tiff.BaselineTIFFTagSet;
 
+import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.FileInputStream;
@@ -697,4 +699,90 @@ public class GeoTiffWriterTest extends Assert {
             }
         }
     
+
+    @Test
+    public void testWriteTiledWithOverviews() throws Exception {
+        final File input = TestData.file(GeoTiffReaderTest.class, "geo.tiff");
+        GeoTiffReader reader = new GeoTiffReader(input);
+        GridCoverage2D coverage = (GridCoverage2D) reader.read(null);
+        reader.dispose();
+
+        final File output = File.createTempFile("overviews", ".tif");
+        try {
+            GeoTiffWriter writer = new GeoTiffWriter(output);
+            GeoTiffWriteParams params = new GeoTiffWriteParams();
+            params.setCompressionMode(GeoTiffWriteParams.MODE_EXPLICIT);
+            params.setCompressionType("Deflate");
+            params.setTilingMode(GeoToolsWriteParams.MODE_EXPLICIT);
+            params.setTiling(32, 32);
+            params.setOverviewLevels(GeoTiffWriteParams.AUTO_OVERVIEW_LEVELS);
+            params.setWriteThreads(4);
+            ParameterValue<GeoToolsWriteParams> value = GeoTiffFormat.GEOTOOLS_WRITE_PARAMS
+                    .createValue();
+            value.setValue(params);
+            writer.write(coverage, new GeneralParameterValue[] { value });
+            writer.dispose();
+
+            // 120x120, halved until it fits a 32x32 tile
+            reader = new GeoTiffReader(output);
+            assertEquals(2, reader.getNumOverviews());
+            double[][] levels = reader.getResolutionLevels();
+            assertEquals(levels[0][0] * 2, levels[1][0], DELTA);
+            assertEquals(levels[0][0] * 4, levels[2][0], DELTA);
+            GridCoverage2D written = reader.read(null);
+            assertEquals(32, written.getRenderedImage().getTileWidth());
+
+            // same pixels at full resolution
+            RenderedImage expected = coverage.getRenderedImage();
+            RenderedImage actual = written.getRenderedImage();
+            assertEquals(expected.getWidth(), actual.getWidth());
+            assertEquals(expected.getHeight(), actual.getHeight());
+            final int bands = expected.getSampleModel().getNumBands();
+            for (int b = 0; b < bands; b++) {
+                double[] e = expected.getData().getSamples(expected.getMinX(),
+                        expected.getMinY(), expected.getWidth(), expected.getHeight(), b,
+                        (double[]) null);
+                double[] a = actual.getData().getSamples(actual.getMinX(), actual.getMinY(),
+                        actual.getWidth(), actual.getHeight(), b, (double[]) null);
+                for (int i = 0; i < e.length; i++) {
+                    assertEquals(e[i], a[i], 0);
+                }
+            }
+            written.dispose(true);
+            reader.dispose();
+        } finally {
+            coverage.dispose(true);
+            output.delete();
+        }
+    }
+
+    @Test
+    public void testOverviewSpool() throws Exception {
+        // 5x3 image, read in 4x2 tiles
+        BufferedImage image = new BufferedImage(5, 3, BufferedImage.TYPE_USHORT_GRAY);
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 5; x++) {
+                image.getRaster().setSample(x, y, 0, x * 10 + y * 100);
+            }
+        }
+        OverviewSpool spool = new OverviewSpool(image, 4, 2);
+        try {
+            spool.tileComputed(3, image.getData(new Rectangle(4, 2, 1, 1)));
+            spool.complete();
+            RenderedImage overview = spool.getOverview();
+            assertEquals(3, overview.getWidth());
+            assertEquals(2, overview.getHeight());
+            Raster data = overview.getData();
+            // averages of the 2x2 blocks, clipped at the image borders
+            assertEquals(55, data.getSample(0, 0, 0));
+            assertEquals(75, data.getSample(1, 0, 0));
+            assertEquals(90, data.getSample(2, 0, 0));
+            assertEquals(205, data.getSample(0, 1, 0));
+            assertEquals(225, data.getSample(1, 1, 0));
+            assertEquals(240, data.getSample(2, 1, 0));
+        } finally {
+            spool.dispose();
+        }
+        assertFalse(spool.file.exists());
+    }
 }
@@ -20,6 +20,9 @@ import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.Map;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -28,6 +31,7 @@ import javax.imageio.ImageIO;
 import javax.media.jai.PlanarImage;
 
 import org.geotools.geometry.GeneralEnvelope;
+import org.geotools.util.SoftValueHashMap;
 import org.geotools.util.logging.Logging;
 
 import com.sun.media.jai.codec.ByteArraySeekableStream;
@@ -65,6 +69,20 @@ public class ImageDecoderThread extends AbstractThread {
 
 	private GeneralEnvelope tileEnvelope;
 
+	private String cacheKey;
+
+	public static final String TILE_CACHE_SIZE_KEY = "org.geotools.gce.imagemosaic.jdbc.tileCacheSize";
+
+	/**
+	 * The number of decoded tiles strongly referenced by the cache, the other
+	 * ones are softly referenced. Zero disables the cache
+	 */
+	static final int TILE_CACHE_SIZE = Integer.getInteger(TILE_CACHE_SIZE_KEY, 64);
+
+	/** The decoded tiles, shared by all the requests */
+	static final Map<String, CachedTile> TILE_CACHE = new SoftValueHashMap<String, CachedTile>(
+			TILE_CACHE_SIZE);
+
 	/**
 	 * @param bytes
 	 *            the image bytes
@@ -88,11 +106,28 @@ public class ImageDecoderThread extends AbstractThread {
 			GeneralEnvelope tileEnvelope, Rectangle pixelDimension,
 			GeneralEnvelope requestEnvelope, ImageLevelInfo levelInfo,
 			LinkedBlockingQueue<TileQueueElement> tileQueue, Config config) {
+		this(bytes, location, tileEnvelope, pixelDimension, requestEnvelope,
+				levelInfo, tileQueue, config, null);
+	}
+
+	/**
+	 * @param cacheKey
+	 *            a key identifying the tile among all the coverages, the
+	 *            decoded tile is cached only if not null
+	 * @see #ImageDecoderThread(byte[], String, GeneralEnvelope, Rectangle,
+	 *      GeneralEnvelope, ImageLevelInfo, LinkedBlockingQueue, Config)
+	 */
+	public ImageDecoderThread(byte[] bytes, String location,
+			GeneralEnvelope tileEnvelope, Rectangle pixelDimension,
+			GeneralEnvelope requestEnvelope, ImageLevelInfo levelInfo,
+			LinkedBlockingQueue<TileQueueElement> tileQueue, Config config,
+			String cacheKey) {
 		super(pixelDimension, requestEnvelope, levelInfo, tileQueue, config);
 
 		this.imageBytes = bytes;
 		this.location = location;
 		this.tileEnvelope = tileEnvelope;
+		this.cacheKey = TILE_CACHE_SIZE > 0 ? cacheKey : null;
 	}
 
 	/**
@@ -106,19 +141,14 @@ public class ImageDecoderThread extends AbstractThread {
 
 		try {
 
-			BufferedImage bufferedImage = null;
+			BufferedImage bufferedImage = getCachedImage();
 
-			boolean triedFromStream = false;
-			if (levelInfo.getCanImageIOReadFromInputStream()) {
-				bufferedImage = ImageIO.read(new ByteArrayInputStream(
-						imageBytes));
-				triedFromStream = true;
-			}
 			if (bufferedImage == null) {
-				if (triedFromStream)
-					LOGGER.warning("Could not read " + location
-							+ " from stream, switch to JAI");
-				bufferedImage = readImage2(imageBytes);
+				bufferedImage = decode();
+				// the requests get their own copy of the cached tiles
+				if (cacheKey != null)
+					TILE_CACHE.put(cacheKey, new CachedTile(imageBytes,
+							copy(bufferedImage)));
 			}
 
 			if (requestEnvelope.contains(tileEnvelope, true) == false) {
@@ -150,13 +180,13 @@ public class ImageDecoderThread extends AbstractThread {
 					BufferedImage clippedImage = bufferedImage.getSubimage(x,
 							y, width, height);
 
-					tileQueue.add(new TileQueueElement(location, clippedImage,
-							tileEnvelope));
+					TileDecoderPool.put(tileQueue, new TileQueueElement(location,
+							clippedImage, tileEnvelope));
 
 				}
 			} else {
-				tileQueue.add(new TileQueueElement(location, bufferedImage,
-						tileEnvelope));
+				TileDecoderPool.put(tileQueue, new TileQueueElement(location,
+						bufferedImage, tileEnvelope));
 			}
 		} catch (IOException ex) {
 			LOGGER.severe("Decorde error for tile " + location);
@@ -165,6 +195,53 @@ public class ImageDecoderThread extends AbstractThread {
 		}
 	}
 
+	/**
+	 * @return the decoded tile from the cache if its bytes did not change,
+	 *         null otherwise
+	 */
+	private BufferedImage getCachedImage() {
+		if (cacheKey == null)
+			return null;
+		CachedTile cached = TILE_CACHE.get(cacheKey);
+		if (cached == null || cached.length != imageBytes.length
+				|| cached.hash != Arrays.hashCode(imageBytes))
+			return null;
+		return copy(cached.image);
+	}
+
+	/**
+	 * @return a copy of the image, with its own raster
+	 */
+	static BufferedImage copy(BufferedImage image) {
+		Hashtable<String, Object> properties = null;
+		String[] names = image.getPropertyNames();
+		if (names != null) {
+			properties = new Hashtable<String, Object>();
+			for (String name : names) {
+				properties.put(name, image.getProperty(name));
+			}
+		}
+		return new BufferedImage(image.getColorModel(), image.copyData(null),
+				image.isAlphaPremultiplied(), properties);
+	}
+
+	private BufferedImage decode() throws IOException {
+		BufferedImage bufferedImage = null;
+
+		boolean triedFromStream = false;
+		if (levelInfo.getCanImageIOReadFromInputStream()) {
+			bufferedImage = ImageIO.read(new ByteArrayInputStream(imageBytes));
+			triedFromStream = true;
+		}
+		if (bufferedImage == null) {
+			if (triedFromStream)
+				LOGGER.warning("Could not read " + location
+						+ " from stream, switch to JAI");
+			bufferedImage = readImage2(imageBytes);
+		}
+		return bufferedImage;
+	}
+
 	/**
 	 * Fallback Method, in some jre implementations, ImageIO.read(InputStream
 	 * in) returns null. If this happens, this method is called, which is not so
@@ -191,4 +268,22 @@ public class ImageDecoderThread extends AbstractThread {
 		return img.getAsBufferedImage();
 	}
 
+	/**
+	 * A decoded tile, along with a fingerprint of the bytes it was decoded
+	 * from, to detect tiles updated in the database
+	 */
+	static final class CachedTile {
+		final int length;
+
+		final int hash;
+
+		final BufferedImage image;
+
+		CachedTile(byte[] bytes, BufferedImage image) {
+			this.length = bytes.length;
+			this.hash = Arrays.hashCode(bytes);
+			this.image = image;
+		}
+	}
+
 }
@@ -38,7 +38,7 @@ public class ImageMosaicJDBCReaderState {
 
     private boolean xAxisSwitch = false;
     private final LinkedBlockingQueue<TileQueueElement> tileQueue= 
-        new LinkedBlockingQueue<TileQueueElement>();
+        new LinkedBlockingQueue<TileQueueElement>(TileDecoderPool.getTileQueueSize());
     
     
     public GeneralEnvelope getRequestedEnvelope() {
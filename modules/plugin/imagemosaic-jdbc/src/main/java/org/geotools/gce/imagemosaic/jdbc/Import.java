@@ -36,15 +36,24 @@ import java.sql.SQLException;
 import java.text.MessageFormat;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.imageio.ImageIO;
+import javax.media.jai.Interpolation;
 import javax.media.jai.PlanarImage;
 
 import org.geotools.data.DataStore;
@@ -122,7 +131,12 @@ public class Import extends AbstractCmd {
 			+ "-config URLOrFile -spatialTN spatialTableName -tileTN tileTableName [-commitCount commitCount] -csv csvURLOrFile -csvDelim csvDelim\n"
 			+ "Importing using world wfiles\n"
 			+ "-config URLOrFile -spatialTN spatialTableName -tileTN tileTableName [-commitCount commitCount] -dir directory -ext extension"
-			+ "\n\n" + "The default for commitCount is 100\n";
+			+ "\n\n" + "The default for commitCount is 100\n"
+			+ "\n Additional options \n\n"
+			+ "-threads threads : number of parallel workers, each one using its own connection, the default is 1\n"
+			+ "-resume : keep the tiles already imported, importing the missing ones only\n"
+			+ "-generateLevels levels : when importing all levels, generate the given number of pyramid levels, each tile merging\n"
+			+ "    2x2 tiles of the previous level, instead of importing them from the subdirectories\n";
 
 	private final static String NotSupported = "Imporft not supported for type ";
 	
@@ -176,6 +190,14 @@ public class Import extends AbstractCmd {
 
 	private Logger logger;
 
+	/** the index of this import among the parallel ones of the same level */
+	private int worker = 0;
+
+	private int workers = 1;
+
+	/** the locations of the tiles already imported, skipped when resuming */
+	private Set<String> imported;
+
 	Import(Config config, ImportParam param, int commitCount, Connection con)
 			throws IOException, SQLException {
 		this.config = config;
@@ -236,6 +258,9 @@ public class Import extends AbstractCmd {
 		String tileTablePrefix = null;
 
 		int commitCount = DefaultCommitCount;
+		int threads = 1;
+		int generateLevels = 0;
+		boolean resume = false;
 		URL csvUrl = null;
 		URL shapeUrl = null;
 		String csvDelim = null;
@@ -273,6 +298,14 @@ public class Import extends AbstractCmd {
 			} else if (args[i].equals("-commitCount")) {
 				commitCount = new Integer(args[i + 1]);
 				i++;
+			} else if (args[i].equals("-threads")) {
+				threads = new Integer(args[i + 1]);
+				i++;
+			} else if (args[i].equals("-generateLevels")) {
+				generateLevels = new Integer(args[i + 1]);
+				i++;
+			} else if (args[i].equals("-resume")) {
+				resume = true;
 			} else if (args[i].equals("-shape")) {
 				shapeUrl = getURLFromString(args[i + 1]);
 				if (shapeUrl == null) {
@@ -360,14 +393,23 @@ public class Import extends AbstractCmd {
 			System.exit(1);
 		}
 
-		Connection con = null;
+		if (threads < 1 || generateLevels < 0) {
+			System.out.println(UsageInfo);
+			System.exit(1);
+		}
+
+		List<Connection> connections = new ArrayList<Connection>();
 
 		try {
 			Class.forName(config.getDriverClassName());
-			con = DriverManager.getConnection(config.getJdbcUrl(), config
-					.getUsername(), config.getPassword());
-			if (con.getAutoCommit()) // no autocommit 
-			    con.setAutoCommit(false);
+			for (int i = 0; i < threads; i++) {
+				Connection con = DriverManager.getConnection(config
+						.getJdbcUrl(), config.getUsername(), config
+						.getPassword());
+				if (con.getAutoCommit()) // no autocommit 
+				    con.setAutoCommit(false);
+				connections.add(con);
+			}
 			List<ImportParam> importParamList = new ArrayList<ImportParam>();
 
 			if (isLevelImport) {
@@ -387,21 +429,27 @@ public class Import extends AbstractCmd {
 				if (typ == ImportTyp.SHAPE)
 					fillImportParamList(spatialTablePrefix, tileTablePrefix,
 							shapeUrl, shapeKeyField, ImportTyp.SHAPE,
-							importParamList);
+							generateLevels, importParamList);
 				if (typ == ImportTyp.CSV)
 					fillImportParamList(spatialTablePrefix, tileTablePrefix,
-							csvUrl, csvDelim, ImportTyp.CSV, importParamList);
+							csvUrl, csvDelim, ImportTyp.CSV, generateLevels,
+							importParamList);
 				if (typ == ImportTyp.DIR)
 					fillImportParamList(spatialTablePrefix, tileTablePrefix,
 							new File(dir).toURI().toURL(), extension,
-							ImportTyp.DIR, importParamList);
+							ImportTyp.DIR, generateLevels, importParamList);
 			}
 			for (ImportParam param : importParamList) {
-				Import imp = new Import(config, param, commitCount, con);
-				imp.fillSpatialTable();
-				con.commit();
+				importLevel(config, param, commitCount, connections, resume);
+			}
+			if (isPrefixImport && generateLevels > 0) {
+				generateLevels(config, importParamList.get(0),
+						spatialTablePrefix, tileTablePrefix, generateLevels,
+						commitCount, connections, resume);
+			}
+			for (Connection con : connections) {
+				con.close();
 			}
-			con.close();
 		} catch (Exception e) {
 			e.printStackTrace();
 			System.exit(1);
@@ -412,12 +460,30 @@ public class Import extends AbstractCmd {
 	public static void fillImportParamList(String spatialTablePrefix,
 			String tileTablePrefix, URL sourceUrl, String sourceParam,
 			Import.ImportTyp typ, List<ImportParam> importParamList) {
+		fillImportParamList(spatialTablePrefix, tileTablePrefix, sourceUrl,
+				sourceParam, typ, 0, importParamList);
+	}
+
+	/**
+	 * Fills the import parameters for the base level and the pyramid levels.
+	 * If generateLevels is 0 the pyramid levels are searched in the
+	 * subdirectories of the source, otherwise only the base level is added, the
+	 * pyramid levels are generated from it by
+	 * {@link #generateLevels(Config, ImportParam, String, String, int, int, List, boolean)}
+	 */
+	public static void fillImportParamList(String spatialTablePrefix,
+			String tileTablePrefix, URL sourceUrl, String sourceParam,
+			Import.ImportTyp typ, int generateLevels,
+			List<ImportParam> importParamList) {
 		// base image
 		ImportParam param = new ImportParam(
 				getTableName(spatialTablePrefix, 0), getTableName(
 						tileTablePrefix, 0), sourceUrl, sourceParam, typ);
 		importParamList.add(param);
 
+		if (generateLevels > 0)
+			return;
+
 		int level = 1;
 		String path = sourceUrl.getPath();
 		while (true) { // find pyramids
@@ -753,7 +819,7 @@ public class Import extends AbstractCmd {
 		}
 	}
 
-	private BufferedImage readImage2(byte[] imageBytes) throws IOException {
+	private static BufferedImage readImage2(byte[] imageBytes) throws IOException {
 
 		SeekableStream stream = new ByteArraySeekableStream(imageBytes);
 		String decoderName = null;
@@ -770,25 +836,164 @@ public class Import extends AbstractCmd {
 		return img.getAsBufferedImage();
 	}
 
+	/**
+	 * Imports a level with several parallel workers, each one importing a
+	 * share of the tiles with its own connection and committing its own
+	 * batches.
+	 * 
+	 * @param connections
+	 *            a connection for each worker, without autocommit
+	 * @param resume
+	 *            if true the tiles already imported are kept, otherwise the
+	 *            tables are truncated
+	 */
+	static void importLevel(Config config, ImportParam param,
+			int commitCount, List<Connection> connections, boolean resume)
+			throws Exception {
+		final Import first = new Import(config, param, commitCount,
+				connections.get(0));
+		Set<String> imported = null;
+		if (resume) {
+			imported = first.getImportedLocations();
+			first.logInfo("Resuming after " + imported.size()
+					+ " imported tiles");
+		} else {
+			first.truncateTables();
+		}
+		connections.get(0).commit();
+
+		// the workers take the tiles round robin, from the same list
+		File[] imageFiles = null;
+		if (first.typ == ImportTyp.DIR)
+			imageFiles = first.listImageFiles();
+
+		List<Import> imports = new ArrayList<Import>();
+		for (int i = 0; i < connections.size(); i++) {
+			Import imp = (i == 0) ? first : new Import(config, param,
+					commitCount, connections.get(i));
+			imp.worker = i;
+			imp.workers = connections.size();
+			imp.imported = imported;
+			imp.imageFiles = imageFiles;
+			imports.add(imp);
+		}
+
+		if (imports.size() == 1) {
+			first.insertTiles();
+		} else {
+			ExecutorService executor = Executors.newFixedThreadPool(imports
+					.size());
+			try {
+				List<Future<Object>> futures = new ArrayList<Future<Object>>();
+				for (final Import imp : imports) {
+					futures.add(executor.submit(new Callable<Object>() {
+						public Object call() throws Exception {
+							imp.insertTiles();
+							return null;
+						}
+					}));
+				}
+				Exception failure = null;
+				for (Future<Object> future : futures) {
+					try {
+						future.get();
+					} catch (ExecutionException e) {
+						if (failure == null)
+							failure = (Exception) e.getCause();
+					}
+				}
+				if (failure != null)
+					throw failure;
+			} finally {
+				executor.shutdown();
+			}
+		}
+
+		first.insertMasterRecord();
+		connections.get(0).commit();
+		first.logInfo("FINISHED");
+	}
+
+	/**
+	 * Generates and imports the pyramid levels 1..levels, each one merging
+	 * blocks of 2x2 tiles of the previous level. The tiles of the levels are
+	 * written in a temporary directory, deleted when done.
+	 * 
+	 * @param base
+	 *            the import parameters of the base level
+	 */
+	static void generateLevels(Config config, ImportParam base,
+			String spatialTablePrefix, String tileTablePrefix, int levels,
+			int commitCount, List<Connection> connections, boolean resume)
+			throws Exception {
+		Import source = new Import(config, base, commitCount, connections
+				.get(0));
+		List<PyramidBuilder.Tile> tiles = source.collectTiles();
+		source.terminate();
+
+		int interpolation = Interpolation.INTERP_NEAREST;
+		if (config.getInterpolation().intValue() == 2)
+			interpolation = Interpolation.INTERP_BILINEAR;
+		if (config.getInterpolation().intValue() == 3)
+			interpolation = Interpolation.INTERP_BICUBIC;
+		PyramidBuilder builder = new PyramidBuilder(PyramidBuilder
+				.getFormat(tiles), interpolation);
+
+		File root = File.createTempFile("pyramid", "");
+		root.delete();
+		try {
+			for (int level = 1; level <= levels; level++) {
+				File dir = new File(root, String.valueOf(level));
+				if (!dir.mkdirs())
+					throw new IOException("Cannot create "
+							+ dir.getAbsolutePath());
+				tiles = builder.buildLevel(tiles, dir);
+				source.logInfo("Generated " + tiles.size()
+						+ " tiles for level " + level);
+
+				ImportParam param = new ImportParam(getTableName(
+						spatialTablePrefix, level), getTableName(
+						tileTablePrefix, level), dir.toURI().toURL(), builder
+						.getExtension(), ImportTyp.DIR);
+				importLevel(config, param, commitCount, connections, resume);
+			}
+		} finally {
+			delete(root);
+		}
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children)
+				delete(child);
+		}
+		file.delete();
+	}
+
 	void fillSpatialTable() throws Exception {
 		truncateTables();
+		insertTiles();
+		insertMasterRecord();
+		con.commit();
+		logInfo("FINISHED");
+	}
 
+	/**
+	 * Inserts the tiles of this worker, committing every commitCount tiles
+	 */
+	private void insertTiles() throws Exception {
 		int insertCount = 0;
 
 		while (next()) {
+			if (((currentPos - 1) % workers) != worker
+					|| (imported != null && imported.contains(currentLocation))) {
+				continue;
+			}
 			URL imageUrl = calculateImageUrl();
 			byte[] imageBytes = getImageBytes(imageUrl);
 			if (typ == ImportTyp.DIR) {
-
-				BufferedImage image = null;
-				try {
-					image = ImageIO.read(new ByteArrayInputStream(imageBytes));
-				} catch (IOException e) {
-					image = readImage2(imageBytes);
-				}
-				if (image == null)
-					image = readImage2(imageBytes);
-
+				BufferedImage image = decodeImage(imageBytes);
 				currentGeom = getGeomFromWorldFile(imageFiles[currentPos - 1],
 						image.getWidth(), image.getHeight());
 			}
@@ -852,10 +1057,54 @@ public class Import extends AbstractCmd {
 			}
 		}
 
-		insertMasterRecord();
 		sqlCommit();
 		terminate();
-		logInfo("FINISHED");
+	}
+
+	static BufferedImage decodeImage(byte[] imageBytes) throws IOException {
+		BufferedImage image = null;
+		try {
+			image = ImageIO.read(new ByteArrayInputStream(imageBytes));
+		} catch (IOException e) {
+			image = readImage2(imageBytes);
+		}
+		if (image == null)
+			image = readImage2(imageBytes);
+		return image;
+	}
+
+	/**
+	 * @return the tiles of the source, with their footprints
+	 */
+	private List<PyramidBuilder.Tile> collectTiles() throws IOException {
+		List<PyramidBuilder.Tile> tiles = new ArrayList<PyramidBuilder.Tile>();
+		while (next()) {
+			URL imageUrl = calculateImageUrl();
+			if (typ == ImportTyp.DIR) {
+				BufferedImage image = decodeImage(getImageBytes(imageUrl));
+				currentGeom = getGeomFromWorldFile(imageFiles[currentPos - 1],
+						image.getWidth(), image.getHeight());
+			}
+			tiles.add(new PyramidBuilder.Tile(currentLocation, imageUrl,
+					currentGeom.getEnvelopeInternal()));
+		}
+		return tiles;
+	}
+
+	/**
+	 * @return the locations of the tiles already in the spatial table
+	 */
+	private Set<String> getImportedLocations() throws SQLException {
+		Set<String> result = new HashSet<String>();
+		PreparedStatement ps = con.prepareStatement("SELECT "
+				+ config.getKeyAttributeNameInSpatialTable() + " FROM "
+				+ spatialTableName);
+		ResultSet rs = ps.executeQuery();
+		while (rs.next())
+			result.add(rs.getString(1));
+		rs.close();
+		ps.close();
+		return result;
 	}
 
 	private boolean next() throws IOException {
@@ -922,13 +1171,8 @@ public class Import extends AbstractCmd {
 				return true;
 			} else if (typ == ImportTyp.DIR) {
 				if (currentLocation == null) {
-					File dir = DataUtilities.urlToFile(directoryURL);
-					imageFiles = dir.listFiles(new ImageFilter(extension));
-					if (imageFiles == null) {
-						logInfo("No files found in: " + dir.getPath()
-								+ " with extension " + extension);
-						System.exit(1);
-					}
+					if (imageFiles == null)
+						imageFiles = listImageFiles();
 					total = imageFiles.length;
 					logTotalInfo();
 
@@ -949,6 +1193,22 @@ public class Import extends AbstractCmd {
 		}
 	}
 
+	/**
+	 * Lists the images of the directory, sorted by name so that the parallel
+	 * workers share the same order
+	 */
+	private File[] listImageFiles() {
+		File dir = DataUtilities.urlToFile(directoryURL);
+		File[] files = dir.listFiles(new ImageFilter(extension));
+		if (files == null) {
+			logInfo("No files found in: " + dir.getPath() + " with extension "
+					+ extension);
+			System.exit(1);
+		}
+		Arrays.sort(files);
+		return files;
+	}
+
 	private Geometry getGeomFromWorldFile(File imageFile, int width, int height)
 			throws IOException {
 		StringBuffer buff = new StringBuffer(imageFile.getAbsolutePath());
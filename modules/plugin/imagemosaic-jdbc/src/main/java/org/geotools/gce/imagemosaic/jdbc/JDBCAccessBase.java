@@ -35,7 +35,6 @@ import java.util.TreeSet;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -560,9 +559,7 @@ abstract class JDBCAccessBase implements JDBCAccess {
 			GridCoverageFactory coverageFactory) throws IOException {
 		Date start = new Date();
 		Connection con = null;
-		List<ImageDecoderThread> threads = new ArrayList<ImageDecoderThread>();
-		ExecutorService pool =  getExecutorServivicePool ();
-		
+		TileDecoderPool pool = new TileDecoderPool();
 
 		String statementString = getGridSelectStatement(levelInfo);
 
@@ -570,6 +567,8 @@ abstract class JDBCAccessBase implements JDBCAccess {
 			con = dataSource.getConnection();
 
 			PreparedStatement s = con.prepareStatement(statementString);
+			// stream the tiles in batches, decoding them while fetching the next ones
+			s.setFetchSize(TileDecoderPool.getFetchSize());
 			setGridSelectParams(s, requestEnvelope, levelInfo);
 
 			ResultSet r = s.executeQuery();
@@ -589,10 +588,9 @@ abstract class JDBCAccessBase implements JDBCAccess {
 
 				ImageDecoderThread thread = new ImageDecoderThread(tileBytes,
 						location, tileGeneralEnvelope, pixelDimension,
-						requestEnvelope, levelInfo, tileQueue, config);
-//				thread.start();
-				threads.add(thread);
-				pool.execute(thread);
+						requestEnvelope, levelInfo, tileQueue, config,
+						levelInfo.getTileTableName() + ":" + location);
+				pool.submit(thread);
 
 			}
 
@@ -621,31 +619,16 @@ abstract class JDBCAccessBase implements JDBCAccess {
 
 		if (LOGGER.isLoggable(Level.INFO))
 			LOGGER
-					.info("Getting " + threads.size() + " Tiles needs "
+					.info("Getting " + pool.size() + " Tiles needs "
 							+ ((new Date()).getTime() - start.getTime())
 							+ " millisecs");
 
 		// wait for all threads dto finish and write end marker
-		pool.shutdown();
-		try {
-		    pool.awaitTermination(3600, TimeUnit.SECONDS); // wait for one hour 
-                  } catch (InterruptedException e) {
-                           throw new RuntimeException(e.getLocalizedMessage());
-                }
-		
-//		for (AbstractThread thread : threads) {
-//			try {
-//				thread.join();
-//			} catch (InterruptedException e) {
-//				throw new RuntimeException(e.getLocalizedMessage());
-//			}
-//		}
-
-		tileQueue.add(TileQueueElement.ENDELEMENT);
+		pool.finish(tileQueue);
 
 		if (LOGGER.isLoggable(Level.INFO))
 			LOGGER
-					.info("Getting and decoding  " + threads.size()
+					.info("Getting and decoding  " + pool.size()
 							+ " Tiles needs "
 							+ ((new Date()).getTime() - start.getTime())
 							+ " millisecs");
@@ -670,8 +653,9 @@ abstract class JDBCAccessBase implements JDBCAccess {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 
 		try {
-			while (in.read(buffer) > 0)
-				out.write(buffer);
+			int read;
+			while ((read = in.read(buffer)) > 0)
+				out.write(buffer, 0, read);
 		} catch (IOException e) {
 		}
 
@@ -820,6 +804,9 @@ abstract class JDBCAccessBase implements JDBCAccess {
 		return result;
 	}
 	
+       /**
+        * @deprecated the tiles are decoded by the shared {@link TileDecoderPool}
+        */
        public ExecutorService getExecutorServivicePool () {
            int availableProcessors = Runtime.getRuntime().availableProcessors();
            LOGGER.info("Using "+ availableProcessors + " CPU(s)");
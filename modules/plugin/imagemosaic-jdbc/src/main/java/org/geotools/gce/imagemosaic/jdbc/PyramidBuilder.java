@@ -0,0 +1,263 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.gce.imagemosaic.jdbc;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.media.jai.Interpolation;
+import javax.media.jai.RenderedOp;
+import javax.media.jai.operator.ScaleDescriptor;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Generates the pyramid levels of an import. Each tile of a level is built
+ * merging a block of 2x2 tiles of the previous level and scaling it down by 2,
+ * so every level is read once to build the next one.
+ * <p>
+ * The tiles of a level are written in a directory, along with a world file for
+ * each one, to be imported as {@link Import.ImportTyp#DIR}.
+ *
+ * @source $URL$
+ */
+class PyramidBuilder {
+
+	/**
+	 * A tile of a level, with its footprint
+	 */
+	static class Tile {
+		final String location;
+
+		final URL url;
+
+		final Envelope envelope;
+
+		Tile(String location, URL url, Envelope envelope) {
+			this.location = location;
+			this.url = url;
+			this.envelope = envelope;
+		}
+	}
+
+	private String format;
+
+	private int interpolation;
+
+	/**
+	 * @param format
+	 *            the ImageIO format of the generated tiles
+	 * @param interpolation
+	 *            the JAI interpolation used for non paletted images
+	 */
+	PyramidBuilder(String format, int interpolation) {
+		this.format = format;
+		this.interpolation = interpolation;
+	}
+
+	/**
+	 * @return the extension of the generated tiles
+	 */
+	String getExtension() {
+		return format;
+	}
+
+	/**
+	 * @return the format of the first tile if ImageIO can write it, png
+	 *         otherwise
+	 */
+	static String getFormat(List<Tile> tiles) throws IOException {
+		if (tiles.isEmpty())
+			return "png";
+		ImageInputStream in = ImageIO.createImageInputStream(tiles.get(0).url
+				.openStream());
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if (readers.hasNext()) {
+				String format = readers.next().getFormatName().toLowerCase();
+				if (ImageIO.getImageWritersByFormatName(format).hasNext())
+					return format;
+			}
+		} finally {
+			in.close();
+		}
+		return "png";
+	}
+
+	/**
+	 * Groups the tiles of a level in blocks of 2x2 tiles, the tiles at the
+	 * right and bottom borders may end up in smaller blocks.
+	 *
+	 * @return the blocks, keyed by row and column of the block
+	 */
+	static Map<String, List<Tile>> group(List<Tile> tiles) {
+		Map<String, List<Tile>> blocks = new LinkedHashMap<String, List<Tile>>();
+		if (tiles.isEmpty())
+			return blocks;
+
+		double minX = Double.POSITIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		double spanX = 0;
+		double spanY = 0;
+		for (Tile tile : tiles) {
+			minX = Math.min(minX, tile.envelope.getMinX());
+			maxY = Math.max(maxY, tile.envelope.getMaxY());
+			spanX = Math.max(spanX, tile.envelope.getWidth());
+			spanY = Math.max(spanY, tile.envelope.getHeight());
+		}
+
+		for (Tile tile : tiles) {
+			long col = Math.round((tile.envelope.getMinX() - minX) / spanX);
+			long row = Math.round((maxY - tile.envelope.getMaxY()) / spanY);
+			String key = (row / 2) + "_" + (col / 2);
+			List<Tile> block = blocks.get(key);
+			if (block == null) {
+				block = new ArrayList<Tile>(4);
+				blocks.put(key, block);
+			}
+			block.add(tile);
+		}
+		return blocks;
+	}
+
+	/**
+	 * Builds the next level of the pyramid
+	 *
+	 * @param tiles
+	 *            the tiles of the previous level
+	 * @param dir
+	 *            the directory where the tiles of the new level are written
+	 * @return the tiles of the new level
+	 */
+	List<Tile> buildLevel(List<Tile> tiles, File dir) throws IOException {
+		List<Tile> result = new ArrayList<Tile>();
+		for (Map.Entry<String, List<Tile>> block : group(tiles).entrySet()) {
+			String name = block.getKey() + "." + format;
+			Envelope envelope = new Envelope();
+			for (Tile tile : block.getValue())
+				envelope.expandToInclude(tile.envelope);
+
+			BufferedImage image = scale(merge(block.getValue(), envelope));
+			File file = new File(dir, name);
+			if (!ImageIO.write(image, format, file))
+				throw new IOException("Cannot write " + file.getAbsolutePath()
+						+ " as " + format);
+			writeWorldFile(file, envelope, image.getWidth(), image.getHeight());
+
+			result.add(new Tile(name, file.toURI().toURL(), envelope));
+		}
+		return result;
+	}
+
+	/**
+	 * Mosaics the tiles of a block in a single image, at the resolution of the
+	 * tiles
+	 */
+	private BufferedImage merge(List<Tile> block, Envelope envelope)
+			throws IOException {
+		BufferedImage merged = null;
+		double resX = 0;
+		double resY = 0;
+		for (Tile tile : block) {
+			BufferedImage image = Import.decodeImage(readBytes(tile.url));
+			if (merged == null) {
+				resX = tile.envelope.getWidth() / image.getWidth();
+				resY = tile.envelope.getHeight() / image.getHeight();
+				int width = (int) Math.round(envelope.getWidth() / resX);
+				int height = (int) Math.round(envelope.getHeight() / resY);
+				ColorModel cm = image.getColorModel();
+				WritableRaster raster = cm.createCompatibleWritableRaster(
+						width, height);
+				merged = new BufferedImage(cm, raster, image
+						.isAlphaPremultiplied(), null);
+			}
+			int x = (int) Math.round((tile.envelope.getMinX() - envelope
+					.getMinX())
+					/ resX);
+			int y = (int) Math.round((envelope.getMaxY() - tile.envelope
+					.getMaxY())
+					/ resY);
+			merged.getRaster().setRect(x, y, image.getRaster());
+		}
+		return merged;
+	}
+
+	private BufferedImage scale(BufferedImage image) {
+		int interp = interpolation;
+		if (image.getColorModel() instanceof IndexColorModel)
+			interp = Interpolation.INTERP_NEAREST;
+		RenderedOp scaled = ScaleDescriptor.create(image, 0.5f, 0.5f, 0.0f,
+				0.0f, Interpolation.getInstance(interp), null);
+		BufferedImage result = scaled.getAsBufferedImage();
+		scaled.dispose();
+		return result;
+	}
+
+	/**
+	 * Writes the world file read by the import, with the upper left corner of
+	 * the image
+	 */
+	private void writeWorldFile(File imageFile, Envelope envelope, int width,
+			int height) throws IOException {
+		String name = imageFile.getName();
+		File worldFile = new File(imageFile.getParentFile(), name.substring(0,
+				name.lastIndexOf('.'))
+				+ ".wld");
+		PrintWriter out = new PrintWriter(new FileWriter(worldFile));
+		try {
+			out.println(envelope.getWidth() / width);
+			out.println(0.0);
+			out.println(0.0);
+			out.println(-envelope.getHeight() / height);
+			out.println(envelope.getMinX());
+			out.println(envelope.getMaxY());
+		} finally {
+			out.close();
+		}
+	}
+
+	private static byte[] readBytes(URL url) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		InputStream in = url.openStream();
+		try {
+			int len;
+			byte[] buff = new byte[4096];
+			while ((len = in.read(buff)) > 0)
+				out.write(buff, 0, len);
+		} finally {
+			in.close();
+		}
+		return out.toByteArray();
+	}
+}
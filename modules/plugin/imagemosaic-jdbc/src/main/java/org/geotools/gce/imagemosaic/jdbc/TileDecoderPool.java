@@ -0,0 +1,221 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.gce.imagemosaic.jdbc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+
+/**
+ * Runs the tile decoders of a single request on a pool shared by all the requests.
+ * <p>
+ * The pool has a bounded work queue, when it's full the thread fetching the tiles decodes the
+ * next one itself, slowing down the fetch to the decoding pace. Together with the bounded tile
+ * queue between the decoders and the {@link ImageComposerThread} this keeps the number of
+ * fetched and decoded tiles in memory limited.
+ * <p>
+ * The pool can be configured with the following system properties:
+ * <ul>
+ * <li>{@value #DECODER_THREADS_KEY}: the number of decoder threads, defaults to the number of
+ * processors</li>
+ * <li>{@value #DECODER_QUEUE_SIZE_KEY}: the tiles waiting to be decoded, defaults to four per
+ * thread</li>
+ * <li>{@value #FETCH_SIZE_KEY}: the number of tile rows fetched from the database at once</li>
+ * <li>{@value #TILE_QUEUE_SIZE_KEY}: the decoded tiles waiting to be composed by each request</li>
+ * <li>{@value #TILE_QUEUE_TIMEOUT_KEY}: how long to wait for room in the tile queue of a request,
+ * in seconds, before giving up on the request</li>
+ * </ul>
+ *
+ * @source $URL$
+ */
+public class TileDecoderPool {
+    /** Logger. */
+    protected final static Logger LOGGER = Logging.getLogger(TileDecoderPool.class.getPackage()
+            .getName());
+
+    public static final String DECODER_THREADS_KEY = "org.geotools.gce.imagemosaic.jdbc.decoderThreads";
+
+    public static final String DECODER_QUEUE_SIZE_KEY = "org.geotools.gce.imagemosaic.jdbc.decoderQueueSize";
+
+    public static final String FETCH_SIZE_KEY = "org.geotools.gce.imagemosaic.jdbc.fetchSize";
+
+    public static final String TILE_QUEUE_SIZE_KEY = "org.geotools.gce.imagemosaic.jdbc.tileQueueSize";
+
+    public static final String TILE_QUEUE_TIMEOUT_KEY = "org.geotools.gce.imagemosaic.jdbc.tileQueueTimeout";
+
+    static final int DECODER_THREADS = Integer.getInteger(DECODER_THREADS_KEY, Runtime
+            .getRuntime().availableProcessors());
+
+    static final int DECODER_QUEUE_SIZE = Integer.getInteger(DECODER_QUEUE_SIZE_KEY,
+            DECODER_THREADS * 4);
+
+    static final int FETCH_SIZE = Integer.getInteger(FETCH_SIZE_KEY, 100);
+
+    static final int TILE_QUEUE_SIZE = Integer.getInteger(TILE_QUEUE_SIZE_KEY, 128);
+
+    static long TILE_QUEUE_TIMEOUT = Long.getLong(TILE_QUEUE_TIMEOUT_KEY, 60);
+
+    static ThreadPoolExecutor executor;
+
+    private final List<Future<?>> futures = new ArrayList<Future<?>>();
+
+    /** set once a tile could not be queued, the remaining ones are skipped */
+    private volatile boolean aborted;
+
+    static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            LOGGER.info("Using " + DECODER_THREADS + " tile decoder thread(s)");
+            final AtomicInteger count = new AtomicInteger();
+            executor = new ThreadPoolExecutor(DECODER_THREADS, DECODER_THREADS, 0,
+                    TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(DECODER_QUEUE_SIZE),
+                    new ThreadFactory() {
+
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "ImageMosaicJDBCDecoder-"
+                                    + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    }, new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+        return executor;
+    }
+
+    /**
+     * @return the number of rows to be fetched at once by the tile queries
+     */
+    public static int getFetchSize() {
+        return FETCH_SIZE;
+    }
+
+    /**
+     * @return the capacity of the queue between the decoders and the composer of a request
+     */
+    public static int getTileQueueSize() {
+        return TILE_QUEUE_SIZE;
+    }
+
+    /**
+     * Adds a tile to the queue of a request, waiting for the {@link ImageComposerThread} to make
+     * room for at most the timeout set by {@link #TILE_QUEUE_TIMEOUT_KEY}
+     *
+     * @throws TileQueueTimeoutException
+     *             if the queue stayed full, the composer failed or is stuck
+     */
+    public static void put(LinkedBlockingQueue<TileQueueElement> tileQueue,
+            TileQueueElement element) {
+        try {
+            if (!tileQueue.offer(element, TILE_QUEUE_TIMEOUT, TimeUnit.SECONDS)) {
+                throw new TileQueueTimeoutException("No room in the tile queue after "
+                        + TILE_QUEUE_TIMEOUT + " seconds, giving up");
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Schedules the decoding of a tile, runs it in the calling thread if the pool is saturated.
+     * Once a tile could not be queued the remaining ones are not decoded anymore.
+     *
+     * @param decoder
+     *            the tile decoder
+     */
+    public void submit(final ImageDecoderThread decoder) {
+        futures.add(getExecutor().submit(new Runnable() {
+            public void run() {
+                if (aborted) {
+                    return;
+                }
+                try {
+                    decoder.run();
+                } catch (TileQueueTimeoutException e) {
+                    aborted = true;
+                    throw e;
+                }
+            }
+        }));
+    }
+
+    /**
+     * @return true if a decoded tile could not be handed to the composer of the request
+     */
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * @return the number of tiles submitted so far
+     */
+    public int size() {
+        return futures.size();
+    }
+
+    /**
+     * Waits for all the submitted tiles to be decoded. Decoding errors are already logged by the
+     * decoders, the tiles failing are just missing from the result
+     */
+    public void await() {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (LOGGER.isLoggable(Level.FINE))
+                    LOGGER.log(Level.FINE, "Tile decoding failed", e.getCause());
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * Signals the end of the tiles to the composer of a request. If the decoding was aborted the
+     * queued tiles are dropped, so that the end marker gets in, and an exception is thrown.
+     */
+    public void finish(LinkedBlockingQueue<TileQueueElement> tileQueue) throws IOException {
+        await();
+        if (aborted) {
+            tileQueue.clear();
+            tileQueue.offer(TileQueueElement.ENDELEMENT);
+            throw new IOException("The decoded tiles could not be handed to the image composer");
+        }
+        put(tileQueue, TileQueueElement.ENDELEMENT);
+    }
+
+    /**
+     * Thrown when a decoded tile could not be queued for composition
+     */
+    static class TileQueueTimeoutException extends RuntimeException {
+        private static final long serialVersionUID = -3474372040543218163L;
+
+        TileQueueTimeoutException(String message) {
+            super(message);
+        }
+    }
+}
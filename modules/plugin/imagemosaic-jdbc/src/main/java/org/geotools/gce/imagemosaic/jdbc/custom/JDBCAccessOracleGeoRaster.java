@@ -41,6 +41,7 @@ import javax.media.jai.PlanarImage;
 import org.geotools.coverage.grid.GridCoverageFactory;
 import org.geotools.gce.imagemosaic.jdbc.Config;
 import org.geotools.gce.imagemosaic.jdbc.ImageLevelInfo;
+import org.geotools.gce.imagemosaic.jdbc.TileDecoderPool;
 import org.geotools.gce.imagemosaic.jdbc.TileQueueElement;
 import org.geotools.geometry.GeneralEnvelope;
 import org.geotools.util.logging.Logging;
@@ -402,9 +403,9 @@ public class JDBCAccessOracleGeoRaster extends JDBCAccessCustom {
 
         con = getConnection();
         TileQueueElement tqe = getSingleTQElement(requestEnvelope, info, con);
-        tileQueue.add(tqe);
+        TileDecoderPool.put(tileQueue, tqe);
         closeConnection(con);
-        tileQueue.add(TileQueueElement.ENDELEMENT);
+        TileDecoderPool.put(tileQueue, TileQueueElement.ENDELEMENT);
 
         LOGGER.fine("Finished GeoRaster Tile Decoder");
 
@@ -32,7 +32,6 @@ import java.util.TreeSet;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,6 +39,7 @@ import org.geotools.coverage.grid.GridCoverageFactory;
 import org.geotools.gce.imagemosaic.jdbc.Config;
 import org.geotools.gce.imagemosaic.jdbc.ImageDecoderThread;
 import org.geotools.gce.imagemosaic.jdbc.ImageLevelInfo;
+import org.geotools.gce.imagemosaic.jdbc.TileDecoderPool;
 import org.geotools.gce.imagemosaic.jdbc.TileQueueElement;
 import org.geotools.geometry.GeneralEnvelope;
 import org.geotools.util.logging.Logging;
@@ -186,8 +186,7 @@ public class JDBCAccessPGRaster extends JDBCAccessCustom {
             GridCoverageFactory coverageFactory) throws IOException {
         Date start = new Date();
         Connection con = null;
-        List<ImageDecoderThread> threads = new ArrayList<ImageDecoderThread>();
-        ExecutorService pool = getExecutorServivicePool();
+        TileDecoderPool pool = new TileDecoderPool();
 
         String gridStatement = statementMap.get(levelInfo);
 
@@ -195,6 +194,8 @@ public class JDBCAccessPGRaster extends JDBCAccessCustom {
             con = getConnection();
 
             PreparedStatement s = con.prepareStatement(gridStatement);
+            // stream the tiles in batches, decoding them while fetching the next ones
+            s.setFetchSize(TileDecoderPool.getFetchSize());
             WKBWriter w = new WKBWriter();
             byte[] bytes = w.write(polyFromEnvelope(requestEnvelope));
             s.setBytes(1, bytes);
@@ -224,9 +225,7 @@ public class JDBCAccessPGRaster extends JDBCAccessCustom {
                 ImageDecoderThread thread = new ImageDecoderThread(tileBytes, "",
                         tileGeneralEnvelope, pixelDimension, requestEnvelope, levelInfo, tileQueue,
                         getConfig());
-                // thread.start();
-                threads.add(thread);
-                pool.execute(thread);
+                pool.submit(thread);
             }
 
             r.close();
@@ -244,21 +243,14 @@ public class JDBCAccessPGRaster extends JDBCAccessCustom {
         }
 
         if (LOGGER.isLoggable(Level.INFO))
-            LOGGER.info("Getting " + threads.size() + " Tiles needs "
+            LOGGER.info("Getting " + pool.size() + " Tiles needs "
                     + ((new Date()).getTime() - start.getTime()) + " millisecs");
 
         // wait for all threads dto finish and write end marker
-        pool.shutdown();
-        try {
-            pool.awaitTermination(3600, TimeUnit.SECONDS); // wait for one hour
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e.getLocalizedMessage());
-        }
-
-        tileQueue.add(TileQueueElement.ENDELEMENT);
+        pool.finish(tileQueue);
 
         if (LOGGER.isLoggable(Level.INFO))
-            LOGGER.info("Getting and decoding  " + threads.size() + " Tiles needs "
+            LOGGER.info("Getting and decoding  " + pool.size() + " Tiles needs "
                     + ((new Date()).getTime() - start.getTime()) + " millisecs");
     }
 
@@ -644,6 +636,7 @@ public class JDBCAccessPGRaster extends JDBCAccessCustom {
      * creates a thread pool
      * 
      * @return
+     * @deprecated the tiles are decoded by the shared {@link TileDecoderPool}
      */
     public ExecutorService getExecutorServivicePool() {
         int availableProcessors = Runtime.getRuntime().availableProcessors();
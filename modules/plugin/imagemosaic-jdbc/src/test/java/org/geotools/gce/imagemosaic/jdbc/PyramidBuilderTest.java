@@ -0,0 +1,159 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.gce.imagemosaic.jdbc;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+import javax.media.jai.Interpolation;
+
+import junit.framework.TestCase;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Tests the generation of the pyramid levels of {@link Import}, without a
+ * database
+ *
+ * @source $URL$
+ */
+public class PyramidBuilderTest extends TestCase {
+
+	private static final int COLS = 5;
+
+	private static final int ROWS = 3;
+
+	private File root;
+
+	@Override
+	protected void setUp() throws Exception {
+		root = File.createTempFile("pyramid", "test");
+		root.delete();
+		root.mkdirs();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		delete(root);
+	}
+
+	private void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children)
+				delete(child);
+		}
+		file.delete();
+	}
+
+	private int color(int row, int col) {
+		return (row * 40) << 16 | (col * 40) << 8;
+	}
+
+	/**
+	 * A grid of COLS x ROWS base tiles of 10x10 pixels, each one covering 10x10
+	 * units and filled with its own color
+	 */
+	private List<PyramidBuilder.Tile> baseTiles() throws Exception {
+		File dir = new File(root, "0");
+		dir.mkdirs();
+		List<PyramidBuilder.Tile> tiles = new ArrayList<PyramidBuilder.Tile>();
+		for (int row = 0; row < ROWS; row++) {
+			for (int col = 0; col < COLS; col++) {
+				BufferedImage image = new BufferedImage(10, 10,
+						BufferedImage.TYPE_INT_RGB);
+				for (int y = 0; y < 10; y++)
+					for (int x = 0; x < 10; x++)
+						image.setRGB(x, y, color(row, col));
+				File file = new File(dir, row + "_" + col + ".png");
+				ImageIO.write(image, "png", file);
+				tiles.add(new PyramidBuilder.Tile(file.getName(), file.toURI()
+						.toURL(), new Envelope(col * 10, col * 10 + 10,
+						(ROWS - row - 1) * 10, (ROWS - row) * 10)));
+			}
+		}
+		return tiles;
+	}
+
+	private PyramidBuilder.Tile find(List<PyramidBuilder.Tile> tiles,
+			String location) {
+		for (PyramidBuilder.Tile tile : tiles) {
+			if (tile.location.equals(location))
+				return tile;
+		}
+		fail("No tile " + location);
+		return null;
+	}
+
+	public void testGroup() throws Exception {
+		List<PyramidBuilder.Tile> tiles = baseTiles();
+		assertEquals(6, PyramidBuilder.group(tiles).size());
+		assertEquals(4, PyramidBuilder.group(tiles).get("0_0").size());
+		assertEquals(1, PyramidBuilder.group(tiles).get("1_2").size());
+	}
+
+	public void testLevelTileCounts() throws Exception {
+		List<PyramidBuilder.Tile> tiles = baseTiles();
+		PyramidBuilder builder = new PyramidBuilder(PyramidBuilder
+				.getFormat(tiles), Interpolation.INTERP_NEAREST);
+		assertEquals("png", builder.getExtension());
+
+		// 5x3 -> 3x2 -> 2x1 -> 1x1
+		int[] expected = new int[] { 6, 2, 1 };
+		for (int level = 1; level <= expected.length; level++) {
+			File dir = new File(root, String.valueOf(level));
+			dir.mkdirs();
+			tiles = builder.buildLevel(tiles, dir);
+			assertEquals(expected[level - 1], tiles.size());
+			// an image and a world file for each tile
+			assertEquals(expected[level - 1] * 2, dir.listFiles().length);
+		}
+		assertEquals(new Envelope(0, COLS * 10, 0, ROWS * 10),
+				tiles.get(0).envelope);
+	}
+
+	public void testMergedTiles() throws Exception {
+		PyramidBuilder builder = new PyramidBuilder("png",
+				Interpolation.INTERP_NEAREST);
+		File dir = new File(root, "1");
+		dir.mkdirs();
+		List<PyramidBuilder.Tile> level = builder.buildLevel(baseTiles(), dir);
+
+		// a full block keeps the size of a base tile
+		PyramidBuilder.Tile full = find(level, "0_0.png");
+		assertEquals(new Envelope(0, 20, 10, 30), full.envelope);
+		BufferedImage image = ImageIO.read(full.url);
+		assertEquals(10, image.getWidth());
+		assertEquals(10, image.getHeight());
+		assertEquals(color(0, 0), image.getRGB(2, 2) & 0xffffff);
+		assertEquals(color(0, 1), image.getRGB(7, 2) & 0xffffff);
+		assertEquals(color(1, 0), image.getRGB(2, 7) & 0xffffff);
+		assertEquals(color(1, 1), image.getRGB(7, 7) & 0xffffff);
+		assertTrue(new File(dir, "0_0.wld").exists());
+
+		// the bottom right corner has a single base tile
+		PyramidBuilder.Tile corner = find(level, "1_2.png");
+		assertEquals(new Envelope(40, 50, 0, 10), corner.envelope);
+		image = ImageIO.read(corner.url);
+		assertEquals(5, image.getWidth());
+		assertEquals(5, image.getHeight());
+		assertEquals(color(2, 4), image.getRGB(2, 2) & 0xffffff);
+	}
+}
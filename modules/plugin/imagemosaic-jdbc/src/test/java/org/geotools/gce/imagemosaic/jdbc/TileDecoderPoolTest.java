@@ -0,0 +1,146 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.gce.imagemosaic.jdbc;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.TestCase;
+
+import org.geotools.geometry.GeneralEnvelope;
+
+/**
+ * Tests the shared {@link TileDecoderPool} and the decoded tile cache of
+ * {@link ImageDecoderThread}, without a database
+ *
+ * @source $URL$
+ */
+public class TileDecoderPoolTest extends TestCase {
+
+	private static final String CACHE_KEY = "TileDecoderPoolTest:tile";
+
+	@Override
+	protected void tearDown() throws Exception {
+		ImageDecoderThread.TILE_CACHE.remove(CACHE_KEY);
+	}
+
+	private byte[] encode(int rgb) throws IOException {
+		BufferedImage image = new BufferedImage(10, 10,
+				BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < 10; y++)
+			for (int x = 0; x < 10; x++)
+				image.setRGB(x, y, rgb);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", out);
+		return out.toByteArray();
+	}
+
+	private ImageDecoderThread decoder(byte[] bytes,
+			LinkedBlockingQueue<TileQueueElement> tileQueue, String cacheKey) {
+		ImageLevelInfo levelInfo = new ImageLevelInfo();
+		levelInfo.setResX(1.0);
+		levelInfo.setResY(1.0);
+		levelInfo.setCanImageIOReadFromInputStream(true);
+		GeneralEnvelope envelope = new GeneralEnvelope(new double[] { 0, 0 },
+				new double[] { 10, 10 });
+		return new ImageDecoderThread(bytes, "tile", new GeneralEnvelope(
+				envelope), new Rectangle(0, 0, 10, 10), envelope, levelInfo,
+				tileQueue, null, cacheKey);
+	}
+
+	public void testFinish() throws Exception {
+		LinkedBlockingQueue<TileQueueElement> tileQueue = new LinkedBlockingQueue<TileQueueElement>(
+				10);
+		TileDecoderPool pool = new TileDecoderPool();
+		byte[] bytes = encode(0xff0000);
+		for (int i = 0; i < 3; i++)
+			pool.submit(decoder(bytes, tileQueue, null));
+		pool.finish(tileQueue);
+
+		assertFalse(pool.isAborted());
+		assertEquals(3, pool.size());
+		assertEquals(4, tileQueue.size());
+		for (int i = 0; i < 3; i++)
+			assertEquals(0xff0000, tileQueue.take().getTileImage()
+					.getRGB(5, 5) & 0xffffff);
+		assertTrue(tileQueue.take().isEndElement());
+	}
+
+	public void testAbortWhenComposerIsGone() throws Exception {
+		long timeout = TileDecoderPool.TILE_QUEUE_TIMEOUT;
+		TileDecoderPool.TILE_QUEUE_TIMEOUT = 1;
+		try {
+			// nobody takes the tiles, the second one can't be queued
+			LinkedBlockingQueue<TileQueueElement> tileQueue = new LinkedBlockingQueue<TileQueueElement>(
+					1);
+			TileDecoderPool pool = new TileDecoderPool();
+			byte[] bytes = encode(0xff0000);
+			for (int i = 0; i < 4; i++)
+				pool.submit(decoder(bytes, tileQueue, null));
+			try {
+				pool.finish(tileQueue);
+				fail("The decoding should have been aborted");
+			} catch (IOException e) {
+				// expected
+			}
+			assertTrue(pool.isAborted());
+			// the end marker made it to the queue anyways
+			assertEquals(1, tileQueue.size());
+			assertTrue(tileQueue.take().isEndElement());
+		} finally {
+			TileDecoderPool.TILE_QUEUE_TIMEOUT = timeout;
+		}
+	}
+
+	public void testCachedTilesAreCopies() throws Exception {
+		LinkedBlockingQueue<TileQueueElement> tileQueue = new LinkedBlockingQueue<TileQueueElement>();
+		byte[] red = encode(0xff0000);
+		decoder(red, tileQueue, CACHE_KEY).run();
+		decoder(red, tileQueue, CACHE_KEY).run();
+		assertNotNull(ImageDecoderThread.TILE_CACHE.get(CACHE_KEY));
+
+		BufferedImage first = tileQueue.take().getTileImage();
+		BufferedImage second = tileQueue.take().getTileImage();
+		assertNotSame(first, second);
+		assertNotSame(first.getRaster().getDataBuffer(), second.getRaster()
+				.getDataBuffer());
+
+		// changing the image of a request does not change the cached one
+		first.setRGB(5, 5, 0x00ff00);
+		second.setRGB(5, 5, 0x0000ff);
+		decoder(red, tileQueue, CACHE_KEY).run();
+		assertEquals(0xff0000, tileQueue.take().getTileImage().getRGB(5, 5)
+				& 0xffffff);
+	}
+
+	public void testCachedTileUpdated() throws Exception {
+		LinkedBlockingQueue<TileQueueElement> tileQueue = new LinkedBlockingQueue<TileQueueElement>();
+		decoder(encode(0xff0000), tileQueue, CACHE_KEY).run();
+		// same location, new content
+		decoder(encode(0x00ff00), tileQueue, CACHE_KEY).run();
+
+		assertEquals(0xff0000, tileQueue.take().getTileImage().getRGB(5, 5)
+				& 0xffffff);
+		assertEquals(0x00ff00, tileQueue.take().getTileImage().getRGB(5, 5)
+				& 0xffffff);
+	}
+}
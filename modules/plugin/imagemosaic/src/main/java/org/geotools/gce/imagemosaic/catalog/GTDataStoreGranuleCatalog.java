@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -337,6 +338,14 @@ class GTDataStoreGranuleCatalog extends GranuleCatalog {
     @Override
     public void addGranules(final String typeName, final Collection<SimpleFeature> granules,
             final Transaction transaction) throws IOException {
+        storeGranules(typeName, granules, transaction);
+    }
+
+    /**
+     * Adds the granules to the store, returning the ids the store assigned them
+     */
+    List<FeatureId> storeGranules(final String typeName, final Collection<SimpleFeature> granules,
+            final Transaction transaction) throws IOException {
         Utilities.ensureNonNull("granuleMetadata", granules);
         final Lock lock = rwLock.writeLock();
         try {
@@ -358,12 +367,13 @@ class GTDataStoreGranuleCatalog extends GranuleCatalog {
                 featureCollection.add(f);
                 fids.add(ff.featureId(f.getID()));
             }
-            store.addFeatures(featureCollection);
+            List<FeatureId> ids = store.addFeatures(featureCollection);
 
             // update bounds
             if (bounds.containsKey(typeName)) {
                 bounds.remove(typeName);
             }
+            return ids;
 
         } finally {
             lock.unlock();
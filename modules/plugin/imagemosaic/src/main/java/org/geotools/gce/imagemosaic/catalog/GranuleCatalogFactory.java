@@ -50,6 +50,24 @@ public abstract class GranuleCatalogFactory {
 	 */
 	private GranuleCatalogFactory() {
 	}
+
+	/**
+	 * Set to true to keep the granules of the caching catalogs in a {@link SpatioTemporalGranuleCatalog},
+	 * indexed by bounds and dimension values, rather than in a {@link STRTreeGranuleCatalog}
+	 */
+	public static final String SPATIO_TEMPORAL_CATALOG_KEY = "org.geotools.imagemosaic.catalog.spatioTemporal";
+	static boolean SPATIO_TEMPORAL_CATALOG = Boolean.getBoolean(SPATIO_TEMPORAL_CATALOG_KEY);
+
+	private static GranuleCatalog createCachingCatalog(
+	        final Properties params,
+	        final boolean create,
+	        final DataStoreFactorySpi spi,
+	        final Hints hints){
+	    if (SPATIO_TEMPORAL_CATALOG) {
+	        return new SpatioTemporalGranuleCatalog(params,create,spi,hints);
+	    }
+	    return new STRTreeGranuleCatalog(params,spi,hints);
+	}
 	
 
 	public static GranuleCatalog createGranuleCatalog(
@@ -59,7 +77,7 @@ public abstract class GranuleCatalogFactory {
 	        final DataStoreFactorySpi spi,
 	        final Hints hints){
 	    if (caching) {
-		    return new STRTreeGranuleCatalog(params,spi,hints);
+		    return createCachingCatalog(params,create,spi,hints);
 	    } else {
 	        return new CachingDataStoreGranuleCatalog(new GTDataStoreGranuleCatalog(params,create,spi,hints));
 	    }
@@ -144,7 +162,7 @@ public abstract class GranuleCatalogFactory {
 		    params.putAll(overrideParams);
 		}
 		final GranuleCatalog catalog = catalogConfigurationBean.isCaching()?
-		        new STRTreeGranuleCatalog(params,spi,hints):
+		        createCachingCatalog(params,false,spi,hints):
 		            new CachingDataStoreGranuleCatalog(new GTDataStoreGranuleCatalog(params,false,spi,hints));
 
 		return catalog;
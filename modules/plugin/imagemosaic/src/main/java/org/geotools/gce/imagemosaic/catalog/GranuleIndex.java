@@ -0,0 +1,566 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.gce.imagemosaic.catalog;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.geotools.data.collection.PackedSTRtree;
+import org.geotools.gce.imagemosaic.GranuleDescriptor;
+import org.geotools.util.Converters;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.filter.And;
+import org.opengis.filter.Filter;
+import org.opengis.filter.Or;
+import org.opengis.filter.PropertyIsBetween;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.PropertyIsGreaterThan;
+import org.opengis.filter.PropertyIsGreaterThanOrEqualTo;
+import org.opengis.filter.PropertyIsLessThan;
+import org.opengis.filter.PropertyIsLessThanOrEqualTo;
+import org.opengis.filter.BinaryComparisonOperator;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.geometry.BoundingBox;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * In memory index of the granules of a single catalog type, answering
+ * queries on the granule bounds and on the values of the dimension attributes
+ * (time, elevation, custom domains).
+ * <p>
+ * The bounds are indexed by a {@link PackedSTRtree} over the granule ids,
+ * reading the bounds from the flat array of the index. Each attribute
+ * constrained by a query gets a sorted index of its values, built on first
+ * use, so that ranges such as <code>time &lt;= t AND endtime &gt;= t</code>
+ * can be resolved with two binary searches. Queries are driven by the most
+ * selective of the available indexes.
+ * <p>
+ * Granules added after the indexes have been built are kept in a tail that is
+ * scanned linearly, removed granules are marked as such, the indexes being
+ * rebuilt once the tail or the removed granules grow too large.
+ * <p>
+ * The index is not thread safe, callers need to lock around it.
+ *
+ * @source $URL$
+ */
+class GranuleIndex {
+
+    /** Receives the ids of the granules matched by a query */
+    interface GranuleVisitor {
+        void visit(int id);
+    }
+
+    /** Minimum size of the unindexed tail before a rebuild is triggered */
+    static final int MIN_TAIL_SIZE = 256;
+
+    final SimpleFeatureType schema;
+
+    SimpleFeature[] features = new SimpleFeature[16];
+
+    /** granule bounds, minx, miny, maxx, maxy */
+    double[] bounds = new double[64];
+
+    boolean[] removed = new boolean[16];
+
+    GranuleDescriptor[] descriptors = new GranuleDescriptor[16];
+
+    int size;
+
+    int removedCount;
+
+    /** number of granules covered by the indexes, the others are in the tail */
+    int indexedSize;
+
+    /** the R-tree over the indexed granules, null until built */
+    PackedSTRtree tree;
+
+    Map<String, AttributeIndex> attributeIndexes = new HashMap<String, AttributeIndex>();
+
+    GranuleIndex(SimpleFeatureType schema) {
+        this.schema = schema;
+    }
+
+    /**
+     * Adds granules to the index
+     */
+    void add(Collection<SimpleFeature> granules) {
+        for (SimpleFeature granule : granules) {
+            add(granule);
+        }
+    }
+
+    /**
+     * Adds a granule to the index, returning its id
+     */
+    int add(SimpleFeature granule) {
+        int id = size++;
+        if (id == features.length) {
+            int capacity = id * 2;
+            features = Arrays.copyOf(features, capacity);
+            bounds = Arrays.copyOf(bounds, capacity * 4);
+            removed = Arrays.copyOf(removed, capacity);
+            descriptors = Arrays.copyOf(descriptors, capacity);
+        }
+        features[id] = granule;
+        BoundingBox bbox = granule.getBounds();
+        int base = id * 4;
+        if (bbox == null || bbox.isEmpty()) {
+            // never matched by spatial queries
+            bounds[base] = bounds[base + 1] = Double.POSITIVE_INFINITY;
+            bounds[base + 2] = bounds[base + 3] = Double.NEGATIVE_INFINITY;
+        } else {
+            bounds[base] = bbox.getMinX();
+            bounds[base + 1] = bbox.getMinY();
+            bounds[base + 2] = bbox.getMaxX();
+            bounds[base + 3] = bbox.getMaxY();
+        }
+        return id;
+    }
+
+    /**
+     * Removes the granules matching the filter, returns how many were removed
+     */
+    int remove(Filter filter) {
+        int count = 0;
+        for (int id = 0; id < size; id++) {
+            if (!removed[id] && filter.evaluate(features[id])) {
+                removed[id] = true;
+                features[id] = null;
+                descriptors[id] = null;
+                count++;
+            }
+        }
+        removedCount += count;
+        return count;
+    }
+
+    int getCount() {
+        return size - removedCount;
+    }
+
+    SimpleFeature getFeature(int id) {
+        return features[id];
+    }
+
+    /**
+     * Visits the ids of the granules that may match the specified bounds and
+     * attribute ranges, in insertion order. The result is a superset of the
+     * matching granules, the query filter still has to be evaluated on them.
+     *
+     * @param envelope the bounds to intersect, or null
+     * @param ranges the attribute ranges, as returned by {@link #extractRanges(Filter)}
+     */
+    void query(Envelope envelope, Map<String, double[]> ranges, GranuleVisitor visitor) {
+        checkIndexes();
+
+        // find the most selective attribute
+        AttributeIndex driver = null;
+        int from = 0, to = 0;
+        AttributeIndex[] checks = new AttributeIndex[ranges.size()];
+        double[][] checkRanges = new double[ranges.size()][];
+        int nchecks = 0;
+        for (Map.Entry<String, double[]> entry : ranges.entrySet()) {
+            AttributeIndex index = getAttributeIndex(entry.getKey());
+            if (index == null) {
+                continue;
+            }
+            double[] range = entry.getValue();
+            int lo = index.lowerBound(range[0]);
+            int hi = index.upperBound(range[1]);
+            if (driver == null || hi - lo < to - from) {
+                driver = index;
+                from = lo;
+                to = Math.max(lo, hi);
+            }
+            checks[nchecks] = index;
+            checkRanges[nchecks++] = range;
+        }
+
+        int[] ids;
+        int count = 0;
+        final double[] b = bounds;
+        if (driver != null && (envelope == null || to - from <= indexedSize / 8)) {
+            ids = new int[to - from];
+            for (int i = from; i < to; i++) {
+                int id = driver.ids[i];
+                if (!removed[id] && intersects(b, id, envelope)
+                        && matches(id, checks, checkRanges, nchecks)) {
+                    ids[count++] = id;
+                }
+            }
+        } else if (envelope != null && tree != null) {
+            ids = new int[Math.min(indexedSize, 64)];
+            PackedSTRtree.Cursor cursor = tree.cursor(envelope);
+            while (cursor.hasNext()) {
+                int id = cursor.next();
+                if (!removed[id] && matches(id, checks, checkRanges, nchecks)) {
+                    if (count == ids.length) {
+                        ids = Arrays.copyOf(ids, count * 2);
+                    }
+                    ids[count++] = id;
+                }
+            }
+        } else {
+            ids = new int[indexedSize];
+            for (int id = 0; id < indexedSize; id++) {
+                if (!removed[id] && intersects(b, id, envelope)
+                        && matches(id, checks, checkRanges, nchecks)) {
+                    ids[count++] = id;
+                }
+            }
+        }
+
+        // report in insertion order, as the backing store would
+        Arrays.sort(ids, 0, count);
+        for (int i = 0; i < count; i++) {
+            visitor.visit(ids[i]);
+        }
+
+        // the unindexed tail
+        for (int id = indexedSize; id < size; id++) {
+            if (!removed[id] && intersects(b, id, envelope)
+                    && matches(id, checks, checkRanges, nchecks)) {
+                visitor.visit(id);
+            }
+        }
+    }
+
+    private boolean matches(int id, AttributeIndex[] checks, double[][] ranges, int nchecks) {
+        for (int i = 0; i < nchecks; i++) {
+            double value = checks[i].getValue(id);
+            if (!(value >= ranges[i][0] && value <= ranges[i][1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean intersects(double[] b, int id, Envelope envelope) {
+        if (envelope == null) {
+            return true;
+        }
+        int base = id * 4;
+        return !(b[base] > envelope.getMaxX() || b[base + 2] < envelope.getMinX()
+                || b[base + 1] > envelope.getMaxY() || b[base + 3] < envelope.getMinY());
+    }
+
+    /**
+     * Rebuilds the indexes when the tail or the removed granules grew too
+     * large
+     */
+    void checkIndexes() {
+        if (removedCount > MIN_TAIL_SIZE && removedCount > size / 4) {
+            compact();
+        }
+        int tail = size - indexedSize;
+        if (tree == null || (tail > MIN_TAIL_SIZE && tail > indexedSize / 8)) {
+            build();
+        }
+    }
+
+    /**
+     * Drops the removed granules, their ids get reused
+     */
+    void compact() {
+        int count = 0;
+        for (int id = 0; id < size; id++) {
+            if (!removed[id]) {
+                features[count] = features[id];
+                descriptors[count] = descriptors[id];
+                System.arraycopy(bounds, id * 4, bounds, count * 4, 4);
+                count++;
+            }
+        }
+        Arrays.fill(features, count, size, null);
+        Arrays.fill(descriptors, count, size, null);
+        Arrays.fill(removed, 0, size, false);
+        size = count;
+        removedCount = 0;
+        tree = null;
+        indexedSize = 0;
+    }
+
+    /**
+     * Packs the R-tree over all the granules and drops the attribute indexes,
+     * which are rebuilt on demand
+     */
+    void build() {
+        // the granules added later go to a new array if it grows, the
+        // indexed bounds are never modified until the next build
+        final double[] b = bounds;
+        tree = new PackedSTRtree(new PackedSTRtree.Bounds() {
+            public double getMinX(int id) {
+                return b[id * 4];
+            }
+
+            public double getMinY(int id) {
+                return b[id * 4 + 1];
+            }
+
+            public double getMaxX(int id) {
+                return b[id * 4 + 2];
+            }
+
+            public double getMaxY(int id) {
+                return b[id * 4 + 3];
+            }
+        }, size, null);
+        indexedSize = size;
+        attributeIndexes.clear();
+    }
+
+    /**
+     * Returns the sorted index of an attribute, building it if needed, or null
+     * if the attribute cannot be indexed
+     */
+    AttributeIndex getAttributeIndex(String attribute) {
+        AttributeIndex index = attributeIndexes.get(attribute);
+        if (index == null && !attributeIndexes.containsKey(attribute)) {
+            AttributeDescriptor ad = schema.getDescriptor(attribute);
+            if (ad != null && isIndexable(ad.getType().getBinding())) {
+                index = new AttributeIndex(attribute);
+            }
+            attributeIndexes.put(attribute, index);
+        }
+        return index;
+    }
+
+    static boolean isIndexable(Class<?> binding) {
+        return Number.class.isAssignableFrom(binding) || Date.class.isAssignableFrom(binding);
+    }
+
+    /**
+     * Turns an attribute value into a double, NaN if missing
+     */
+    static double toDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof Date) {
+            return ((Date) value).getTime();
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Sorted values of an attribute, along with the value of each granule
+     */
+    class AttributeIndex {
+
+        final String attribute;
+
+        /** the value of each indexed granule, NaN if null */
+        final double[] valueById;
+
+        /** the sorted non null values, and the matching granule ids */
+        final double[] values;
+
+        final int[] ids;
+
+        AttributeIndex(String attribute) {
+            this.attribute = attribute;
+            valueById = new double[indexedSize];
+            int count = 0;
+            for (int id = 0; id < indexedSize; id++) {
+                double value = removed[id] ? Double.NaN : toDouble(features[id]
+                        .getAttribute(attribute));
+                valueById[id] = value;
+                if (!Double.isNaN(value)) {
+                    count++;
+                }
+            }
+            ids = new int[count];
+            double[] keys = new double[indexedSize];
+            count = 0;
+            for (int id = 0; id < indexedSize; id++) {
+                if (!Double.isNaN(valueById[id])) {
+                    ids[count++] = id;
+                }
+            }
+            System.arraycopy(valueById, 0, keys, 0, indexedSize);
+            PackedSTRtree.sort(ids, keys, 0, count);
+            values = new double[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = valueById[ids[i]];
+            }
+        }
+
+        double getValue(int id) {
+            if (id < valueById.length) {
+                return valueById[id];
+            }
+            return toDouble(features[id].getAttribute(attribute));
+        }
+
+        /** first position whose value is greater or equal than the key */
+        int lowerBound(double key) {
+            int lo = 0, hi = values.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (values[mid] < key) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        /** first position whose value is greater than the key */
+        int upperBound(double key) {
+            int lo = 0, hi = values.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (values[mid] <= key) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    /**
+     * Extracts from a filter the ranges its indexable attributes must fall in
+     * for the filter to match. Only comparisons between an attribute and a
+     * literal are considered, combined by AND and OR, the returned ranges
+     * are inclusive and may be wider than the filter ones.
+     *
+     * @return the ranges by attribute name, as <code>{min, max}</code>
+     */
+    Map<String, double[]> extractRanges(Filter filter) {
+        Map<String, double[]> ranges = new HashMap<String, double[]>();
+        if (filter instanceof And) {
+            for (Filter child : ((And) filter).getChildren()) {
+                for (Map.Entry<String, double[]> entry : extractRanges(child).entrySet()) {
+                    double[] range = ranges.get(entry.getKey());
+                    double[] other = entry.getValue();
+                    if (range == null) {
+                        ranges.put(entry.getKey(), other);
+                    } else {
+                        range[0] = Math.max(range[0], other[0]);
+                        range[1] = Math.min(range[1], other[1]);
+                    }
+                }
+            }
+        } else if (filter instanceof Or) {
+            List<Filter> children = ((Or) filter).getChildren();
+            for (int i = 0; i < children.size(); i++) {
+                Map<String, double[]> child = extractRanges(children.get(i));
+                if (i == 0) {
+                    ranges.putAll(child);
+                    continue;
+                }
+                // only attributes constrained by all the branches are constrained
+                for (Iterator<Map.Entry<String, double[]>> it = ranges.entrySet().iterator(); it
+                        .hasNext();) {
+                    Map.Entry<String, double[]> entry = it.next();
+                    double[] other = child.get(entry.getKey());
+                    if (other == null) {
+                        it.remove();
+                    } else {
+                        double[] range = entry.getValue();
+                        range[0] = Math.min(range[0], other[0]);
+                        range[1] = Math.max(range[1], other[1]);
+                    }
+                }
+            }
+        } else if (filter instanceof PropertyIsBetween) {
+            PropertyIsBetween between = (PropertyIsBetween) filter;
+            String name = attributeName(between.getExpression());
+            double lower = literalValue(name, between.getLowerBoundary());
+            double upper = literalValue(name, between.getUpperBoundary());
+            if (!Double.isNaN(lower) && !Double.isNaN(upper)) {
+                ranges.put(name, new double[] { lower, upper });
+            }
+        } else if (filter instanceof BinaryComparisonOperator) {
+            BinaryComparisonOperator comparison = (BinaryComparisonOperator) filter;
+            Expression e1 = comparison.getExpression1();
+            Expression e2 = comparison.getExpression2();
+            // normalize to "attribute op literal"
+            boolean flipped = false;
+            if (e1 instanceof Literal && e2 instanceof PropertyName) {
+                Expression tmp = e1;
+                e1 = e2;
+                e2 = tmp;
+                flipped = true;
+            }
+            String name = attributeName(e1);
+            double value = literalValue(name, e2);
+            if (Double.isNaN(value)) {
+                return ranges;
+            }
+            boolean lower = filter instanceof PropertyIsGreaterThan
+                    || filter instanceof PropertyIsGreaterThanOrEqualTo;
+            boolean upper = filter instanceof PropertyIsLessThan
+                    || filter instanceof PropertyIsLessThanOrEqualTo;
+            if (filter instanceof PropertyIsEqualTo) {
+                ranges.put(name, new double[] { value, value });
+            } else if (lower || upper) {
+                if (lower != flipped) {
+                    ranges.put(name, new double[] { value, Double.POSITIVE_INFINITY });
+                } else {
+                    ranges.put(name, new double[] { Double.NEGATIVE_INFINITY, value });
+                }
+            }
+        }
+        return ranges;
+    }
+
+    private String attributeName(Expression expression) {
+        if (expression instanceof PropertyName) {
+            String name = ((PropertyName) expression).getPropertyName();
+            AttributeDescriptor ad = schema.getDescriptor(name);
+            if (ad != null && isIndexable(ad.getType().getBinding())) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the value of a literal converted to the attribute type, NaN if
+     * not possible
+     */
+    private double literalValue(String attribute, Expression expression) {
+        if (attribute == null || !(expression instanceof Literal)) {
+            return Double.NaN;
+        }
+        Object value = ((Literal) expression).getValue();
+        Class<?> binding = schema.getDescriptor(attribute).getType().getBinding();
+        if (value != null && !binding.isInstance(value)) {
+            // numbers are compared as doubles, avoid any rounding to the binding
+            Class<?> target = Number.class.isAssignableFrom(binding) ? Double.class : binding;
+            Object converted = Converters.convert(value, target);
+            if (converted == null && Date.class.isAssignableFrom(binding)) {
+                converted = Converters.convert(value, Date.class);
+            }
+            value = converted;
+        }
+        return toDouble(value);
+    }
+}
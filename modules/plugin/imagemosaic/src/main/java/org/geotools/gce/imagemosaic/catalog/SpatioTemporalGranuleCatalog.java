@@ -0,0 +1,594 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.gce.imagemosaic.catalog;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.DataStoreFactorySpi;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.Query;
+import org.geotools.data.QueryCapabilities;
+import org.geotools.data.Transaction;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.factory.Hints;
+import org.geotools.feature.SchemaException;
+import org.geotools.feature.visitor.FeatureCalc;
+import org.geotools.gce.imagemosaic.GranuleDescriptor;
+import org.geotools.gce.imagemosaic.Utils;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.util.Utilities;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.identity.FeatureId;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+import org.opengis.geometry.BoundingBox;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * A {@link GranuleCatalog} keeping all the granules of the wrapped catalog in
+ * memory, indexed by bounds and by the values of the dimension attributes
+ * (see {@link GranuleIndex}).
+ * <p>
+ * Queries, granule lookups and aggregate computations such as the domain
+ * extraction performed by the {@link org.geotools.gce.imagemosaic.RasterManager}
+ * are answered from memory, without touching the backing store. Granules
+ * removed through this catalog (e.g. via a {@link GranuleCatalogStore}) are
+ * removed from the index. Granules added are read back from the backing store
+ * by the ids it assigned them, once the transaction they are added in gets
+ * committed, and appended to the index before the next query. Should the store
+ * not return them all, the index of the type is reloaded.
+ *
+ * @source $URL$
+ */
+class SpatioTemporalGranuleCatalog extends GranuleCatalog {
+
+    /** Logger. */
+    private final static Logger LOGGER = org.geotools.util.logging.Logging
+            .getLogger(SpatioTemporalGranuleCatalog.class);
+
+    private GTDataStoreGranuleCatalog wrappedCatalogue;
+
+    /** the granule indexes, by type name, loaded on first use */
+    private final Map<String, GranuleIndex> indexes = new HashMap<String, GranuleIndex>();
+
+    /** the ids of the granules stored but not indexed yet, by type name */
+    private final Map<String, Set<FeatureId>> pendingIds = new HashMap<String, Set<FeatureId>>();
+
+    private final ReadWriteLock rwLock = new ReentrantReadWriteLock(true);
+
+    public SpatioTemporalGranuleCatalog(final Properties params, final boolean create,
+            final DataStoreFactorySpi spi, final Hints hints) {
+        this(new GTDataStoreGranuleCatalog(params, create, spi, hints), hints);
+    }
+
+    public SpatioTemporalGranuleCatalog(GTDataStoreGranuleCatalog wrappedCatalogue,
+            final Hints hints) {
+        super(hints);
+        Utilities.ensureNonNull("wrappedCatalogue", wrappedCatalogue);
+        this.wrappedCatalogue = wrappedCatalogue;
+    }
+
+    /**
+     * Returns the index of a type, loading it from the wrapped catalog if
+     * needed, or null if the type is unknown
+     */
+    private GranuleIndex getIndex(String typeName) throws IOException {
+        final Lock lock = rwLock.readLock();
+        try {
+            lock.lock();
+            checkStore();
+            GranuleIndex index = indexes.get(typeName);
+            if (index != null && !pendingIds.containsKey(typeName)) {
+                return index;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        final Lock writeLock = rwLock.writeLock();
+        try {
+            writeLock.lock();
+            checkStore();
+            GranuleIndex index = indexes.get(typeName);
+            Set<FeatureId> ids = pendingIds.remove(typeName);
+            if (index != null && ids != null && !indexStored(index, typeName, ids)) {
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine("Could not read back the granules added to " + typeName
+                            + ", reloading them all");
+                }
+                indexes.remove(typeName);
+                index = null;
+            }
+            if (index == null) {
+                SimpleFeatureType schema = wrappedCatalogue.getType(typeName);
+                if (schema == null) {
+                    return null;
+                }
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine("Loading the granules of " + typeName + " in memory");
+                }
+                index = new GranuleIndex(schema);
+                SimpleFeatureIterator it = wrappedCatalogue.getGranules(new Query(typeName))
+                        .features();
+                try {
+                    while (it.hasNext()) {
+                        index.add(it.next());
+                    }
+                } finally {
+                    it.close();
+                }
+                index.build();
+                indexes.put(typeName, index);
+            }
+            return index;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Reads back from the wrapped catalog the granules stored with the given
+     * ids and appends them to the index, unless the catalog does not return
+     * them all
+     */
+    private boolean indexStored(GranuleIndex index, String typeName, Set<FeatureId> ids)
+            throws IOException {
+        final List<SimpleFeature> stored = new ArrayList<SimpleFeature>(ids.size());
+        SimpleFeatureIterator it = wrappedCatalogue.getGranules(
+                new Query(typeName, GTDataStoreGranuleCatalog.ff.id(ids))).features();
+        try {
+            while (it.hasNext()) {
+                stored.add(it.next());
+            }
+        } finally {
+            it.close();
+        }
+        if (stored.size() != ids.size()) {
+            return false;
+        }
+        synchronized (index) {
+            index.add(stored);
+        }
+        return true;
+    }
+
+    /**
+     * The granules matching a query, by id and feature. The ids may be
+     * reused once the index is compacted, so they are only valid as long as
+     * the index still holds the same feature.
+     */
+    static class Matches {
+        int[] ids;
+
+        SimpleFeature[] features;
+
+        int size;
+    }
+
+    /**
+     * Returns the granules matching the query, in the natural order of the
+     * backing store
+     */
+    private Matches query(final GranuleIndex index, Query q) {
+        final Filter filter = q.getFilter() == null ? Filter.INCLUDE : q.getFilter();
+        final Utils.BBOXFilterExtractor bboxExtractor = new Utils.BBOXFilterExtractor();
+        filter.accept(bboxExtractor, null);
+        final ReferencedEnvelope requestedBBox = bboxExtractor.getBBox();
+
+        final Matches matches = new Matches();
+        matches.ids = new int[16];
+        matches.features = new SimpleFeature[16];
+        synchronized (index) {
+            index.query(requestedBBox, index.extractRanges(filter),
+                    new GranuleIndex.GranuleVisitor() {
+
+                        public void visit(int id) {
+                            if (matches.size == matches.ids.length) {
+                                matches.ids = Arrays.copyOf(matches.ids, matches.size * 2);
+                                matches.features = Arrays.copyOf(matches.features,
+                                        matches.size * 2);
+                            }
+                            matches.ids[matches.size] = id;
+                            matches.features[matches.size++] = index.getFeature(id);
+                        }
+                    });
+        }
+
+        // evaluate the full filter outside of the lock
+        int count = 0;
+        for (int i = 0; i < matches.size; i++) {
+            if (filter.evaluate(matches.features[i])) {
+                matches.ids[count] = matches.ids[i];
+                matches.features[count++] = matches.features[i];
+            }
+        }
+        matches.size = count;
+        return matches;
+    }
+
+    /**
+     * Returns the features matching a query, sorted and paged as requested
+     */
+    private List<SimpleFeature> getFeatures(GranuleIndex index, Query q) {
+        Matches matches = query(index, q);
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>(Arrays.asList(
+                matches.features).subList(0, matches.size));
+        SortBy[] sortBy = q.getSortBy();
+        if (sortBy != null) {
+            // stable sorts, from the least significant key
+            for (int i = sortBy.length - 1; i >= 0; i--) {
+                Comparator<SimpleFeature> comparator = DataUtilities.sortComparator(sortBy[i]);
+                if (sortBy[i] != SortBy.REVERSE_ORDER
+                        && sortBy[i].getSortOrder() == SortOrder.DESCENDING) {
+                    comparator = Collections.reverseOrder(comparator);
+                }
+                Collections.sort(features, comparator);
+            }
+        }
+        int start = q.getStartIndex() != null ? q.getStartIndex() : 0;
+        int max = q.getMaxFeatures();
+        if (start > 0 || (max > 0 && max < features.size())) {
+            int end = max > 0 ? (int) Math.min((long) start + max, features.size())
+                    : features.size();
+            features = start >= end ? new ArrayList<SimpleFeature>() : new ArrayList<SimpleFeature>(
+                    features.subList(start, end));
+        }
+        return features;
+    }
+
+    @Override
+    public SimpleFeatureCollection getGranules(Query q) throws IOException {
+        Utilities.ensureNonNull("query", q);
+        q = mergeHints(q);
+        GranuleIndex index = getIndex(q.getTypeName());
+        if (index == null) {
+            return wrappedCatalogue.getGranules(q);
+        }
+        return new ListFeatureCollection(index.schema, getFeatures(index, q));
+    }
+
+    @Override
+    public int getGranulesCount(Query q) throws IOException {
+        Utilities.ensureNonNull("query", q);
+        q = mergeHints(q);
+        GranuleIndex index = getIndex(q.getTypeName());
+        if (index == null) {
+            return wrappedCatalogue.getGranulesCount(q);
+        }
+        if (q.getSortBy() == null && q.getStartIndex() == null
+                && (q.getMaxFeatures() <= 0 || q.getMaxFeatures() == Integer.MAX_VALUE)) {
+            return query(index, q).size;
+        }
+        return getFeatures(index, q).size();
+    }
+
+    @Override
+    public void getGranuleDescriptors(Query q, GranuleCatalogVisitor visitor) throws IOException {
+        Utilities.ensureNonNull("query", q);
+        Utilities.ensureNonNull("visitor", visitor);
+        q = mergeHints(q);
+        GranuleIndex index = getIndex(q.getTypeName());
+        if (index == null) {
+            wrappedCatalogue.getGranuleDescriptors(q, visitor);
+            return;
+        }
+
+        // ROI
+        final Utils.BBOXFilterExtractor bboxExtractor = new Utils.BBOXFilterExtractor();
+        final Filter filter = q.getFilter() == null ? Filter.INCLUDE : q.getFilter();
+        filter.accept(bboxExtractor, null);
+        ReferencedEnvelope requestedBBox = bboxExtractor.getBBox();
+        final Geometry intersectionGeometry = requestedBBox != null ? JTS
+                .toGeometry(requestedBBox) : null;
+
+        Matches matches = query(index, q);
+        int max = q.getMaxFeatures();
+        int visited = 0;
+        for (int i = 0; i < matches.size; i++) {
+            if (max > 0 && visited >= max) {
+                break;
+            }
+            GranuleDescriptor granule = getGranuleDescriptor(index, matches.ids[i],
+                    matches.features[i]);
+            if (granule == null) {
+                continue;
+            }
+            // check ROI inclusion
+            final Geometry footprint = granule.getFootprint();
+            if (intersectionGeometry == null || footprint == null
+                    || polygonOverlap(footprint, intersectionGeometry)) {
+                visitor.visit(granule, null);
+                visited++;
+            } else if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Skipping granule " + granule
+                        + "\n since its ROI does not intersect the requested area");
+            }
+        }
+    }
+
+    /**
+     * Returns the cached descriptor of a granule, creating it if needed
+     */
+    private GranuleDescriptor getGranuleDescriptor(GranuleIndex index, int id, SimpleFeature sf) {
+        synchronized (index) {
+            if (id < index.size && index.getFeature(id) == sf && index.descriptors[id] != null) {
+                return index.descriptors[id];
+            }
+        }
+
+        // create the granule descriptor outside of the lock, it might be expensive
+        MultiLevelROI footprint = getGranuleFootprint(sf);
+        if (footprint != null && footprint.isEmpty()) {
+            return null;
+        }
+        GranuleDescriptor granule = new GranuleDescriptor(sf,
+                wrappedCatalogue.suggestedRasterSPI, wrappedCatalogue.pathType,
+                wrappedCatalogue.locationAttribute, wrappedCatalogue.parentLocation, footprint,
+                wrappedCatalogue.heterogeneous, wrappedCatalogue.hints);
+        synchronized (index) {
+            // cache it, unless the index changed in the meantime
+            if (id < index.size && index.getFeature(id) == sf) {
+                if (index.descriptors[id] != null) {
+                    return index.descriptors[id];
+                }
+                index.descriptors[id] = granule;
+            }
+        }
+        return granule;
+    }
+
+    private boolean polygonOverlap(Geometry g1, Geometry g2) {
+        Geometry intersection = g1.intersection(g2);
+        return intersection != null && intersection.getDimension() == 2;
+    }
+
+    @Override
+    public void computeAggregateFunction(Query q, FeatureCalc function) throws IOException {
+        Utilities.ensureNonNull("query", q);
+        q = mergeHints(q);
+        GranuleIndex index = getIndex(q.getTypeName());
+        if (index == null) {
+            wrappedCatalogue.computeAggregateFunction(q, function);
+            return;
+        }
+        for (SimpleFeature feature : getFeatures(index, q)) {
+            function.visit(feature);
+        }
+    }
+
+    @Override
+    public void addGranules(final String typeName, final Collection<SimpleFeature> granules,
+            final Transaction transaction) throws IOException {
+        List<FeatureId> ids = wrappedCatalogue.storeGranules(typeName, granules, transaction);
+
+        // the store may assign its own ids and convert the attribute values, so the
+        // granules are read back from it rather than indexed as provided
+        if (ids == null || ids.size() != granules.size()) {
+            // cannot tell which granules were added
+            dropIndex(typeName);
+        } else if (transaction == null || transaction == Transaction.AUTO_COMMIT) {
+            addPendingIds(typeName, ids);
+        } else {
+            // once the changes are committed
+            IndexState state = (IndexState) transaction.getState(this);
+            if (state == null) {
+                state = new IndexState();
+                transaction.putState(this, state);
+            }
+            List<FeatureId> added = state.added.get(typeName);
+            if (added == null) {
+                added = new ArrayList<FeatureId>();
+                state.added.put(typeName, added);
+            }
+            added.addAll(ids);
+        }
+    }
+
+    /**
+     * Records granules to be indexed before the next query, if the index of
+     * their type is loaded
+     */
+    private void addPendingIds(String typeName, Collection<FeatureId> ids) {
+        final Lock lock = rwLock.writeLock();
+        try {
+            lock.lock();
+            if (!indexes.containsKey(typeName)) {
+                // they will be loaded along with the others
+                return;
+            }
+            Set<FeatureId> pending = pendingIds.get(typeName);
+            if (pending == null) {
+                pending = new LinkedHashSet<FeatureId>();
+                pendingIds.put(typeName, pending);
+            }
+            pending.addAll(ids);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Keeps the ids of the granules added in a transaction, by type, until it
+     * is committed. The granules are read back on the next query, by then the
+     * store has committed them as well.
+     */
+    class IndexState implements Transaction.State {
+
+        Map<String, List<FeatureId>> added = new HashMap<String, List<FeatureId>>();
+
+        public void setTransaction(Transaction transaction) {
+            if (transaction == null) {
+                added.clear();
+            }
+        }
+
+        public void addAuthorization(String AuthID) throws IOException {
+            // nothing to do
+        }
+
+        public void commit() throws IOException {
+            for (Map.Entry<String, List<FeatureId>> entry : added.entrySet()) {
+                addPendingIds(entry.getKey(), entry.getValue());
+            }
+            added.clear();
+        }
+
+        public void rollback() throws IOException {
+            added.clear();
+        }
+    }
+
+    @Override
+    public int removeGranules(Query query) {
+        Utilities.ensureNonNull("query", query);
+        final int val = wrappedCatalogue.removeGranules(query);
+        if (val != 0) {
+            final Lock lock = rwLock.writeLock();
+            try {
+                lock.lock();
+                GranuleIndex index = indexes.get(query.getTypeName());
+                if (index != null) {
+                    if (val < 0) {
+                        // the store failed, we don't know its state anymore
+                        indexes.remove(query.getTypeName());
+                        pendingIds.remove(query.getTypeName());
+                    } else {
+                        synchronized (index) {
+                            index.remove(query.getFilter() == null ? Filter.INCLUDE : query
+                                    .getFilter());
+                        }
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return val;
+    }
+
+    @Override
+    public void createType(String namespace, String typeName, String typeSpec)
+            throws IOException, SchemaException {
+        wrappedCatalogue.createType(namespace, typeName, typeSpec);
+        dropIndex(typeName);
+    }
+
+    @Override
+    public void createType(SimpleFeatureType featureType) throws IOException {
+        wrappedCatalogue.createType(featureType);
+        dropIndex(featureType.getTypeName());
+    }
+
+    @Override
+    public void createType(String identification, String typeSpec) throws SchemaException,
+            IOException {
+        wrappedCatalogue.createType(identification, typeSpec);
+        dropIndex(identification);
+    }
+
+    @Override
+    public void removeType(String typeName) throws IOException {
+        wrappedCatalogue.removeType(typeName);
+        dropIndex(typeName);
+    }
+
+    private void dropIndex(String typeName) {
+        final Lock lock = rwLock.writeLock();
+        try {
+            lock.lock();
+            indexes.remove(typeName);
+            pendingIds.remove(typeName);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public BoundingBox getBounds(String typeName) {
+        return wrappedCatalogue.getBounds(typeName);
+    }
+
+    @Override
+    public QueryCapabilities getQueryCapabilities(String typeName) {
+        return wrappedCatalogue.getQueryCapabilities(typeName);
+    }
+
+    @Override
+    public SimpleFeatureType getType(String typeName) throws IOException {
+        return wrappedCatalogue.getType(typeName);
+    }
+
+    @Override
+    public String[] getTypeNames() {
+        return wrappedCatalogue.getTypeNames();
+    }
+
+    @Override
+    public void dispose() {
+        final Lock lock = rwLock.writeLock();
+        try {
+            lock.lock();
+            if (wrappedCatalogue != null) {
+                try {
+                    wrappedCatalogue.dispose();
+                } catch (Exception e) {
+                    if (LOGGER.isLoggable(Level.FINE))
+                        LOGGER.log(Level.FINE, e.getLocalizedMessage(), e);
+                }
+            }
+            if (multiScaleROIProvider != null) {
+                multiScaleROIProvider.dispose();
+            }
+        } finally {
+            indexes.clear();
+            pendingIds.clear();
+            wrappedCatalogue = null;
+            multiScaleROIProvider = null;
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @throws IllegalStateException
+     */
+    private void checkStore() throws IllegalStateException {
+        if (wrappedCatalogue == null)
+            throw new IllegalStateException("The underlying store has already been disposed!");
+    }
+}
@@ -0,0 +1,207 @@
+package org.geotools.gce.imagemosaic.catalog;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.gce.imagemosaic.Utils;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Polygon;
+
+public class GranuleIndexTest {
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
+
+    static final long DAY = 24 * 3600 * 1000L;
+
+    private SimpleFeatureBuilder fb;
+
+    private GranuleIndex index;
+
+    private List<SimpleFeature> granules;
+
+    private Random random;
+
+    @Before
+    public void setup() {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.add("the_geom", Polygon.class, DefaultGeographicCRS.WGS84);
+        tb.add("location", String.class);
+        tb.add("time", Date.class);
+        tb.add("endtime", Date.class);
+        tb.add("elevation", Double.class);
+        tb.setName("test");
+        SimpleFeatureType featureType = tb.buildFeatureType();
+
+        fb = new SimpleFeatureBuilder(featureType);
+        index = new GranuleIndex(featureType);
+        granules = new ArrayList<SimpleFeature>();
+        random = new Random(1);
+        for (int i = 0; i < 2000; i++) {
+            granules.add(buildGranule(i));
+        }
+        index.add(granules);
+    }
+
+    SimpleFeature buildGranule(int i) {
+        double x = random.nextDouble() * 350 - 180;
+        double y = random.nextDouble() * 170 - 90;
+        double size = random.nextDouble() * 10;
+        long start = random.nextInt(365) * DAY;
+        fb.add(JTS.toGeometry(new Envelope(x, x + size, y, y + size)));
+        fb.add("granule" + i + ".tif");
+        fb.add(new Date(start));
+        fb.add(new Date(start + random.nextInt(10) * DAY));
+        // a few granules without elevation
+        fb.add(i % 50 == 0 ? null : Double.valueOf(random.nextInt(10) * 100));
+        return fb.buildFeature("granule." + i);
+    }
+
+    @Test
+    public void testBBox() {
+        ReferencedEnvelope bbox = new ReferencedEnvelope(10, 30, 10, 20,
+                DefaultGeographicCRS.WGS84);
+        assertSameAsScan(FF.bbox(FF.property("the_geom"), bbox));
+    }
+
+    @Test
+    public void testTimeInstant() {
+        Date time = new Date(100 * DAY);
+        Filter filter = FF.and(FF.lessOrEqual(FF.property("time"), FF.literal(time)),
+                FF.greaterOrEqual(FF.property("endtime"), FF.literal(time)));
+        assertSameAsScan(filter);
+
+        // same, literals first
+        filter = FF.and(FF.greaterOrEqual(FF.literal(time), FF.property("time")),
+                FF.lessOrEqual(FF.literal(time), FF.property("endtime")));
+        assertSameAsScan(filter);
+    }
+
+    @Test
+    public void testSpatioTemporal() {
+        ReferencedEnvelope bbox = new ReferencedEnvelope(-90, 0, -45, 45,
+                DefaultGeographicCRS.WGS84);
+        Filter filter = FF.and(FF.bbox(FF.property("the_geom"), bbox), FF.and(
+                FF.between(FF.property("time"), FF.literal(new Date(20 * DAY)),
+                        FF.literal(new Date(40 * DAY))),
+                FF.equals(FF.property("elevation"), FF.literal(300))));
+        assertSameAsScan(filter);
+    }
+
+    @Test
+    public void testOr() {
+        Filter filter = FF.or(FF.equals(FF.property("elevation"), FF.literal(100)),
+                FF.equals(FF.property("elevation"), FF.literal("500")));
+        assertSameAsScan(filter);
+        Map<String, double[]> ranges = index.extractRanges(filter);
+        assertArrayEquals(new double[] { 100, 500 }, ranges.get("elevation"), 0);
+
+        // the location is not constrained by all branches
+        filter = FF.or(FF.equals(FF.property("elevation"), FF.literal(100)),
+                FF.equals(FF.property("location"), FF.literal("granule1.tif")));
+        assertSameAsScan(filter);
+        assertEquals(0, index.extractRanges(filter).size());
+    }
+
+    @Test
+    public void testExtractRanges() {
+        Filter filter = FF.and(FF.greater(FF.property("elevation"), FF.literal(100)),
+                FF.less(FF.literal(800), FF.property("elevation")));
+        assertArrayEquals(new double[] { 800, Double.POSITIVE_INFINITY },
+                index.extractRanges(filter).get("elevation"), 0);
+
+        filter = FF.lessOrEqual(FF.property("time"), FF.literal(new Date(10 * DAY)));
+        assertArrayEquals(new double[] { Double.NEGATIVE_INFINITY, 10 * DAY },
+                index.extractRanges(filter).get("time"), 0);
+
+        // not indexable
+        assertNull(index.extractRanges(
+                FF.equals(FF.property("location"), FF.literal("granule1.tif"))).get("location"));
+    }
+
+    @Test
+    public void testAddAndRemove() {
+        Filter filter = FF.and(FF.bbox(FF.property("the_geom"), new ReferencedEnvelope(-50, 50,
+                -50, 50, DefaultGeographicCRS.WGS84)), FF.lessOrEqual(FF.property("time"),
+                FF.literal(new Date(200 * DAY))));
+        assertSameAsScan(filter);
+
+        // a short tail that is not indexed yet
+        for (int i = 2000; i < 2100; i++) {
+            SimpleFeature granule = buildGranule(i);
+            granules.add(granule);
+            index.add(granule);
+        }
+        assertSameAsScan(filter);
+
+        // remove some
+        Filter removal = FF.greater(FF.property("elevation"), FF.literal(600));
+        int removed = 0;
+        for (SimpleFeature granule : new ArrayList<SimpleFeature>(granules)) {
+            if (removal.evaluate(granule)) {
+                granules.remove(granule);
+                removed++;
+            }
+        }
+        assertEquals(removed, index.remove(removal));
+        assertEquals(granules.size(), index.getCount());
+        assertSameAsScan(filter);
+
+        // a long tail, gets the indexes rebuilt and compacted
+        for (int i = 2100; i < 3000; i++) {
+            SimpleFeature granule = buildGranule(i);
+            granules.add(granule);
+            index.add(granule);
+        }
+        assertSameAsScan(filter);
+        assertSameAsScan(Filter.INCLUDE);
+    }
+
+    /**
+     * Checks the index returns the same granules as a full scan, in the same
+     * order
+     */
+    void assertSameAsScan(Filter filter) {
+        List<SimpleFeature> expected = new ArrayList<SimpleFeature>();
+        for (SimpleFeature granule : granules) {
+            if (filter.evaluate(granule)) {
+                expected.add(granule);
+            }
+        }
+
+        Utils.BBOXFilterExtractor extractor = new Utils.BBOXFilterExtractor();
+        filter.accept(extractor, null);
+        final List<SimpleFeature> actual = new ArrayList<SimpleFeature>();
+        final Filter f = filter;
+        index.query(extractor.getBBox(), index.extractRanges(filter),
+                new GranuleIndex.GranuleVisitor() {
+
+                    public void visit(int id) {
+                        SimpleFeature granule = index.getFeature(id);
+                        if (f.evaluate(granule)) {
+                            actual.add(granule);
+                        }
+                    }
+                });
+        assertEquals(expected, actual);
+    }
+}
@@ -21,15 +21,19 @@ import java.awt.geom.AffineTransform;
 import java.awt.image.RenderedImage;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.media.jai.JAI;
 import javax.media.jai.ParameterBlockJAI;
+import javax.media.jai.ROI;
 import javax.media.jai.RenderedOp;
 
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.util.AffineTransformation;
+import com.vividsolutions.jts.operation.linemerge.LineMerger;
 
 import org.jaitools.media.jai.contour.ContourDescriptor;
 import org.jaitools.media.jai.contour.ContourRIF;
@@ -193,6 +197,8 @@ public class ContourProcess implements RasterProcess {
 
         // get the rendered image
         final RenderedImage raster = gc2d.getRenderedImage();
+        final SimpleFeatureType schema = CoverageUtilities
+                .createFeatureType(gc2d, LineString.class);
 
         // perform jai operation
         ParameterBlockJAI pb = new ParameterBlockJAI("Contour");
@@ -227,14 +233,20 @@ public class ContourProcess implements RasterProcess {
             pb.setParameter("nodata", noDataList);
         }
 
+        // large rasters are contoured tile by tile, merging the lines along the seams. The
+        // smoothing depends on the whole line, so it's left to the single pass
+        if ((smooth == null || !smooth)
+                && TiledVectorCollection.isTiled(raster, TiledVectorCollection.TILE_SIZE)) {
+            return new TiledContourCollection(schema, raster,
+                    (ROI) pb.getObjectParameter("roi"), mt2D, pb, simplify == null || simplify);
+        }
+
         final RenderedOp dest = JAI.create("Contour", pb);
         @SuppressWarnings("unchecked")
         final Collection<LineString> prop = (Collection<LineString>) dest
                 .getProperty(ContourDescriptor.CONTOUR_PROPERTY_NAME);
 
         // wrap as a feature collection and return
-        final SimpleFeatureType schema = CoverageUtilities
-                .createFeatureType(gc2d, LineString.class);
         final SimpleFeatureBuilder builder = new SimpleFeatureBuilder(schema);
         int i = 0;
         final ListFeatureCollection featureCollection = new ListFeatureCollection(schema);
@@ -263,4 +275,68 @@ public class ContourProcess implements RasterProcess {
 
     }
 
+    /**
+     * Contours a large raster tile by tile. The tiles overlap by one pixel, so that the lines
+     * crossing a seam end on the same points in both tiles, and are merged back together.
+     */
+    private static final class TiledContourCollection extends TiledVectorCollection<LineString> {
+
+        final ParameterBlockJAI pb;
+
+        final boolean simplify;
+
+        TiledContourCollection(SimpleFeatureType schema, RenderedImage image, ROI roi,
+                AffineTransform gridToWorld, ParameterBlockJAI pb, boolean simplify) {
+            super(schema, image, TILE_SIZE, roi, gridToWorld);
+            this.pb = pb;
+            this.simplify = simplify;
+        }
+
+        @Override
+        int getOverlap() {
+            return 1;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        List<LineString> extract(RenderedImage tile, ROI roi) {
+            final ParameterBlockJAI tilePb = (ParameterBlockJAI) pb.clone();
+            tilePb.setSource("source0", tile);
+            if (roi != null) {
+                tilePb.setParameter("roi", roi);
+            }
+            final RenderedOp dest = JAI.create("Contour", tilePb);
+            return new ArrayList<LineString>((Collection<LineString>) dest
+                    .getProperty(ContourDescriptor.CONTOUR_PROPERTY_NAME));
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        List<LineString> stitch(List<LineString> open) {
+            // merge the lines of the same level sharing an end point
+            final Map<Object, LineMerger> mergers = new LinkedHashMap<Object, LineMerger>();
+            for (LineString line : open) {
+                LineMerger merger = mergers.get(line.getUserData());
+                if (merger == null) {
+                    merger = new LineMerger();
+                    mergers.put(line.getUserData(), merger);
+                }
+                merger.add(line);
+            }
+            final List<LineString> result = new ArrayList<LineString>();
+            for (Map.Entry<Object, LineMerger> entry : mergers.entrySet()) {
+                for (LineString line : (Collection<LineString>) entry.getValue()
+                        .getMergedLineStrings()) {
+                    if (simplify) {
+                        line = line.getFactory().createLineString(
+                                removeCollinear(line.getCoordinates(), false));
+                    }
+                    line.setUserData(entry.getKey());
+                    result.add(line);
+                }
+            }
+            return result;
+        }
+    }
+
 }
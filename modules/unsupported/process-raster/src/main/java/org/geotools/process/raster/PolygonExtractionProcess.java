@@ -21,19 +21,27 @@ import java.awt.geom.AffineTransform;
 import java.awt.image.RenderedImage;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.media.jai.JAI;
 import javax.media.jai.ParameterBlockJAI;
+import javax.media.jai.ROI;
 import javax.media.jai.RenderedOp;
 
 import org.jaitools.media.jai.vectorize.VectorizeDescriptor;
 import org.jaitools.media.jai.vectorize.VectorizeRIF;
 import org.jaitools.numeric.Range;
 
+import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
 import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.geom.util.AffineTransformation;
+import com.vividsolutions.jts.operation.union.CascadedPolygonUnion;
 
 import org.geotools.process.factory.DescribeParameter;
 import org.geotools.process.factory.DescribeProcess;
@@ -166,27 +174,22 @@ public class PolygonExtractionProcess implements RasterProcess {
 
         // get the rendered image
         final RenderedImage raster = coverage.getRenderedImage();
+        final ROI rasterROI = roi != null ? CoverageUtilities.prepareROI(roi, mt2D) : null;
+        final SimpleFeatureType featureType = CoverageUtilities.createFeatureType(coverage, Polygon.class);
 
-        // perform jai operation
-        ParameterBlockJAI pb = new ParameterBlockJAI("Vectorize");
-        pb.setSource("source0", raster);
-
-        if (roi != null) {
-            pb.setParameter("roi", CoverageUtilities.prepareROI(roi, mt2D));
+        // large rasters are vectorized tile by tile, stitching the polygons along the seams,
+        // unless the boundaries between regions are to be dissolved
+        if ((insideEdges == null || insideEdges)
+                && TiledVectorCollection.isTiled(raster, TiledVectorCollection.TILE_SIZE)) {
+            return new TiledPolygonCollection(featureType, raster, rasterROI, mt2D, band,
+                    outsideValues);
         }
-        pb.setParameter("band", band);
-        pb.setParameter("outsideValues", outsideValues);
-        if (insideEdges != null) {
-            pb.setParameter("insideEdges", insideEdges);
-        }
-        // pb.setParameter("removeCollinear", false);  
 
-        final RenderedOp dest = JAI.create("Vectorize", pb);
-        @SuppressWarnings("unchecked")
-        final Collection<Polygon> prop = (Collection<Polygon>) dest.getProperty(VectorizeDescriptor.VECTOR_PROPERTY_NAME);
+        // perform jai operation
+        final Collection<Polygon> prop = vectorize(raster, rasterROI, band, outsideValues,
+                insideEdges);
 
         // wrap as a feature collection and return
-        final SimpleFeatureType featureType = CoverageUtilities.createFeatureType(coverage, Polygon.class);
         final SimpleFeatureBuilder builder = new SimpleFeatureBuilder(featureType);
         int i = 0;
         final ListFeatureCollection featureCollection = new ListFeatureCollection(featureType);
@@ -215,4 +218,199 @@ public class PolygonExtractionProcess implements RasterProcess {
         //return value
         return featureCollection;
     }
+
+    /**
+     * Runs the Vectorize operation, returning the polygons in raster space with their value as
+     * user data
+     */
+    @SuppressWarnings("unchecked")
+    static Collection<Polygon> vectorize(RenderedImage raster, ROI roi, int band,
+            List<Number> outsideValues, Boolean insideEdges) {
+        ParameterBlockJAI pb = new ParameterBlockJAI("Vectorize");
+        pb.setSource("source0", raster);
+
+        if (roi != null) {
+            pb.setParameter("roi", roi);
+        }
+        pb.setParameter("band", band);
+        pb.setParameter("outsideValues", outsideValues);
+        if (insideEdges != null) {
+            pb.setParameter("insideEdges", insideEdges);
+        }
+        // pb.setParameter("removeCollinear", false);  
+
+        final RenderedOp dest = JAI.create("Vectorize", pb);
+        return (Collection<Polygon>) dest.getProperty(VectorizeDescriptor.VECTOR_PROPERTY_NAME);
+    }
+
+    /**
+     * Vectorizes a large raster tile by tile. The polygons of the adjacent tiles having the same
+     * value and sharing some cell edges along the seam are unioned together.
+     */
+    private static final class TiledPolygonCollection extends TiledVectorCollection<Polygon> {
+
+        final int band;
+
+        final List<Number> outsideValues;
+
+        TiledPolygonCollection(SimpleFeatureType schema, RenderedImage image, ROI roi,
+                AffineTransform gridToWorld, int band, List<Number> outsideValues) {
+            super(schema, image, TILE_SIZE, roi, gridToWorld);
+            this.band = band;
+            this.outsideValues = outsideValues;
+        }
+
+        @Override
+        int getOverlap() {
+            return 0;
+        }
+
+        @Override
+        List<Polygon> extract(RenderedImage tile, ROI roi) {
+            return new ArrayList<Polygon>(vectorize(tile, roi, band, outsideValues, null));
+        }
+
+        @Override
+        List<Polygon> stitch(List<Polygon> open) {
+            // the polygons sharing a cell edge along a seam, with the same value, are connected
+            final int[] parents = new int[open.size()];
+            for (int i = 0; i < parents.length; i++) {
+                parents[i] = i;
+            }
+            final Map<SeamEdge, Integer> edges = new HashMap<SeamEdge, Integer>();
+            for (int i = 0; i < parents.length; i++) {
+                final Polygon polygon = open.get(i);
+                final Object value = polygon.getUserData();
+                addSeamEdges(polygon.getExteriorRing().getCoordinates(), value, i, edges,
+                        parents);
+                for (int j = 0; j < polygon.getNumInteriorRing(); j++) {
+                    addSeamEdges(polygon.getInteriorRingN(j).getCoordinates(), value, i, edges,
+                            parents);
+                }
+            }
+
+            final Map<Integer, List<Polygon>> groups = new LinkedHashMap<Integer, List<Polygon>>();
+            for (int i = 0; i < parents.length; i++) {
+                final Integer root = find(parents, i);
+                List<Polygon> group = groups.get(root);
+                if (group == null) {
+                    group = new ArrayList<Polygon>();
+                    groups.put(root, group);
+                }
+                group.add(open.get(i));
+            }
+            final List<Polygon> result = new ArrayList<Polygon>();
+            for (List<Polygon> group : groups.values()) {
+                if (group.size() == 1) {
+                    result.add(group.get(0));
+                    continue;
+                }
+                final Object value = group.get(0).getUserData();
+                final Geometry union = CascadedPolygonUnion.union(group);
+                for (int i = 0; i < union.getNumGeometries(); i++) {
+                    final Polygon polygon = removeCollinear((Polygon) union.getGeometryN(i));
+                    polygon.setUserData(value);
+                    result.add(polygon);
+                }
+            }
+            return result;
+        }
+
+        private void addSeamEdges(Coordinate[] ring, Object value, int index,
+                Map<SeamEdge, Integer> edges, int[] parents) {
+            for (int i = 0; i < ring.length - 1; i++) {
+                final Coordinate a = ring[i];
+                final Coordinate b = ring[i + 1];
+                final boolean vertical;
+                final double seam, min, max;
+                if (a.x == b.x && isSeam(a.x, bounds.x, tilesX)) {
+                    vertical = true;
+                    seam = a.x;
+                    min = Math.min(a.y, b.y);
+                    max = Math.max(a.y, b.y);
+                } else if (a.y == b.y && isSeam(a.y, bounds.y, tilesY)) {
+                    vertical = false;
+                    seam = a.y;
+                    min = Math.min(a.x, b.x);
+                    max = Math.max(a.x, b.x);
+                } else {
+                    continue;
+                }
+                // polygons follow the cell edges, match them one cell at a time
+                for (int cell = (int) min; cell < (int) max; cell++) {
+                    final Integer other = edges.put(new SeamEdge(vertical, (int) seam, cell,
+                            value), index);
+                    if (other != null && other.intValue() != index) {
+                        parents[find(parents, other)] = find(parents, index);
+                    }
+                }
+            }
+        }
+
+        private boolean isSeam(double ordinate, int origin, int tiles) {
+            if (ordinate != Math.rint(ordinate)) {
+                return false;
+            }
+            final int offset = (int) ordinate - origin;
+            return offset > 0 && offset < tiles * tileSize && offset % tileSize == 0;
+        }
+
+        private static int find(int[] parents, int i) {
+            while (parents[i] != i) {
+                parents[i] = parents[parents[i]];
+                i = parents[i];
+            }
+            return i;
+        }
+
+        private static Polygon removeCollinear(Polygon polygon) {
+            final GeometryFactory factory = polygon.getFactory();
+            final LinearRing shell = factory.createLinearRing(TiledVectorCollection
+                    .removeCollinear(polygon.getExteriorRing().getCoordinates(), true));
+            final LinearRing[] holes = new LinearRing[polygon.getNumInteriorRing()];
+            for (int i = 0; i < holes.length; i++) {
+                holes[i] = factory.createLinearRing(TiledVectorCollection.removeCollinear(
+                        polygon.getInteriorRingN(i).getCoordinates(), true));
+            }
+            return factory.createPolygon(shell, holes);
+        }
+    }
+
+    /**
+     * A cell edge lying on a seam between tiles, for a given polygon value
+     */
+    private static final class SeamEdge {
+        final boolean vertical;
+
+        final int seam;
+
+        final int cell;
+
+        final Object value;
+
+        SeamEdge(boolean vertical, int seam, int cell, Object value) {
+            this.vertical = vertical;
+            this.seam = seam;
+            this.cell = cell;
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof SeamEdge)) {
+                return false;
+            }
+            final SeamEdge other = (SeamEdge) obj;
+            return vertical == other.vertical && seam == other.seam && cell == other.cell
+                    && (value == null ? other.value == null : value.equals(other.value));
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = vertical ? 1 : 0;
+            hash = 31 * hash + seam;
+            hash = 31 * hash + cell;
+            return 31 * hash + (value == null ? 0 : value.hashCode());
+        }
+    }
 }
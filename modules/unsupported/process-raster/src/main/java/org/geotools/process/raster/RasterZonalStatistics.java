@@ -21,8 +21,11 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.image.RenderedImage;
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.SortedMap;
 
 import javax.media.jai.JAI;
 import javax.media.jai.ROI;
@@ -87,6 +90,25 @@ public class RasterZonalStatistics implements RasterProcess {
     private final static CoverageProcessor PROCESSOR = CoverageProcessor.getInstance();
 
     private final static Operation CROPOPERATION = PROCESSOR.getOperation("CoverageCrop");
+
+    /**
+     * The system property enabling the computation of the statistics for batches of zones in a
+     * single parallel pass over the raster, instead of cropping it for each zone. Disabled by
+     * default, the results are not always identical to the jai-tools ones: the pixels whose
+     * center lies exactly on a zone boundary are included or excluded with different rules, and
+     * the sums are accumulated in a different order, so the sum, avg and stddev can differ in
+     * their last digits
+     */
+    public static final String TILED_ZONAL_STATS_KEY = "org.geotools.process.raster.tiledZonalStats";
+
+    static boolean TILED_ZONAL_STATS_ENABLED = Boolean.getBoolean(TILED_ZONAL_STATS_KEY);
+
+    /**
+     * The system property controlling how many zones are processed in a single pass
+     */
+    public static final String ZONE_BATCH_SIZE_KEY = "org.geotools.process.raster.zonalStatsBatchSize";
+
+    static int ZONE_BATCH_SIZE = Integer.getInteger(ZONE_BATCH_SIZE_KEY, 1024);
     
     @DescribeResult(name = "statistics", description = "A feature collection with the attributes of the zone layer (prefixed by 'z_') and the statistics fields count,min,max,sum,avg,stddev")
     public SimpleFeatureCollection execute(
@@ -176,7 +198,11 @@ public class RasterZonalStatistics implements RasterProcess {
 
         RenderedImage classificationRaster;
         
-        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        List<SimpleFeature> features = new LinkedList<SimpleFeature>();
+
+        TiledZonalStatistics tiledStatistics;
+
+        MathTransform w2gTransform;
 
         public RasterZonalStatisticsIterator(SimpleFeatureIterator zones, GridCoverage2D coverage,
                 int band, SimpleFeatureType targetSchema, GridCoverage2D classification) {
@@ -196,6 +222,18 @@ public class RasterZonalStatistics implements RasterProcess {
                 // of the data coverage
                 classificationRaster = GridCoverage2DRIA.create(classification, dataCoverage, nodata);
             }
+
+            if (TILED_ZONAL_STATS_ENABLED) {
+                tiledStatistics = new TiledZonalStatistics(dataCoverage.getRenderedImage(), band,
+                        classificationRaster, getNoDataRanges(dataCoverage));
+                try {
+                    w2gTransform = ProjectiveTransform.create(((AffineTransform) dataCoverage
+                            .getGridGeometry().getGridToCRS2D(PixelOrientation.UPPER_LEFT))
+                            .createInverse());
+                } catch (NoninvertibleTransformException e) {
+                    throw new IllegalArgumentException(e.getLocalizedMessage());
+                }
+            }
         }
 
         public void close() {
@@ -203,55 +241,135 @@ public class RasterZonalStatistics implements RasterProcess {
         }
 
         public boolean hasNext() {
-            return features.size() > 0 || zones.hasNext();
+            // build the next set of features if necessary, zones might not generate any
+            while (features.isEmpty() && zones.hasNext()) {
+                if (tiledStatistics != null) {
+                    processBatch();
+                } else {
+                    processZone(zones.next());
+                }
+            }
+            return !features.isEmpty();
         }
 
         public SimpleFeature next() throws NoSuchElementException {
-            // build the next set of features if necessary
-            if(features.size() == 0) {
-                // grab the current zone
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            // return the first feature in the current buffer
+            return features.remove(0);
+        }
+
+        /**
+         * Computes the statistics of the next batch of zones in a single pass over the raster
+         */
+        private void processBatch() {
+            final List<SimpleFeature> batch = new ArrayList<SimpleFeature>();
+            final List<Geometry> geometries = new ArrayList<Geometry>();
+            while (zones.hasNext() && batch.size() < ZONE_BATCH_SIZE) {
                 SimpleFeature zone = zones.next();
-    
                 try {
-                    // grab the geometry and eventually reproject it to the
-                    Geometry zoneGeom = (Geometry) zone.getDefaultGeometry();
-                    CoordinateReferenceSystem dataCrs = dataCoverage.getCoordinateReferenceSystem();
-                    CoordinateReferenceSystem zonesCrs = builder.getFeatureType()
-                            .getGeometryDescriptor().getCoordinateReferenceSystem();
-                    if (!CRS.equalsIgnoreMetadata(zonesCrs, dataCrs)) {
-                        zoneGeom = JTS.transform(zoneGeom, CRS.findMathTransform(zonesCrs, dataCrs,
-                                true));
+                    geometries.add(toRasterSpace(getZoneGeometry(zone)));
+                } catch (Exception e) {
+                    throw new ProcessException("Failed to compute statistics on feature " + zone, e);
+                }
+                batch.add(zone);
+            }
+
+            final List<SortedMap<Integer, TiledZonalStatistics.Statistics>> results = tiledStatistics
+                    .compute(geometries);
+            for (int i = 0; i < batch.size(); i++) {
+                final SimpleFeature zone = batch.get(i);
+                final SortedMap<Integer, TiledZonalStatistics.Statistics> stats = results.get(i);
+                if (geometries.get(i) == null) {
+                    builder.addAll(zone.getAttributes());
+                } else if (classificationRaster != null) {
+                    for (Map.Entry<Integer, TiledZonalStatistics.Statistics> entry : stats
+                            .entrySet()) {
+                        builder.addAll(zone.getAttributes());
+                        builder.add(entry.getKey());
+                        addStatsToFeature(entry.getValue());
+                        features.add(builder.buildFeature(zone.getID()));
                     }
+                    continue;
+                } else {
+                    builder.addAll(zone.getAttributes());
+                    addStatsToFeature(stats.isEmpty() ? new TiledZonalStatistics.Statistics()
+                            : stats.get(stats.firstKey()));
+                }
+                features.add(builder.buildFeature(zone.getID()));
+            }
+        }
+
+        /**
+         * Returns the zone geometry in the coverage CRS
+         */
+        private Geometry getZoneGeometry(SimpleFeature zone) throws Exception {
+            // grab the geometry and eventually reproject it to the
+            Geometry zoneGeom = (Geometry) zone.getDefaultGeometry();
+            CoordinateReferenceSystem dataCrs = dataCoverage.getCoordinateReferenceSystem();
+            CoordinateReferenceSystem zonesCrs = builder.getFeatureType()
+                    .getGeometryDescriptor().getCoordinateReferenceSystem();
+            if (!CRS.equalsIgnoreMetadata(zonesCrs, dataCrs)) {
+                zoneGeom = JTS.transform(zoneGeom, CRS.findMathTransform(zonesCrs, dataCrs,
+                        true));
+            }
+            return zoneGeom;
+        }
+
+        /**
+         * Clips the geometry to the coverage and transforms it to raster space, returns null if
+         * it does not intersect the coverage
+         */
+        private Geometry toRasterSpace(Geometry geometry) throws TransformException {
+            if (geometry == null) {
+                return null;
+            }
+            ReferencedEnvelope coverageEnvelope = new ReferencedEnvelope(dataCoverage
+                    .getEnvelope2D());
+            Envelope geometryEnvelope = geometry.getEnvelopeInternal();
+            if (!coverageEnvelope.intersects(geometryEnvelope)) {
+                return null;
+            } else if (!coverageEnvelope.contains(geometryEnvelope)) {
+                geometry = JTS.toGeometry((Envelope) coverageEnvelope).intersection(geometry);
+            }
+
+            // simplify the geometry so that it's as precise as the coverage
+            return DouglasPeuckerSimplifier.simplify(JTS.transform(geometry, w2gTransform), 1);
+        }
+
+        /**
+         * Computes the statistics of a single zone, cropping the coverage around it
+         */
+        private void processZone(SimpleFeature zone) {
+            try {
+                Geometry zoneGeom = getZoneGeometry(zone);
     
-                    // gather the statistics
-                    ZonalStats stats = processStatistics(zoneGeom);
+                // gather the statistics
+                ZonalStats stats = processStatistics(zoneGeom);
     
-                    // build the resulting feature
-                    if (stats != null) {
-                        if(classificationRaster != null) {
-                            // if zonal stats we're going to build
-                            for (Integer classZoneId : stats.getZones()) {
-                                builder.addAll(zone.getAttributes());
-                                builder.add(classZoneId);
-                                addStatsToFeature(stats.zone(classZoneId));
-                                features.add(builder.buildFeature(zone.getID()));
-                            }
-                        } else {
+                // build the resulting feature
+                if (stats != null) {
+                    if(classificationRaster != null) {
+                        // if zonal stats we're going to build
+                        for (Integer classZoneId : stats.getZones()) {
                             builder.addAll(zone.getAttributes());
-                            addStatsToFeature(stats);
+                            builder.add(classZoneId);
+                            addStatsToFeature(stats.zone(classZoneId));
                             features.add(builder.buildFeature(zone.getID()));
                         }
                     } else {
                         builder.addAll(zone.getAttributes());
+                        addStatsToFeature(stats);
                         features.add(builder.buildFeature(zone.getID()));
                     }
-                } catch (Exception e) {
-                    throw new ProcessException("Failed to compute statistics on feature " + zone, e);
+                } else {
+                    builder.addAll(zone.getAttributes());
+                    features.add(builder.buildFeature(zone.getID()));
                 }
-            } 
-            // return the first feature in the current buffer
-            SimpleFeature f = features.remove(0);
-            return f;
+            } catch (Exception e) {
+                throw new ProcessException("Failed to compute statistics on feature " + zone, e);
+            }
         }
 
         /**
@@ -269,6 +387,18 @@ public class RasterZonalStatistics implements RasterProcess {
             builder.add(stats.statistic(Statistic.SDEV).results().get(0).getValue());
         }
 
+        /**
+         * Add the statistics accumulated in a single pass to the feature builder
+         */
+        void addStatsToFeature(TiledZonalStatistics.Statistics stats) {
+            builder.add(stats.count);
+            builder.add(stats.count > 0 ? stats.min : Double.NaN);
+            builder.add(stats.count > 0 ? stats.max : Double.NaN);
+            builder.add(stats.sum);
+            builder.add(stats.getMean());
+            builder.add(stats.getStandardDeviation());
+        }
+
         private ZonalStats processStatistics(Geometry geometry) throws TransformException {
             // double checked with the tasmania simple test data, this transformation
             // actually lines up the polygons where they are supposed to be in raster space
@@ -301,26 +431,7 @@ public class RasterZonalStatistics implements RasterProcess {
                 }
 
                 // check if the novalue is != from NaN
-                GridSampleDimension sampleDimension = dataCoverage.getSampleDimension(0);
-                List<Category> categories = sampleDimension.getCategories();
-                List<Range<Double>> novalueRangeList = null;
-                if (categories != null) {
-                    for (Category category : categories) {
-                        String catName = category.getName().toString();
-                        if (catName.equalsIgnoreCase("no data")) {
-                            NumberRange range = category.getRange();
-                            double min = range.getMinimum();
-                            double max = category.getRange().getMaximum();
-                            if (!Double.isNaN(min) && !Double.isNaN(max)) {
-                                // we have to filter those out
-                                Range<Double> novalueRange = new Range<Double>(min, true, max, true);
-                                novalueRangeList = new ArrayList<Range<Double>>();
-                                novalueRangeList.add(novalueRange);
-                            }
-                            break;
-                        }
-                    }
-                }
+                List<Range<Double>> novalueRangeList = getNoDataRanges(dataCoverage);
 
                 /*
                  * crop on region of interest
@@ -378,4 +489,31 @@ public class RasterZonalStatistics implements RasterProcess {
 
         }
     }
+
+    /**
+     * Returns the no data range of the coverage if it's not NaN, null otherwise
+     */
+    static List<Range<Double>> getNoDataRanges(GridCoverage2D coverage) {
+        GridSampleDimension sampleDimension = coverage.getSampleDimension(0);
+        List<Category> categories = sampleDimension.getCategories();
+        List<Range<Double>> novalueRangeList = null;
+        if (categories != null) {
+            for (Category category : categories) {
+                String catName = category.getName().toString();
+                if (catName.equalsIgnoreCase("no data")) {
+                    NumberRange range = category.getRange();
+                    double min = range.getMinimum();
+                    double max = category.getRange().getMaximum();
+                    if (!Double.isNaN(min) && !Double.isNaN(max)) {
+                        // we have to filter those out
+                        Range<Double> novalueRange = new Range<Double>(min, true, max, true);
+                        novalueRangeList = new ArrayList<Range<Double>>();
+                        novalueRangeList.add(novalueRange);
+                    }
+                    break;
+                }
+            }
+        }
+        return novalueRangeList;
+    }
 }
@@ -0,0 +1,374 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.raster;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.media.jai.PlanarImage;
+import javax.media.jai.ROI;
+import javax.media.jai.TiledImage;
+
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.collection.BaseSimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.process.ProcessException;
+import org.geotools.resources.image.DaemonExecutors;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateList;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.util.AffineTransformation;
+
+/**
+ * A feature collection vectorizing a large raster tile by tile, in parallel, and streaming out
+ * the features without ever holding the full result.
+ * <p>
+ * The raster is split in tiles that are extracted independently. The geometries not touching
+ * the seams between tiles are returned as soon as their tile is done, the other ones are kept
+ * until all the tiles around them are done and are then stitched together by the subclass. The
+ * tiles are processed one row at a time, while the following row is being extracted, so only
+ * the geometries crossing the seam with the next row are kept from a row to the other.
+ * <p>
+ * Each call to {@link #features()} runs the extraction again, as well as {@link #size()}.
+ *
+ * @source $URL$
+ */
+abstract class TiledVectorCollection<G extends Geometry> extends BaseSimpleFeatureCollection {
+
+    /**
+     * The size of the tiles the raster is split into, rasters not larger than a tile are
+     * vectorized in a single pass by the JAI operations
+     */
+    public static final String TILE_SIZE_KEY = "org.geotools.process.raster.vectorTileSize";
+
+    static int TILE_SIZE = Integer.getInteger(TILE_SIZE_KEY, 1024);
+
+    /** the raster being vectorized */
+    final RenderedImage image;
+
+    final Rectangle bounds;
+
+    final int tileSize;
+
+    final int tilesX;
+
+    final int tilesY;
+
+    /** the optional region of interest, in raster space */
+    final ROI roi;
+
+    final AffineTransformation gridToWorld;
+
+    /**
+     * @param schema the feature type, with a "the_geom" geometry and a "value" attribute
+     * @param image the raster to vectorize
+     * @param tileSize the size of the tiles
+     * @param roi an optional region of interest, in raster space
+     * @param gridToWorld the transformation from raster space to world coordinates
+     */
+    TiledVectorCollection(SimpleFeatureType schema, RenderedImage image, int tileSize, ROI roi,
+            AffineTransform gridToWorld) {
+        super(schema);
+        this.image = image;
+        this.bounds = new Rectangle(image.getMinX(), image.getMinY(), image.getWidth(),
+                image.getHeight());
+        this.tileSize = tileSize;
+        this.tilesX = (bounds.width + tileSize - 1) / tileSize;
+        this.tilesY = (bounds.height + tileSize - 1) / tileSize;
+        this.roi = roi;
+        this.gridToWorld = new AffineTransformation(gridToWorld.getScaleX(),
+                gridToWorld.getShearX(), gridToWorld.getTranslateX(), gridToWorld.getShearY(),
+                gridToWorld.getScaleY(), gridToWorld.getTranslateY());
+    }
+
+    /**
+     * Returns true if the raster is larger than a single tile
+     */
+    static boolean isTiled(RenderedImage image, int tileSize) {
+        return image.getWidth() > tileSize || image.getHeight() > tileSize;
+    }
+
+    /**
+     * Returns the pool shared by all the tiled extractions, with as many daemon threads as
+     * processors
+     */
+    static ExecutorService getExecutor() {
+        return DaemonExecutors.getExecutor("TiledVectorizer");
+    }
+
+    /**
+     * Returns how many pixels a tile shares with the next one, 1 when the geometries are built
+     * on the pixel centers and the adjacent tiles have to see the same samples along the seam
+     */
+    abstract int getOverlap();
+
+    /**
+     * Extracts the geometries of the provided tile, in the tile raster space, with their value
+     * as user data
+     *
+     * @param tile the tile, with its origin in 0,0
+     * @param roi the region of interest translated in the tile space, or null
+     */
+    abstract List<G> extract(RenderedImage tile, ROI roi) throws Exception;
+
+    /**
+     * Stitches together the geometries crossing the seams, returning the resulting geometries
+     * with their value as user data
+     */
+    abstract List<G> stitch(List<G> open);
+
+    /**
+     * Returns true if the envelope touches the seam between two tiles, vertically or
+     * horizontally
+     */
+    boolean touchesSeam(Envelope envelope) {
+        return touchesVerticalSeam(envelope) || touchesHorizontalSeam(envelope, 1, tilesY - 1);
+    }
+
+    boolean touchesVerticalSeam(Envelope envelope) {
+        for (int i = 1; i < tilesX; i++) {
+            final int x = bounds.x + i * tileSize;
+            if (envelope.getMinX() <= x && envelope.getMaxX() >= x) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean touchesHorizontalSeam(Envelope envelope, int first, int last) {
+        for (int i = Math.max(1, first); i <= last; i++) {
+            final int y = bounds.y + i * tileSize;
+            if (envelope.getMinY() <= y && envelope.getMaxY() >= y) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the geometries of a tile, in raster space
+     */
+    List<G> computeTile(int tileX, int tileY) throws Exception {
+        final int overlap = getOverlap();
+        final Rectangle tileBounds = new Rectangle(bounds.x + tileX * tileSize, bounds.y + tileY
+                * tileSize, tileSize + overlap, tileSize + overlap).intersection(bounds);
+        ROI tileRoi = null;
+        if (roi != null) {
+            if (!roi.getBounds().intersects(tileBounds)) {
+                return new ArrayList<G>();
+            }
+            tileRoi = roi.transform(AffineTransform.getTranslateInstance(-tileBounds.x,
+                    -tileBounds.y));
+        }
+
+        // copy the tile data, the extraction works on images starting at 0,0
+        final Raster data = PlanarImage.wrapRenderedImage(image).getData(tileBounds);
+        final TiledImage tile = new TiledImage(0, 0, tileBounds.width, tileBounds.height, 0, 0,
+                data.getSampleModel().createCompatibleSampleModel(tileBounds.width,
+                        tileBounds.height), image.getColorModel());
+        tile.setData(data.createTranslatedChild(0, 0));
+
+        final List<G> geometries = extract(tile, tileRoi);
+        final AffineTransformation translation = AffineTransformation.translationInstance(
+                tileBounds.x, tileBounds.y);
+        for (G geometry : geometries) {
+            final Object value = geometry.getUserData();
+            geometry.apply(translation);
+            geometry.geometryChanged();
+            geometry.setUserData(value);
+        }
+        return geometries;
+    }
+
+    @Override
+    public SimpleFeatureIterator features() {
+        return new TiledVectorIterator();
+    }
+
+    /**
+     * Removes the vertices lying on the segment between their neighbours, as left by the
+     * stitching along the seams
+     */
+    static Coordinate[] removeCollinear(Coordinate[] coordinates, boolean closed) {
+        if (coordinates.length < 3) {
+            return coordinates;
+        }
+        final CoordinateList result = new CoordinateList();
+        result.add(coordinates[0], false);
+        for (int i = 1; i < coordinates.length - 1; i++) {
+            final Coordinate previous = result.getCoordinate(result.size() - 1);
+            final Coordinate current = coordinates[i];
+            final Coordinate next = coordinates[i + 1];
+            final double cross = (current.x - previous.x) * (next.y - current.y)
+                    - (current.y - previous.y) * (next.x - current.x);
+            if (cross != 0) {
+                result.add(current, false);
+            }
+        }
+        result.add(coordinates[coordinates.length - 1], false);
+        if (closed && result.size() > 4) {
+            // the start point can be collinear too
+            final Coordinate previous = result.getCoordinate(result.size() - 2);
+            final Coordinate current = result.getCoordinate(0);
+            final Coordinate next = result.getCoordinate(1);
+            final double cross = (current.x - previous.x) * (next.y - current.y)
+                    - (current.y - previous.y) * (next.x - current.x);
+            if (cross == 0) {
+                result.remove(result.size() - 1);
+                result.remove(0);
+                result.closeRing();
+            }
+        }
+        return result.toCoordinateArray();
+    }
+
+    /**
+     * Iterates over the features, extracting the tiles one row at a time
+     */
+    final class TiledVectorIterator implements SimpleFeatureIterator {
+
+        final ExecutorService executor = getExecutor();
+
+        final SimpleFeatureBuilder builder = new SimpleFeatureBuilder(getSchema());
+
+        /** the geometries ready to be returned */
+        final LinkedList<G> ready = new LinkedList<G>();
+
+        /** the geometries crossing the seams, still to be stitched */
+        List<G> open = new ArrayList<G>();
+
+        /** the tiles being extracted, for the current row and the next one */
+        final LinkedList<List<Future<List<G>>>> rows = new LinkedList<List<Future<List<G>>>>();
+
+        int nextRow;
+
+        int index;
+
+        TiledVectorIterator() {
+            submitRow();
+            submitRow();
+        }
+
+        private void submitRow() {
+            if (nextRow >= tilesY) {
+                return;
+            }
+            final int tileY = nextRow++;
+            final List<Future<List<G>>> row = new ArrayList<Future<List<G>>>(tilesX);
+            for (int i = 0; i < tilesX; i++) {
+                final int tileX = i;
+                row.add(executor.submit(new Callable<List<G>>() {
+
+                    public List<G> call() throws Exception {
+                        return computeTile(tileX, tileY);
+                    }
+                }));
+            }
+            rows.add(row);
+        }
+
+        /**
+         * Collects the geometries of the next row of tiles, returns false if there are no more
+         * rows
+         */
+        private boolean processRow() {
+            if (rows.isEmpty()) {
+                return false;
+            }
+            final int tileY = nextRow - rows.size();
+            final List<Future<List<G>>> row = rows.removeFirst();
+            submitRow();
+            try {
+                for (Future<List<G>> future : row) {
+                    for (G geometry : future.get()) {
+                        if (touchesSeam(geometry.getEnvelopeInternal())) {
+                            open.add(geometry);
+                        } else {
+                            ready.add(geometry);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProcessException(e);
+            } catch (ExecutionException e) {
+                throw new ProcessException(e.getCause());
+            }
+
+            // whatever does not reach the next row is complete
+            final List<G> stitched = open.isEmpty() ? open : stitch(open);
+            open = new ArrayList<G>();
+            for (G geometry : stitched) {
+                if (touchesHorizontalSeam(geometry.getEnvelopeInternal(), tileY + 1,
+                        Math.min(tileY + 1, tilesY - 1))) {
+                    open.add(geometry);
+                } else {
+                    ready.add(geometry);
+                }
+            }
+            return true;
+        }
+
+        public boolean hasNext() {
+            while (ready.isEmpty()) {
+                if (!processRow()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public SimpleFeature next() throws NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final G geometry = ready.removeFirst();
+            final Object value = geometry.getUserData();
+            geometry.setUserData(null);
+            geometry.apply(gridToWorld);
+            geometry.geometryChanged();
+            builder.set("the_geom", geometry);
+            builder.set("value", value);
+            return builder.buildFeature(String.valueOf(index++));
+        }
+
+        public void close() {
+            for (List<Future<List<G>>> row : rows) {
+                for (Future<List<G>> future : row) {
+                    future.cancel(false);
+                }
+            }
+            rows.clear();
+            ready.clear();
+            open.clear();
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.raster;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.geotools.process.ProcessException;
+import org.geotools.resources.image.DaemonExecutors;
+import org.jaitools.numeric.Range;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Computes the statistics of a set of zones in a single pass over the raster. The raster is
+ * split in blocks, each block is read once and processed in parallel, rasterizing the zones
+ * overlapping it by scanlines and accumulating their statistics, which are then merged.
+ * <p>
+ * A pixel belongs to a zone if its center is inside the zone geometry, the zones can overlap.
+ *
+ * @source $URL$
+ */
+final class TiledZonalStatistics {
+
+    /**
+     * The system property controlling the size of the blocks the raster is processed by
+     */
+    public static final String BLOCK_SIZE_KEY = "org.geotools.process.raster.zonalStatsBlockSize";
+
+    static int BLOCK_SIZE = Integer.getInteger(BLOCK_SIZE_KEY, 512);
+
+    final RenderedImage image;
+
+    final int band;
+
+    final RenderedImage classification;
+
+    final List<Range<Double>> noData;
+
+    final Rectangle bounds;
+
+    /**
+     * @param image the raster to compute the statistics on
+     * @param band the band to compute the statistics on
+     * @param classification an optional raster, aligned with the data one, partitioning the
+     *        statistics of each zone by its integer values
+     * @param noData the ranges of values to be ignored, or null. NaN values are always ignored
+     */
+    TiledZonalStatistics(RenderedImage image, int band, RenderedImage classification,
+            List<Range<Double>> noData) {
+        this.image = image;
+        this.band = band;
+        this.classification = classification;
+        this.noData = noData;
+        this.bounds = new Rectangle(image.getMinX(), image.getMinY(), image.getWidth(),
+                image.getHeight());
+    }
+
+    static ExecutorService getExecutor() {
+        return DaemonExecutors.getExecutor("ZonalStatistics");
+    }
+
+    /**
+     * Computes the statistics of the zones
+     *
+     * @param zones the zone geometries in raster space, null elements are skipped
+     * @return the statistics of each zone, by class value. Without classification raster the
+     *         only key is 0. The maps of the zones not covering any pixel are empty
+     */
+    List<SortedMap<Integer, Statistics>> compute(List<Geometry> zones) {
+        final List<Zone> prepared = new ArrayList<Zone>();
+        for (int i = 0; i < zones.size(); i++) {
+            final Geometry geometry = zones.get(i);
+            if (geometry != null && !geometry.isEmpty()) {
+                final Zone zone = new Zone(i, geometry, bounds);
+                if (!zone.pixels.isEmpty()) {
+                    prepared.add(zone);
+                }
+            }
+        }
+
+        // process the blocks touched by at least one zone, aligned with the image tiles
+        final int blockWidth = Math.min(image.getTileWidth(), BLOCK_SIZE);
+        final int blockHeight = Math.min(image.getTileHeight(), BLOCK_SIZE);
+        final int originX = image.getTileGridXOffset();
+        final int originY = image.getTileGridYOffset();
+        final ExecutorService executor = getExecutor();
+        final List<Future<Map<Integer, SortedMap<Integer, Statistics>>>> futures = new ArrayList<Future<Map<Integer, SortedMap<Integer, Statistics>>>>();
+        final int minBlockX = floorDiv(bounds.x - originX, blockWidth);
+        final int maxBlockX = floorDiv(bounds.x + bounds.width - 1 - originX, blockWidth);
+        final int minBlockY = floorDiv(bounds.y - originY, blockHeight);
+        final int maxBlockY = floorDiv(bounds.y + bounds.height - 1 - originY, blockHeight);
+        for (int by = minBlockY; by <= maxBlockY; by++) {
+            for (int bx = minBlockX; bx <= maxBlockX; bx++) {
+                final Rectangle block = new Rectangle(originX + bx * blockWidth, originY + by
+                        * blockHeight, blockWidth, blockHeight).intersection(bounds);
+                final List<Zone> blockZones = new ArrayList<Zone>();
+                for (Zone zone : prepared) {
+                    if (zone.pixels.intersects(block)) {
+                        blockZones.add(zone);
+                    }
+                }
+                if (!blockZones.isEmpty()) {
+                    futures.add(executor
+                            .submit(new Callable<Map<Integer, SortedMap<Integer, Statistics>>>() {
+
+                                public Map<Integer, SortedMap<Integer, Statistics>> call() {
+                                    return computeBlock(block, blockZones);
+                                }
+                            }));
+                }
+            }
+        }
+
+        // merge the partial statistics
+        final List<SortedMap<Integer, Statistics>> result = new ArrayList<SortedMap<Integer, Statistics>>(
+                zones.size());
+        for (int i = 0; i < zones.size(); i++) {
+            result.add(new TreeMap<Integer, Statistics>());
+        }
+        try {
+            for (Future<Map<Integer, SortedMap<Integer, Statistics>>> future : futures) {
+                for (Map.Entry<Integer, SortedMap<Integer, Statistics>> entry : future.get()
+                        .entrySet()) {
+                    final SortedMap<Integer, Statistics> target = result.get(entry.getKey());
+                    for (Map.Entry<Integer, Statistics> classEntry : entry.getValue().entrySet()) {
+                        final Statistics stats = target.get(classEntry.getKey());
+                        if (stats == null) {
+                            target.put(classEntry.getKey(), classEntry.getValue());
+                        } else {
+                            stats.merge(classEntry.getValue());
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new ProcessException(e);
+        } catch (ExecutionException e) {
+            throw new ProcessException(e.getCause());
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the block once and accumulates the statistics of all the zones overlapping it
+     */
+    Map<Integer, SortedMap<Integer, Statistics>> computeBlock(Rectangle block, List<Zone> zones) {
+        final Raster data = image.getData(block);
+        final Raster classes = classification != null ? classification.getData(block) : null;
+        final Map<Integer, SortedMap<Integer, Statistics>> result = new HashMap<Integer, SortedMap<Integer, Statistics>>();
+        final double[] values = new double[block.width];
+        final int[] classValues = new int[block.width];
+        double[] crossings = new double[16];
+        for (Zone zone : zones) {
+            final Rectangle area = zone.pixels.intersection(block);
+            final SortedMap<Integer, Statistics> zoneStats = new TreeMap<Integer, Statistics>();
+            Statistics stats = null;
+            for (int y = area.y; y < area.y + area.height; y++) {
+                // find where the row of pixel centers crosses the zone boundaries
+                final double center = y + 0.5;
+                int n = 0;
+                for (int i = 0; i < zone.edges.length; i += 4) {
+                    final double y1 = zone.edges[i + 1];
+                    final double y2 = zone.edges[i + 3];
+                    if ((y1 <= center && center < y2) || (y2 <= center && center < y1)) {
+                        if (n == crossings.length) {
+                            crossings = Arrays.copyOf(crossings, n * 2);
+                        }
+                        final double x1 = zone.edges[i];
+                        final double x2 = zone.edges[i + 2];
+                        crossings[n++] = x1 + (center - y1) * (x2 - x1) / (y2 - y1);
+                    }
+                }
+                Arrays.sort(crossings, 0, n);
+
+                // the pixels whose center falls between two crossings are inside
+                for (int i = 0; i + 1 < n; i += 2) {
+                    final int minX = Math.max(area.x, (int) Math.ceil(crossings[i] - 0.5));
+                    final int maxX = Math.min(area.x + area.width,
+                            (int) Math.ceil(crossings[i + 1] - 0.5));
+                    if (minX >= maxX) {
+                        continue;
+                    }
+                    final int length = maxX - minX;
+                    data.getSamples(minX, y, length, 1, band, values);
+                    if (classes != null) {
+                        classes.getSamples(minX, y, length, 1, 0, classValues);
+                    }
+                    for (int j = 0; j < length; j++) {
+                        final double value = values[j];
+                        if (Double.isNaN(value) || isNoData(value)) {
+                            continue;
+                        }
+                        if (classes != null) {
+                            stats = zoneStats.get(classValues[j]);
+                            if (stats == null) {
+                                stats = new Statistics();
+                                zoneStats.put(classValues[j], stats);
+                            }
+                        } else if (stats == null) {
+                            stats = new Statistics();
+                            zoneStats.put(0, stats);
+                        }
+                        stats.add(value);
+                    }
+                }
+            }
+            if (!zoneStats.isEmpty()) {
+                result.put(zone.index, zoneStats);
+            }
+        }
+        return result;
+    }
+
+    static int floorDiv(int a, int b) {
+        final int q = a / b;
+        return (a % b != 0 && (a < 0) != (b < 0)) ? q - 1 : q;
+    }
+
+    boolean isNoData(double value) {
+        if (noData != null) {
+            for (Range<Double> range : noData) {
+                if (range.contains(value)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A zone prepared for the scanline rasterization
+     */
+    static final class Zone {
+        final int index;
+
+        /** the pixels whose center might be inside the zone */
+        final Rectangle pixels;
+
+        /** the boundary segments, as x1,y1,x2,y2 quadruples */
+        final double[] edges;
+
+        Zone(int index, Geometry geometry, Rectangle bounds) {
+            this.index = index;
+            final Envelope envelope = geometry.getEnvelopeInternal();
+            final int minX = (int) Math.ceil(envelope.getMinX() - 0.5);
+            final int minY = (int) Math.ceil(envelope.getMinY() - 0.5);
+            final int maxX = (int) Math.ceil(envelope.getMaxX() - 0.5);
+            final int maxY = (int) Math.ceil(envelope.getMaxY() - 0.5);
+            this.pixels = new Rectangle(minX, minY, maxX - minX, maxY - minY)
+                    .intersection(bounds);
+
+            final List<Coordinate[]> rings = new ArrayList<Coordinate[]>();
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                final Geometry part = geometry.getGeometryN(i);
+                if (part instanceof Polygon) {
+                    final Polygon polygon = (Polygon) part;
+                    addRing(rings, polygon.getExteriorRing());
+                    for (int j = 0; j < polygon.getNumInteriorRing(); j++) {
+                        addRing(rings, polygon.getInteriorRingN(j));
+                    }
+                }
+            }
+            int count = 0;
+            for (Coordinate[] ring : rings) {
+                count += ring.length - 1;
+            }
+            this.edges = new double[count * 4];
+            int i = 0;
+            for (Coordinate[] ring : rings) {
+                for (int j = 0; j < ring.length - 1; j++) {
+                    edges[i++] = ring[j].x;
+                    edges[i++] = ring[j].y;
+                    edges[i++] = ring[j + 1].x;
+                    edges[i++] = ring[j + 1].y;
+                }
+            }
+        }
+
+        private static void addRing(List<Coordinate[]> rings, LineString ring) {
+            final Coordinate[] coordinates = ring.getCoordinates();
+            if (coordinates.length > 1) {
+                rings.add(coordinates);
+            }
+        }
+    }
+
+    /**
+     * Statistics of a set of values that can be accumulated separately and merged
+     */
+    static final class Statistics {
+        long count;
+
+        double sum;
+
+        double min = Double.POSITIVE_INFINITY;
+
+        double max = Double.NEGATIVE_INFINITY;
+
+        double mean;
+
+        /** sum of the squared differences from the mean */
+        double m2;
+
+        void add(double value) {
+            count++;
+            sum += value;
+            if (value < min) {
+                min = value;
+            }
+            if (value > max) {
+                max = value;
+            }
+            final double delta = value - mean;
+            mean += delta / count;
+            m2 += delta * (value - mean);
+        }
+
+        void merge(Statistics other) {
+            if (other.count == 0) {
+                return;
+            }
+            final long total = count + other.count;
+            final double delta = other.mean - mean;
+            m2 += other.m2 + delta * delta * count * other.count / total;
+            mean += delta * other.count / total;
+            count = total;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+
+        double getMean() {
+            return count > 0 ? sum / count : Double.NaN;
+        }
+
+        /**
+         * The sample standard deviation
+         */
+        double getStandardDeviation() {
+            return count > 1 ? Math.sqrt(m2 / (count - 1)) : Double.NaN;
+        }
+    }
+}
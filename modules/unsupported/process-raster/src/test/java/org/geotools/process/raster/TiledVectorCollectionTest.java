@@ -0,0 +1,184 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.raster;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geotools.coverage.CoverageFactoryFinder;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.junit.After;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.operation.union.CascadedPolygonUnion;
+
+/**
+ * Checks the tiled extraction of polygons and contours matches the single pass one
+ *
+ * @source $URL$
+ */
+public class TiledVectorCollectionTest {
+
+    private static final double TOL = 1.0e-6;
+
+    @After
+    public void resetTileSize() {
+        TiledVectorCollection.TILE_SIZE = Integer.getInteger(TiledVectorCollection.TILE_SIZE_KEY,
+                1024);
+    }
+
+    GridCoverage2D createCoverage(boolean classes) {
+        final float[][] data = new float[70][100];
+        for (int y = 0; y < data.length; y++) {
+            for (int x = 0; x < data[y].length; x++) {
+                final double value = 10 * Math.sin(x / 9.3) * Math.cos(y / 7.1) + x * 0.0123;
+                data[y][x] = classes ? (float) Math.floor(value / 4) : (float) value;
+            }
+        }
+        return CoverageFactoryFinder.getGridCoverageFactory(null).create("coverage", data,
+                new ReferencedEnvelope(0, 100, 0, 70, null));
+    }
+
+    @Test
+    public void testPolygons() throws Exception {
+        final GridCoverage2D coverage = createCoverage(true);
+        final PolygonExtractionProcess process = new PolygonExtractionProcess();
+        final SimpleFeatureCollection single = process.execute(coverage, 0, Boolean.TRUE, null,
+                null, null, null);
+        assertFalse(single instanceof TiledVectorCollection);
+
+        TiledVectorCollection.TILE_SIZE = 16;
+        final SimpleFeatureCollection tiled = process.execute(coverage, 0, Boolean.TRUE, null,
+                null, null, null);
+        assertTrue(tiled instanceof TiledVectorCollection);
+
+        final Map<Object, List<Geometry>> expected = collect(single);
+        final Map<Object, List<Geometry>> actual = collect(tiled);
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Object value : expected.keySet()) {
+            double expectedArea = 0;
+            for (Geometry g : expected.get(value)) {
+                expectedArea += g.getArea();
+            }
+            double actualArea = 0;
+            for (Geometry g : actual.get(value)) {
+                assertTrue(g.isValid());
+                actualArea += g.getArea();
+            }
+            assertEquals(expectedArea, actualArea, TOL);
+
+            // same regions, no cell edges left along the seams
+            final Geometry expectedUnion = CascadedPolygonUnion.union(expected.get(value));
+            final Geometry actualUnion = CascadedPolygonUnion.union(actual.get(value));
+            assertEquals(0, expectedUnion.symDifference(actualUnion).getArea(), TOL);
+            assertEquals(expected.get(value).size(), actual.get(value).size());
+        }
+
+        // insideEdges false is not tiled
+        assertFalse(process.execute(coverage, 0, Boolean.FALSE, null, null, null, null) instanceof TiledVectorCollection);
+    }
+
+    @Test
+    public void testContours() throws Exception {
+        final GridCoverage2D coverage = createCoverage(false);
+        final SimpleFeatureCollection single = ContourProcess.process(coverage, 0, null, 2.5,
+                null, null, null, null);
+        assertFalse(single instanceof TiledVectorCollection);
+
+        TiledVectorCollection.TILE_SIZE = 16;
+        final SimpleFeatureCollection tiled = ContourProcess.process(coverage, 0, null, 2.5,
+                null, null, null, null);
+        assertTrue(tiled instanceof TiledVectorCollection);
+
+        final Map<Object, List<Geometry>> expected = collect(single);
+        final Map<Object, List<Geometry>> actual = collect(tiled);
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Object value : expected.keySet()) {
+            double expectedLength = 0;
+            for (Geometry g : expected.get(value)) {
+                expectedLength += g.getLength();
+            }
+            double actualLength = 0;
+            for (Geometry g : actual.get(value)) {
+                actualLength += g.getLength();
+            }
+            assertEquals(expectedLength, actualLength, TOL);
+            assertEquals(expected.get(value).size(), actual.get(value).size());
+        }
+
+        // smoothing is not tiled
+        assertFalse(ContourProcess.process(coverage, 0, null, 2.5, null, Boolean.TRUE, null,
+                null) instanceof TiledVectorCollection);
+    }
+
+    @Test
+    public void testRegionOfInterest() throws Exception {
+        final GridCoverage2D coverage = createCoverage(true);
+        final Geometry roi = new GeometryFactory().toGeometry(new ReferencedEnvelope(10, 60, 5,
+                50, null));
+        final PolygonExtractionProcess process = new PolygonExtractionProcess();
+        final SimpleFeatureCollection single = process.execute(coverage, 0, Boolean.TRUE, roi,
+                null, null, null);
+        TiledVectorCollection.TILE_SIZE = 16;
+        final SimpleFeatureCollection tiled = process.execute(coverage, 0, Boolean.TRUE, roi,
+                null, null, null);
+
+        double expectedArea = 0;
+        for (List<Geometry> geometries : collect(single).values()) {
+            for (Geometry g : geometries) {
+                expectedArea += g.getArea();
+            }
+        }
+        double actualArea = 0;
+        for (List<Geometry> geometries : collect(tiled).values()) {
+            for (Geometry g : geometries) {
+                actualArea += g.getArea();
+            }
+        }
+        assertEquals(expectedArea, actualArea, TOL);
+    }
+
+    Map<Object, List<Geometry>> collect(SimpleFeatureCollection fc) {
+        final Map<Object, List<Geometry>> result = new HashMap<Object, List<Geometry>>();
+        final SimpleFeatureIterator it = fc.features();
+        try {
+            while (it.hasNext()) {
+                final SimpleFeature feature = it.next();
+                final Object value = feature.getAttribute("value");
+                List<Geometry> geometries = result.get(value);
+                if (geometries == null) {
+                    geometries = new ArrayList<Geometry>();
+                    result.put(value, geometries);
+                }
+                geometries.add((Geometry) feature.getDefaultGeometry());
+            }
+        } finally {
+            it.close();
+        }
+        return result;
+    }
+}
@@ -23,6 +23,7 @@ import java.awt.image.BufferedImage;
 import java.awt.image.WritableRaster;
 import java.io.File;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.imageio.ImageIO;
@@ -36,13 +37,18 @@ import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridEnvelope2D;
 import org.geotools.coverage.grid.GridGeometry2D;
 import org.geotools.data.DataStore;
+import org.geotools.data.DataUtilities;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.FileDataStoreFinder;
 import org.geotools.data.WorldFileReader;
+import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.property.PropertyDataStore;
 import org.geotools.data.shapefile.ShapefileDataStore;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.geotools.test.TestData;
 import org.junit.After;
@@ -52,6 +58,9 @@ import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.referencing.operation.MathTransform;
 
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+
 /**
  * @author DamianoG
  * 
@@ -96,6 +105,10 @@ public class ZonalStatsProcessTest extends Assert {
     @After
     public void tearDown() {
         ds.dispose();
+        RasterZonalStatistics.TILED_ZONAL_STATS_ENABLED = Boolean
+                .getBoolean(RasterZonalStatistics.TILED_ZONAL_STATS_KEY);
+        TiledZonalStatistics.BLOCK_SIZE = Integer.getInteger(TiledZonalStatistics.BLOCK_SIZE_KEY,
+                512);
     }
 
     @Test
@@ -203,4 +216,62 @@ public class ZonalStatsProcessTest extends Assert {
 
         }
     }
+
+    @Test
+    public void tiledZonalStats() throws Exception {
+        // a raster with a gradient and a few nodata values
+        final float[][] data = new float[150][200];
+        for (int y = 0; y < data.length; y++) {
+            for (int x = 0; x < data[y].length; x++) {
+                data[y][x] = (x * 7 + y * 13) % 97 == 0 ? Float.NaN : x * 0.5f + y;
+            }
+        }
+        final GridCoverage2D coverage = CoverageFactoryFinder.getGridCoverageFactory(null)
+                .create("coverage", data,
+                        new ReferencedEnvelope(0, 20, 0, 15, DefaultGeographicCRS.WGS84));
+
+        // overlapping zones, one with a hole, one partially outside and one fully outside
+        final SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("zones");
+        tb.add("the_geom", Geometry.class, DefaultGeographicCRS.WGS84);
+        tb.add("name", String.class);
+        final SimpleFeatureType zoneType = tb.buildFeatureType();
+        final ListFeatureCollection zones = new ListFeatureCollection(zoneType);
+        final WKTReader reader = new WKTReader();
+        final String[] wkts = {
+                "POLYGON((1.03 1.07, 12.31 2.17, 6.73 11.39, 1.03 1.07))",
+                "POLYGON((4.13 3.11, 16.27 3.23, 16.19 13.37, 4.21 13.29, 4.13 3.11), "
+                        + "(8.11 6.17, 12.23 6.19, 12.29 9.41, 8.17 9.37, 8.11 6.17))",
+                "POLYGON((17.07 10.03, 23.11 10.07, 23.13 17.09, 17.03 17.11, 17.07 10.03))",
+                "POLYGON((30.01 30.03, 31.07 30.09, 31.03 31.01, 30.01 30.03))" };
+        for (int i = 0; i < wkts.length; i++) {
+            zones.add(SimpleFeatureBuilder.build(zoneType,
+                    new Object[] { reader.read(wkts[i]), "z" + i }, "zones." + i));
+        }
+
+        RasterZonalStatistics.TILED_ZONAL_STATS_ENABLED = false;
+        final List<SimpleFeature> expected = DataUtilities.list(process.execute(coverage, null,
+                zones, null));
+        RasterZonalStatistics.TILED_ZONAL_STATS_ENABLED = true;
+        TiledZonalStatistics.BLOCK_SIZE = 32;
+        final List<SimpleFeature> actual = DataUtilities.list(process.execute(coverage, null,
+                zones, null));
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            final SimpleFeature e = expected.get(i);
+            final SimpleFeature a = actual.get(i);
+            assertEquals(e.getID(), a.getID());
+            assertEquals(e.getAttribute("count"), a.getAttribute("count"));
+            if (e.getAttribute("count") == null) {
+                continue;
+            }
+            assertEquals((Double) e.getAttribute("min"), (Double) a.getAttribute("min"), 0d);
+            assertEquals((Double) e.getAttribute("max"), (Double) a.getAttribute("max"), 0d);
+            assertEquals((Double) e.getAttribute("sum"), (Double) a.getAttribute("sum"), 1e-6);
+            assertEquals((Double) e.getAttribute("avg"), (Double) a.getAttribute("avg"), 1e-6);
+            assertEquals((Double) e.getAttribute("stddev"), (Double) a.getAttribute("stddev"),
+                    1e-6);
+        }
+    }
 }